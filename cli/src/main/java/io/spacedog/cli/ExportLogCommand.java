@@ -1,26 +1,53 @@
 package io.spacedog.cli;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 import org.joda.time.DateTime;
+import org.joda.time.Hours;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
 
 import io.spacedog.client.SpaceDog;
+import io.spacedog.client.http.SpaceConcurrency;
 import io.spacedog.client.http.SpaceEnv;
+import io.spacedog.utils.Exceptions;
 import io.spacedog.utils.Json;
 import io.spacedog.utils.Utils;
 
+/**
+ * Exports a day of logs to a gzipped NDJSON file. Logs are streamed from the
+ * server hour by hour, slices are exported in parallel and each completed
+ * slice is kept in a parts folder until the whole day is exported. An
+ * interrupted export resumes where it stopped if run again. Slices are
+ * absolute hours, days with a daylight saving change have 23 or 25 of them.
+ * Slices interrupted while exported are discarded and exported again. Only
+ * hours already over when exported are kept as done, hours not over yet are
+ * exported to open parts always exported again by the next run.
+ */
 @Parameters(commandNames = { "exportlog" }, //
 		commandDescription = "export log to file")
 public class ExportLogCommand extends AbstractCommand<ExportLogCommand> {
 
+	private static final String PART_SUFFIX = ".ndjson.gz";
+	private static final String TEMP_SUFFIX = ".tmp";
+	private static final String OPEN_SUFFIX = ".open";
+
 	@Parameter(names = { "-d", "--day" }, //
 			required = false, //
 			description = "the day to export (ex. 2017-03-23)")
@@ -31,6 +58,11 @@ public class ExportLogCommand extends AbstractCommand<ExportLogCommand> {
 			description = "the file to export to")
 	private String file;
 
+	@Parameter(names = { "-p", "--parallelism" }, //
+			required = false, //
+			description = "the number of hours exported in parallel")
+	private int parallelism = 4;
+
 	public ExportLogCommand file(String file) {
 		this.file = file;
 		return this;
@@ -41,6 +73,11 @@ public class ExportLogCommand extends AbstractCommand<ExportLogCommand> {
 		return this;
 	}
 
+	public ExportLogCommand parallelism(int parallelism) {
+		this.parallelism = parallelism;
+		return this;
+	}
+
 	public void export() throws IOException {
 
 		SpaceEnv.env().debug(verbose());
@@ -49,33 +86,134 @@ public class ExportLogCommand extends AbstractCommand<ExportLogCommand> {
 		DateTime date = Strings.isNullOrEmpty(day) ? DateTime.now() //
 				: DateTime.parse(day);
 
-		DateTime gte = date.withTimeAtStartOfDay();
-		DateTime lt = date.plusDays(1);
+		DateTime start = date.withTimeAtStartOfDay();
+		DateTime end = start.plusDays(1).withTimeAtStartOfDay();
+		int count = Hours.hoursBetween(start, end).getHours();
+
+		// logs of the current hour are still received
+		DateTime completed = DateTime.now().hourOfDay().roundFloorCopy();
 
 		if (Strings.isNullOrEmpty(file))
-			file = "log-" + gte + ".json";
+			file = "log-" + start.toLocalDate() + PART_SUFFIX;
+
+		Path target = Paths.get(file).toAbsolutePath();
+		Path parts = target.resolveSibling(target.getFileName() + ".parts");
+		Files.createDirectories(parts);
+		deleteInterruptedSlices(parts);
+		deleteOpenSlices(parts);
+
+		List<Integer> slices = IntStream.range(0, count).boxed()//
+				.filter(slice -> !Files.exists(part(parts, slice)))//
+				.collect(Collectors.toList());
+
+		if (slices.size() < count)
+			Utils.info("Resuming export, [%s] hour(s) already exported", //
+					count - slices.size());
+
+		ExecutorService executor = Executors.newFixedThreadPool(//
+				Math.max(1, parallelism));
+
+		try {
+			SpaceConcurrency.all(slices, parallelism, //
+					slice -> CompletableFuture.runAsync(//
+							() -> exportSlice(dog, start, end, completed, slice, parts), executor));
+		} finally {
+			executor.shutdown();
+		}
+
+		// gzip members are concatenated into one valid gzip file
+		Path temp = target.resolveSibling(target.getFileName() + TEMP_SUFFIX);
+		try (OutputStream output = Files.newOutputStream(temp)) {
+			for (int slice = 0; slice < count; slice++)
+				Files.copy(exported(parts, slice), output);
+		}
+		Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+
+		for (int slice = 0; slice < count; slice++)
+			Files.delete(exported(parts, slice));
+		Files.delete(parts);
+
+		Utils.info();
+		if (end.isAfter(completed))
+			Utils.info("Done. Logs received after [%s] are not exported yet.", completed);
+		else
+			Utils.info("Done.");
+	}
+
+	private void exportSlice(SpaceDog dog, DateTime start, DateTime end, //
+			DateTime completed, int slice, Path parts) {
 
-		Path target = Paths.get(file);
+		// hours are durations, they are never skipped
+		// nor repeated by daylight saving changes
+		DateTime gte = start.plusHours(slice);
+		DateTime lt = gte.plusHours(1);
+		if (lt.isAfter(end))
+			lt = end;
 
-		ObjectNode query = Json.builder().object()//
-				.add("size", 5000)//
-				.add("sort", "receivedAt")//
-				.object("query")//
+		String query = Json.builder().object()//
 				.object("range")//
 				.object("receivedAt")//
 				.add("gte", gte.toString())//
 				.add("lt", lt.toString())//
-				.build();
+				.build().toString();
+
+		Path part = lt.isAfter(completed) ? openPart(parts, slice) : part(parts, slice);
+		Path temp = part.resolveSibling(part.getFileName() + TEMP_SUFFIX);
+
+		try (GZIPOutputStream output = new GZIPOutputStream(Files.newOutputStream(temp, //
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, //
+				StandardOpenOption.WRITE))) {
+			dog.logs().export(query, true).transferTo(output);
+		} catch (IOException e) {
+			throw Exceptions.runtime(e, "failed to export logs from [%s] to [%s]", gte, lt);
+		}
+
+		try {
+			Files.move(temp, part, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			throw Exceptions.runtime(e, "failed to move file [%s]", temp);
+		}
+
+		Utils.info("Exported logs from [%s] to [%s]", gte, lt);
+	}
 
-		ObjectNode payload = dog.post("/2/logs/_search").refresh()//
-				.bodyJson(query).go(200).asJsonObject();
+	/**
+	 * Slices are only moved to their part file once completely exported.
+	 * Temporary files left by an interrupted export are partial slices.
+	 */
+	private static void deleteInterruptedSlices(Path parts) throws IOException {
+		try (Stream<Path> files = Files.list(parts)) {
+			for (Path temp : files.filter(file -> file.toString().endsWith(TEMP_SUFFIX))//
+					.collect(Collectors.toList())) {
+				Utils.info("Discarding partial slice [%s]", temp.getFileName());
+				Files.delete(temp);
+			}
+		}
+	}
 
-		if (payload.get("total").asLong() > 5000)
-			System.err.println("WARNING: log export limited to the first 5000 logs");
+	/**
+	 * Open slices were exported before their hour was over and may miss logs.
+	 * They are never resumed.
+	 */
+	private static void deleteOpenSlices(Path parts) throws IOException {
+		try (Stream<Path> files = Files.list(parts)) {
+			for (Path open : files.filter(//
+					file -> file.toString().endsWith(OPEN_SUFFIX + PART_SUFFIX))//
+					.collect(Collectors.toList()))
+				Files.delete(open);
+		}
+	}
 
-		Files.write(target, Json.toString(payload, true).getBytes(Utils.UTF8));
+	private static Path exported(Path parts, int slice) {
+		Path part = part(parts, slice);
+		return Files.exists(part) ? part : openPart(parts, slice);
+	}
 
-		Utils.info();
-		Utils.info("Done.");
+	private static Path part(Path parts, int slice) {
+		return parts.resolve(String.format("%02d", slice) + PART_SUFFIX);
+	}
+
+	private static Path openPart(Path parts, int slice) {
+		return parts.resolve(String.format("%02d", slice) + OPEN_SUFFIX + PART_SUFFIX);
 	}
 }
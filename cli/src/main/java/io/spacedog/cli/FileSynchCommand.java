@@ -1,24 +1,24 @@
 package io.spacedog.cli;
 
+import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.Parameters;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
-import com.google.common.hash.HashCode;
-import com.google.common.hash.Hashing;
 
 import io.spacedog.client.SpaceDog;
 import io.spacedog.client.file.SpaceFile;
 import io.spacedog.client.file.SpaceFile.FileList;
 import io.spacedog.client.http.SpaceEnv;
 import io.spacedog.utils.Check;
-import io.spacedog.utils.Exceptions;
 import io.spacedog.utils.Utils;
 
 @Parameters(commandNames = { "sync" }, //
@@ -35,6 +35,19 @@ public class FileSynchCommand extends AbstractCommand<FileSynchCommand> {
 			description = "the file bucket to synchronize")
 	private String bucket;
 
+	@Parameter(names = { "-p", "--parallelism" }, //
+			required = false, //
+			description = "the maximum number of concurrent uploads and deletes")
+	private int parallelism = 8;
+
+	@Parameter(names = { "-n", "--dry-run" }, //
+			required = false, //
+			description = "only print the files to upload and delete")
+	private boolean dryRun;
+
+	// server listing page size
+	private static final int LIST_SIZE = 1000;
+
 	/**
 	 * Set of server file path checked with matching local files. A checked local
 	 * file is uploaded if different.
@@ -42,16 +55,19 @@ public class FileSynchCommand extends AbstractCommand<FileSynchCommand> {
 	private Set<String> checked = Sets.newHashSet();
 
 	/**
-	 * Set of local file path uploaded to the server.
+	 * Set of local file path uploaded to the server. In dry run mode, set of local
+	 * file path to upload.
 	 */
-	private Set<String> uploaded = Sets.newHashSet();
+	private Set<String> uploaded = Sets.newTreeSet();
 
 	/**
-	 * Set of server file path deleted from the server.
+	 * Set of server file path deleted from the server. In dry run mode, set of
+	 * server file path to delete.
 	 */
-	private Set<String> deleted = Sets.newHashSet();
+	private Set<String> deleted = Sets.newTreeSet();
 
 	private SpaceDog dog;
+	private FileSynchIndex index;
 
 	public FileSynchCommand source(String source) {
 		this.source = source;
@@ -68,18 +84,49 @@ public class FileSynchCommand extends AbstractCommand<FileSynchCommand> {
 		return this;
 	}
 
+	public FileSynchCommand parallelism(int parallelism) {
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	public FileSynchCommand dryRun(boolean dryRun) {
+		this.dryRun = dryRun;
+		return this;
+	}
+
 	public void synch() throws IOException {
 		Check.notNull(source, "source");
 		Check.notNullOrEmpty(bucket, "bucket");
 
 		SpaceEnv.env().debug(verbose());
 		dog = LoginCommand.session();
+		index = FileSynchIndex.load(Paths.get(source));
+
+		Map<String, File> toUpload = Maps.newTreeMap();
+		Set<String> toDelete = Sets.newTreeSet();
 
-		synchFromServer();
-		synchFromLocal();
+		synchFromServer(toUpload, toDelete);
+		synchFromLocal(toUpload);
 
 		Utils.info();
-		Utils.info("Done.");
+		long unchanged = checked.stream().filter(path -> !toUpload.containsKey(path)).count();
+		Utils.info("%s file(s) unchanged, %s hashed", unchanged, index.hashed());
+		Utils.info("%s file(s) to upload", toUpload.size());
+		toUpload.keySet().forEach(path -> Utils.info(" + %s", path));
+		Utils.info("%s file(s) to delete", toDelete.size());
+		toDelete.forEach(path -> Utils.info(" - %s", path));
+
+		if (!dryRun) {
+			dog.files().upload(bucket, toUpload, parallelism);
+			dog.files().delete(bucket, toDelete, parallelism);
+			index.save();
+		}
+
+		uploaded.addAll(toUpload.keySet());
+		deleted.addAll(toDelete);
+
+		Utils.info();
+		Utils.info(dryRun ? "Dry run done." : "Done.");
 	}
 
 	public Set<String> uploaded() {
@@ -104,40 +151,41 @@ public class FileSynchCommand extends AbstractCommand<FileSynchCommand> {
 	// Implementation
 	//
 
-	private void synchFromServer() throws IOException {
+	private void synchFromServer(Map<String, File> toUpload, Set<String> toDelete) {
 		String next = null;
+		dog.files().listSize(LIST_SIZE);
 
 		do {
 			FileList list = dog.files().list(bucket, "/", next);
 
 			for (SpaceFile file : list.files)
-				check(file);
+				check(file, toUpload, toDelete);
 
 			next = list.next;
 
 		} while (next != null);
 	}
 
-	private void check(SpaceFile file) throws IOException {
+	private void check(SpaceFile file, Map<String, File> toUpload, Set<String> toDelete) {
 		Path filePath = Paths.get(source).resolve(Utils.trimPreffix(file.getPath(), "/"));
 
 		if (Files.isRegularFile(filePath)) {
 			checked.add(file.getPath());
 
-			if (!check(filePath, file.getHash()))
-				upload(filePath);
+			if (!check(file, filePath))
+				toUpload.put(file.getPath(), filePath.toFile());
 
 		} else
-			delete(file.getPath());
+			toDelete.add(file.getPath());
 	}
 
-	private void synchFromLocal() throws IOException {
+	private void synchFromLocal(Map<String, File> toUpload) throws IOException {
 
 		Files.walk(Paths.get(source))//
 				.filter(path -> !path.getFileName().toString().startsWith("."))//
 				.filter(Files::isRegularFile)//
 				.filter(this::notAlreadyCheckedAndSynched)//
-				.forEach(path -> upload(path));
+				.forEach(path -> toUpload.put(toWebPath(path), path.toFile()));
 	}
 
 	private boolean notAlreadyCheckedAndSynched(Path filePath) {
@@ -148,26 +196,11 @@ public class FileSynchCommand extends AbstractCommand<FileSynchCommand> {
 		return "/" + Paths.get(source).relativize(filePath).toString();
 	}
 
-	private void delete(String webPath) {
-		dog.files().delete(bucket, webPath);
-		deleted.add(webPath);
-	}
-
-	private void upload(Path filePath) {
-
-		try {
-			String webPath = toWebPath(filePath);
-			// no need to escape since sdk is already escaping
-			dog.files().upload(bucket, webPath, filePath.toFile());
-			uploaded.add(webPath);
-
-		} catch (Exception e) {
-			Exceptions.runtime(e);
-		}
-	}
+	private boolean check(SpaceFile file, Path path) {
+		// different sizes do not need any hash
+		if (path.toFile().length() != file.getLength())
+			return false;
 
-	private boolean check(Path path, String etag) throws IOException {
-		HashCode local = com.google.common.io.Files.asByteSource(path.toFile()).hash(Hashing.md5());
-		return local.equals(HashCode.fromString(etag));
+		return index.md5(file.getPath(), path).equalsIgnoreCase(file.getHash());
 	}
 }
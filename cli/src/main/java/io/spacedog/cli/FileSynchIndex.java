@@ -0,0 +1,103 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.cli;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+
+import io.spacedog.utils.Exceptions;
+import io.spacedog.utils.Json;
+
+/**
+ * Local index of synchronized files hashes. A file is only hashed again if its
+ * size or last modification time has changed since it was indexed. The index is
+ * saved in the source folder as a hidden file so it is never synchronized.
+ */
+public class FileSynchIndex {
+
+	public static final String FILE_NAME = ".spacedog-sync-index.json";
+
+	public static class Entry {
+		public long size;
+		public long modifiedAt;
+		public String md5;
+	}
+
+	private Path file;
+	private Map<String, Entry> entries;
+	private Map<String, Entry> used = Maps.newHashMap();
+	private int hashed;
+
+	private FileSynchIndex(Path file, Map<String, Entry> entries) {
+		this.file = file;
+		this.entries = entries;
+	}
+
+	public static FileSynchIndex load(Path source) {
+		Path file = source.resolve(FILE_NAME);
+		Map<String, Entry> entries = Maps.newHashMap();
+
+		if (Files.isRegularFile(file)) {
+			try {
+				entries = Json.mapper().readValue(file.toFile(), //
+						new TypeReference<Map<String, Entry>>() {
+						});
+			} catch (IOException e) {
+				// corrupted index is ignored and rebuilt
+			}
+		}
+		return new FileSynchIndex(file, entries);
+	}
+
+	/**
+	 * @return the md5 hash in hex of this local file
+	 */
+	public String md5(String webPath, Path path) {
+		try {
+			long size = Files.size(path);
+			long modifiedAt = Files.getLastModifiedTime(path).toMillis();
+			Entry entry = entries.get(webPath);
+
+			if (entry == null || entry.size != size || entry.modifiedAt != modifiedAt) {
+				entry = new Entry();
+				entry.size = size;
+				entry.modifiedAt = modifiedAt;
+				entry.md5 = com.google.common.io.Files.asByteSource(path.toFile())//
+						.hash(Hashing.md5()).toString();
+				hashed++;
+			}
+
+			used.put(webPath, entry);
+			return entry.md5;
+
+		} catch (IOException e) {
+			throw Exceptions.runtime(e, "failed to hash file [%s]", path);
+		}
+	}
+
+	/**
+	 * @return the number of files hashed since this index was loaded
+	 */
+	public int hashed() {
+		return hashed;
+	}
+
+	/**
+	 * Saves the entries of the files hashed or checked since this index was
+	 * loaded. Entries of other files are dropped.
+	 */
+	public void save() {
+		try {
+			Json.mapper().writeValue(file.toFile(), used);
+		} catch (IOException e) {
+			throw Exceptions.runtime(e, "failed to save sync index [%s]", file);
+		}
+	}
+}
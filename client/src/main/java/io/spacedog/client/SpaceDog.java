@@ -20,6 +20,7 @@ import io.spacedog.client.http.SpaceFields;
 import io.spacedog.client.http.SpaceParams;
 import io.spacedog.client.http.SpaceRequest;
 import io.spacedog.client.job.JobClient;
+import io.spacedog.client.job.SchedulerClient;
 import io.spacedog.client.log.LogClient;
 import io.spacedog.client.push.PushClient;
 import io.spacedog.client.schema.SchemaClient;
@@ -311,4 +312,12 @@ public class SpaceDog implements SpaceFields, SpaceParams {
 		return JobClient;
 	}
 
+	SchedulerClient schedulerClient;
+
+	public SchedulerClient scheduler() {
+		if (schedulerClient == null)
+			schedulerClient = new SchedulerClient(this);
+		return schedulerClient;
+	}
+
 }
@@ -721,6 +721,15 @@ public class Credentials implements SpaceFields {
 		sessions.add(currentSession);
 	}
 
+	/**
+	 * Sets the current session without adding it to these credentials sessions.
+	 * Used when sessions are stored apart from credentials.
+	 */
+	public Credentials currentSession(Session session) {
+		currentSession = session;
+		return this;
+	}
+
 	public boolean hasCurrentSession() {
 		return currentSession != null;
 	}
@@ -16,6 +16,8 @@ public class CredentialsSettings extends SettingsBase {
 	public long sessionMaximumLifetimeInSeconds = SESSION_DEFAULT_LIFETIME;
 	public int maximumInvalidChallenges = 0;
 	public int resetInvalidChallengesAfterMinutes = 60;
+	// zero means no limit per client address
+	public int maximumInvalidChallengesPerAddress = 0;
 
 	public OAuthSettings linkedin;
 
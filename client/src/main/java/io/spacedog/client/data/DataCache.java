@@ -0,0 +1,55 @@
+package io.spacedog.client.data;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Local cache of data object responses with their ETag. Cached objects are
+ * always revalidated with the server which only sends them back if they have
+ * changed since cached.
+ */
+public class DataCache {
+
+	private final Cache<String, Entry> entries;
+
+	public DataCache(int maxSize) {
+		this.entries = CacheBuilder.newBuilder().maximumSize(maxSize).build();
+	}
+
+	public Entry get(String type, String id) {
+		return entries.getIfPresent(key(type, id));
+	}
+
+	public void put(String type, String id, String etag, String json) {
+		if (etag == null)
+			remove(type, id);
+		else
+			entries.put(key(type, id), new Entry(etag, json));
+	}
+
+	public void remove(String type, String id) {
+		entries.invalidate(key(type, id));
+	}
+
+	public void clear() {
+		entries.invalidateAll();
+	}
+
+	public long size() {
+		return entries.size();
+	}
+
+	private static String key(String type, String id) {
+		return type + '/' + id;
+	}
+
+	public static class Entry {
+		public final String etag;
+		public final String json;
+
+		private Entry(String etag, String json) {
+			this.etag = etag;
+			this.json = json;
+		}
+	}
+}
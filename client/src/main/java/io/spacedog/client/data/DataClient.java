@@ -1,21 +1,32 @@
 package io.spacedog.client.data;
 
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
 
 import io.spacedog.client.SpaceDog;
 import io.spacedog.client.http.OkHttp;
+import io.spacedog.client.http.SpaceConcurrency;
 import io.spacedog.client.http.SpaceFields;
+import io.spacedog.client.http.SpaceHeaders;
 import io.spacedog.client.http.SpaceParams;
 import io.spacedog.client.http.SpaceRequest;
 import io.spacedog.client.http.SpaceResponse;
 import io.spacedog.utils.Json;
+import io.spacedog.utils.Utils;
 
 public class DataClient implements SpaceFields, SpaceParams {
 
 	private SpaceDog dog;
+	private DataCache cache;
 
 	public DataClient(SpaceDog session) {
 		this.dog = session;
@@ -28,6 +39,24 @@ public class DataClient implements SpaceFields, SpaceParams {
 		return sourceClass.getSimpleName().toLowerCase();
 	}
 
+	//
+	// Cache
+	//
+
+	/**
+	 * Enables a local cache of objects get by id. Pass a zero size to disable
+	 * it. Cached objects are revalidated on each get to save the transfer of
+	 * unchanged objects.
+	 */
+	public DataClient cache(int maxSize) {
+		this.cache = maxSize > 0 ? new DataCache(maxSize) : null;
+		return this;
+	}
+
+	public DataCache cache() {
+		return cache;
+	}
+
 	//
 	// GET
 	//
@@ -78,6 +107,20 @@ public class DataClient implements SpaceFields, SpaceParams {
 		return fetch(wrap, throwNotFound);
 	}
 
+	/**
+	 * Gets this object with a projected source. Pass null fields to get all
+	 * source fields but the excluded ones.
+	 */
+	public <K> DataWrap<K> getWrapped(String type, String id, Class<K> sourceClass, //
+			String[] fields, String[] exclude) {
+
+		DataWrap<K> wrap = DataWrap.wrap(sourceClass).type(type).id(id);
+		return getRequest(type, id)//
+				.queryParam(FIELDS_PARAM, join(fields))//
+				.queryParam(EXCLUDE_PARAM, join(exclude))//
+				.go(200).asPojo(wrap);
+	}
+
 	public <K> DataWrap<K> fetch(DataWrap<K> wrap) {
 		return fetch(wrap, true);
 	}
@@ -91,20 +134,103 @@ public class DataClient implements SpaceFields, SpaceParams {
 	}
 
 	public <K> K fetch(String type, String id, K object, boolean throwNotFound) {
-		SpaceResponse response = doGet(type, id, throwNotFound);
-		return response.status() == 404 ? null //
-				: response.asPojo(object);
+		String json = doGet(type, id, throwNotFound);
+		return json == null ? null : Json.updatePojo(json, object);
 	}
 
-	private SpaceResponse doGet(String type, String id, boolean throwNotFound) {
-		int[] expectedStatus = throwNotFound //
-				? new int[] { 200 }
-				: new int[] { 200, 404 };
+	/**
+	 * @return the object JSON, null if not found. Cached objects are
+	 *         revalidated with their ETag and only fetched again if changed.
+	 */
+	private String doGet(String type, String id, boolean throwNotFound) {
+		if (cache == null)
+			return nullIfNotFound(getRequest(type, id).go(getStatuses(throwNotFound)));
+
+		DataCache.Entry cached = cache.get(type, id);
+		SpaceRequest request = getRequest(type, id);
+
+		if (cached != null)
+			request.setHeader(SpaceHeaders.IF_NONE_MATCH, cached.etag);
+
+		SpaceResponse response = request.go(throwNotFound //
+				? new int[] { 200, 304 }
+				: new int[] { 200, 304, 404 });
+
+		if (response.status() == 304)
+			return cached.json;
+
+		String json = nullIfNotFound(response);
+		if (json == null)
+			cache.remove(type, id);
+		else
+			cache.put(type, id, response.header(SpaceHeaders.ETAG), json);
+		return json;
+	}
 
+	private String nullIfNotFound(SpaceResponse response) {
+		if (response.status() == 404) {
+			response.asVoid();
+			return null;
+		}
+		return response.asString();
+	}
+
+	private SpaceRequest getRequest(String type, String id) {
 		return dog.get("/2/data/{type}/{id}")//
 				.routeParam(TYPE_FIELD, type)//
-				.routeParam(ID_FIELD, id)//
-				.go(expectedStatus);
+				.routeParam(ID_FIELD, id);
+	}
+
+	private static String join(String[] fields) {
+		return Utils.isNullOrEmpty(fields) ? null : String.join(",", fields);
+	}
+
+	private int[] getStatuses(boolean throwNotFound) {
+		return throwNotFound //
+				? new int[] { 200 }
+				: new int[] { 200, 404 };
+	}
+
+	public <K> CompletableFuture<DataWrap<K>> getWrappedAsync(String type, String id, //
+			Class<K> sourceClass, boolean throwNotFound) {
+
+		return getRequest(type, id).goAsync(getStatuses(throwNotFound))//
+				.thenApply(response -> {
+					if (response.status() == 404) {
+						response.asVoid();
+						return null;
+					}
+					return response.asPojo(DataWrap.wrap(sourceClass).type(type).id(id));
+				});
+	}
+
+	/**
+	 * Gets objects concurrently with at most the specified number of requests in
+	 * flight. Objects not found are null.
+	 */
+	public <K> List<DataWrap<K>> getWrapped(String type, Collection<String> ids, //
+			Class<K> sourceClass, int concurrency) {
+
+		return SpaceConcurrency.all(ids, concurrency, //
+				id -> getWrappedAsync(type, id, sourceClass, false));
+	}
+
+	/**
+	 * Gets these objects in a single request.
+	 * 
+	 * @return the objects in the requested order, null if not found or not
+	 *         readable
+	 */
+	public <K> List<DataWrap<K>> getMulti(DataMultiGetRequest request, Class<K> sourceClass) {
+		ArrayNode objects = (ArrayNode) dog.post("/2/data/_mget")//
+				.bodyPojo(request).go(200)//
+				.asJsonObject().get("objects");
+
+		List<DataWrap<K>> results = Lists.newArrayListWithCapacity(objects.size());
+		for (JsonNode object : objects)
+			results.add(object.has("error") ? null //
+					: Json.updatePojo(object.toString(), DataWrap.wrap(sourceClass)));
+		return results;
 	}
 
 	//
@@ -149,14 +275,30 @@ public class DataClient implements SpaceFields, SpaceParams {
 	}
 
 	public <K> DataWrap<K> save(DataWrap<K> object, boolean forceMeta) {
+		return saveRequest(object, forceMeta).go(200, 201).asPojo(object);
+	}
+
+	public <K> CompletableFuture<DataWrap<K>> saveAsync(DataWrap<K> object, boolean forceMeta) {
+		return saveRequest(object, forceMeta).goAsync(200, 201)//
+				.thenApply(response -> response.asPojo(object));
+	}
+
+	/**
+	 * Saves objects concurrently with at most the specified number of requests in
+	 * flight.
+	 */
+	public <K> List<DataWrap<K>> save(Collection<DataWrap<K>> objects, int concurrency) {
+		return SpaceConcurrency.all(objects, concurrency, //
+				object -> saveAsync(object, false));
+	}
+
+	private SpaceRequest saveRequest(DataWrap<?> object, boolean forceMeta) {
 
 		if (object.id() == null)
 			return dog.post("/2/data/{type}")//
 					.routeParam(TYPE_FIELD, object.type())//
 					.queryParam(FORCE_META_PARAM, forceMeta ? true : null)//
-					.bodyPojo(object.source())//
-					.go(201)//
-					.asPojo(object);
+					.bodyPojo(object.source());
 
 		SpaceRequest request = dog.put("/2/data/{type}/{id}")//
 				.routeParam(TYPE_FIELD, object.type())//
@@ -167,7 +309,7 @@ public class DataClient implements SpaceFields, SpaceParams {
 		if (object.version() != null)
 			request.queryParam(VERSION_PARAM, object.version());
 
-		return request.go(200, 201).asPojo(object);
+		return request;
 	}
 
 	//
@@ -202,14 +344,28 @@ public class DataClient implements SpaceFields, SpaceParams {
 	}
 
 	public void delete(String type, String id, boolean throwNotFound) {
-		SpaceRequest request = dog.delete("/2/data/{type}/{id}")//
+		if (cache != null)
+			cache.remove(type, id);
+		deleteRequest(type, id).go(getStatuses(throwNotFound)).asVoid();
+	}
+
+	public CompletableFuture<Void> deleteAsync(String type, String id, boolean throwNotFound) {
+		return deleteRequest(type, id).goAsync(getStatuses(throwNotFound))//
+				.thenAccept(response -> response.asVoid());
+	}
+
+	/**
+	 * Deletes objects concurrently with at most the specified number of requests
+	 * in flight. Objects not found are ignored.
+	 */
+	public void delete(String type, Collection<String> ids, int concurrency) {
+		SpaceConcurrency.all(ids, concurrency, id -> deleteAsync(type, id, false));
+	}
+
+	private SpaceRequest deleteRequest(String type, String id) {
+		return dog.delete("/2/data/{type}/{id}")//
 				.routeParam(TYPE_FIELD, type)//
 				.routeParam(ID_FIELD, id);
-
-		if (throwNotFound)
-			request.go(200).asVoid();
-		else
-			request.go(200, 404).asVoid();
 	}
 
 	public long searchDelete(String type, String query) {
@@ -242,6 +398,34 @@ public class DataClient implements SpaceFields, SpaceParams {
 				.routeParam("f", field).go(200).get(VERSION_FIELD).asText(null);
 	}
 
+	//
+	// Field operations
+	//
+
+	public DataOperationsRequestBuilder prepareOperations(String type, String id) {
+		return new DataOperationsRequestBuilder(type, id) {
+			@Override
+			public DataWrap<ObjectNode> go() {
+				return operations(build());
+			}
+		};
+	}
+
+	/**
+	 * Applies these operations atomically on the server.
+	 * 
+	 * @return the object with its new source and version
+	 */
+	public DataWrap<ObjectNode> operations(DataOperationsRequest request) {
+		return dog.post("/2/data/{type}/{id}/_operations")//
+				.routeParam(TYPE_FIELD, request.type)//
+				.routeParam(ID_FIELD, request.id)//
+				.queryParam(VERSION_PARAM, request.version)//
+				.bodyPojo(request).go(200)//
+				.asPojo(DataWrap.wrap(ObjectNode.class)//
+						.type(request.type).id(request.id));
+	}
+
 	//
 	// Get All Request
 	//
@@ -266,10 +450,22 @@ public class DataClient implements SpaceFields, SpaceParams {
 				.queryParam(Q_PARAM, request.q)//
 				.queryParam(FROM_PARAM, request.from)//
 				.queryParam(SIZE_PARAM, request.size)//
+				.queryParam(CURSOR_PARAM, request.cursor ? true : null)//
+				.queryParam(NEXT_PARAM, request.next)//
+				.queryParam(FIELDS_PARAM, join(request.fields))//
+				.queryParam(EXCLUDE_PARAM, join(request.exclude))//
 				.go(200)//
 				.asPojo(DataResults.of(sourceClass));
 	}
 
+	public <K> DataCursor<K> iterate(DataGetAllRequest request, Class<K> sourceClass) {
+		// only refresh before the first page
+		boolean refresh = request.refresh;
+		return new DataCursor<K>(next -> getAll(//
+				request.cursor(true).next(next).refresh(next == null && refresh), //
+				sourceClass));
+	}
+
 	//
 	// Delete Bulk Request
 	//
@@ -328,10 +524,22 @@ public class DataClient implements SpaceFields, SpaceParams {
 			request.source = Json.EMPTY_OBJECT;
 
 		return dog.post(path + "/_search").bodyJson(request.source)//
+				.queryParam(CURSOR_PARAM, request.cursor ? true : null)//
+				.queryParam(NEXT_PARAM, request.next)//
+				.queryParam(FIELDS_PARAM, join(request.fields))//
+				.queryParam(EXCLUDE_PARAM, join(request.exclude))//
 				.refresh(request.refresh).go(200)//
 				.asPojo(DataResults.of(sourceClass));
 	}
 
+	public <K> DataCursor<K> iterate(DataSearchRequest request, Class<K> sourceClass) {
+		// only refresh before the first page
+		boolean refresh = request.refresh;
+		return new DataCursor<K>(next -> search(//
+				request.cursor(true).next(next).refresh(next == null && refresh), //
+				sourceClass));
+	}
+
 	//
 	// CSV
 	//
@@ -342,6 +550,15 @@ public class DataClient implements SpaceFields, SpaceParams {
 				.bodyPojo(request).go(200);
 	}
 
+	/**
+	 * Streams the CSV to this file.
+	 *
+	 * @return the number of bytes written
+	 */
+	public long csv(String type, CsvRequest request, Path path) {
+		return csv(type, request).transferTo(path);
+	}
+
 	//
 	// Import Export
 	//
@@ -364,6 +581,15 @@ public class DataClient implements SpaceFields, SpaceParams {
 				.go(200);
 	}
 
+	/**
+	 * Iterates over exported objects, one at a time, as they are received. Close
+	 * the iterator if not read until the end.
+	 */
+	public <K> DataExportIterator<K> exportIterator(DataExportRequest request, Class<K> sourceClass) {
+		return new DataExportIterator<>(exportNow(request).asByteStream(), //
+				request.type, sourceClass);
+	}
+
 	public DataImportRequestBuilder prepareImport(String type) {
 		return new DataImportRequestBuilder(type) {
 			@Override
@@ -0,0 +1,47 @@
+package io.spacedog.client.data;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+/**
+ * Iterates over all the objects of a data search or get all request. Pages are
+ * lazily fetched with the results next cursor.
+ */
+public class DataCursor<K> implements Iterable<DataWrap<K>> {
+
+	private Function<String, DataResults<K>> pageFetcher;
+
+	public DataCursor(Function<String, DataResults<K>> pageFetcher) {
+		this.pageFetcher = pageFetcher;
+	}
+
+	@Override
+	public Iterator<DataWrap<K>> iterator() {
+		return new Iterator<DataWrap<K>>() {
+
+			private Iterator<DataWrap<K>> page = Collections.emptyIterator();
+			private String next = null;
+			private boolean first = true;
+
+			@Override
+			public boolean hasNext() {
+				while (!page.hasNext() && (first || next != null)) {
+					DataResults<K> results = pageFetcher.apply(next);
+					first = false;
+					next = results.next;
+					page = results.iterator();
+				}
+				return page.hasNext();
+			}
+
+			@Override
+			public DataWrap<K> next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+				return page.next();
+			}
+		};
+	}
+}
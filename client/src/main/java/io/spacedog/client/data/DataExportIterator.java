@@ -0,0 +1,79 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.client.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.fasterxml.jackson.core.JsonParser;
+
+import io.spacedog.utils.Exceptions;
+import io.spacedog.utils.Json;
+import io.spacedog.utils.Utils;
+
+/**
+ * Iterates over the objects of a data export. The export is parsed with a
+ * streaming parser, one object at a time, so memory use does not depend on the
+ * export size. The input stream is closed when all objects have been read or
+ * when this iterator is closed.
+ */
+public class DataExportIterator<K> implements Iterator<DataWrap<K>>, Closeable {
+
+	private InputStream input;
+	private JsonParser parser;
+	private String type;
+	private Class<K> sourceClass;
+	private DataWrap<K> next;
+	private boolean done;
+
+	public DataExportIterator(InputStream input, String type, Class<K> sourceClass) {
+		this.input = input;
+		this.type = type;
+		this.sourceClass = sourceClass;
+
+		try {
+			this.parser = Json.mapper().getFactory().createParser(input);
+		} catch (IOException e) {
+			throw Exceptions.runtime(e, "failed to parse [%s] export", type);
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (next == null && !done) {
+			try {
+				if (parser.nextToken() == null)
+					close();
+				else
+					next = Json.mapper()//
+							.readerForUpdating(DataWrap.wrap(sourceClass).type(type))//
+							.readValue(parser);
+
+			} catch (IOException e) {
+				close();
+				throw Exceptions.runtime(e, "failed to parse [%s] export", type);
+			}
+		}
+		return next != null;
+	}
+
+	@Override
+	public DataWrap<K> next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		DataWrap<K> object = next;
+		next = null;
+		return object;
+	}
+
+	@Override
+	public void close() {
+		done = true;
+		Utils.closeSilently(parser);
+		Utils.closeSilently(input);
+	}
+}
@@ -7,6 +7,10 @@ public class DataGetAllRequest {
 	public int size = 10;
 	public boolean refresh;
 	public String q;
+	public boolean cursor;
+	public String next;
+	public String[] fields;
+	public String[] exclude;
 
 	public DataGetAllRequest type(String type) {
 		this.type = type;
@@ -33,4 +37,30 @@ public class DataGetAllRequest {
 		return this;
 	}
 
+	public DataGetAllRequest cursor(boolean cursor) {
+		this.cursor = cursor;
+		return this;
+	}
+
+	public DataGetAllRequest next(String next) {
+		this.next = next;
+		return this;
+	}
+
+	/**
+	 * Only returns these source fields. Accepts dot paths and wildcards.
+	 */
+	public DataGetAllRequest fields(String... fields) {
+		this.fields = fields;
+		return this;
+	}
+
+	/**
+	 * Returns all source fields but these. Accepts dot paths and wildcards.
+	 */
+	public DataGetAllRequest exclude(String... exclude) {
+		this.exclude = exclude;
+		return this;
+	}
+
 }
\ No newline at end of file
@@ -31,6 +31,26 @@ public abstract class DataGetAllRequestBuilder {
 		return this;
 	}
 
+	public DataGetAllRequestBuilder cursor(boolean cursor) {
+		this.request.cursor = cursor;
+		return this;
+	}
+
+	public DataGetAllRequestBuilder next(String next) {
+		this.request.next = next;
+		return this;
+	}
+
+	public DataGetAllRequestBuilder fields(String... fields) {
+		this.request.fields = fields;
+		return this;
+	}
+
+	public DataGetAllRequestBuilder exclude(String... exclude) {
+		this.request.exclude = exclude;
+		return this;
+	}
+
 	public DataGetAllRequest build() {
 		return request;
 	}
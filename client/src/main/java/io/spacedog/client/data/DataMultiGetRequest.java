@@ -0,0 +1,40 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.client.data;
+
+import java.util.List;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Objects of any type fetched by id in a single request. Results are in the
+ * same order as requested objects.
+ */
+public class DataMultiGetRequest {
+
+	public List<Item> objects = Lists.newArrayList();
+
+	public static class Item {
+		public String type;
+		public String id;
+
+		public Item() {
+		}
+
+		public Item(String type, String id) {
+			this.type = type;
+			this.id = id;
+		}
+	}
+
+	public DataMultiGetRequest add(String type, String id) {
+		objects.add(new Item(type, id));
+		return this;
+	}
+
+	public DataMultiGetRequest add(String type, Iterable<String> ids) {
+		ids.forEach(id -> add(type, id));
+		return this;
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.client.data;
+
+/**
+ * Atomic operation on a field of a data object. Fields are dot separated paths
+ * of the object source.
+ */
+public class DataOperation {
+
+	public enum Type {
+		/**
+		 * Adds the number value to the field, or sets it if field is null
+		 */
+		inc,
+		/**
+		 * Subtracts the number value from the field, or sets its opposite if field is
+		 * null
+		 */
+		dec,
+		/**
+		 * Sets the field to the value if lower or if field is null
+		 */
+		min,
+		/**
+		 * Sets the field to the value if greater or if field is null
+		 */
+		max,
+		/**
+		 * Appends the value or array of values to the array field
+		 */
+		push,
+		/**
+		 * Appends the value or array of values to the array field if not already
+		 * present
+		 */
+		addToSet,
+		/**
+		 * Removes all occurrences of the value or array of values from the array
+		 * field
+		 */
+		removeFromSet,
+		/**
+		 * Removes the field
+		 */
+		unset
+	}
+
+	public Type op;
+	public String field;
+	public Object value;
+
+	public DataOperation() {
+	}
+
+	public DataOperation(Type op, String field, Object value) {
+		this.op = op;
+		this.field = field;
+		this.value = value;
+	}
+}
@@ -0,0 +1,41 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.client.data;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.common.collect.Lists;
+
+import io.spacedog.client.bulk.ServiceCall;
+import io.spacedog.client.http.SpaceMethod;
+import io.spacedog.client.http.SpaceParams;
+
+/**
+ * Atomic operations applied in order to a data object in a single update.
+ */
+public class DataOperationsRequest {
+
+	@JsonIgnore
+	public String type;
+	@JsonIgnore
+	public String id;
+	@JsonIgnore
+	public String version;
+	public List<DataOperation> operations = Lists.newArrayList();
+
+	/**
+	 * @return the call to add these operations to a bulk request
+	 */
+	public ServiceCall toServiceCall() {
+		ServiceCall call = new ServiceCall(SpaceMethod.POST, //
+				"/2/data/" + type + "/" + id + "/_operations")//
+						.withPayload(this);
+
+		if (version != null)
+			call.withParams(SpaceParams.VERSION_PARAM, version);
+
+		return call;
+	}
+}
@@ -0,0 +1,68 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.client.data;
+
+import java.util.Arrays;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.spacedog.client.data.DataOperation.Type;
+
+public abstract class DataOperationsRequestBuilder {
+
+	private DataOperationsRequest request = new DataOperationsRequest();
+
+	public DataOperationsRequestBuilder(String type, String id) {
+		this.request.type = type;
+		this.request.id = id;
+	}
+
+	public DataOperationsRequestBuilder version(String version) {
+		this.request.version = version;
+		return this;
+	}
+
+	public DataOperationsRequestBuilder inc(String field, Number value) {
+		return add(Type.inc, field, value);
+	}
+
+	public DataOperationsRequestBuilder dec(String field, Number value) {
+		return add(Type.dec, field, value);
+	}
+
+	public DataOperationsRequestBuilder min(String field, Object value) {
+		return add(Type.min, field, value);
+	}
+
+	public DataOperationsRequestBuilder max(String field, Object value) {
+		return add(Type.max, field, value);
+	}
+
+	public DataOperationsRequestBuilder push(String field, Object... values) {
+		return add(Type.push, field, Arrays.asList(values));
+	}
+
+	public DataOperationsRequestBuilder addToSet(String field, Object... values) {
+		return add(Type.addToSet, field, Arrays.asList(values));
+	}
+
+	public DataOperationsRequestBuilder removeFromSet(String field, Object... values) {
+		return add(Type.removeFromSet, field, Arrays.asList(values));
+	}
+
+	public DataOperationsRequestBuilder unset(String field) {
+		return add(Type.unset, field, null);
+	}
+
+	public DataOperationsRequest build() {
+		return request;
+	}
+
+	public abstract DataWrap<ObjectNode> go();
+
+	private DataOperationsRequestBuilder add(Type op, String field, Object value) {
+		request.operations.add(new DataOperation(op, field, value));
+		return this;
+	}
+}
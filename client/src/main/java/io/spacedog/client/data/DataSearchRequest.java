@@ -5,6 +5,10 @@ public class DataSearchRequest {
 	public boolean refresh;
 	public String type;
 	public String source;
+	public boolean cursor;
+	public String next;
+	public String[] fields;
+	public String[] exclude;
 
 	public DataSearchRequest refresh(boolean refresh) {
 		this.refresh = refresh;
@@ -21,4 +25,30 @@ public class DataSearchRequest {
 		return this;
 	}
 
+	public DataSearchRequest cursor(boolean cursor) {
+		this.cursor = cursor;
+		return this;
+	}
+
+	public DataSearchRequest next(String next) {
+		this.next = next;
+		return this;
+	}
+
+	/**
+	 * Only returns these source fields. Accepts dot paths and wildcards.
+	 */
+	public DataSearchRequest fields(String... fields) {
+		this.fields = fields;
+		return this;
+	}
+
+	/**
+	 * Returns all source fields but these. Accepts dot paths and wildcards.
+	 */
+	public DataSearchRequest exclude(String... exclude) {
+		this.exclude = exclude;
+		return this;
+	}
+
 }
\ No newline at end of file
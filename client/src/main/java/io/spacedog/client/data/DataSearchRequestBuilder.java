@@ -21,6 +21,26 @@ public abstract class DataSearchRequestBuilder {
 		return this;
 	}
 
+	public DataSearchRequestBuilder cursor(boolean cursor) {
+		this.request.cursor = cursor;
+		return this;
+	}
+
+	public DataSearchRequestBuilder next(String next) {
+		this.request.next = next;
+		return this;
+	}
+
+	public DataSearchRequestBuilder fields(String... fields) {
+		this.request.fields = fields;
+		return this;
+	}
+
+	public DataSearchRequestBuilder exclude(String... exclude) {
+		this.request.exclude = exclude;
+		return this;
+	}
+
 	public DataSearchRequest build() {
 		return request;
 	}
@@ -3,10 +3,15 @@
  */
 package io.spacedog.client.data;
 
+import java.util.Map;
+import java.util.Set;
+
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.google.common.base.Objects;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 
 import io.spacedog.client.credentials.ObjectRolePermissions;
 import io.spacedog.client.credentials.Permission;
@@ -22,6 +27,8 @@ import io.spacedog.client.settings.SettingsBase;
 public class DataSettings extends SettingsBase {
 
 	private ObjectRolePermissions acl = new ObjectRolePermissions();
+	private Map<String, SearchCacheSettings> searchCache = Maps.newHashMap();
+	private SearchLimits searchLimits = new SearchLimits();
 
 	public DataSettings() {
 		acl.put(Installation.TYPE, Roles.user, Permission.create, Permission.readMine, //
@@ -36,10 +43,118 @@ public class DataSettings extends SettingsBase {
 		this.acl = acl;
 	}
 
+	/**
+	 * Search result cache settings per type. Types without settings are not
+	 * cached.
+	 */
+	public Map<String, SearchCacheSettings> searchCache() {
+		return searchCache;
+	}
+
+	public void searchCache(Map<String, SearchCacheSettings> searchCache) {
+		this.searchCache = searchCache;
+	}
+
+	/**
+	 * Cost limits of the searches and deletes by query of this backend
+	 */
+	public SearchLimits searchLimits() {
+		return searchLimits;
+	}
+
+	public void searchLimits(SearchLimits searchLimits) {
+		this.searchLimits = searchLimits;
+	}
+
 	@Override
 	public boolean equals(Object obj) {
 		if (obj instanceof DataSettings == false)
 			return false;
-		return Objects.equal(acl, ((DataSettings) obj).acl);
+		DataSettings other = (DataSettings) obj;
+		return Objects.equal(acl, other.acl) //
+				&& Objects.equal(searchCache, other.searchCache) //
+				&& Objects.equal(searchLimits, other.searchLimits);
+	}
+
+	/**
+	 * Search results are cached until a write to the type or the end of their time
+	 * to live. Writes sent to other servers are not seen, results might then be
+	 * stale for up to the time to live.
+	 */
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class SearchCacheSettings {
+		// zero disables the cache
+		public int ttlInSeconds = 60;
+		// total size of cached results, zero disables the cache
+		public int maximumSizeInKB = 10240;
+		// results fetched less than this interval after a write are not
+		// cached since not yet searchable, should match the index refresh
+		// interval
+		public int refreshIntervalInMillis = 1000;
+
+		public SearchCacheSettings() {
+		}
+
+		public SearchCacheSettings(int ttlInSeconds, int maximumSizeInKB) {
+			this.ttlInSeconds = ttlInSeconds;
+			this.maximumSizeInKB = maximumSizeInKB;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof SearchCacheSettings == false)
+				return false;
+			SearchCacheSettings other = (SearchCacheSettings) obj;
+			return ttlInSeconds == other.ttlInSeconds //
+					&& maximumSizeInKB == other.maximumSizeInKB //
+					&& refreshIntervalInMillis == other.refreshIntervalInMillis;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(ttlInSeconds, maximumSizeInKB, refreshIntervalInMillis);
+		}
+	}
+
+	/**
+	 * Searches over these limits are rejected before they reach elasticsearch.
+	 * Query string queries are rewritten to forbid leading wildcards unless
+	 * allowed.
+	 */
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class SearchLimits {
+		// max number of hits per page
+		public int maxSize = 1000;
+		// max from plus size
+		public int maxResultWindow = 10000;
+		// max number of buckets estimated from nested bucket aggregation sizes
+		public int maxAggregationBuckets = 10000;
+		// max number of leaf query clauses including terms query values
+		public int maxClauseCount = 1024;
+		// max nesting depth of compound queries and aggregations
+		public int maxDepth = 20;
+		public boolean allowLeadingWildcards = false;
+		// elasticsearch query and aggregation names like script or regexp
+		public Set<String> bannedQueries = Sets.newHashSet("script", "script_score");
+
+		@Override
+		public boolean equals(Object obj) {
+			if (obj instanceof SearchLimits == false)
+				return false;
+			SearchLimits other = (SearchLimits) obj;
+			return maxSize == other.maxSize //
+					&& maxResultWindow == other.maxResultWindow //
+					&& maxAggregationBuckets == other.maxAggregationBuckets //
+					&& maxClauseCount == other.maxClauseCount //
+					&& maxDepth == other.maxDepth //
+					&& allowLeadingWildcards == other.allowLeadingWildcards //
+					&& Objects.equal(bannedQueries, other.bannedQueries);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hashCode(maxSize, maxResultWindow, maxAggregationBuckets, //
+					maxClauseCount, maxDepth, allowLeadingWildcards, bannedQueries);
+		}
 	}
 }
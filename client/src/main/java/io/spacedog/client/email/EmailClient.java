@@ -14,6 +14,11 @@ public class EmailClient {
 		this.dog = dog;
 	}
 
+	/**
+	 * Emails are queued and sent asynchronously.
+	 * 
+	 * @return the id of the queued email
+	 */
 	public ObjectNode send(EmailRequest request) {
 		return dog.post("/2/emails")//
 				.bodyPojo(request).go(200)//
@@ -27,6 +32,13 @@ public class EmailClient {
 		return send(request);
 	}
 
+	public EmailMessage get(String id) {
+		return dog.get("/2/emails/{id}")//
+				.routeParam("id", id)//
+				.go(200)//
+				.asPojo(EmailMessage.class);
+	}
+
 	public void saveTemplate(EmailTemplate template) {
 		dog.put("/2/emails/templates/{name}")//
 				.routeParam("name", template.name)//
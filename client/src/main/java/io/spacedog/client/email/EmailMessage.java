@@ -0,0 +1,61 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.client.email;
+
+import org.joda.time.DateTime;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * An email queued in the outbox. Queued emails are claimed by one server and
+ * sent in batches. Sent and failed emails are kept as history.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonAutoDetect(fieldVisibility = Visibility.ANY, //
+		getterVisibility = Visibility.NONE, //
+		isGetterVisibility = Visibility.NONE, //
+		setterVisibility = Visibility.NONE)
+public class EmailMessage {
+
+	public enum Status {
+		queued, sending, sent, failed
+	}
+
+	public String id;
+	public String backendId;
+	public EmailBasicRequest request;
+	public DateTime queued;
+	/**
+	 * Date of the next try
+	 */
+	public DateTime scheduled;
+	public DateTime sent;
+	public DateTime timeoutAt;
+	public int tries = 0;
+	public Status status;
+	public String claimedBy;
+	public String error;
+	/**
+	 * Name of the provider the email has been sent with, smtp or mailgun
+	 */
+	public String provider;
+	/**
+	 * Message id returned by the provider
+	 */
+	public String providerId;
+	/**
+	 * Text and html of sensitive emails are removed once sent or failed
+	 */
+	public boolean sensitive;
+
+	@JsonIgnore
+	public String version;
+
+	public String id() {
+		return id;
+	}
+}
@@ -23,6 +23,10 @@ public class EmailSettings extends SettingsBase {
 	@JsonIgnoreProperties(ignoreUnknown = true)
 	public static class SmtpSettings {
 		public String host;
+		/**
+		 * Zero for the default port, 465 if ssl on connect, 25 otherwise
+		 */
+		public int port;
 		public String login;
 		public String password;
 		public boolean startTlsRequired;
@@ -2,16 +2,21 @@ package io.spacedog.client.file;
 
 import java.io.File;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 import com.fasterxml.jackson.databind.type.TypeFactory;
 import com.google.common.collect.Lists;
 
 import io.spacedog.client.SpaceDog;
 import io.spacedog.client.file.SpaceFile.FileList;
+import io.spacedog.client.http.SpaceConcurrency;
 import io.spacedog.client.http.SpaceParams;
+import io.spacedog.client.http.SpaceRequest;
 import io.spacedog.client.http.SpaceResponse;
 import io.spacedog.utils.Json;
 import io.spacedog.utils.Utils;
@@ -60,11 +65,37 @@ public class FileClient implements SpaceParams {
 		return get(bucket, path).asByteStream();
 	}
 
+	/**
+	 * Downloads this file to this local path without loading it in memory.
+	 *
+	 * @return the number of bytes downloaded
+	 */
+	public long download(String bucket, String path, Path target) {
+		return get(bucket, path).transferTo(target);
+	}
+
 	private SpaceResponse get(String bucket, String path) {
+		return getRequest(bucket, path).go(200);
+	}
+
+	private SpaceRequest getRequest(String bucket, String path) {
 		return dog.get("/2/files/{bucket}{path}")//
 				.routeParam("bucket", bucket)//
-				.routeParam("path", path)//
-				.go(200);
+				.routeParam("path", path);
+	}
+
+	public CompletableFuture<byte[]> getAsByteArrayAsync(String bucket, String path) {
+		return getRequest(bucket, path).goAsync(200)//
+				.thenApply(response -> response.asBytes());
+	}
+
+	/**
+	 * Downloads files concurrently with at most the specified number of requests
+	 * in flight.
+	 */
+	public List<byte[]> getAsByteArrays(String bucket, Collection<String> paths, int concurrency) {
+		return SpaceConcurrency.all(paths, concurrency, //
+				path -> getAsByteArrayAsync(bucket, path));
 	}
 
 	public byte[] exportAsByteArray(String bucket, boolean flatZip, String... paths) {
@@ -121,22 +152,57 @@ public class FileClient implements SpaceParams {
 
 			@Override
 			public SpaceFile go() {
+				return request().go(200).asPojo(SpaceFile.class);
+			}
+
+			@Override
+			public CompletableFuture<SpaceFile> goAsync() {
+				return request().goAsync(200)//
+						.thenApply(response -> response.asPojo(SpaceFile.class));
+			}
+
+			private SpaceRequest request() {
 				return dog.put("/2/files/" + bucket + path)//
 						.withContentType(type)//
 						.queryParam(SpaceParams.GROUP_PARAM, group)//
 						.queryParam(SpaceParams.FILE_NAME_PARAM, fileName)//
-						.bodyStream(inputStream, length)//
-						.go(200)//
-						.asPojo(SpaceFile.class);
+						.bodyStream(inputStream, length);
 			}
 		};
 	}
 
+	/**
+	 * Uploads files concurrently with at most the specified number of requests in
+	 * flight.
+	 * 
+	 * @param files files to upload mapped by path
+	 */
+	public List<SpaceFile> upload(String bucket, Map<String, File> files, int concurrency) {
+		return SpaceConcurrency.all(files.entrySet(), concurrency, //
+				entry -> prepareUpload(bucket, entry.getKey()).file(entry.getValue()).goAsync());
+	}
+
 	public long delete(String bucket, String path) {
 		return dog.delete("/2/files/" + bucket + path)//
 				.go(200).get("deleted").asLong(0);
 	}
 
+	public CompletableFuture<Long> deleteAsync(String bucket, String path) {
+		return dog.delete("/2/files/" + bucket + path)//
+				.goAsync(200).thenApply(response -> response.get("deleted").asLong(0));
+	}
+
+	/**
+	 * Deletes files concurrently with at most the specified number of requests in
+	 * flight.
+	 * 
+	 * @return the number of deleted files
+	 */
+	public long delete(String bucket, Collection<String> paths, int concurrency) {
+		return SpaceConcurrency.all(paths, concurrency, path -> deleteAsync(bucket, path))//
+				.stream().mapToLong(Long::longValue).sum();
+	}
+
 	//
 	// Buckets
 	//
@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
+import java.util.concurrent.CompletableFuture;
 
 import io.spacedog.client.http.ContentTypes;
 import io.spacedog.utils.Exceptions;
@@ -67,4 +68,6 @@ public abstract class FileUploadRequestBuilder {
 
 	public abstract SpaceFile go();
 
+	public abstract CompletableFuture<SpaceFile> goAsync();
+
 }
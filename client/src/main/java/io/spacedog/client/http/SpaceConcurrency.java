@@ -0,0 +1,80 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.client.http;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.Lists;
+
+import io.spacedog.utils.Exceptions;
+
+/**
+ * Runs asynchronous calls concurrently with a limit on the number of calls in
+ * flight. The caller thread is blocked until all calls are done.
+ */
+public class SpaceConcurrency {
+
+	/**
+	 * @return the call results in the same order than the items
+	 * @throws RuntimeException the first call failure, no more call is sent
+	 *                          after a failure
+	 */
+	public static <T, R> List<R> all(Collection<T> items, int concurrency, //
+			Function<T, CompletableFuture<R>> call) {
+
+		Semaphore permits = new Semaphore(Math.max(1, concurrency));
+		AtomicBoolean failed = new AtomicBoolean();
+		List<CompletableFuture<R>> futures = Lists.newArrayListWithCapacity(items.size());
+
+		try {
+			for (T item : items) {
+				permits.acquire();
+
+				if (failed.get())
+					break;
+
+				CompletableFuture<R> future = null;
+				try {
+					future = call.apply(item);
+				} catch (RuntimeException e) {
+					future = new CompletableFuture<>();
+					future.completeExceptionally(e);
+				}
+
+				futures.add(future.whenComplete((result, throwable) -> {
+					if (throwable != null)
+						failed.set(true);
+					permits.release();
+				}));
+			}
+
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw Exceptions.runtime(e, "interrupted while sending concurrent calls");
+		}
+
+		return futures.stream().map(SpaceConcurrency::join).collect(Collectors.toList());
+	}
+
+	/**
+	 * Waits for this future and throws its failure as is if it is a runtime
+	 * exception.
+	 */
+	public static <R> R join(CompletableFuture<R> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw e;
+		}
+	}
+}
@@ -17,6 +17,10 @@ public class SpaceEnv {
 
 	public static final String DEBUG = "spacedog.debug";
 	public static final String HTTP_TIMEOUT = "spacedog.http.timeout";
+	public static final String HTTP_MAX_REQUESTS = "spacedog.http.max.requests";
+	public static final String HTTP_MAX_REQUESTS_PER_HOST = "spacedog.http.max.requests.per.host";
+	public static final String HTTP_MAX_IDLE_CONNECTIONS = "spacedog.http.max.idle.connections";
+	public static final String HTTP_KEEP_ALIVE = "spacedog.http.keep.alive";
 	public static final String SUPERDOG_PASSWORD = "spacedog.superdog.password";
 	public static final String BACKEND_ID = "spacedog.backend.id";
 	public static final String BACKEND_REGION = "spacedog.backend.region";
@@ -91,6 +95,24 @@ public class SpaceEnv {
 		properties.setProperty(HTTP_TIMEOUT, Integer.toString(timeout));
 	}
 
+	// maximum number of concurrent async requests
+	public int httpMaxRequests() {
+		return get(HTTP_MAX_REQUESTS, 64);
+	}
+
+	// maximum number of concurrent async requests per host
+	public int httpMaxRequestsPerHost() {
+		return get(HTTP_MAX_REQUESTS_PER_HOST, 32);
+	}
+
+	public int httpMaxIdleConnections() {
+		return get(HTTP_MAX_IDLE_CONNECTIONS, 32);
+	}
+
+	public int httpKeepAliveMillis() {
+		return get(HTTP_KEEP_ALIVE, 5 * 60 * 1000);
+	}
+
 	private String superdogPassword;
 
 	public String superdogPassword() {
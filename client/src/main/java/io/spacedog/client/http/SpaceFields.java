@@ -51,6 +51,7 @@ public interface SpaceFields {
 	String GROUPS_FIELD = "groups";
 	String SESSIONS_FIELD = "sessions";
 	String SESSIONS_ACCESS_TOKEN_FIELD = SESSIONS_FIELD + '.' + ACCESS_TOKEN_FIELD;
+	String CREDENTIALS_ID_FIELD = "credentialsId";
 
 	/// Payloads
 
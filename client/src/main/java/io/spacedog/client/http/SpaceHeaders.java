@@ -9,6 +9,7 @@ public class SpaceHeaders {
 	public static final String SPACEDOG_OWNER = "X-Spacedog-Owner";
 	public static final String SPACEDOG_GROUP = "X-Spacedog-Group";
 	public static final String SPACEDOG_OBJECT_ID = "X-Spacedog-Object-Id";
+	public static final String SPACEDOG_TIMEOUT = "X-Spacedog-Timeout";
 
 	// Common values
 
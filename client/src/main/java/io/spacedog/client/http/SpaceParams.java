@@ -18,14 +18,18 @@ public interface SpaceParams {
 	String BEFORE_PARAM = "before";
 	String NOTIF_PARAM = "notif";
 	String WAIT_FOR_COMPLETION_PARAM = "waitForCompletion";
+	String REQUESTS_PER_SECOND_PARAM = "requestsPerSecond";
 	String WITH_CONTENT_DISPOSITION = "withContentDisposition";
 	String ACCESS_TOKEN_PARAM = "accessToken";
 	String FORCE_META_PARAM = "forceMeta";
 	String FAIL_PARAM = "_fail";
 	String PRESERVE_IDS_PARAM = "preserveIds";
 	String NEXT_PARAM = "next";
+	String CURSOR_PARAM = "cursor";
 	String OP_PARAM = "op";
 	String GROUP_PARAM = "group";
 	String FILES_PARAM = "files";
 	String FILE_NAME_PARAM = "fileName";
+	String FIELDS_PARAM = "fields";
+	String EXCLUDE_PARAM = "exclude";
 }
@@ -9,6 +9,7 @@ import java.io.InputStream;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.NullNode;
@@ -313,25 +314,29 @@ public class SpaceRequest {
 	}
 
 	public SpaceResponse go(int... expectedStatuses) {
-		SpaceResponse response = go();
-		int status = response.status();
+		return checkStatus(go(), expectedStatuses);
+	}
 
-		if (Ints.contains(expectedStatuses, status))
-			return response;
+	public SpaceResponse go() {
+		return new SpaceResponse(this, build());
+	}
 
-		if (response.isJson()) {
-			String code = response.getString("error.code");
-			String message = response.getString("error.message");
-			JsonNode details = response.get("error");
-			// close response before throwing exception
-			Utils.closeSilently(response);
-			throw new SpaceException(code, status, message).withDetails(details);
-		}
+	/**
+	 * Sends this request asynchronously with the shared http client dispatcher.
+	 */
+	public CompletableFuture<SpaceResponse> goAsync() {
+		return SpaceResponse.goAsync(this, build());
+	}
 
-		throw new SpaceException(status, "unexpected response status [%s]", status);
+	/**
+	 * Same as goAsync but the future completes exceptionally with a
+	 * SpaceException if response status is not expected.
+	 */
+	public CompletableFuture<SpaceResponse> goAsync(int... expectedStatuses) {
+		return goAsync().thenApply(response -> checkStatus(response, expectedStatuses));
 	}
 
-	public SpaceResponse go() {
+	private Request build() {
 		if ((forTesting == null && forTestingDefault)//
 				|| (forTesting != null && forTesting))
 			this.setHeader(SpaceHeaders.SPACEDOG_TEST, "true");
@@ -343,7 +348,27 @@ public class SpaceRequest {
 		requestBuilder.url(computeHttpUrl())//
 				.method(method.name(), computeRequestBody());
 
-		return new SpaceResponse(this, requestBuilder.build());
+		return requestBuilder.build();
+	}
+
+	private SpaceResponse checkStatus(SpaceResponse response, int... expectedStatuses) {
+		int status = response.status();
+
+		if (Ints.contains(expectedStatuses, status))
+			return response;
+
+		if (response.isJson()) {
+			String code = response.getString("error.code");
+			String message = response.getString("error.message");
+			JsonNode details = response.get("error");
+			// close response before throwing exception
+			Utils.closeSilently(response);
+			throw new SpaceException(code, status, message).withDetails(details);
+		}
+
+		// close response before throwing exception
+		Utils.closeSilently(response);
+		throw new SpaceException(status, "unexpected response status [%s]", status);
 	}
 
 	private RequestBody computeRequestBody() {
@@ -390,6 +415,14 @@ public class SpaceRequest {
 		debugServerDefault = value;
 	}
 
+	/**
+	 * Sets the server side time budget of this request in milliseconds. The
+	 * server answers 503 or 504 once it is spent.
+	 */
+	public SpaceRequest timeout(long millis) {
+		return setHeader(SpaceHeaders.SPACEDOG_TIMEOUT, millis);
+	}
+
 	public SpaceRequest debugServer() {
 		debugServer = true;
 		return this;
@@ -6,8 +6,12 @@ package io.spacedog.client.http;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
 import org.joda.time.DateTime;
@@ -21,10 +25,15 @@ import com.fasterxml.jackson.databind.node.NullNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
 
 import io.spacedog.utils.Exceptions;
 import io.spacedog.utils.Json;
 import io.spacedog.utils.Utils;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
 import okhttp3.Headers;
 import okhttp3.OkHttpClient;
 import okhttp3.Request;
@@ -47,15 +56,7 @@ public class SpaceResponse implements Closeable {
 	public SpaceResponse(SpaceRequest spaceRequest, Request okRequest) {
 
 		this.okRequest = okRequest;
-		boolean debug = SpaceEnv.env().debug();
-
-		if (debug) {
-			Utils.info();
-			spaceRequest.printRequest(okRequest);
-			Utils.info();
-			Utils.infoNoLn("=>>> ");
-		}
-
+		debugRequest(spaceRequest, okRequest);
 		this.before = DateTime.now();
 
 		try {
@@ -66,8 +67,55 @@ public class SpaceResponse implements Closeable {
 		}
 
 		this.duration = DateTime.now().getMillis() - this.before.getMillis();
+		debugResponse();
+	}
+
+	private SpaceResponse(Request okRequest, Response okResponse, DateTime before) {
+		this.okRequest = okRequest;
+		this.okResponse = okResponse;
+		this.before = before;
+		this.duration = DateTime.now().getMillis() - this.before.getMillis();
+		debugResponse();
+	}
+
+	/**
+	 * Enqueues the request in the shared dispatcher. The future completes in a
+	 * dispatcher thread as soon as response headers are received.
+	 */
+	public static CompletableFuture<SpaceResponse> goAsync(SpaceRequest spaceRequest, Request okRequest) {
+
+		CompletableFuture<SpaceResponse> future = new CompletableFuture<>();
+		debugRequest(spaceRequest, okRequest);
+		DateTime before = DateTime.now();
+
+		okHttpClient().newCall(okRequest).enqueue(new Callback() {
+
+			@Override
+			public void onResponse(Call call, Response response) {
+				future.complete(new SpaceResponse(okRequest, response, before));
+			}
+
+			@Override
+			public void onFailure(Call call, IOException e) {
+				future.completeExceptionally(Exceptions.runtime(e, //
+						"request [%s][%s] failed", okRequest.method(), okRequest.url()));
+			}
+		});
+
+		return future;
+	}
+
+	private static void debugRequest(SpaceRequest spaceRequest, Request okRequest) {
+		if (SpaceEnv.env().debug()) {
+			Utils.info();
+			spaceRequest.printRequest(okRequest);
+			Utils.info();
+			Utils.infoNoLn("=>>> ");
+		}
+	}
 
-		if (debug) {
+	private void debugResponse() {
+		if (SpaceEnv.env().debug()) {
 			Utils.info("%s (%s) in %s ms", okResponse.message(), //
 					okResponse.code(), duration);
 
@@ -82,22 +130,42 @@ public class SpaceResponse implements Closeable {
 		}
 	}
 
-	public static OkHttpClient okHttpClient() {
+	/**
+	 * The shared http client. Its dispatcher and connection pool are configured
+	 * from the spacedog.http.* environment properties. HTTP/2 is negotiated with
+	 * servers supporting it over TLS.
+	 */
+	public static synchronized OkHttpClient okHttpClient() {
 
 		if (okHttpClient == null) {
 			SpaceEnv env = SpaceEnv.env();
 
+			Dispatcher dispatcher = new Dispatcher();
+			dispatcher.setMaxRequests(env.httpMaxRequests());
+			dispatcher.setMaxRequestsPerHost(env.httpMaxRequestsPerHost());
+
 			okHttpClient = new OkHttpClient.Builder()//
 					.followRedirects(true)//
 					.followSslRedirects(false)//
 					.connectTimeout(env.httpTimeoutMillis(), TimeUnit.MILLISECONDS)//
 					.readTimeout(env.httpTimeoutMillis(), TimeUnit.MILLISECONDS)//
 					.writeTimeout(env.httpTimeoutMillis(), TimeUnit.MILLISECONDS)//
+					.dispatcher(dispatcher)//
+					.connectionPool(new ConnectionPool(env.httpMaxIdleConnections(), //
+							env.httpKeepAliveMillis(), TimeUnit.MILLISECONDS))//
 					.build();
 		}
 		return okHttpClient;
 	}
 
+	/**
+	 * Replaces the shared http client. Useful to share a dispatcher and a
+	 * connection pool with other parts of an application.
+	 */
+	public static synchronized void okHttpClient(OkHttpClient client) {
+		okHttpClient = client;
+	}
+
 	public DateTime before() {
 		return before;
 	}
@@ -194,6 +262,45 @@ public class SpaceResponse implements Closeable {
 		return okResponse.body().charStream();
 	}
 
+	/**
+	 * Copies the body to this output without loading it in memory. The response
+	 * is closed afterwards but not the output.
+	 *
+	 * @return the number of bytes copied
+	 */
+	public long transferTo(OutputStream output) {
+
+		if (consumed)
+			throw Exceptions.runtime("payload has already been consumed");
+
+		try {
+			consumed = true;
+			return ByteStreams.copy(asByteStream(), output);
+
+		} catch (IOException e) {
+			throw Exceptions.runtime(e, //
+					"failed to transfer payload of request [%s][%s]", //
+					okRequest.method(), okRequest.url());
+		} finally {
+			this.close();
+		}
+	}
+
+	/**
+	 * Copies the body to this file without loading it in memory. The file is
+	 * created or replaced.
+	 *
+	 * @return the number of bytes copied
+	 */
+	public long transferTo(Path path) {
+		try (OutputStream output = Files.newOutputStream(path)) {
+			return transferTo(output);
+
+		} catch (IOException e) {
+			throw Exceptions.runtime(e, "failed to write file [%s]", path);
+		}
+	}
+
 	public <K> K asPojo(Class<K> pojoClass) {
 		return Json.toPojo(asString(), pojoClass);
 	}
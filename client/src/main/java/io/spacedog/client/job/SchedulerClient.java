@@ -0,0 +1,91 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.client.job;
+
+import java.util.List;
+
+import com.fasterxml.jackson.databind.type.TypeFactory;
+
+import io.spacedog.client.SpaceDog;
+
+public class SchedulerClient {
+
+	private SpaceDog dog;
+
+	public SchedulerClient(SpaceDog dog) {
+		this.dog = dog;
+	}
+
+	public List<BasicSpaceJob> list() {
+		return dog.get("/2/scheduler/jobs").go(200).asPojo(//
+				TypeFactory.defaultInstance()//
+						.constructCollectionLikeType(List.class, BasicSpaceJob.class));
+	}
+
+	public BasicSpaceJob get(String jobName) {
+		return dog.get("/2/scheduler/jobs/{name}")//
+				.routeParam("name", jobName)//
+				.go(200)//
+				.asPojo(BasicSpaceJob.class);
+	}
+
+	public void save(BasicSpaceJob job) {
+		dog.put("/2/scheduler/jobs/{name}")//
+				.routeParam("name", job.name)//
+				.bodyPojo(job)//
+				.go(200).asVoid();
+	}
+
+	public void delete(String jobName) {
+		dog.delete("/2/scheduler/jobs/{name}")//
+				.routeParam("name", jobName)//
+				.go(200).asVoid();
+	}
+
+	/**
+	 * Schedules an immediate execution of this job.
+	 */
+	public SpaceTask execute(String jobName) {
+		return dog.post("/2/scheduler/jobs/{name}/_execute")//
+				.routeParam("name", jobName)//
+				.go(201)//
+				.asPojo(SpaceTask.class);
+	}
+
+	/**
+	 * @return the scheduled, in progress and past executions of this job, most
+	 *         recent first
+	 */
+	public List<SpaceTask> tasks(String jobName) {
+		return tasks(jobName, 0, 20);
+	}
+
+	public List<SpaceTask> tasks(String jobName, int from, int size) {
+		return dog.get("/2/scheduler/jobs/{name}/tasks")//
+				.routeParam("name", jobName)//
+				.from(from)//
+				.size(size)//
+				.go(200)//
+				.asPojo(TypeFactory.defaultInstance()//
+						.constructCollectionLikeType(List.class, SpaceTask.class));
+	}
+
+	public SpaceTask getTask(String jobName, String taskId) {
+		return dog.get("/2/scheduler/jobs/{name}/tasks/{id}")//
+				.routeParam("name", jobName)//
+				.routeParam("id", taskId)//
+				.go(200)//
+				.asPojo(SpaceTask.class);
+	}
+
+	/**
+	 * Cancels this task if not yet started or deletes it from history.
+	 */
+	public void deleteTask(String jobName, String taskId) {
+		dog.delete("/2/scheduler/jobs/{name}/tasks/{id}")//
+				.routeParam("name", jobName)//
+				.routeParam("id", taskId)//
+				.go(200).asVoid();
+	}
+}
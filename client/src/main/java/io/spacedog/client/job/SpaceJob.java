@@ -13,8 +13,7 @@ import io.spacedog.client.settings.Settings;
 @JsonTypeInfo(use = JsonTypeInfo.Id.NAME, //
 		include = JsonTypeInfo.As.PROPERTY, property = "type")
 @JsonSubTypes({ //
-		@Type(value = BasicSpaceJob.class, name = "basic"), //
-		@Type(value = LambdaJob.class, name = "lambda")//
+		@Type(value = BasicSpaceJob.class, name = "basic")//
 })
 @JsonIgnoreProperties(ignoreUnknown = true)
 @JsonAutoDetect(fieldVisibility = Visibility.ANY, //
@@ -25,6 +24,11 @@ public abstract class SpaceJob implements Settings {
 
 	public String name;
 	public int retries = 0;
+	public int timeoutInSeconds = 240;
+	/**
+	 * Schedule of this job: rate(5 minutes), cron(0 12 * * ? *) or a standard
+	 * five fields cron expression. UTC. Null means executed on demand only.
+	 */
 	public String when;
 	public Object payload;
 
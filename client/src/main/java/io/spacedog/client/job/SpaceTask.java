@@ -2,28 +2,76 @@ package io.spacedog.client.job;
 
 import org.joda.time.DateTime;
 
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
 import io.spacedog.client.bulk.ServiceCall;
 
+/**
+ * A job execution. Scheduled tasks are claimed by one server, executed and
+ * kept as execution history once completed or failed.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonAutoDetect(fieldVisibility = Visibility.ANY, //
+		getterVisibility = Visibility.NONE, //
+		isGetterVisibility = Visibility.NONE, //
+		setterVisibility = Visibility.NONE)
 public class SpaceTask {
 
 	public enum Status {
-		schedulled, ready, in_progress, completed, cancelled
+		scheduled, in_progress, completed, failed, cancelled
 	}
 
+	public String id;
+	public String backendId;
 	public String jobName;
+	/**
+	 * True if executed on demand, false if scheduled from the job schedule
+	 */
+	public boolean onDemand;
 	public ServiceCall request;
+	/**
+	 * Date of the execution according to the job schedule. It is not changed by
+	 * retries so that the next execution is scheduled from it.
+	 */
 	public DateTime scheduled;
+	/**
+	 * Date of the next try once a try has failed
+	 */
+	public DateTime retryAt;
 	public DateTime started;
 	public DateTime stopped;
+	public DateTime timeoutAt;
 	public int tries = 0;
+	public int retries = 0;
+	public int timeoutInSeconds;
 	public Status status;
+	public String claimedBy;
+	public String error;
 	public Object response;
 
+	@JsonIgnore
+	public String version;
+
 	public String id() {
-		return jobName + '-' + scheduled.getMillis();
+		return id;
+	}
+
+	/**
+	 * @return the date of the next try
+	 */
+	public DateTime due() {
+		return retryAt == null ? scheduled : retryAt;
 	}
 
 	public long delay() {
-		return scheduled.getMillis() - DateTime.now().getMillis();
+		return due().getMillis() - DateTime.now().getMillis();
+	}
+
+	public static String id(String backendId, String jobName, DateTime scheduled) {
+		return String.join("-", backendId, jobName, //
+				String.valueOf(scheduled.getMillis()));
 	}
 }
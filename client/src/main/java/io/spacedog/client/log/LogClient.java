@@ -5,6 +5,7 @@ import org.joda.time.DateTime;
 import io.spacedog.client.SpaceDog;
 import io.spacedog.client.elastic.ESSearchSourceBuilder;
 import io.spacedog.client.http.SpaceParams;
+import io.spacedog.client.http.SpaceResponse;
 
 public class LogClient implements SpaceParams {
 
@@ -44,6 +45,29 @@ public class LogClient implements SpaceParams {
 				.asPojo(LogSearchResults.class);
 	}
 
+	/**
+	 * Exports logs matching this query sorted by receive date as NDJSON. Each
+	 * line contains a log id and source. Stream the response body to avoid
+	 * loading all logs in memory.
+	 */
+	public SpaceResponse export(String query, boolean refresh) {
+		return dog.post("/2/logs/_export").refresh(refresh)//
+				.bodyJson(query).go(200);
+	}
+
+	/**
+	 * @param interval minute, hour, day, week or month
+	 * @param groupBy  method, route and/or status
+	 */
+	public LogMetrics metrics(DateTime from, DateTime to, String interval, String... groupBy) {
+		return dog.get("/2/logs/_metrics")//
+				.queryParam("from", from)//
+				.queryParam("to", to)//
+				.queryParam("interval", interval)//
+				.queryParam("groupBy", String.join(",", groupBy))//
+				.go(200).asPojo(LogMetrics.class);
+	}
+
 	public void delete(DateTime before) {
 		dog.delete("/2/logs").queryParam("before", before).go(200).asVoid();
 	}
@@ -0,0 +1,45 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.client.log;
+
+import java.util.List;
+
+import org.joda.time.DateTime;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+
+/**
+ * Request metrics aggregated from per minute rollups. Buckets are sorted by
+ * date and only contain the method, route and status fields they are grouped
+ * by. Latencies are in milliseconds and percentiles are approximated with the
+ * upper bounds of the rollup latency histogram buckets.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public final class LogMetrics {
+	public String interval;
+	public List<Bucket> buckets;
+
+	@JsonInclude(Include.NON_NULL)
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class Bucket {
+		public DateTime at;
+		public String method;
+		public String route;
+		public Integer status;
+		public long count;
+		public Latency latency;
+	}
+
+	@JsonIgnoreProperties(ignoreUnknown = true)
+	public static class Latency {
+		public double avg;
+		public long min;
+		public long max;
+		public long p50;
+		public long p95;
+		public long p99;
+	}
+}
@@ -171,6 +171,15 @@ public class Exceptions {
 		return exception(code, 409, message, args);
 	}
 
+	//
+	// 429
+	//
+
+	public static SpaceException tooManyInvalidChallenges() {
+		return exception("too-many-invalid-challenges", 429, //
+				"too many invalid password challenges, retry later");
+	}
+
 	//
 	// 500
 	//
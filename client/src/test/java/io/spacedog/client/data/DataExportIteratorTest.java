@@ -0,0 +1,52 @@
+package io.spacedog.client.data;
+
+import java.io.ByteArrayInputStream;
+import java.util.NoSuchElementException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class DataExportIteratorTest extends Assert {
+
+	public static class Message {
+		public String text;
+		public long priority;
+	}
+
+	@Test
+	public void shouldIterateOverExport() {
+
+		String export = "{\"id\":\"1\",\"source\":{\"text\":\"hi\",\"priority\":2}}\n"//
+				+ "{\"id\":\"2\",\"source\":{\"text\":\"ho\",\"priority\":3}}\n";
+
+		DataExportIterator<Message> iterator = new DataExportIterator<>(//
+				new ByteArrayInputStream(export.getBytes()), "message", Message.class);
+
+		assertTrue(iterator.hasNext());
+		DataWrap<Message> wrap = iterator.next();
+		assertEquals("1", wrap.id());
+		assertEquals("message", wrap.type());
+		assertEquals("hi", wrap.source().text);
+		assertEquals(2, wrap.source().priority);
+
+		wrap = iterator.next();
+		assertEquals("2", wrap.id());
+		assertEquals("ho", wrap.source().text);
+
+		assertFalse(iterator.hasNext());
+		try {
+			iterator.next();
+			fail();
+		} catch (NoSuchElementException ignore) {
+		}
+	}
+
+	@Test
+	public void shouldIterateOverEmptyExport() {
+		DataExportIterator<ObjectNode> iterator = new DataExportIterator<>(//
+				new ByteArrayInputStream(new byte[0]), "message", ObjectNode.class);
+		assertFalse(iterator.hasNext());
+	}
+}
@@ -0,0 +1,72 @@
+package io.spacedog.client.http;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import io.spacedog.utils.Exceptions;
+
+public class SpaceConcurrencyTest extends Assert {
+
+	@Test
+	public void callsAreLimited() {
+
+		ExecutorService executor = Executors.newFixedThreadPool(10);
+		AtomicInteger inFlight = new AtomicInteger();
+		AtomicInteger maxInFlight = new AtomicInteger();
+
+		try {
+			List<Integer> items = Lists.newArrayList(1, 2, 3, 4, 5, 6, 7, 8, 9, 10);
+			List<Integer> results = SpaceConcurrency.all(items, 3, //
+					item -> CompletableFuture.supplyAsync(() -> {
+						maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+						sleep(20);
+						inFlight.decrementAndGet();
+						return item * 2;
+					}, executor));
+
+			// results are in items order
+			assertEquals(Lists.newArrayList(2, 4, 6, 8, 10, 12, 14, 16, 18, 20), results);
+			assertTrue(maxInFlight.get() <= 3);
+
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void firstFailureIsThrown() {
+
+		AtomicInteger calls = new AtomicInteger();
+
+		try {
+			SpaceConcurrency.all(Lists.newArrayList(1, 2, 3), 1, item -> {
+				calls.incrementAndGet();
+				if (item == 1)
+					throw new SpaceException(400, "item [%s] is invalid", item);
+				return CompletableFuture.completedFuture(item);
+			});
+			fail();
+
+		} catch (SpaceException e) {
+			assertEquals(400, e.httpStatus());
+			// no more call after a failure
+			assertEquals(1, calls.get());
+		}
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			throw Exceptions.runtime(e);
+		}
+	}
+}
@@ -28,6 +28,7 @@ public class CrossOriginFilter implements SpaceFilter {
 
 		return payload.withAllowMethods(SpaceHeaders.ALLOW_METHODS) //
 				.withAllowHeaders(SpaceHeaders.AUTHORIZATION, SpaceHeaders.CONTENT_TYPE, //
-						SpaceHeaders.CONTENT_ENCODING, SpaceHeaders.SPACEDOG_DEBUG);
+						SpaceHeaders.CONTENT_ENCODING, SpaceHeaders.SPACEDOG_DEBUG, //
+						SpaceHeaders.IF_NONE_MATCH, SpaceHeaders.IF_MATCH);
 	}
 }
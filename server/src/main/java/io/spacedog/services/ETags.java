@@ -0,0 +1,132 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services;
+
+import java.util.function.Supplier;
+
+import com.google.common.base.Strings;
+
+import io.spacedog.client.http.SpaceHeaders;
+import io.spacedog.client.http.SpaceException;
+import io.spacedog.client.http.SpaceParams;
+import io.spacedog.client.http.SpaceStatus;
+import io.spacedog.utils.Exceptions;
+import io.spacedog.utils.Utils;
+import net.codestory.http.Context;
+import net.codestory.http.constants.HttpStatus;
+import net.codestory.http.payload.Payload;
+
+/**
+ * Strong entity tags of versioned objects. The tag of an object is its quoted
+ * elasticsearch version. Tags of partial representations like projected
+ * sources get a suffix so that they never match the tag of the full object.
+ */
+public class ETags {
+
+	public static String of(String version) {
+		return of(version, null);
+	}
+
+	/**
+	 * @return null if version is null
+	 */
+	public static String of(String version, String variant) {
+		if (Strings.isNullOrEmpty(version))
+			return null;
+
+		return Strings.isNullOrEmpty(variant) //
+				? '"' + version + '"'
+				: '"' + version + '-' + variant + '"';
+	}
+
+	/**
+	 * @return true if this If-None-Match header value matches this tag. Weak
+	 *         tags are compared as strong tags since GET requests only need a
+	 *         weak comparison.
+	 */
+	public static boolean matches(String ifNoneMatch, String etag) {
+		if (Strings.isNullOrEmpty(ifNoneMatch) || etag == null)
+			return false;
+
+		for (String tag : Utils.split(ifNoneMatch, ",")) {
+			tag = tag.trim();
+			if (tag.equals("*"))
+				return true;
+			if (tag.startsWith("W/"))
+				tag = tag.substring(2);
+			if (tag.equals(etag))
+				return true;
+		}
+		return false;
+	}
+
+	public static boolean isNotModified(Context context, String etag) {
+		return matches(context.header(SpaceHeaders.IF_NONE_MATCH), etag);
+	}
+
+	public static Payload notModified(String etag) {
+		return new Payload(HttpStatus.NOT_MODIFIED)//
+				.withHeader(SpaceHeaders.ETAG, etag);
+	}
+
+	/**
+	 * @return this payload with this tag if not null
+	 */
+	public static Payload with(Payload payload, String etag) {
+		return etag == null ? payload //
+				: payload.withHeader(SpaceHeaders.ETAG, etag);
+	}
+
+	/**
+	 * @return the version request parameter or else the version of the If-Match
+	 *         header. If-Match any requires the object to exist, so it gives the
+	 *         current version of the object, null if none.
+	 * @throws SpaceException 412 if If-Match is any and the current version
+	 *                        supplier throws a 404 since the object does not
+	 *                        exist
+	 */
+	public static String version(Context context, Supplier<String> currentVersion) {
+		return version(context.query().get(SpaceParams.VERSION_PARAM), //
+				context.header(SpaceHeaders.IF_MATCH), currentVersion);
+	}
+
+	static String version(String version, String ifMatch, Supplier<String> currentVersion) {
+		if (!Strings.isNullOrEmpty(version))
+			return version;
+
+		if (ifMatch == null || !ifMatch.trim().equals("*"))
+			return versionOf(ifMatch);
+
+		try {
+			return currentVersion.get();
+
+		} catch (SpaceException e) {
+			if (e.httpStatus() == SpaceStatus.NOT_FOUND)
+				throw Exceptions.exception("precondition-failed", //
+						SpaceStatus.PRECONDITION_FAILED, e, "If-Match [*] failed: %s", e.getMessage());
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the version of this If-Match header value, null if none or any
+	 */
+	static String versionOf(String ifMatch) {
+		if (Strings.isNullOrEmpty(ifMatch) || ifMatch.trim().equals("*"))
+			return null;
+
+		ifMatch = ifMatch.trim();
+		if (ifMatch.startsWith("W/"))
+			throw Exceptions.illegalArgument(//
+					"If-Match only accepts strong tags, not [%s]", ifMatch);
+
+		if (ifMatch.contains(","))
+			throw Exceptions.illegalArgument(//
+					"If-Match only accepts a single tag, not [%s]", ifMatch);
+
+		String tag = ifMatch.replace("\"", "");
+		int variant = tag.indexOf('-');
+		return variant < 0 ? tag : tag.substring(0, variant);
+	}
+}
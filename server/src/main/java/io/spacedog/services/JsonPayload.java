@@ -118,8 +118,20 @@ public class JsonPayload implements SpaceFields {
 				.withHeader(SpaceHeaders.SPACEDOG_OBJECT_ID, id);
 	}
 
+	/**
+	 * @return an accepted payload with the id and status location of this task
+	 */
+	public static JsonPayload submitted(String taskId) {
+		return status(HttpStatus.ACCEPTED)//
+				.withFields("taskId", taskId)//
+				.withLocation("/2/tasks/" + taskId);
+	}
+
 	public static JsonPayload saved(DataWrap<?> object) {
-		return JsonPayload.saved(object.isCreated()).withContent(object);
+		JsonPayload payload = JsonPayload.saved(object.isCreated()).withContent(object);
+		String etag = ETags.of(object.version());
+		return etag == null ? payload //
+				: payload.withHeader(SpaceHeaders.ETAG, etag);
 	}
 
 	//
@@ -4,22 +4,41 @@
 package io.spacedog.services;
 
 import java.io.Closeable;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
 
 import org.apache.http.HttpHost;
 import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
 import org.elasticsearch.search.aggregations.Aggregation;
 import org.joda.time.DateTimeZone;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import io.spacedog.client.credentials.Credentials;
 import io.spacedog.client.http.SpaceBackend;
+import io.spacedog.client.http.SpaceHeaders;
 import io.spacedog.services.admin.AdminResty;
 import io.spacedog.services.admin.HealthCheckResty;
+import io.spacedog.services.admin.TaskResty;
 import io.spacedog.services.bulk.BulkResty;
 import io.spacedog.services.credentials.CredentialsResty;
 import io.spacedog.services.credentials.LinkedinResty;
@@ -31,8 +50,10 @@ import io.spacedog.services.email.EmailResty;
 import io.spacedog.services.file.FileResty;
 import io.spacedog.services.file.WebResty;
 import io.spacedog.services.job.JobResty;
+import io.spacedog.services.job.SchedulerResty;
 import io.spacedog.services.log.LogFilter;
 import io.spacedog.services.log.LogResty;
+import io.spacedog.services.log.RouteTemplates;
 import io.spacedog.services.push.ApplicationResty;
 import io.spacedog.services.push.PushResty;
 import io.spacedog.services.settings.SettingsResty;
@@ -47,6 +68,7 @@ import io.spacedog.utils.Utils;
 import net.codestory.http.Request;
 import net.codestory.http.Response;
 import net.codestory.http.WebServer;
+import net.codestory.http.constants.HttpStatus;
 import net.codestory.http.extensions.Extensions;
 import net.codestory.http.misc.Env;
 import net.codestory.http.payload.Payload;
@@ -59,6 +81,8 @@ public class Server implements Extensions {
 	private ElasticClient elasticClient;
 	private FluentServer fluent;
 	private Info info;
+	private volatile boolean ready;
+	private Map<String, Long> phaseDurations = Collections.synchronizedMap(Maps.newLinkedHashMap());
 
 	public ElasticClient elasticClient() {
 		return elasticClient;
@@ -69,14 +93,29 @@ public class Server implements Extensions {
 		server.start();
 	}
 
+	/**
+	 * Starts the http listener in parallel with the elastic phases. Requests
+	 * are rejected by the readiness gate until the elastic phases are done.
+	 */
 	public void start() {
 
+		ExecutorService startup = Executors.newFixedThreadPool(4, //
+				new ThreadFactoryBuilder().setNameFormat("startup-%d").setDaemon(true).build());
+
 		try {
-			init();
-			initElasticClient();
-			elasticIsStarted();
-			startFluent();
-			fluentIsStarted();
+			startTime = System.currentTimeMillis();
+			phase("init", this::init);
+
+			CompletableFuture<Void> fluentPhase = CompletableFuture.runAsync(//
+					() -> phase("fluent", this::startFluent), startup);
+
+			phase("elastic", this::initElasticClient);
+			phase("backend", () -> elasticIsStarted(startup));
+			join(fluentPhase);
+
+			ready = true;
+			phase("services", this::fluentIsStarted);
+			Runtime.getRuntime().addShutdownHook(new Thread(this::stop, "server-stop"));
 			logStartupDuration();
 
 		} catch (Throwable t) {
@@ -86,11 +125,33 @@ public class Server implements Extensions {
 			if (elasticClient != null)
 				elasticClient.close();
 			System.exit(-1);
+
+		} finally {
+			startup.shutdown();
 		}
 	}
 
+	/**
+	 * Stops the http listener before flushing in memory metrics so that no
+	 * request is recorded after the last flush.
+	 */
+	public void stop() {
+		ready = false;
+		if (fluent != null)
+			fluent.stop();
+		Services.metrics().close();
+		if (elasticClient != null)
+			elasticClient.close();
+	}
+
+	/**
+	 * @return true when this server is started and accepts requests
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
 	protected void init() {
-		startTime = System.currentTimeMillis();
 		DateTimeZone.setDefault(DateTimes.PARIS);
 		initJsonMapper();
 		ServerConfig.log();
@@ -112,27 +173,77 @@ public class Server implements Extensions {
 		int port1 = ServerConfig.elasticSearchPort1();
 		int port2 = ServerConfig.elasticSearchPort2();
 
-		RestHighLevelClient client = new RestHighLevelClient(//
-				RestClient.builder(new HttpHost(host, port1, scheme), //
-						new HttpHost(host, port2, scheme)));
+		RestClientBuilder builder = RestClient.builder(//
+				new HttpHost(host, port1, scheme), //
+				new HttpHost(host, port2, scheme));
+
+		builder.setRequestConfigCallback(config -> config//
+				.setConnectTimeout(ServerConfig.elasticSearchConnectTimeout())//
+				.setSocketTimeout(ServerConfig.elasticSearchSocketTimeout()));
+
+		builder.setHttpClientConfigCallback(config -> {
+			config.setMaxConnTotal(ServerConfig.elasticSearchMaxConnections())//
+					.setMaxConnPerRoute(ServerConfig.elasticSearchMaxConnectionsPerRoute());
+
+			long keepAlive = ServerConfig.elasticSearchKeepAlive();
+			if (keepAlive > 0)
+				config.setKeepAliveStrategy((response, context) -> keepAlive);
 
-		this.elasticClient = new ElasticClient(client);
+			return config;
+		});
+
+		int sniffInterval = ServerConfig.elasticSearchSniffInterval();
+		SniffOnFailureListener sniffOnFailure = new SniffOnFailureListener();
+		if (sniffInterval > 0)
+			builder.setFailureListener(sniffOnFailure);
+
+		RestHighLevelClient client = new RestHighLevelClient(builder);
+		Sniffer sniffer = null;
+
+		if (sniffInterval > 0) {
+			sniffer = Sniffer.builder(client.getLowLevelClient())//
+					.setSniffIntervalMillis(sniffInterval)//
+					.build();
+			sniffOnFailure.setSniffer(sniffer);
+		}
+
+		this.elasticClient = new ElasticClient(client, sniffer);
 	}
 
-	protected void elasticIsStarted() {
-		Services.data().init();
-		initBackendIndices();
+	protected void elasticIsStarted(Executor executor) {
+		join(CompletableFuture.allOf(//
+				CompletableFuture.runAsync(Services.data()::init, executor), //
+				CompletableFuture.runAsync(() -> initBackendIndices(executor), executor)));
 	}
 
 	public void initBackendIndices() {
-		Services.credentials().initIndex();
-		Services.logs().initIndex();
+		initBackendIndices(MoreExecutors.directExecutor());
+	}
+
+	/**
+	 * Indices are independent and checked or created in parallel if the
+	 * executor allows it. Metric, task and outbox indices are not checked here
+	 * since they are checked on first write and read as empty when missing.
+	 * Credentials, session and log indices are since the backend filter, the
+	 * session checks and the log filter use them on every request and their
+	 * mappings must be up to date before the first one.
+	 */
+	protected void initBackendIndices(Executor executor) {
+		join(CompletableFuture.allOf(//
+				CompletableFuture.runAsync(Services.credentials()::initIndex, executor), //
+				CompletableFuture.runAsync(Services.sessions()::initIndex, executor), //
+				CompletableFuture.runAsync(Services.logs()::initIndex, executor)));
 	}
 
 	public void clear() {
 		Services.files().deleteAllBuckets();
 		elasticClient().deleteAbsolutelyAllIndices();
 		initBackendIndices();
+
+		// indices checked on first use must be checked again
+		Services.metrics().initIndex();
+		Services.scheduler().initIndex();
+		Services.emails().initIndex();
 	}
 
 	protected void startFluent() {
@@ -146,27 +257,24 @@ public class Server implements Extensions {
 	}
 
 	protected void fluentIsStarted() {
+		Services.scheduler().start();
+		Services.emails().start();
 	}
 
+	static final List<Class<?>> RESTIES = ImmutableList.of(//
+			HealthCheckResty.class, AdminResty.class, SnapshotResty.class, //
+			DataResty.class, JobResty.class, SchedulerResty.class, //
+			SchemaResty.class, CredentialsResty.class, LinkedinResty.class, //
+			BulkResty.class, EmailResty.class, SmsResty.class, LogResty.class, //
+			PushResty.class, ApplicationResty.class, StripeResty.class, //
+			TaskResty.class, SettingsResty.class);
+
 	protected void configure(Routes routes) {
-		routes.add(HealthCheckResty.class)//
-				.add(AdminResty.class)//
-				.add(SnapshotResty.class)//
-				.add(DataResty.class)//
-				.add(JobResty.class)//
-				.add(SchemaResty.class)//
-				.add(CredentialsResty.class)//
-				.add(LinkedinResty.class)//
-				.add(BulkResty.class)//
-				.add(EmailResty.class)//
-				.add(SmsResty.class)//
-				.add(LogResty.class)//
-				.add(PushResty.class)//
-				.add(ApplicationResty.class)//
-				.add(StripeResty.class)//
-				.add(SettingsResty.class);
-
-		routes.filter(SpaceContext.checkBackendFilter())//
+		RESTIES.forEach(resty -> routes.add(resty));
+		Services.metrics().routes(routeTemplates());
+
+		routes.filter(readinessFilter(this::isReady))//
+				.filter(SpaceContext.checkBackendFilter())//
 				.filter(new CrossOriginFilter())//
 				.filter(new LogFilter())//
 				.filter(new DebugFilter())//
@@ -179,6 +287,17 @@ public class Server implements Extensions {
 		routes.setExtensions(this);
 	}
 
+	/**
+	 * @return the route templates of the resties and filters of this server
+	 */
+	static RouteTemplates routeTemplates() {
+		RouteTemplates templates = new RouteTemplates()//
+				.prefix(FileResty.PREFIX)//
+				.prefix(WebResty.PREFIX);
+		RESTIES.forEach(resty -> templates.add(resty));
+		return templates;
+	}
+
 	/**
 	 * Replace fluent http default mapper by Json mapper
 	 */
@@ -204,8 +323,43 @@ public class Server implements Extensions {
 	// Implementation
 	//
 
+	static SpaceFilter readinessFilter(BooleanSupplier ready) {
+		return (uri, context, nextFilter) -> ready.getAsBoolean() //
+				? nextFilter.get()
+				: JsonPayload.error(HttpStatus.SERVICE_UNAVAILABLE)//
+						.withError("server is starting")//
+						.withHeader(SpaceHeaders.RETRY_AFTER, "1")//
+						.build();
+	}
+
+	/**
+	 * @return the duration in milliseconds of the startup phases already done
+	 */
+	public Map<String, Long> phaseDurations() {
+		return Collections.unmodifiableMap(phaseDurations);
+	}
+
+	private void phase(String name, Runnable phase) {
+		long start = System.currentTimeMillis();
+		phase.run();
+		long duration = System.currentTimeMillis() - start;
+		phaseDurations.put(name, duration);
+		Utils.info("[SpaceDog] Startup phase [%s] done in %s ms", name, duration);
+	}
+
+	private static void join(CompletableFuture<Void> future) {
+		try {
+			future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw e;
+		}
+	}
+
 	private void logStartupDuration() {
-		System.err.println("Started in " + (System.currentTimeMillis() - startTime) + " ms");
+		System.err.println("Started in " + (System.currentTimeMillis() - startTime) //
+				+ " ms " + phaseDurations);
 	}
 
 	private static class FluentServer extends WebServer {
@@ -261,17 +415,40 @@ public class Server implements Extensions {
 				: context.backend();
 	}
 
+	/**
+	 * @return the deadline of the current http request, empty if none or if no
+	 *         context like in background workers
+	 */
+	public static Optional<SpaceDeadline> deadline() {
+		SpaceContext context = threadLocalSpaceContext.get();
+		return context == null ? Optional.empty() : context.deadline();
+	}
+
 	public static void runWithContext(String backendId, //
 			Credentials credentials, Runnable action) {
 
+		callWithContext(new SpaceContext(backendId, credentials), () -> {
+			action.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Calls this action with this context set as the thread local space context.
+	 * Closeables registered by the action are closed if this context is the
+	 * outermost one.
+	 */
+	public static <T> T callWithContext(SpaceContext context, Supplier<T> action) {
+
 		SpaceContext oldContext = threadLocalSpaceContext.get();
 
 		try {
-			threadLocalSpaceContext.set(//
-					new SpaceContext(backendId, credentials));
-			action.run();
+			threadLocalSpaceContext.set(context);
+			return action.get();
 
 		} finally {
+			if (oldContext == null)
+				doCloseAfterAll();
 			threadLocalSpaceContext.set(oldContext);
 		}
 	}
@@ -4,18 +4,26 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
+import java.util.Set;
+
+import org.elasticsearch.client.RestClientBuilder;
 
 import com.amazonaws.regions.Regions;
+import com.google.common.collect.Sets;
 
 import io.spacedog.client.file.FileStoreType;
 import io.spacedog.client.http.SpaceBackend;
 import io.spacedog.client.http.SpaceEnv;
+import io.spacedog.services.db.elastic.ElasticIndex;
+import io.spacedog.services.log.LogPartitioning;
 import io.spacedog.utils.Exceptions;
 import io.spacedog.utils.Utils;
 
 public class ServerConfig {
 
 	private static final String PORT = "spacedog.server.port";
+	private static final String REQUEST_TIMEOUT = "spacedog.server.request.timeout";
+	private static final String LONG_REQUEST_TIMEOUT = "spacedog.server.long.request.timeout";
 	private static final String HOME_PATH = "spacedog.server.home.path";
 	private static final String PRODUCTION = "spacedog.server.production";
 	private static final String OFFLINE = "spacedog.server.offline";
@@ -23,6 +31,21 @@ public class ServerConfig {
 	private static final String ELASTIC_SEARCH_SCHEME = "spacedog.server.elasticsearch.scheme";
 	private static final String ELASTIC_SEARCH_PORT1 = "spacedog.server.elasticsearch.port1";
 	private static final String ELASTIC_SEARCH_PORT2 = "spacedog.server.elasticsearch.port2";
+	private static final String ELASTIC_SEARCH_REFRESH_WINDOW = "spacedog.server.elasticsearch.refresh.window";
+	private static final String ELASTIC_SEARCH_MAX_CONNECTIONS = "spacedog.server.elasticsearch.max.connections";
+	private static final String ELASTIC_SEARCH_MAX_CONNECTIONS_PER_ROUTE = "spacedog.server.elasticsearch.max.connections.per.route";
+	private static final String ELASTIC_SEARCH_CONNECT_TIMEOUT = "spacedog.server.elasticsearch.connect.timeout";
+	private static final String ELASTIC_SEARCH_SOCKET_TIMEOUT = "spacedog.server.elasticsearch.socket.timeout";
+	private static final String ELASTIC_SEARCH_KEEP_ALIVE = "spacedog.server.elasticsearch.keep.alive";
+	private static final String ELASTIC_SEARCH_SNIFF_INTERVAL = "spacedog.server.elasticsearch.sniff.interval";
+	private static final String ELASTIC_SEARCH_SHARED_SERVICES = "spacedog.server.elasticsearch.shared.services";
+	private static final String LOG_PARTITIONING = "spacedog.server.log.partitioning";
+	private static final String METRICS_FLUSH_INTERVAL = "spacedog.server.metrics.flush.interval";
+	private static final String JOBS_WORKERS = "spacedog.server.jobs.workers";
+	private static final String JOBS_POLL_INTERVAL = "spacedog.server.jobs.poll.interval";
+	private static final String JOBS_HISTORY_DAYS = "spacedog.server.jobs.history.days";
+	private static final String SESSIONS_CACHE_TTL = "spacedog.server.sessions.cache.ttl";
+	private static final String SESSIONS_CACHE_SIZE = "spacedog.server.sessions.cache.size";
 	private static final String FILES_STORE_PATH = "spacedog.server.files.store.path";
 	private static final String GREEN_CHECK = "spacedog.server.green.check";
 	private static final String GREEN_TIMEOUT = "spacedog.server.green.timeout";
@@ -33,6 +56,10 @@ public class ServerConfig {
 	private static final String MAIL_SMTP_DEBUG = "spacedog.server.mail.smtp.debug";
 	private static final String MAIL_DOMAIN = "spacedog.server.mail.domain";
 	private static final String MAIL_MAILGUN_KEY = "spacedog.server.mail.mailgun.key";
+	private static final String MAIL_WORKERS = "spacedog.server.mail.workers";
+	private static final String MAIL_POLL_INTERVAL = "spacedog.server.mail.poll.interval";
+	private static final String MAIL_BATCH_SIZE = "spacedog.server.mail.batch.size";
+	private static final String MAIL_HISTORY_DAYS = "spacedog.server.mail.history.days";
 	private static final String AWS_BUCKET_PREFIX = "spacedog.server.aws.bucket.prefix";
 
 	public static Path homePath() {
@@ -65,6 +92,125 @@ public class ServerConfig {
 		return SpaceEnv.env().get(ELASTIC_SEARCH_PORT2, 9201);
 	}
 
+	/**
+	 * In milliseconds, zero means refreshes are never suppressed
+	 */
+	public static long elasticSearchRefreshWindow() {
+		return SpaceEnv.env().get(ELASTIC_SEARCH_REFRESH_WINDOW, 0);
+	}
+
+	public static int elasticSearchMaxConnections() {
+		return SpaceEnv.env().get(ELASTIC_SEARCH_MAX_CONNECTIONS, //
+				RestClientBuilder.DEFAULT_MAX_CONN_TOTAL);
+	}
+
+	public static int elasticSearchMaxConnectionsPerRoute() {
+		return SpaceEnv.env().get(ELASTIC_SEARCH_MAX_CONNECTIONS_PER_ROUTE, //
+				RestClientBuilder.DEFAULT_MAX_CONN_PER_ROUTE);
+	}
+
+	/**
+	 * In milliseconds
+	 */
+	public static int elasticSearchConnectTimeout() {
+		return SpaceEnv.env().get(ELASTIC_SEARCH_CONNECT_TIMEOUT, //
+				RestClientBuilder.DEFAULT_CONNECT_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * In milliseconds
+	 */
+	public static int elasticSearchSocketTimeout() {
+		return SpaceEnv.env().get(ELASTIC_SEARCH_SOCKET_TIMEOUT, //
+				RestClientBuilder.DEFAULT_SOCKET_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * In milliseconds, zero means connections are kept alive as long as
+	 * elasticsearch allows it
+	 */
+	public static int elasticSearchKeepAlive() {
+		return SpaceEnv.env().get(ELASTIC_SEARCH_KEEP_ALIVE, 0);
+	}
+
+	/**
+	 * In milliseconds, zero disables cluster nodes sniffing
+	 */
+	public static int elasticSearchSniffInterval() {
+		return SpaceEnv.env().get(ELASTIC_SEARCH_SNIFF_INTERVAL, 0);
+	}
+
+	/**
+	 * Comma separated services whose new backend indices are created in shared
+	 * indices. Only services listed in ElasticIndex.SHAREABLE_SERVICES are
+	 * accepted.
+	 */
+	public static Set<String> elasticSearchSharedServices() {
+		String services = SpaceEnv.env().get(ELASTIC_SEARCH_SHARED_SERVICES, "");
+		Set<String> result = Sets.newHashSet();
+
+		for (String service : services.split(",")) {
+			service = service.trim();
+			if (service.isEmpty())
+				continue;
+			if (!ElasticIndex.SHAREABLE_SERVICES.contains(service))
+				throw Exceptions.runtime(//
+						"service [%s] can not use shared indices: only %s can", //
+						service, ElasticIndex.SHAREABLE_SERVICES);
+			result.add(service);
+		}
+		return result;
+	}
+
+	/**
+	 * Time partitioning of new backend logs: none, day or week. Partitioned logs
+	 * are purged by dropping whole partitions. Partitioning can be changed from
+	 * day to week and back but not disabled once partitions have been created.
+	 */
+	public static LogPartitioning logPartitioning() {
+		return SpaceEnv.env().get(LOG_PARTITIONING, LogPartitioning.none);
+	}
+
+	/**
+	 * In seconds, zero disables request metrics rollups
+	 */
+	public static int metricsFlushInterval() {
+		return SpaceEnv.env().get(METRICS_FLUSH_INTERVAL, 10);
+	}
+
+	/**
+	 * Max number of job tasks executed concurrently by this server, zero disables
+	 * the job scheduler
+	 */
+	public static int jobsWorkers() {
+		return SpaceEnv.env().get(JOBS_WORKERS, 4);
+	}
+
+	/**
+	 * In milliseconds, delay between two searches of due job tasks
+	 */
+	public static int jobsPollInterval() {
+		return SpaceEnv.env().get(JOBS_POLL_INTERVAL, 1000);
+	}
+
+	/**
+	 * In days, completed and failed job tasks are deleted after this delay
+	 */
+	public static int jobsHistoryDays() {
+		return SpaceEnv.env().get(JOBS_HISTORY_DAYS, 7);
+	}
+
+	/**
+	 * In seconds, zero disables the in memory sessions cache
+	 */
+	public static int sessionsCacheTtl() {
+		return SpaceEnv.env().get(SESSIONS_CACHE_TTL, 30);
+	}
+
+	public static int sessionsCacheSize() {
+		return SpaceEnv.env().get(SESSIONS_CACHE_SIZE, 10000);
+	}
+
 	public static SpaceBackend apiBackend() {
 		return SpaceEnv.env().apiBackend();
 	}
@@ -77,6 +223,22 @@ public class ServerConfig {
 		return SpaceEnv.env().get(PORT, 8443);
 	}
 
+	/**
+	 * In milliseconds, default time budget of requests
+	 */
+	public static int requestTimeout() {
+		return SpaceEnv.env().get(REQUEST_TIMEOUT, 1000 * 30);
+	}
+
+	/**
+	 * In milliseconds, default time budget of long requests like exports,
+	 * imports, bulks, snapshots and deletes by query. Also the max time budget
+	 * clients can request.
+	 */
+	public static int longRequestTimeout() {
+		return SpaceEnv.env().get(LONG_REQUEST_TIMEOUT, 1000 * 60 * 10);
+	}
+
 	public static boolean greenCheck() {
 		return SpaceEnv.env().get(GREEN_CHECK, true);
 	}
@@ -105,6 +267,35 @@ public class ServerConfig {
 		return SpaceEnv.env().get(MAIL_SMTP_DEBUG, false);
 	}
 
+	/**
+	 * Max number of email batches sent concurrently by this server, zero disables
+	 * the email dispatcher
+	 */
+	public static int mailWorkers() {
+		return SpaceEnv.env().get(MAIL_WORKERS, 2);
+	}
+
+	/**
+	 * In milliseconds, delay between two searches of queued emails
+	 */
+	public static int mailPollInterval() {
+		return SpaceEnv.env().get(MAIL_POLL_INTERVAL, 1000);
+	}
+
+	/**
+	 * Max number of emails of the same backend sent in a batch
+	 */
+	public static int mailBatchSize() {
+		return SpaceEnv.env().get(MAIL_BATCH_SIZE, 50);
+	}
+
+	/**
+	 * In days, sent and failed emails are deleted after this delay
+	 */
+	public static int mailHistoryDays() {
+		return SpaceEnv.env().get(MAIL_HISTORY_DAYS, 7);
+	}
+
 	public static String userAgent() {
 		return SpaceEnv.env().get(USER_AGENT, "spacedog");
 	}
@@ -137,13 +328,34 @@ public class ServerConfig {
 		log(OFFLINE, isOffline());
 		log(PRODUCTION, isProduction());
 		log(PORT, port());
+		log(REQUEST_TIMEOUT, requestTimeout());
+		log(LONG_REQUEST_TIMEOUT, longRequestTimeout());
 		log(GREEN_CHECK, greenCheck());
 		log(GREEN_TIMEOUT, greenTimeout());
+		log(ELASTIC_SEARCH_REFRESH_WINDOW, elasticSearchRefreshWindow());
+		log(ELASTIC_SEARCH_MAX_CONNECTIONS, elasticSearchMaxConnections());
+		log(ELASTIC_SEARCH_MAX_CONNECTIONS_PER_ROUTE, elasticSearchMaxConnectionsPerRoute());
+		log(ELASTIC_SEARCH_CONNECT_TIMEOUT, elasticSearchConnectTimeout());
+		log(ELASTIC_SEARCH_SOCKET_TIMEOUT, elasticSearchSocketTimeout());
+		log(ELASTIC_SEARCH_KEEP_ALIVE, elasticSearchKeepAlive());
+		log(ELASTIC_SEARCH_SNIFF_INTERVAL, elasticSearchSniffInterval());
+		log(ELASTIC_SEARCH_SHARED_SERVICES, elasticSearchSharedServices());
+		log(LOG_PARTITIONING, logPartitioning());
+		log(METRICS_FLUSH_INTERVAL, metricsFlushInterval());
+		log(JOBS_WORKERS, jobsWorkers());
+		log(JOBS_POLL_INTERVAL, jobsPollInterval());
+		log(JOBS_HISTORY_DAYS, jobsHistoryDays());
+		log(SESSIONS_CACHE_TTL, sessionsCacheTtl());
+		log(SESSIONS_CACHE_SIZE, sessionsCacheSize());
 		log(SNAPSHOTS_ELASTIC_STORE_TYPE, snapshotsElasticStoreType());
 		log(AWS_BUCKET_PREFIX, awsBucketPrefix());
 		log(MAIL_DOMAIN, mailDomain());
 		log(MAIL_SMTP_DEBUG, mailSmtpDebug());
 		log(MAIL_MAILGUN_KEY, mailGunKey());
+		log(MAIL_WORKERS, mailWorkers());
+		log(MAIL_POLL_INTERVAL, mailPollInterval());
+		log(MAIL_BATCH_SIZE, mailBatchSize());
+		log(MAIL_HISTORY_DAYS, mailHistoryDays());
 		Utils.info();
 	}
 
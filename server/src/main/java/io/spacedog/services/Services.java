@@ -4,12 +4,15 @@ import io.spacedog.client.http.SpaceFields;
 import io.spacedog.client.http.SpaceParams;
 import io.spacedog.services.bulk.BulkService;
 import io.spacedog.services.credentials.CredentialsService;
+import io.spacedog.services.credentials.SessionService;
 import io.spacedog.services.data.DataService;
 import io.spacedog.services.data.SchemaService;
 import io.spacedog.services.email.EmailService;
 import io.spacedog.services.file.FileService;
 import io.spacedog.services.job.JobService;
+import io.spacedog.services.job.JobService2;
 import io.spacedog.services.log.LogService;
+import io.spacedog.services.log.MetricService;
 import io.spacedog.services.push.PushService;
 import io.spacedog.services.settings.SettingsService;
 import io.spacedog.services.sms.SmsService;
@@ -58,6 +61,14 @@ public class Services implements SpaceFields, SpaceParams {
 		return credentialsService;
 	}
 
+	private static SessionService sessionService;
+
+	public static SessionService sessions() {
+		if (sessionService == null)
+			sessionService = new SessionService();
+		return sessionService;
+	}
+
 	private static SchemaService schemaService;
 
 	public static SchemaService schemas() {
@@ -90,6 +101,22 @@ public class Services implements SpaceFields, SpaceParams {
 		return logService;
 	}
 
+	private static MetricService metricService;
+
+	public static MetricService metrics() {
+		if (metricService == null)
+			metricService = new MetricService();
+		return metricService;
+	}
+
+	private static JobService2 schedulerService;
+
+	public static JobService2 scheduler() {
+		if (schedulerService == null)
+			schedulerService = new JobService2();
+		return schedulerService;
+	}
+
 	private static SmsService smsService;
 
 	public static SmsService sms() {
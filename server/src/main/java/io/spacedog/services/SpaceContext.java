@@ -1,5 +1,6 @@
 package io.spacedog.services;
 
+import java.net.InetSocketAddress;
 import java.util.Map;
 import java.util.Optional;
 
@@ -17,7 +18,6 @@ import io.spacedog.client.http.SpaceHeaders;
 import io.spacedog.client.http.SpaceParams;
 import io.spacedog.client.settings.Settings;
 import io.spacedog.client.settings.SettingsBase;
-import io.spacedog.services.db.elastic.ElasticIndex;
 import io.spacedog.utils.Exceptions;
 import io.spacedog.utils.Json;
 import net.codestory.http.Request;
@@ -35,6 +35,7 @@ public class SpaceContext {
 	private SpaceBackend backend;
 	private Debug debug;
 	private Credentials credentials;
+	private SpaceDeadline deadline;
 	private boolean authorizationChecked;
 	private boolean isTest = false;
 	private boolean isWww = false;
@@ -47,15 +48,47 @@ public class SpaceContext {
 		this.debug = new Debug(Boolean.parseBoolean(//
 				request.header(SpaceHeaders.SPACEDOG_DEBUG)));
 		this.credentials = Credentials.GUEST;
+		this.deadline = SpaceDeadline.of(request);
 		initSpaceBackend();
 	}
 
+	private SpaceContext() {
+	}
+
 	public SpaceContext(String backendId, Credentials credentials) {
+		this(backendId, credentials, null);
+	}
+
+	/**
+	 * Context of an internal request on behalf of these credentials. The request
+	 * authorization header is not checked.
+	 */
+	public SpaceContext(String backendId, Credentials credentials, Request request) {
+		this.request = request;
 		this.backend = ServerConfig.apiBackend().fromBackendId(backendId);
 		this.credentials = credentials == null //
 				? Credentials.GUEST
 				: credentials;
 		this.debug = new Debug(false);
+		this.authorizationChecked = true;
+	}
+
+	/**
+	 * @return a copy of this context without deadline, for work that must be
+	 *         done even once the request deadline is exceeded like logging
+	 */
+	public SpaceContext withoutDeadline() {
+		SpaceContext copy = new SpaceContext();
+		copy.request = request;
+		copy.response = response;
+		copy.credentials = credentials;
+		copy.backend = backend;
+		copy.debug = debug;
+		copy.authorizationChecked = authorizationChecked;
+		copy.isTest = isTest;
+		copy.isWww = isWww;
+		copy.settings = settings;
+		return copy;
 	}
 
 	private void initSpaceBackend() {
@@ -112,6 +145,13 @@ public class SpaceContext {
 		return backend;
 	}
 
+	/**
+	 * @return the deadline of this http request, empty for internal contexts
+	 */
+	public Optional<SpaceDeadline> deadline() {
+		return Optional.ofNullable(deadline);
+	}
+
 	public boolean isJsonContent() {
 		String contentType = request.header(SpaceHeaders.CONTENT_TYPE);
 		return ContentTypes.isJsonContent(contentType);
@@ -158,8 +198,7 @@ public class SpaceContext {
 	public static SpaceFilter checkBackendFilter() {
 
 		return (uri, context, nextFilter) -> {
-			ElasticIndex index = Services.credentials().index();
-			return Server.get().elasticClient().exists(index) //
+			return Services.credentials().backendExists() //
 					? nextFilter.get() //
 					: JsonPayload.error(404).withError(//
 							"[backend][%s] not found", Server.backend().id())//
@@ -203,7 +242,7 @@ public class SpaceContext {
 				if (authHeader.isBasic()) {
 					userCredentials = Services.credentials()//
 							.checkUsernamePassword(authHeader.username(), //
-									authHeader.password());
+									authHeader.password(), clientAddress());
 
 				} else if (authHeader.isBearer())
 					userCredentials = Services.credentials().checkToken(authHeader.token());
@@ -217,6 +256,22 @@ public class SpaceContext {
 		}
 	}
 
+	/**
+	 * @return the last X-Forwarded-For address if any, or the socket client
+	 *         address, or null for internal requests. The last address is
+	 *         the one appended by the load balancer, previous ones are
+	 *         written by clients and can not be trusted.
+	 */
+	public String clientAddress() {
+		String forwarded = request.header(SpaceHeaders.X_FORWARDED_FOR);
+
+		if (!Strings.isNullOrEmpty(forwarded))
+			return forwarded.substring(forwarded.lastIndexOf(',') + 1).trim();
+
+		InetSocketAddress address = request.clientAddress();
+		return address == null ? null : address.getAddress().getHostAddress();
+	}
+
 	private void checkPasswordMustChange(Credentials credentials) {
 		if (credentials.passwordMustChange()) {
 
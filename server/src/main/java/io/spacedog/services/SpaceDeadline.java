@@ -0,0 +1,133 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Strings;
+
+import io.spacedog.client.http.SpaceException;
+import io.spacedog.client.http.SpaceHeaders;
+import io.spacedog.utils.Exceptions;
+import net.codestory.http.Request;
+import net.codestory.http.constants.Methods;
+
+/**
+ * Time budget of an http request. The default timeout depends on the route
+ * class, long for exports, imports, bulks, snapshots, log purges, file deletes
+ * and deletes by query, standard otherwise. Clients can set their own timeout
+ * with the timeout header up to the long timeout. Elasticsearch calls get the
+ * remaining budget and fail fast once it is spent.
+ * <p>
+ * A 504 answer to a write does not mean the write failed. Elasticsearch calls
+ * are not rolled back when their budget is spent, a write waiting for its
+ * refresh policy may be stored. Clients should read before they retry.
+ * Refreshes run after a write do not fail the write.
+ */
+public class SpaceDeadline {
+
+	public static final String DEADLINE_EXCEEDED = "deadline-exceeded";
+
+	private final long timeoutMillis;
+	private final long deadlineNanos;
+
+	public SpaceDeadline(long timeoutMillis) {
+		this.timeoutMillis = timeoutMillis;
+		this.deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+	}
+
+	public static SpaceDeadline of(Request request) {
+		return new SpaceDeadline(timeoutMillis(//
+				request.method(), request.uri(), //
+				request.header(SpaceHeaders.SPACEDOG_TIMEOUT)));
+	}
+
+	public long timeoutMillis() {
+		return timeoutMillis;
+	}
+
+	public long remainingMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+	}
+
+	public boolean isExceeded() {
+		return remainingMillis() <= 0;
+	}
+
+	/**
+	 * @return the remaining budget in milliseconds
+	 * @throws SpaceException with a 503 status if budget is already spent
+	 */
+	public long checkRemainingMillis() {
+		long remaining = remainingMillis();
+		if (remaining <= 0)
+			throw Exceptions.exception(DEADLINE_EXCEEDED, 503, //
+					"request deadline of [%s] ms exceeded", timeoutMillis);
+		return remaining;
+	}
+
+	/**
+	 * @return a 504 error for calls not answered before the deadline
+	 */
+	public SpaceException exceeded(Throwable cause) {
+		return Exceptions.exception(DEADLINE_EXCEEDED, 504, cause, //
+				"request deadline of [%s] ms exceeded", timeoutMillis);
+	}
+
+	//
+	// Implementation
+	//
+
+	/**
+	 * Invalid timeout headers are ignored since they are read before any route
+	 * is able to answer an error.
+	 */
+	static long timeoutMillis(String method, String uri, String header) {
+		long longTimeout = ServerConfig.longRequestTimeout();
+		long timeout = parse(header);
+
+		if (timeout > 0)
+			return Math.min(timeout, longTimeout);
+
+		return isLong(method, uri) ? longTimeout //
+				: ServerConfig.requestTimeout();
+	}
+
+	static boolean isLong(String method, String uri) {
+		if (uri.startsWith("/2/bulk") //
+				|| uri.startsWith("/2/snapshots") //
+				|| uri.startsWith("/2/admin"))
+			return true;
+
+		String path = uri.endsWith("/") ? uri.substring(0, uri.length() - 1) : uri;
+		String last = path.substring(path.lastIndexOf('/') + 1);
+
+		if (last.equals("_export") || last.equals("_import") //
+				|| last.equals("_csv") || last.equals("_restore"))
+			return true;
+
+		if (Methods.DELETE.equals(method)) {
+
+			// log purges and file deletes by path
+			if (uri.startsWith("/2/logs") || uri.startsWith("/2/files"))
+				return true;
+
+			// deletes by query
+			if (uri.startsWith("/2/data"))
+				return last.equals("_search") || path.split("/").length <= 4;
+		}
+
+		return false;
+	}
+
+	private static long parse(String header) {
+		if (Strings.isNullOrEmpty(header))
+			return -1;
+		try {
+			return Long.parseLong(header.trim());
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+}
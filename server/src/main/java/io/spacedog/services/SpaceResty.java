@@ -11,6 +11,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
 
+import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
 import org.elasticsearch.common.Strings;
 
 import com.google.common.collect.Maps;
@@ -20,6 +21,7 @@ import io.spacedog.client.http.SpaceFields;
 import io.spacedog.client.http.SpaceHeaders;
 import io.spacedog.client.http.SpaceParams;
 import io.spacedog.services.db.elastic.ElasticClient;
+import io.spacedog.services.db.elastic.ElasticUtils;
 import io.spacedog.utils.Check;
 import io.spacedog.utils.Exceptions;
 import net.codestory.http.Context;
@@ -42,10 +44,29 @@ public abstract class SpaceResty implements SpaceFields, SpaceParams {
 		return context.query().getBoolean(REFRESH_PARAM, defaultValue);
 	}
 
+	public static RefreshPolicy refreshPolicy(Context context) {
+		return ElasticUtils.toPolicy(context.get(REFRESH_PARAM));
+	}
+
 	public static boolean isFailRequested(Context context) {
 		return context.get(FAIL_PARAM) != null;
 	}
 
+	/**
+	 * @return true if this request asks not to wait for completion but to get
+	 *         the id of a task instead
+	 */
+	public static boolean isAsyncRequested(Context context) {
+		return !context.query().getBoolean(WAIT_FOR_COMPLETION_PARAM, true);
+	}
+
+	/**
+	 * @return the requested task throttle, not throttled if not positive
+	 */
+	public static float requestsPerSecond(Context context) {
+		return context.query().getFloat(REQUESTS_PER_SECOND_PARAM, -1);
+	}
+
 	public static StringBuilder spaceUrl(String uri, String type, String id) {
 		return spaceUrl(uri).append(SLASH).append(type).append(SLASH).append(id);
 	}
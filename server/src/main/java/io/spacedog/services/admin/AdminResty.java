@@ -4,6 +4,7 @@
 package io.spacedog.services.admin;
 
 import io.spacedog.services.Server;
+import io.spacedog.services.Services;
 import io.spacedog.services.SpaceResty;
 import io.spacedog.utils.Exceptions;
 import net.codestory.http.Context;
@@ -26,4 +27,24 @@ public class AdminResty extends SpaceResty {
 		Server.context().credentials().checkSuperDog();
 		Server.get().clear();
 	}
-}
\ No newline at end of file
+
+	//
+	// Shared indices
+	//
+
+	@Post("/_move_to_shared_indices")
+	@Post("/_move_to_shared_indices/")
+	public void postMoveToSharedIndices(Context context) {
+		Server.context().credentials().checkSuperDog();
+		Services.logs().moveToShared();
+		elastic().moveToShared(Services.sessions().index(), Services.sessions().schema());
+	}
+
+	@Post("/_move_to_dedicated_indices")
+	@Post("/_move_to_dedicated_indices/")
+	public void postMoveToDedicatedIndices(Context context) {
+		Server.context().credentials().checkSuperDog();
+		Services.logs().moveToDedicated();
+		elastic().moveToDedicated(Services.sessions().index(), Services.sessions().schema());
+	}
+}
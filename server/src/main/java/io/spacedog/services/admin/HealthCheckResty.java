@@ -15,6 +15,8 @@ public class HealthCheckResty extends SpaceResty {
 	@Get("")
 	@Get("/")
 	public Payload getPing() {
+		// checks elastic live and not the existing backends cache
+		// so that health checks see elastic outages right away
 		if (elastic().exists(Services.credentials().index()))
 			return JsonPayload.ok()//
 					.withContent(Server.get().info())//
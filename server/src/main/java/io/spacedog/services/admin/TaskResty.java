@@ -0,0 +1,70 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.admin;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.spacedog.client.credentials.Credentials;
+import io.spacedog.services.Server;
+import io.spacedog.services.SpaceResty;
+import io.spacedog.services.db.elastic.ElasticClient;
+import io.spacedog.services.db.elastic.ElasticUtils;
+import io.spacedog.utils.Exceptions;
+import net.codestory.http.Context;
+import net.codestory.http.annotations.Delete;
+import net.codestory.http.annotations.Get;
+import net.codestory.http.annotations.Prefix;
+
+/**
+ * Progress and cancellation of the deletes by query submitted with
+ * waitForCompletion=false. Tasks are only visible to the backend that
+ * submitted them, to their submitter and to admins. The status of a completed
+ * task is only returned once, its result is then deleted from elastic.
+ */
+@Prefix("/2/tasks")
+public class TaskResty extends SpaceResty {
+
+	@Get("/:id")
+	@Get("/:id/")
+	public ObjectNode getTask(String id, Context context) {
+		return toTaskStatus(id, checkTask(id));
+	}
+
+	@Delete("/:id")
+	@Delete("/:id/")
+	public ObjectNode deleteTask(String id, Context context) {
+		ObjectNode task = checkTask(id);
+
+		if (!task.path("completed").asBoolean()) {
+			elastic().cancelTask(id);
+			task = checkTask(id);
+		}
+
+		return toTaskStatus(id, task);
+	}
+
+	//
+	// Implementation
+	//
+
+	private ObjectNode checkTask(String id) {
+		Credentials credentials = Server.context().credentials().checkAtLeastUser();
+
+		ObjectNode task = elastic().getTask(id)//
+				.orElseThrow(() -> Exceptions.notFound("task [%s] not found", id));
+
+		if (!credentials.isAtLeastAdmin() //
+				&& !credentials.id().equals(ElasticClient.taskSubmitter(task)))
+			throw Exceptions.insufficientPermissions(credentials);
+
+		return task;
+	}
+
+	private ObjectNode toTaskStatus(String id, ObjectNode task) {
+		ObjectNode status = ElasticUtils.toTaskStatus(task);
+		if (task.path("completed").asBoolean())
+			elastic().deleteTaskResult(id);
+		return status;
+	}
+}
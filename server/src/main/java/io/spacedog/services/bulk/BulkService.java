@@ -13,6 +13,7 @@ import io.spacedog.client.http.SpaceMethod;
 import io.spacedog.services.InternalRequest;
 import io.spacedog.services.JsonPayload;
 import io.spacedog.services.Server;
+import io.spacedog.services.data.DataRawStreamingOutput;
 import io.spacedog.utils.Exceptions;
 import io.spacedog.utils.Json;
 import net.codestory.http.constants.HttpStatus;
@@ -63,7 +64,10 @@ public class BulkService {
 		ServiceResponse answer = new ServiceResponse();
 		answer.success = payload.isSuccess();
 		answer.status = payload.code();
-		answer.content = Json.toJsonNode(payload.rawContent());
+		Object content = payload.rawContent();
+		answer.content = content instanceof DataRawStreamingOutput //
+				? ((DataRawStreamingOutput) content).toJsonNode()
+				: Json.toJsonNode(content);
 		return answer;
 	}
 
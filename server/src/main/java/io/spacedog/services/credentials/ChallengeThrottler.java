@@ -0,0 +1,108 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.credentials;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.spacedog.utils.Exceptions;
+
+/**
+ * Counts invalid password challenges in memory in a sliding window per key.
+ * Keys are usernames or client addresses prefixed with the backend id.
+ * Failures older than the window are forgotten. Keys are chosen by clients, so
+ * there is a bounded number of them, they expire once their last failure is
+ * older than the longest window and each key keeps at most as many failures as
+ * its limit.
+ */
+public class ChallengeThrottler {
+
+	/**
+	 * Longer windows are shortened to this one
+	 */
+	public static final long MAX_WINDOW = TimeUnit.DAYS.toMillis(1);
+
+	private static final int MAX_KEYS = 100000;
+
+	private Cache<String, Deque<Long>> failures;
+
+	public ChallengeThrottler() {
+		this(MAX_KEYS);
+	}
+
+	public ChallengeThrottler(int maxKeys) {
+		failures = CacheBuilder.newBuilder()//
+				.expireAfterWrite(MAX_WINDOW, TimeUnit.MILLISECONDS)//
+				.maximumSize(maxKeys)//
+				.build();
+	}
+
+	public boolean contains(String key) {
+		return failures.getIfPresent(key) != null;
+	}
+
+	/**
+	 * @return the number of failures of this key in the window
+	 */
+	public int count(String key, long window) {
+		Deque<Long> deque = failures.getIfPresent(key);
+		if (deque == null)
+			return 0;
+
+		synchronized (deque) {
+			prune(deque, System.currentTimeMillis() - Math.min(window, MAX_WINDOW));
+			return deque.size();
+		}
+	}
+
+	/**
+	 * Records a failure for this key. Only the latest failures up to this limit
+	 * are kept since counts are only compared to it.
+	 *
+	 * @return the number of failures of this key in the window
+	 */
+	public int fail(String key, long window, int limit) {
+		long now = System.currentTimeMillis();
+		Deque<Long> deque = null;
+
+		try {
+			deque = failures.get(key, () -> new ArrayDeque<>());
+		} catch (ExecutionException e) {
+			throw Exceptions.runtime(e);
+		}
+
+		synchronized (deque) {
+			prune(deque, now - Math.min(window, MAX_WINDOW));
+			deque.addLast(now);
+			while (deque.size() > Math.max(limit, 1))
+				deque.pollFirst();
+
+			// put again to expire a day after the last failure
+			failures.put(key, deque);
+			return deque.size();
+		}
+	}
+
+	public void reset(String key) {
+		failures.invalidate(key);
+	}
+
+	long size() {
+		return failures.size();
+	}
+
+	//
+	// Implementation
+	//
+
+	private void prune(Deque<Long> deque, long since) {
+		while (!deque.isEmpty() && deque.peekFirst() < since)
+			deque.pollFirst();
+	}
+}
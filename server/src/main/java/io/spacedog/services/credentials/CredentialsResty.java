@@ -29,6 +29,7 @@ import io.spacedog.client.credentials.Roles;
 import io.spacedog.client.credentials.SetPasswordRequest;
 import io.spacedog.client.credentials.Usernames;
 import io.spacedog.client.http.ContentTypes;
+import io.spacedog.services.ETags;
 import io.spacedog.services.JsonPayload;
 import io.spacedog.services.Server;
 import io.spacedog.services.Services;
@@ -60,8 +61,8 @@ public class CredentialsResty extends SpaceResty {
 
 		if (credentials.hasPasswordBeenChallenged()) {
 			long lifetime = getCheckSessionLifetime(credentials, context);
-			credentials.setCurrentSession(Session.newSession(lifetime));
-			credentials = Services.credentials().update(credentials);
+			credentials = Services.credentials().login(credentials, //
+					Session.newSession(lifetime));
 		}
 
 		return saved(false, credentials, //
@@ -134,14 +135,14 @@ public class CredentialsResty extends SpaceResty {
 
 	@Get("/me")
 	@Get("/me/")
-	public Credentials getMe(Context context) {
-		return Server.context().credentials().checkAtLeastUser();
+	public Payload getMe(Context context) {
+		return toPayload(Server.context().credentials().checkAtLeastUser(), context);
 	}
 
 	@Get("/:id")
 	@Get("/:id/")
-	public Credentials getById(String id, Context context) {
-		return checkMyselfOrHigherAdminAndGet(id, false);
+	public Payload getById(String id, Context context) {
+		return toPayload(checkMyselfOrHigherAdminAndGet(id, false), context);
 	}
 
 	@Delete("/me")
@@ -247,6 +248,7 @@ public class CredentialsResty extends SpaceResty {
 		Credentials credentials = checkAdminAndGet(id);
 		credentials.resetPassword();
 		credentials = Services.credentials().update(credentials);
+		Services.sessions().deleteAll(credentials.id());
 		return saved(false, credentials, //
 				PASSWORD_RESET_CODE_FIELD, credentials.passwordResetCode());
 	}
@@ -275,6 +277,7 @@ public class CredentialsResty extends SpaceResty {
 		}
 
 		credentials = Services.credentials().update(credentials);
+		Services.sessions().deleteAll(credentials.id());
 		return saved(false, credentials);
 	}
 
@@ -402,6 +405,8 @@ public class CredentialsResty extends SpaceResty {
 	private Credentials doEnableOrDisable(String id, boolean enable) {
 		Credentials credentials = checkAdminAndGet(id);
 		credentials.doEnableOrDisable(enable);
+		if (enable)
+			Services.credentials().resetInvalidChallenges(credentials.username());
 		return Services.credentials().update(credentials);
 	}
 
@@ -464,6 +469,17 @@ public class CredentialsResty extends SpaceResty {
 		return credentials;
 	}
 
+	/**
+	 * Credentials are needed anyway to check permissions. Revalidated reads only
+	 * save the transfer of the credentials.
+	 */
+	private Payload toPayload(Credentials credentials, Context context) {
+		String etag = ETags.of(credentials.version());
+		return ETags.isNotModified(context, etag) //
+				? ETags.notModified(etag)
+				: ETags.with(new Payload(credentials), etag);
+	}
+
 	private Payload saved(boolean created, Credentials credentials, Object... fields) {
 		return JsonPayload.saved(false, "/2", Credentials.TYPE, credentials.id())//
 				.withVersion(credentials.version())//
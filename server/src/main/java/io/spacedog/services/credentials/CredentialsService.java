@@ -7,6 +7,7 @@ import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.TimeUnit;
 
 import org.elasticsearch.action.get.GetResponse;
 import org.elasticsearch.action.index.IndexResponse;
@@ -25,6 +26,8 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.type.TypeFactory;
 import com.google.common.base.Strings;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 
@@ -44,6 +47,7 @@ import io.spacedog.services.Server;
 import io.spacedog.services.ServerConfig;
 import io.spacedog.services.Services;
 import io.spacedog.services.SpaceService;
+import io.spacedog.services.credentials.SessionService.StoredSession;
 import io.spacedog.services.db.elastic.ElasticClient;
 import io.spacedog.services.db.elastic.ElasticExportStreamingOutput;
 import io.spacedog.services.db.elastic.ElasticIndex;
@@ -56,6 +60,8 @@ import net.codestory.http.payload.StreamingOutput;
 
 public class CredentialsService extends SpaceService implements SpaceParams, SpaceFields {
 
+	private ChallengeThrottler throttler = new ChallengeThrottler();
+
 	//
 	// Get Credentials
 	//
@@ -118,68 +124,137 @@ public class CredentialsService extends SpaceService implements SpaceParams, Spa
 	// Login logout
 	//
 
+	public Credentials login(Credentials credentials, Session session) {
+		return Services.sessions().create(credentials, session);
+	}
+
 	public Credentials logout() {
 		Credentials credentials = Server.context().credentials();
 		if (credentials.hasCurrentSession()) {
-			credentials.deleteCurrentSession();
-			credentials = Services.credentials().update(credentials);
+			if (!Services.sessions().delete(credentials.id(), credentials.accessToken())) {
+				// session created before the session store
+				credentials.deleteCurrentSession();
+				credentials = Services.credentials().update(credentials);
+			}
 		}
 		return credentials;
 	}
 
 	public Credentials logout(String id, String accessToken) {
 		Credentials credentials = get(id);
+		if (Services.sessions().delete(id, accessToken))
+			return credentials;
+
+		// session created before the session store
 		credentials.deleteSession(accessToken);
 		return Services.credentials().update(credentials);
 	}
 
 	public Credentials checkUsernamePassword(String username, String password) {
+		return checkUsernamePassword(username, password, null);
+	}
+
+	public Credentials checkUsernamePassword(String username, String password, String address) {
 
 		if (username.equals(Credentials.SUPERDOG.username()))
 			return checkSuperdog(password);
 
+		// throttled challenges are rejected
+		// before any password hashing
+		checkNotThrottled(username, address);
+
+		Optional<Credentials> credentials = Optional.empty();
+
 		try {
-			Optional<Credentials> credentials = getByUsername(username);
+			credentials = getByUsername(username);
 
-			if (credentials.isPresent()) {
-				if (credentials.get().challengePassword(password))
-					return credentials.get();
-				else
-					updateInvalidChallenges(credentials.get());
+			if (credentials.isPresent() //
+					&& credentials.get().challengePassword(password)) {
+				throttler.reset(usernameKey(username));
+				return credentials.get();
 			}
 
 		} catch (IndexNotFoundException ignore) {
 		}
 
+		invalidChallenge(username, address, credentials);
 		throw Exceptions.invalidUsernamePassword();
 	}
 
-	private void updateInvalidChallenges(Credentials credentials) {
+	public void resetInvalidChallenges(String username) {
+		throttler.reset(usernameKey(username));
+	}
+
+	private void checkNotThrottled(String username, String address) {
+
+		// settings are only read if there are recent invalid challenges
+		boolean checkUsername = throttler.contains(usernameKey(username));
+		boolean checkAddress = address != null && throttler.contains(addressKey(address));
+
+		if (checkUsername || checkAddress) {
+			CredentialsSettings settings = settings();
+			long window = window(settings);
+
+			if (checkUsername && settings.maximumInvalidChallenges > 0 //
+					&& throttler.count(usernameKey(username), window) //
+					>= settings.maximumInvalidChallenges)
+				throw Exceptions.tooManyInvalidChallenges();
+
+			if (checkAddress && settings.maximumInvalidChallengesPerAddress > 0 //
+					&& throttler.count(addressKey(address), window) //
+					>= settings.maximumInvalidChallengesPerAddress)
+				throw Exceptions.tooManyInvalidChallenges();
+		}
+	}
+
+	private void invalidChallenge(String username, String address, Optional<Credentials> credentials) {
 		CredentialsSettings settings = settings();
+		long window = window(settings);
+
+		if (address != null && settings.maximumInvalidChallengesPerAddress > 0)
+			throttler.fail(addressKey(address), window, //
+					settings.maximumInvalidChallengesPerAddress);
 
 		if (settings.maximumInvalidChallenges == 0)
 			return;
 
-		if (credentials.lastInvalidChallengeAt() != null //
-				&& credentials.lastInvalidChallengeAt()//
-						.plusMinutes(settings.resetInvalidChallengesAfterMinutes)//
-						.isBeforeNow()) {
+		// unknown usernames are also counted
+		// not to reveal which usernames exist
+		int challenges = throttler.fail(usernameKey(username), window, //
+				settings.maximumInvalidChallenges);
+
+		// only the transition to disabled is persisted
+		if (challenges >= settings.maximumInvalidChallenges //
+				&& credentials.isPresent() && credentials.get().enabled()) {
 
-			credentials.invalidChallenges(0);
-			credentials.lastInvalidChallengeAt(null);
+			credentials.get().invalidChallenges(challenges);
+			credentials.get().lastInvalidChallengeAt(DateTime.now());
+			credentials.get().doEnableOrDisable(false);
+			update(credentials.get());
 		}
+	}
 
-		credentials.invalidChallenges(credentials.invalidChallenges() + 1);
-		credentials.lastInvalidChallengeAt(DateTime.now());
+	private long window(CredentialsSettings settings) {
+		return settings.resetInvalidChallengesAfterMinutes * 60 * 1000L;
+	}
 
-		if (credentials.invalidChallenges() >= settings.maximumInvalidChallenges)
-			credentials.doEnableOrDisable(false);
+	private String usernameKey(String username) {
+		return Server.backend().id() + ":username:" + username;
+	}
 
-		update(credentials);
+	private String addressKey(String address) {
+		return Server.backend().id() + ":address:" + address;
 	}
 
 	public Credentials checkToken(String accessToken) {
 
+		Optional<StoredSession> stored = Services.sessions().get(accessToken);
+
+		if (stored.isPresent())
+			return checkStoredSession(accessToken, stored.get());
+
+		// sessions created before the session store
+		// are still stored in credentials
 		try {
 
 			Credentials.Results results = search(//
@@ -210,6 +285,22 @@ public class CredentialsService extends SpaceService implements SpaceParams, Spa
 		}
 	}
 
+	private Credentials checkStoredSession(String accessToken, StoredSession stored) {
+
+		// expired sessions are purged later on
+		if (stored.session.expiresIn() == 0)
+			throw Exceptions.accessTokenHasExpired();
+
+		GetResponse response = elastic().get(index(), stored.credentialsId);
+
+		if (!response.isExists()) {
+			Services.sessions().delete(accessToken);
+			throw Exceptions.invalidAccessToken();
+		}
+
+		return toCredentials(response).currentSession(stored.session);
+	}
+
 	private Credentials checkSuperdog(String password) {
 		if (password == null || !password.equals(ServerConfig.superdogPassword()))
 			throw Exceptions.invalidUsernamePassword();
@@ -287,6 +378,7 @@ public class CredentialsService extends SpaceService implements SpaceParams, Spa
 		// index refresh before not necessary since delete by id
 		// index refresh after delete is necessary
 		elastic().delete(index(), id, true, true);
+		Services.sessions().deleteAll(id);
 	}
 
 	public void deleteByUsername(String username) {
@@ -303,7 +395,7 @@ public class CredentialsService extends SpaceService implements SpaceParams, Spa
 		ElasticClient elastic = elastic();
 		elastic.refreshIndex(index());
 		elastic.deleteByQuery(query, index());
-		elastic.refreshIndex(index());
+		elastic.refreshIndexAfterWrite(index());
 	}
 
 	//
@@ -317,8 +409,8 @@ public class CredentialsService extends SpaceService implements SpaceParams, Spa
 		if (Strings.isNullOrEmpty(credentials.id()))
 			throw Exceptions.illegalArgument("credentials id is null or empty");
 
-		// TODO replace 10 by sessionsSizeMax from CredentialsSettings
-		credentials.purgeOldSessions(10);
+		// only purges sessions created before the session store
+		credentials.purgeOldSessions(SessionService.SESSIONS_SIZE_MAX);
 		credentials.updatedAt(DateTime.now());
 
 		// refresh index after each index change
@@ -372,7 +464,8 @@ public class CredentialsService extends SpaceService implements SpaceParams, Spa
 		template.model.put("credentials", TemplateParameterTypes.object);
 		template.model.put("passwordResetCode", TemplateParameterTypes.string);
 
-		return Services.emails().send(request, template);
+		// password reset codes must not be kept in the outbox history
+		return Services.emails().send(request, template, true);
 	}
 
 	private static final String PASSWORD_RESET_EMAIL_TEMPLATE_NAME = "password_reset_email_template";
@@ -439,6 +532,7 @@ public class CredentialsService extends SpaceService implements SpaceParams, Spa
 	//
 
 	public void initIndex() {
+		existingBackends.invalidateAll();
 		ElasticIndex index = index();
 		Schema schema = schema();
 		if (!elastic().exists(index))
@@ -447,6 +541,23 @@ public class CredentialsService extends SpaceService implements SpaceParams, Spa
 			elastic().putMapping(index, schema.mapping());
 	}
 
+	/**
+	 * Checks if the current backend exists. Existing backends are only cached
+	 * for half a second so that bursts of requests do not all check the backend
+	 * credentials index, and so that backends deleted by another server are
+	 * soon seen as deleted here too.
+	 */
+	public boolean backendExists() {
+		ElasticIndex index = index();
+		if (existingBackends.getIfPresent(index.backendId()) != null)
+			return true;
+
+		boolean exists = elastic().exists(index);
+		if (exists)
+			existingBackends.put(index.backendId(), Boolean.TRUE);
+		return exists;
+	}
+
 	public Schema schema() {
 		return Schema.builder(Credentials.TYPE)//
 
@@ -485,6 +596,11 @@ public class CredentialsService extends SpaceService implements SpaceParams, Spa
 		return new ElasticIndex(Credentials.TYPE);
 	}
 
+	private Cache<String, Boolean> existingBackends = CacheBuilder.newBuilder()//
+			.expireAfterWrite(500, TimeUnit.MILLISECONDS)//
+			.maximumSize(10000)//
+			.build();
+
 	private BoolQueryBuilder toQuery(String username) {
 		return QueryBuilders.boolQuery()//
 				.must(QueryBuilders.termQuery(USERNAME_FIELD, username));
@@ -174,8 +174,6 @@ public class LinkedinResty extends SpaceResty {
 		expiresIn = settings.linkedin.useExpiresIn ? expiresIn //
 				: CredentialsResty.getCheckSessionLifetime(credentials, context);
 
-		Session session = Session.newSession(accessToken, expiresIn);
-		credentials.setCurrentSession(session);
 		credentials.email(email);
 
 		boolean isNew = credentials.createdAt() == null;
@@ -188,7 +186,8 @@ public class LinkedinResty extends SpaceResty {
 		} else
 			credentials = Services.credentials().update(credentials);
 
-		return credentials;
+		Session session = Session.newSession(accessToken, expiresIn);
+		return Services.credentials().login(credentials, session);
 	}
 
 	private CredentialsSettings settings() {
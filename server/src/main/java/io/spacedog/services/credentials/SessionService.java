@@ -0,0 +1,242 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.credentials;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.index.IndexNotFoundException;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.elasticsearch.search.sort.SortOrder;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import io.spacedog.client.credentials.Credentials;
+import io.spacedog.client.credentials.Credentials.Session;
+import io.spacedog.client.http.SpaceFields;
+import io.spacedog.client.schema.Schema;
+import io.spacedog.services.Server;
+import io.spacedog.services.ServerConfig;
+import io.spacedog.services.SpaceService;
+import io.spacedog.services.db.elastic.ElasticIndex;
+import io.spacedog.utils.Check;
+import io.spacedog.utils.Json;
+
+/**
+ * Sessions are stored in their own index with their access token as id. They
+ * are only read by id so logouts do not need any index refresh and logins and
+ * logouts do not rewrite credentials. Logins only wait for a coalesced refresh
+ * to delete the oldest sessions above {@link #SESSIONS_SIZE_MAX}. Sessions are
+ * also cached in memory for a short time. With more than one server, a session
+ * deleted on a server might still be valid on other servers until its cache
+ * entry expires.
+ */
+public class SessionService extends SpaceService implements SpaceFields {
+
+	public static final String TYPE = "session";
+
+	/**
+	 * Older sessions of credentials are deleted on login so that a leaked
+	 * token is pushed out by newer logins
+	 */
+	public static final int SESSIONS_SIZE_MAX = 10;
+
+	// expired sessions are purged at most once an hour per backend
+	private static final long PURGE_PERIOD = 60 * 60 * 1000;
+
+	private Cache<String, StoredSession> cache;
+	private Map<String, Long> purgedAt = new ConcurrentHashMap<>();
+
+	public SessionService() {
+		int ttl = ServerConfig.sessionsCacheTtl();
+		if (ttl > 0)
+			cache = CacheBuilder.newBuilder()//
+					.expireAfterWrite(ttl, TimeUnit.SECONDS)//
+					.maximumSize(ServerConfig.sessionsCacheSize())//
+					.build();
+	}
+
+	public static class StoredSession {
+		public final String credentialsId;
+		public final Session session;
+
+		public StoredSession(String credentialsId, Session session) {
+			this.credentialsId = credentialsId;
+			this.session = session;
+		}
+	}
+
+	//
+	// Create
+	//
+
+	public Credentials create(Credentials credentials, Session session) {
+		Check.notNullOrEmpty(credentials.id(), "credentials id");
+
+		ObjectNode source = Json.toObjectNode(session);
+		source.put(CREDENTIALS_ID_FIELD, credentials.id());
+
+		// sessions are only read by id, no need to refresh
+		elastic().index(index(), session.accessToken(), null, source, RefreshPolicy.NONE);
+
+		if (cache != null)
+			cache.put(cacheKey(session.accessToken()), //
+					new StoredSession(credentials.id(), session));
+
+		deleteOldSessions(credentials.id());
+		purgeExpiredSessions();
+		return credentials.currentSession(session);
+	}
+
+	//
+	// Get
+	//
+
+	public Optional<StoredSession> get(String accessToken) {
+
+		if (cache != null) {
+			StoredSession stored = cache.getIfPresent(cacheKey(accessToken));
+			if (stored != null)
+				return Optional.of(stored);
+		}
+
+		try {
+			ElasticIndex index = index();
+			GetResponse response = elastic().get(index, accessToken);
+
+			// sessions of other backends in shared mode
+			// are not filtered out by gets by id
+			if (!response.isExists() || !index.owns(response))
+				return Optional.empty();
+
+			ObjectNode source = Json.readObject(response.getSourceAsString());
+			String credentialsId = source.remove(CREDENTIALS_ID_FIELD).asText();
+			StoredSession stored = new StoredSession(credentialsId, //
+					Json.toPojo(source, Session.class));
+
+			if (cache != null)
+				cache.put(cacheKey(accessToken), stored);
+
+			return Optional.of(stored);
+
+		} catch (IndexNotFoundException e) {
+			return Optional.empty();
+		}
+	}
+
+	//
+	// Delete
+	//
+
+	public void delete(String accessToken) {
+		if (cache != null)
+			cache.invalidate(cacheKey(accessToken));
+		elastic().delete(index(), accessToken, RefreshPolicy.NONE, false);
+	}
+
+	/**
+	 * @return false if this access token is not a session of these credentials
+	 */
+	public boolean delete(String credentialsId, String accessToken) {
+		Optional<StoredSession> stored = get(accessToken);
+
+		if (stored.isPresent() && stored.get().credentialsId.equals(credentialsId)) {
+			delete(accessToken);
+			return true;
+		}
+		return false;
+	}
+
+	public void deleteAll(String credentialsId) {
+		if (cache != null) {
+			String prefix = cacheKey("");
+			cache.asMap().entrySet().removeIf(entry -> entry.getKey().startsWith(prefix) //
+					&& entry.getValue().credentialsId.equals(credentialsId));
+		}
+
+		try {
+			// sessions are not refreshed on creation
+			elastic().refreshIndex(index());
+			elastic().deleteByQuery(QueryBuilders.termQuery(//
+					CREDENTIALS_ID_FIELD, credentialsId), index());
+
+		} catch (IndexNotFoundException ignore) {
+		}
+	}
+
+	//
+	// Index and schema
+	//
+
+	public void initIndex() {
+		ElasticIndex index = index();
+		Schema schema = schema();
+		if (!elastic().exists(index))
+			elastic().createIndex(index, schema, false);
+		else
+			elastic().putMapping(index, schema.mapping());
+	}
+
+	public Schema schema() {
+		return Schema.builder(TYPE)//
+				.dynamicStrict()//
+				.dateDetection(false)//
+				.keyword(CREDENTIALS_ID_FIELD)//
+				.keyword(ACCESS_TOKEN_FIELD)//
+				.timestamp(CREATED_AT_FIELD)//
+				.timestamp(ACCESS_TOKEN_EXPIRES_AT_FIELD)//
+				.build();
+	}
+
+	public ElasticIndex index() {
+		return new ElasticIndex(TYPE);
+	}
+
+	//
+	// Implementation
+	//
+
+	private String cacheKey(String accessToken) {
+		return Server.backend().id() + ':' + accessToken;
+	}
+
+	/**
+	 * Refreshes are coalesced by the elastic refresher so that concurrent
+	 * logins share the refresh making their sessions visible to this search.
+	 */
+	private void deleteOldSessions(String credentialsId) {
+		ElasticIndex index = index();
+		elastic().refreshIndexAfterWrite(index);
+
+		SearchSourceBuilder source = SearchSourceBuilder.searchSource()//
+				.query(QueryBuilders.termQuery(CREDENTIALS_ID_FIELD, credentialsId))//
+				.sort(SortBuilders.fieldSort(CREATED_AT_FIELD).order(SortOrder.DESC))//
+				.from(SESSIONS_SIZE_MAX).size(100).fetchSource(false);
+
+		for (SearchHit hit : elastic().search(source, index).getHits())
+			delete(hit.getId());
+	}
+
+	private void purgeExpiredSessions() {
+		String backendId = Server.backend().id();
+		long now = System.currentTimeMillis();
+		Long last = purgedAt.get(backendId);
+
+		if (last != null && now - last < PURGE_PERIOD)
+			return;
+
+		purgedAt.put(backendId, now);
+		elastic().deleteByQueryAsync(QueryBuilders.rangeQuery(//
+				ACCESS_TOKEN_EXPIRES_AT_FIELD).lt("now"), index());
+	}
+}
@@ -0,0 +1,178 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.data;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.joda.time.DateTime;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import io.spacedog.client.data.DataOperation;
+import io.spacedog.client.data.DataOperation.Type;
+import io.spacedog.client.http.SpaceFields;
+import io.spacedog.utils.Exceptions;
+
+/**
+ * Converts atomic field operations to a single painless script. The script
+ * source never changes so that elasticsearch compiles it once. Operations are
+ * passed as script parameters and applied in order to the object source.
+ */
+public class DataOperations implements SpaceFields {
+
+	private static final Collection<String> META_FIELDS = Sets.newHashSet(//
+			OWNER_FIELD, GROUP_FIELD, CREATED_AT_FIELD, UPDATED_AT_FIELD);
+
+	static final String SCRIPT = String.join("\n", //
+			"for (def op : params.ops) {", //
+			"  Map parent = ctx._source;", //
+			"  List path = op.path;", //
+			"  int last = path.size() - 1;", //
+			"  for (int i = 0; i < last && parent != null; i++) {", //
+			"    def child = parent.get(path.get(i));", //
+			"    if (child == null) {", //
+			"      if (op.op == 'unset') { parent = null; }", //
+			"      else { child = new HashMap(); parent.put(path.get(i), child); parent = child; }", //
+			"    } else if (child instanceof Map) { parent = child; }", //
+			"    else { throw new IllegalArgumentException('field [' + op.field + '] is not in an object'); }", //
+			"  }", //
+			"  if (parent == null) { continue; }", //
+			"  String key = path.get(last);", //
+			"  def current = parent.get(key);", //
+			"  def value = op.value;", //
+			"  if (op.op == 'unset') { parent.remove(key); }", //
+			"  else if (op.op == 'inc') {", //
+			"    if (current == null) { parent.put(key, value); }", //
+			"    else if (current instanceof Number) { parent.put(key, current + value); }", //
+			"    else { throw new IllegalArgumentException('field [' + op.field + '] is not a number'); }", //
+			"  }", //
+			"  else if (op.op == 'min' || op.op == 'max') {", //
+			"    if (current == null) { parent.put(key, value); }", //
+			"    else {", //
+			"      int comparison = current instanceof Number && value instanceof Number", //
+			"        ? Double.compare(value.doubleValue(), current.doubleValue())", //
+			"        : value.compareTo(current);", //
+			"      if (op.op == 'min' ? comparison < 0 : comparison > 0) { parent.put(key, value); }", //
+			"    }", //
+			"  }", //
+			"  else {", //
+			"    List list;", //
+			"    if (current == null) { list = new ArrayList(); parent.put(key, list); }", //
+			"    else if (current instanceof List) { list = current; }", //
+			"    else { throw new IllegalArgumentException('field [' + op.field + '] is not an array'); }", //
+			"    if (op.op == 'push') { list.addAll(value); }", //
+			"    else if (op.op == 'addToSet') {", //
+			"      for (def item : value) { if (!list.contains(item)) { list.add(item); } }", //
+			"    }", //
+			"    else { list.removeAll(value); }", //
+			"  }", //
+			"}", //
+			"ctx._source." + UPDATED_AT_FIELD + " = params." + UPDATED_AT_FIELD + ";");
+
+	public static Script toScript(List<DataOperation> operations, DateTime updatedAt) {
+		Map<String, Object> params = Maps.newHashMap();
+		params.put("ops", toParams(operations));
+		params.put(UPDATED_AT_FIELD, updatedAt.toString());
+		return new Script(ScriptType.INLINE, Script.DEFAULT_SCRIPT_LANG, SCRIPT, params);
+	}
+
+	/**
+	 * @return the checked operations as script parameters, decrements are
+	 *         converted to increments and set values to lists
+	 */
+	static List<Map<String, Object>> toParams(List<DataOperation> operations) {
+
+		if (operations == null || operations.isEmpty())
+			throw Exceptions.illegalArgument("no field operation");
+
+		List<Map<String, Object>> params = Lists.newArrayListWithCapacity(operations.size());
+
+		for (DataOperation operation : operations) {
+			if (operation == null || operation.op == null)
+				throw Exceptions.illegalArgument("field operation type is missing");
+
+			Map<String, Object> param = Maps.newHashMap();
+			param.put("op", operation.op == Type.dec ? Type.inc.name() : operation.op.name());
+			param.put("field", operation.field);
+			param.put("path", toPath(operation.field));
+			param.put("value", toValue(operation));
+			params.add(param);
+		}
+
+		return params;
+	}
+
+	//
+	// Implementation
+	//
+
+	private static List<String> toPath(String field) {
+		if (Strings.isNullOrEmpty(field))
+			throw Exceptions.illegalArgument("field operation field is missing");
+
+		List<String> path = Arrays.asList(field.split("\\.", -1));
+
+		if (path.contains(""))
+			throw Exceptions.illegalArgument("field [%s] is invalid", field);
+
+		if (META_FIELDS.contains(path.get(0)))
+			throw Exceptions.illegalArgument("operations on meta field [%s] are forbidden", field);
+
+		return path;
+	}
+
+	private static Object toValue(DataOperation operation) {
+		switch (operation.op) {
+		case unset:
+			return null;
+
+		case inc:
+			return checkNumber(operation);
+
+		case dec:
+			return negate(checkNumber(operation));
+
+		case min:
+		case max:
+			if (operation.value instanceof Number || operation.value instanceof String)
+				return operation.value;
+			throw Exceptions.illegalArgument(//
+					"[%s] value of field [%s] must be a number or a string", //
+					operation.op, operation.field);
+
+		default:
+			if (operation.value == null)
+				throw Exceptions.illegalArgument(//
+						"[%s] value of field [%s] is missing", operation.op, operation.field);
+
+			return operation.value instanceof Collection //
+					? Lists.newArrayList((Collection<?>) operation.value)
+					: Collections.singletonList(operation.value);
+		}
+	}
+
+	private static Number checkNumber(DataOperation operation) {
+		if (operation.value instanceof Number)
+			return (Number) operation.value;
+		throw Exceptions.illegalArgument("[%s] value of field [%s] must be a number", //
+				operation.op, operation.field);
+	}
+
+	private static Number negate(Number number) {
+		if (number instanceof Double || number instanceof Float)
+			return -number.doubleValue();
+		if (number instanceof Integer)
+			return -number.intValue();
+		return -number.longValue();
+	}
+}
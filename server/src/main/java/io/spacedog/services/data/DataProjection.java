@@ -0,0 +1,82 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.data;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import io.spacedog.client.http.SpaceFields;
+import io.spacedog.utils.Utils;
+
+/**
+ * Source projection of data objects. The fields and exclude parameters are
+ * mapped to elasticsearch source includes and excludes. Field lists are comma
+ * separated and accept dot paths and wildcards.
+ */
+public class DataProjection implements SpaceFields {
+
+	private static final Set<String> META_FIELDS = Sets.newHashSet(//
+			OWNER_FIELD, GROUP_FIELD, CREATED_AT_FIELD, UPDATED_AT_FIELD);
+
+	private static final Splitter SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+
+	/**
+	 * @return null if there is no field to include nor exclude
+	 */
+	public static FetchSourceContext of(String fields, String exclude) {
+		return of(split(fields), split(exclude));
+	}
+
+	/**
+	 * @return null if there is no field to include nor exclude
+	 */
+	public static FetchSourceContext of(String[] fields, String[] exclude) {
+		if (Utils.isNullOrEmpty(fields) && Utils.isNullOrEmpty(exclude))
+			return null;
+
+		return new FetchSourceContext(true, //
+				Utils.isNullOrEmpty(fields) ? null : fields, //
+				Utils.isNullOrEmpty(exclude) ? null : exclude);
+	}
+
+	/**
+	 * @return this projection with the meta fields needed to check owner and
+	 *         group read permissions
+	 */
+	public static FetchSourceContext withMeta(FetchSourceContext projection) {
+		if (projection == null)
+			return null;
+
+		String[] includes = projection.includes();
+		if (includes.length > 0) {
+			Set<String> withMeta = Sets.newLinkedHashSet(Arrays.asList(includes));
+			withMeta.addAll(META_FIELDS);
+			includes = withMeta.toArray(new String[withMeta.size()]);
+		}
+
+		List<String> excludes = Lists.newArrayList(projection.excludes());
+		excludes.removeAll(META_FIELDS);
+
+		return new FetchSourceContext(true, includes, //
+				excludes.toArray(new String[excludes.size()]));
+	}
+
+	//
+	// Implementation
+	//
+
+	private static String[] split(String fields) {
+		if (fields == null)
+			return null;
+		List<String> list = SPLITTER.splitToList(fields);
+		return list.toArray(new String[list.size()]);
+	}
+}
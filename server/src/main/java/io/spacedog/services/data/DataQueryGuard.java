@@ -0,0 +1,344 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.data;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.BoostingQueryBuilder;
+import org.elasticsearch.index.query.ConstantScoreQueryBuilder;
+import org.elasticsearch.index.query.DisMaxQueryBuilder;
+import org.elasticsearch.index.query.NestedQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryStringQueryBuilder;
+import org.elasticsearch.index.query.RegexpQueryBuilder;
+import org.elasticsearch.index.query.TermsQueryBuilder;
+import org.elasticsearch.index.query.WildcardQueryBuilder;
+import org.elasticsearch.index.query.WrapperQueryBuilder;
+import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder;
+import org.elasticsearch.index.query.functionscore.FunctionScoreQueryBuilder.FilterFunctionBuilder;
+import org.elasticsearch.index.query.functionscore.ScriptScoreFunctionBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.composite.CompositeAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.filter.FilterAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.filter.FiltersAggregationBuilder;
+import org.elasticsearch.search.aggregations.bucket.filter.FiltersAggregator.KeyedFilter;
+import org.elasticsearch.search.aggregations.bucket.terms.TermsAggregationBuilder;
+import org.elasticsearch.search.aggregations.metrics.ScriptedMetricAggregationBuilder;
+import org.elasticsearch.search.aggregations.support.ValuesSourceAggregationBuilder;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.ScriptSortBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.spacedog.client.data.DataSettings.SearchLimits;
+import io.spacedog.client.http.SpaceException;
+import io.spacedog.services.db.elastic.ElasticUtils;
+import io.spacedog.utils.Json;
+
+/**
+ * Checks user submitted searches and deletes by query against the search
+ * limits of the backend before they reach elasticsearch. Queries over a limit
+ * are rejected with a search-rejected error naming the limit. Query string
+ * queries are rewritten to forbid leading wildcards unless allowed, wildcard
+ * and regexp queries starting with a pattern are rejected. Checks,
+ * rewrites and rejections per limit are counted per backend.
+ */
+public class DataQueryGuard {
+
+	static final String SEARCH_REJECTED = "search-rejected";
+	static final String SCRIPT = "script";
+
+	static final String CHECKED = "checked";
+	static final String REWRITTEN = "rewritten";
+
+	static final String MAX_SIZE = "maxSize";
+	static final String MAX_RESULT_WINDOW = "maxResultWindow";
+	static final String MAX_AGGREGATION_BUCKETS = "maxAggregationBuckets";
+	static final String MAX_CLAUSE_COUNT = "maxClauseCount";
+	static final String MAX_DEPTH = "maxDepth";
+	static final String ALLOW_LEADING_WILDCARDS = "allowLeadingWildcards";
+	static final String BANNED_QUERIES = "bannedQueries";
+
+	// elastic default page size
+	private static final int DEFAULT_SIZE = 10;
+
+	// lucene regexp operators except the escape char
+	private static final String REGEXP_OPERATORS = ".?+*|{}[]()\"#@&<>~";
+
+	private Map<String, Map<String, AtomicLong>> counters = new ConcurrentHashMap<>();
+
+	/**
+	 * Rewrites are applied to this search source
+	 */
+	public void check(String backendId, SearchSourceBuilder source, SearchLimits limits) {
+		Analyzer analyzer = new Analyzer(limits);
+		check(backendId, analyzer, () -> analyzer.source(source));
+	}
+
+	/**
+	 * Rewrites are applied to this query
+	 */
+	public void check(String backendId, QueryBuilder query, SearchLimits limits) {
+		Analyzer analyzer = new Analyzer(limits);
+		check(backendId, analyzer, () -> analyzer.query(query, 1));
+	}
+
+	/**
+	 * @return checked and rewritten queries and rejected queries per limit of
+	 *         this backend
+	 */
+	public ObjectNode stats(String backendId) {
+		ObjectNode node = Json.object(CHECKED, 0, REWRITTEN, 0);
+		ObjectNode rejected = node.putObject("rejected");
+		Map<String, AtomicLong> backendCounters = counters.get(backendId);
+
+		if (backendCounters != null)
+			backendCounters.forEach((counter, value) -> {
+				if (counter.equals(CHECKED) || counter.equals(REWRITTEN))
+					node.put(counter, value.get());
+				else
+					rejected.put(counter, value.get());
+			});
+
+		return node;
+	}
+
+	//
+	// Implementation
+	//
+
+	private void check(String backendId, Analyzer analyzer, Runnable analysis) {
+		increment(backendId, CHECKED);
+		try {
+			analysis.run();
+			if (analyzer.rewrites > 0)
+				increment(backendId, REWRITTEN);
+
+		} catch (Rejection e) {
+			increment(backendId, e.limit);
+			throw e;
+		}
+	}
+
+	private void increment(String backendId, String counter) {
+		counters.computeIfAbsent(backendId, id -> new ConcurrentHashMap<>())//
+				.computeIfAbsent(counter, name -> new AtomicLong())//
+				.incrementAndGet();
+	}
+
+	static class Rejection extends SpaceException {
+
+		private static final long serialVersionUID = 5473012364826349961L;
+
+		final String limit;
+
+		Rejection(String limit, String message, Object... args) {
+			super(SEARCH_REJECTED, 400, "search rejected by limit [%s]: %s", //
+					limit, String.format(message, args));
+			this.limit = limit;
+		}
+	}
+
+	/**
+	 * Walks a search source to count its clauses, depth and estimated
+	 * aggregation buckets. Throws a rejection at the first limit exceeded.
+	 */
+	static class Analyzer {
+
+		private final SearchLimits limits;
+		int clauses;
+		int rewrites;
+
+		Analyzer(SearchLimits limits) {
+			this.limits = limits;
+		}
+
+		void source(SearchSourceBuilder source) {
+			int size = source.size() < 0 ? DEFAULT_SIZE : source.size();
+			int from = Math.max(0, source.from());
+
+			if (size > limits.maxSize)
+				throw new Rejection(MAX_SIZE, "size [%s] is over [%s]", size, limits.maxSize);
+
+			if (from + size > limits.maxResultWindow)
+				throw new Rejection(MAX_RESULT_WINDOW, "from [%s] plus size [%s] is over [%s]", //
+						from, size, limits.maxResultWindow);
+
+			query(source.query(), 1);
+			query(source.postFilter(), 1);
+
+			if (source.scriptFields() != null && !source.scriptFields().isEmpty())
+				checkNotBanned(SCRIPT);
+
+			if (source.sorts() != null)
+				for (SortBuilder<?> sort : source.sorts())
+					if (sort instanceof ScriptSortBuilder)
+						checkNotBanned(SCRIPT);
+
+			if (source.aggregations() != null)
+				for (AggregationBuilder aggregation : source.aggregations().getAggregatorFactories())
+					aggregation(aggregation, 1, 1);
+		}
+
+		void query(QueryBuilder query, int depth) {
+			if (query == null)
+				return;
+
+			checkDepth(depth);
+			checkNotBanned(query.getName());
+
+			if (query instanceof BoolQueryBuilder) {
+				BoolQueryBuilder bool = (BoolQueryBuilder) query;
+				bool.must().forEach(clause -> query(clause, depth + 1));
+				bool.filter().forEach(clause -> query(clause, depth + 1));
+				bool.should().forEach(clause -> query(clause, depth + 1));
+				bool.mustNot().forEach(clause -> query(clause, depth + 1));
+
+			} else if (query instanceof ConstantScoreQueryBuilder)
+				query(((ConstantScoreQueryBuilder) query).innerQuery(), depth + 1);
+
+			else if (query instanceof BoostingQueryBuilder) {
+				BoostingQueryBuilder boosting = (BoostingQueryBuilder) query;
+				query(boosting.positiveQuery(), depth + 1);
+				query(boosting.negativeQuery(), depth + 1);
+
+			} else if (query instanceof DisMaxQueryBuilder)
+				((DisMaxQueryBuilder) query).innerQueries()//
+						.forEach(clause -> query(clause, depth + 1));
+
+			else if (query instanceof NestedQueryBuilder)
+				query(((NestedQueryBuilder) query).query(), depth + 1);
+
+			else if (query instanceof FunctionScoreQueryBuilder) {
+				FunctionScoreQueryBuilder functionScore = (FunctionScoreQueryBuilder) query;
+				query(functionScore.query(), depth + 1);
+				for (FilterFunctionBuilder function : functionScore.filterFunctionBuilders()) {
+					query(function.getFilter(), depth + 1);
+					if (function.getScoreFunction() instanceof ScriptScoreFunctionBuilder)
+						checkNotBanned(SCRIPT);
+				}
+
+			} else if (query instanceof WrapperQueryBuilder)
+				wrapper((WrapperQueryBuilder) query, depth);
+
+			else
+				leaf(query);
+		}
+
+		void aggregation(AggregationBuilder aggregation, int depth, long buckets) {
+			checkDepth(depth);
+			checkNotBanned(aggregation.getType());
+
+			// scripted metrics and scripted values run scripts like script queries
+			if (aggregation instanceof ScriptedMetricAggregationBuilder)
+				checkNotBanned(SCRIPT);
+			else if (aggregation instanceof ValuesSourceAggregationBuilder //
+					&& ((ValuesSourceAggregationBuilder<?>) aggregation).script() != null)
+				checkNotBanned(SCRIPT);
+
+			if (aggregation instanceof TermsAggregationBuilder)
+				buckets *= ((TermsAggregationBuilder) aggregation).size();
+			else if (aggregation instanceof CompositeAggregationBuilder)
+				buckets *= ((CompositeAggregationBuilder) aggregation).size();
+			else if (aggregation instanceof FilterAggregationBuilder)
+				query(((FilterAggregationBuilder) aggregation).getFilter(), depth + 1);
+			else if (aggregation instanceof FiltersAggregationBuilder) {
+				FiltersAggregationBuilder filters = (FiltersAggregationBuilder) aggregation;
+				buckets *= filters.filters().size();
+				for (KeyedFilter filter : filters.filters())
+					query(filter.filter(), depth + 1);
+			}
+
+			if (buckets > limits.maxAggregationBuckets)
+				throw new Rejection(MAX_AGGREGATION_BUCKETS, //
+						"aggregation [%s] would return up to [%s] buckets, over [%s]", //
+						aggregation.getName(), buckets, limits.maxAggregationBuckets);
+
+			for (AggregationBuilder subAggregation : aggregation.getSubAggregations())
+				aggregation(subAggregation, depth + 1, buckets);
+		}
+
+		//
+		// Implementation
+		//
+
+		/**
+		 * Wrapped queries are sent as is to elasticsearch, rewrites can not be
+		 * applied to them and are rejected instead.
+		 */
+		private void wrapper(WrapperQueryBuilder wrapper, int depth) {
+			int before = rewrites;
+			query(ElasticUtils.parseQuery(wrapper.source()), depth + 1);
+
+			if (rewrites > before)
+				throw new Rejection(ALLOW_LEADING_WILDCARDS, //
+						"wrapped query string queries must disallow leading wildcards");
+		}
+
+		private void leaf(QueryBuilder query) {
+			if (query instanceof TermsQueryBuilder) {
+				TermsQueryBuilder terms = (TermsQueryBuilder) query;
+				clauses += terms.values() == null ? 1 : terms.values().size();
+			} else
+				clauses++;
+
+			if (clauses > limits.maxClauseCount)
+				throw new Rejection(MAX_CLAUSE_COUNT, "more than [%s] query clauses", //
+						limits.maxClauseCount);
+
+			if (limits.allowLeadingWildcards)
+				return;
+
+			if (query instanceof WildcardQueryBuilder) {
+				String value = ((WildcardQueryBuilder) query).value();
+				if (value.startsWith("*") || value.startsWith("?"))
+					throw new Rejection(ALLOW_LEADING_WILDCARDS, //
+							"wildcard [%s] starts with a wildcard", value);
+
+			} else if (query instanceof RegexpQueryBuilder) {
+				String value = ((RegexpQueryBuilder) query).value();
+				if (startsWithPattern(value))
+					throw new Rejection(ALLOW_LEADING_WILDCARDS, //
+							"regexp [%s] starts with a pattern", value);
+
+			} else if (query instanceof QueryStringQueryBuilder) {
+				QueryStringQueryBuilder queryString = (QueryStringQueryBuilder) query;
+				if (!Boolean.FALSE.equals(queryString.allowLeadingWildcard())) {
+					queryString.allowLeadingWildcard(false);
+					rewrites++;
+				}
+			}
+		}
+
+		/**
+		 * @return true if this regexp or one of its alternatives does not start
+		 *         with a literal, like .*dog or (cat|.+dog), since it scans all
+		 *         the terms of the field
+		 */
+		static boolean startsWithPattern(String regexp) {
+			for (String alternative : regexp.split("\\|")) {
+				while (alternative.startsWith("("))
+					alternative = alternative.substring(1);
+				if (!alternative.isEmpty() //
+						&& REGEXP_OPERATORS.indexOf(alternative.charAt(0)) >= 0)
+					return true;
+			}
+			return false;
+		}
+
+		private void checkDepth(int depth) {
+			if (depth > limits.maxDepth)
+				throw new Rejection(MAX_DEPTH, "nested deeper than [%s] levels", limits.maxDepth);
+		}
+
+		private void checkNotBanned(String name) {
+			if (limits.bannedQueries != null && limits.bannedQueries.contains(name))
+				throw new Rejection(BANNED_QUERIES, "[%s] is banned", name);
+		}
+	}
+}
@@ -0,0 +1,314 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.Aggregations;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.util.RawValue;
+
+import io.spacedog.client.http.ContentTypes;
+import io.spacedog.client.http.SpaceFields;
+import io.spacedog.services.db.elastic.ElasticIndex;
+import io.spacedog.services.db.elastic.ElasticVersion;
+import io.spacedog.utils.Json;
+import io.spacedog.utils.Utils;
+import net.codestory.http.payload.Payload;
+import net.codestory.http.payload.StreamingOutput;
+
+/**
+ * Writes data objects and search results with the same JSON envelope than
+ * DataWrap and DataResults but passes elastic raw source bytes through as is.
+ * Sources are never parsed into a JSON tree and then serialized back.
+ */
+public class DataRawStreamingOutput implements StreamingOutput, SpaceFields {
+
+	private GetResponse get;
+	private GetResponse[] gets;
+	private JsonNode[] errors;
+	private SearchResponse search;
+	private String next;
+	private byte[] bytes;
+
+	private DataRawStreamingOutput() {
+	}
+
+	public static DataRawStreamingOutput of(GetResponse response) {
+		DataRawStreamingOutput output = new DataRawStreamingOutput();
+		output.get = response;
+		return output;
+	}
+
+	/**
+	 * For multi gets. Objects are written in order, the error of an object if
+	 * there is one, the object otherwise.
+	 */
+	public static DataRawStreamingOutput of(GetResponse[] responses, JsonNode[] errors) {
+		DataRawStreamingOutput output = new DataRawStreamingOutput();
+		output.gets = responses;
+		output.errors = errors;
+		return output;
+	}
+
+	public static DataRawStreamingOutput of(SearchResponse response, String next) {
+		DataRawStreamingOutput output = new DataRawStreamingOutput();
+		output.search = response;
+		output.next = next;
+		return output;
+	}
+
+	/**
+	 * For responses already written to bytes like cached search results.
+	 */
+	public static DataRawStreamingOutput of(byte[] json) {
+		DataRawStreamingOutput output = new DataRawStreamingOutput();
+		output.bytes = json;
+		return output;
+	}
+
+	/**
+	 * @return the version of a single object, null for other outputs
+	 */
+	public String version() {
+		return get == null ? null //
+				: ElasticVersion.toString(get.getSeqNo(), get.getPrimaryTerm());
+	}
+
+	public Payload toPayload() {
+		return new Payload(ContentTypes.JSON_UTF8, this);
+	}
+
+	/**
+	 * For internal consumers like bulk requests and logs that need a JSON tree.
+	 */
+	public JsonNode toJsonNode() {
+		return Json.readNode(toBytes());
+	}
+
+	/**
+	 * For internal consumers like logs that only copy the JSON. Bytes are kept
+	 * so that the response is not written twice.
+	 */
+	public RawValue toRawValue() {
+		return new RawValue(new RawJson(toBytes()));
+	}
+
+	public byte[] toBytes() {
+		if (bytes != null)
+			return bytes;
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		try {
+			write(output);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		bytes = output.toByteArray();
+		return bytes;
+	}
+
+	@Override
+	public void write(OutputStream output) throws IOException {
+		if (bytes != null) {
+			output.write(bytes);
+			return;
+		}
+
+		JsonGenerator generator = Json.mapper().getFactory().createGenerator(output);
+		if (get != null)
+			writeObject(generator, get);
+		else if (gets != null)
+			writeObjects(generator, gets, errors);
+		else
+			writeResults(generator, search);
+		generator.flush();
+	}
+
+	//
+	// Implementation
+	//
+
+	private void writeResults(JsonGenerator generator, SearchResponse response) throws IOException {
+		generator.writeStartObject();
+		generator.writeNumberField("total", response.getHits().getTotalHits().value);
+		generator.writeArrayFieldStart("objects");
+		for (SearchHit hit : response.getHits().getHits())
+			writeObject(generator, hit);
+		generator.writeEndArray();
+		generator.writeStringField("next", next);
+		Aggregations aggregations = response.getAggregations();
+		generator.writeObjectField("aggregations", //
+				aggregations == null ? null : aggregations.asMap());
+		generator.writeEndObject();
+	}
+
+	private void writeObjects(JsonGenerator generator, GetResponse[] responses, //
+			JsonNode[] errors) throws IOException {
+		generator.writeStartObject();
+		generator.writeArrayFieldStart("objects");
+		for (int i = 0; i < responses.length; i++) {
+			if (errors[i] != null)
+				generator.writeTree(errors[i]);
+			else
+				writeObject(generator, responses[i]);
+		}
+		generator.writeEndArray();
+		generator.writeEndObject();
+	}
+
+	private void writeObject(JsonGenerator generator, SearchHit hit) throws IOException {
+		generator.writeStartObject();
+		writeSource(generator, hit.getSourceRef());
+		generator.writeStringField(ID_FIELD, hit.getId());
+		generator.writeStringField(TYPE_FIELD, ElasticIndex.valueOf(hit.getIndex()).type());
+		generator.writeStringField(VERSION_FIELD, //
+				ElasticVersion.toString(hit.getSeqNo(), hit.getPrimaryTerm()));
+		generator.writeNumberField("score", //
+				Float.isFinite(hit.getScore()) ? hit.getScore() : 0);
+		Object[] sortValues = hit.getSortValues();
+		generator.writeObjectField("sort", Utils.isNullOrEmpty(sortValues) ? null : sortValues);
+		generator.writeEndObject();
+	}
+
+	private void writeObject(JsonGenerator generator, GetResponse response) throws IOException {
+		generator.writeStartObject();
+		writeSource(generator, response.getSourceInternal());
+		generator.writeStringField(ID_FIELD, response.getId());
+		generator.writeStringField(TYPE_FIELD, ElasticIndex.valueOf(response.getIndex()).type());
+		generator.writeStringField(VERSION_FIELD, //
+				ElasticVersion.toString(response.getSeqNo(), response.getPrimaryTerm()));
+		generator.writeNumberField("score", 0f);
+		generator.writeNullField("sort");
+		generator.writeEndObject();
+	}
+
+	private void writeSource(JsonGenerator generator, BytesReference source) throws IOException {
+		generator.writeFieldName(SOURCE_FIELD);
+		if (source == null)
+			generator.writeNull();
+		else
+			generator.writeRawValue(new RawJson(BytesReference.toBytes(source)));
+	}
+
+	/**
+	 * Raw UTF-8 JSON bytes. The UTF-8 generator only asks for the unquoted bytes
+	 * when writing raw values. Quoted forms escape the JSON like any string. No
+	 * copy is made if the elastic bytes reference is backed by an array.
+	 */
+	static class RawJson implements SerializableString {
+
+		private final byte[] bytes;
+
+		RawJson(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		@Override
+		public String getValue() {
+			return new String(bytes, StandardCharsets.UTF_8);
+		}
+
+		@Override
+		public int charLength() {
+			return getValue().length();
+		}
+
+		@Override
+		public byte[] asUnquotedUTF8() {
+			return bytes;
+		}
+
+		@Override
+		public int appendUnquotedUTF8(byte[] buffer, int offset) {
+			if (offset + bytes.length > buffer.length)
+				return -1;
+			System.arraycopy(bytes, 0, buffer, offset, bytes.length);
+			return bytes.length;
+		}
+
+		@Override
+		public int appendUnquoted(char[] buffer, int offset) {
+			String value = getValue();
+			if (offset + value.length() > buffer.length)
+				return -1;
+			value.getChars(0, value.length(), buffer, offset);
+			return value.length();
+		}
+
+		@Override
+		public int writeUnquotedUTF8(OutputStream output) throws IOException {
+			output.write(bytes);
+			return bytes.length;
+		}
+
+		@Override
+		public int putUnquotedUTF8(ByteBuffer buffer) throws IOException {
+			if (bytes.length > buffer.remaining())
+				return -1;
+			buffer.put(bytes);
+			return bytes.length;
+		}
+
+		// quoted forms are the JSON string of the raw JSON
+		// for generators writing this value as a string or field name
+
+		@Override
+		public char[] asQuotedChars() {
+			return JsonStringEncoder.getInstance().quoteAsString(getValue());
+		}
+
+		@Override
+		public byte[] asQuotedUTF8() {
+			return JsonStringEncoder.getInstance().quoteAsUTF8(getValue());
+		}
+
+		@Override
+		public int appendQuotedUTF8(byte[] buffer, int offset) {
+			byte[] quoted = asQuotedUTF8();
+			if (offset + quoted.length > buffer.length)
+				return -1;
+			System.arraycopy(quoted, 0, buffer, offset, quoted.length);
+			return quoted.length;
+		}
+
+		@Override
+		public int appendQuoted(char[] buffer, int offset) {
+			char[] quoted = asQuotedChars();
+			if (offset + quoted.length > buffer.length)
+				return -1;
+			System.arraycopy(quoted, 0, buffer, offset, quoted.length);
+			return quoted.length;
+		}
+
+		@Override
+		public int writeQuotedUTF8(OutputStream output) throws IOException {
+			byte[] quoted = asQuotedUTF8();
+			output.write(quoted);
+			return quoted.length;
+		}
+
+		@Override
+		public int putQuotedUTF8(ByteBuffer buffer) throws IOException {
+			byte[] quoted = asQuotedUTF8();
+			if (quoted.length > buffer.remaining())
+				return -1;
+			buffer.put(quoted);
+			return quoted.length;
+		}
+	}
+}
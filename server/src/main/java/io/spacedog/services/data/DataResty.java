@@ -6,10 +6,12 @@ package io.spacedog.services.data;
 import java.io.IOException;
 import java.util.Locale;
 
+import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
 import org.elasticsearch.common.Strings;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.NullNode;
@@ -18,8 +20,14 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.spacedog.client.credentials.Credentials;
 import io.spacedog.client.credentials.Permission;
 import io.spacedog.client.data.CsvRequest;
+import io.spacedog.client.data.DataMultiGetRequest;
+import io.spacedog.client.data.DataOperation;
+import io.spacedog.client.data.DataOperation.Type;
+import io.spacedog.client.data.DataOperationsRequest;
 import io.spacedog.client.data.DataWrap;
 import io.spacedog.client.http.ContentTypes;
+import io.spacedog.client.http.SpaceHeaders;
+import io.spacedog.services.ETags;
 import io.spacedog.services.JsonPayload;
 import io.spacedog.services.Server;
 import io.spacedog.services.Services;
@@ -42,7 +50,7 @@ public class DataResty extends SpaceResty {
 
 	@Get("")
 	@Get("/")
-	public DataResults<ObjectNode> getAll(Context context) {
+	public Payload getAll(Context context) {
 		Credentials credentials = Server.context().credentials();
 		String[] types = DataAccessControl.types(credentials, Permission.search);
 		return doGet(context, types);
@@ -50,12 +58,18 @@ public class DataResty extends SpaceResty {
 
 	@Post("/_search")
 	@Post("/_search/")
-	public DataResults<ObjectNode> postSearchAll(String body, Context context) {
+	public Payload postSearchAll(String body, Context context) {
 		Credentials credentials = Server.context().credentials();
 		String[] types = DataAccessControl.types(credentials, Permission.search);
 		return doSearch(body, context, types);
 	}
 
+	@Post("/_mget")
+	@Post("/_mget/")
+	public Payload postMultiGet(DataMultiGetRequest request, Context context) {
+		return Services.data().getMultiIfAuthorized(request).toPayload();
+	}
+
 	@Delete("/_search")
 	@Delete("/_search/")
 	public Payload deleteSearchAll(String query, Context context) {
@@ -68,9 +82,23 @@ public class DataResty extends SpaceResty {
 		return doDelete(query, context, types);
 	}
 
+	@Get("/_search_cache")
+	@Get("/_search_cache/")
+	public ObjectNode getSearchCacheStats(Context context) {
+		Server.context().credentials().checkAtLeastAdmin();
+		return Services.data().searchCacheStats();
+	}
+
+	@Get("/_search_limits")
+	@Get("/_search_limits/")
+	public ObjectNode getSearchLimitsStats(Context context) {
+		Server.context().credentials().checkAtLeastAdmin();
+		return Services.data().searchLimitsStats();
+	}
+
 	@Get("/:type")
 	@Get("/:type/")
-	public DataResults<ObjectNode> getType(String type, Context context) {
+	public Payload getType(String type, Context context) {
 		DataAccessControl.checkPermission(type, Permission.search);
 		return doGet(context, type);
 	}
@@ -80,7 +108,7 @@ public class DataResty extends SpaceResty {
 	public Payload postType(String type, String body, Context context) {
 		DataWrap<ObjectNode> object = DataWrap.wrap(Json.readObject(body)).type(type);
 		boolean forceMeta = context.query().getBoolean(FORCE_META_PARAM, false);
-		object = Services.data().saveIfAuthorized(object, forceMeta);
+		object = Services.data().saveIfAuthorized(object, forceMeta, refreshPolicy(context));
 		return JsonPayload.saved(object).build();
 	}
 
@@ -92,7 +120,7 @@ public class DataResty extends SpaceResty {
 
 	@Post("/:type/_search")
 	@Post("/:type/_search/")
-	public DataResults<ObjectNode> postSearchType(String type, String body, Context context) {
+	public Payload postSearchType(String type, String body, Context context) {
 		DataAccessControl.checkPermission(type, Permission.search);
 		return doSearch(body, context, type);
 	}
@@ -107,23 +135,38 @@ public class DataResty extends SpaceResty {
 
 	@Get("/:type/:id")
 	@Get("/:type/:id/")
-	public DataWrap<ObjectNode> getById(String type, String id, Context context) {
-		return Services.data().getIfAuthorized(type, id);
+	public Payload getById(String type, String id, Context context) {
+		FetchSourceContext projection = projection(context);
+		String variant = projection == null ? null //
+				: Integer.toHexString(projection.hashCode());
+
+		// cheap version only lookup to revalidate client caches
+		if (!Strings.isNullOrEmpty(context.header(SpaceHeaders.IF_NONE_MATCH))) {
+			String etag = ETags.of(Services.data().getVersionIfAuthorized(type, id), variant);
+			if (ETags.isNotModified(context, etag))
+				return ETags.notModified(etag);
+		}
+
+		DataRawStreamingOutput output = Services.data().getRawIfAuthorized(type, id, projection);
+		return ETags.with(output.toPayload(), ETags.of(output.version(), variant));
 	}
 
 	@Put("/:type/:id")
 	@Put("/:type/:id/")
 	public Payload put(String type, String id, String body, Context context) {
 		DataWrap<ObjectNode> object = DataWrap.wrap(Json.readObject(body))//
-				.version(context.query().get(VERSION_PARAM))//
+				.version(ETags.version(context, //
+						() -> Services.data().getVersionIfAuthorized(type, id)))//
 				.type(type).id(id);
 
 		boolean forceMeta = context.query().getBoolean(FORCE_META_PARAM, false);
 		boolean patch = context.query().getBoolean(PATCH_PARAM, false);
 
+		RefreshPolicy refresh = refreshPolicy(context);
+
 		object = patch //
-				? Services.data().patchIfAuthorized(object) //
-				: Services.data().saveIfAuthorized(object, forceMeta);
+				? Services.data().patchIfAuthorized(object, refresh) //
+				: Services.data().saveIfAuthorized(object, forceMeta, refresh);
 
 		return JsonPayload.saved(object).build();
 	}
@@ -131,7 +174,7 @@ public class DataResty extends SpaceResty {
 	@Delete("/:type/:id")
 	@Delete("/:type/:id/")
 	public Payload deleteById(String type, String id, Context context) {
-		boolean deleted = Services.data().deleteIfAuthorized(type, id);
+		boolean deleted = Services.data().deleteIfAuthorized(type, id, refreshPolicy(context));
 		return JsonPayload.ok().withFields("deleted", deleted).build();
 	}
 
@@ -151,18 +194,37 @@ public class DataResty extends SpaceResty {
 		ObjectNode source = Json.object();
 		Json.with(source, field, Json.readNode(body));
 		DataWrap<ObjectNode> object = DataWrap.wrap(source)//
-				.version(context.query().get(VERSION_PARAM))//
+				.version(ETags.version(context, //
+						() -> Services.data().getVersionIfAuthorized(type, id)))//
 				.type(type).id(id);
-		object = Services.data().patchIfAuthorized(object);
+		object = Services.data().patchIfAuthorized(object, refreshPolicy(context));
 		return JsonPayload.saved(object).build();
 	}
 
 	@Delete("/:type/:id/:field")
 	@Delete("/:type/:id/:field/")
 	public Payload deleteField(String type, String id, String field, String body, Context context) {
-		DataWrap<ObjectNode> object = Services.data().getWrapped(type, id);
-		Json.remove(object.source(), field);
-		object = Services.data().saveIfAuthorized(object, false);
+		DataOperationsRequest request = new DataOperationsRequest();
+		request.type = type;
+		request.id = id;
+		request.version = ETags.version(context, //
+				() -> Services.data().getVersionIfAuthorized(type, id));
+		request.operations.add(new DataOperation(Type.unset, field, null));
+		DataWrap<ObjectNode> object = Services.data()//
+				.operationsIfAuthorized(request, refreshPolicy(context));
+		return JsonPayload.saved(object).build();
+	}
+
+	@Post("/:type/:id/_operations")
+	@Post("/:type/:id/_operations/")
+	public Payload postOperations(String type, String id, String body, Context context) {
+		DataOperationsRequest request = Json.toPojo(body, DataOperationsRequest.class);
+		request.type = type;
+		request.id = id;
+		request.version = ETags.version(context, //
+				() -> Services.data().getVersionIfAuthorized(type, id));
+		DataWrap<ObjectNode> object = Services.data()//
+				.operationsIfAuthorized(request, refreshPolicy(context));
 		return JsonPayload.saved(object).build();
 	}
 
@@ -176,8 +238,9 @@ public class DataResty extends SpaceResty {
 
 		QueryBuilder query = Strings.isNullOrEmpty(body) //
 				? QueryBuilders.matchAllQuery()
-				: ElasticUtils.toQueryBuilder(body);
+				: ElasticUtils.parseQuery(body);
 
+		Services.data().checkSearchLimits(query);
 		StreamingOutput output = Services.data().exportNow(type, query);
 		return new Payload(ContentTypes.TEXT_PLAIN_UTF8, output);
 	}
@@ -206,39 +269,62 @@ public class DataResty extends SpaceResty {
 	// Implementation
 	//
 
-	private DataResults<ObjectNode> doGet(Context context, String... types) {
+	private Payload doGet(Context context, String... types) {
 
-		DataResults<ObjectNode> results = DataResults.of(ObjectNode.class);
-		if (!Utils.isNullOrEmpty(types)) {
+		if (Utils.isNullOrEmpty(types))
+			return new Payload(DataResults.of(ObjectNode.class));
 
-			refreshIfRequested(context, types);
+		refreshIfRequested(context, types);
 
-			String q = context.get(Q_PARAM);
-			int from = context.query().getInteger(FROM_PARAM, 0);
-			int size = context.query().getInteger(SIZE_PARAM, 10);
-			boolean fetchSource = context.query().getBoolean("fetch-contents", true);
+		String q = context.get(Q_PARAM);
+		int from = context.query().getInteger(FROM_PARAM, 0);
+		int size = context.query().getInteger(SIZE_PARAM, 10);
 
-			QueryBuilder query = Strings.isNullOrEmpty(q) //
-					? QueryBuilders.matchAllQuery() //
-					: QueryBuilders.simpleQueryStringQuery(q);
+		QueryBuilder query = Strings.isNullOrEmpty(q) //
+				? QueryBuilders.matchAllQuery() //
+				: QueryBuilders.simpleQueryStringQuery(q);
 
-			SearchSourceBuilder search = SearchSourceBuilder.searchSource()//
-					.query(query).from(from).size(size).fetchSource(fetchSource);
+		SearchSourceBuilder search = SearchSourceBuilder.searchSource()//
+				.query(query).from(from).size(size);
 
-			results = Services.data().search(ObjectNode.class, search, types);
-		}
-		return results;
+		if (context.query().getBoolean("fetch-contents", true))
+			search.fetchSource(projection(context));
+		else
+			search.fetchSource(false);
+
+		return search(search, context, types);
 	}
 
-	private DataResults<ObjectNode> doSearch(String body, Context context, String... types) {
+	private Payload doSearch(String body, Context context, String... types) {
 
-		DataResults<ObjectNode> results = DataResults.of(ObjectNode.class);
-		if (!Utils.isNullOrEmpty(types)) {
-			refreshIfRequested(context, types);
-			SearchSourceBuilder builder = ElasticUtils.toSearchSourceBuilder(body).version(true);
-			results = Services.data().search(ObjectNode.class, builder, types);
-		}
-		return results;
+		if (Utils.isNullOrEmpty(types))
+			return new Payload(DataResults.of(ObjectNode.class));
+
+		refreshIfRequested(context, types);
+		SearchSourceBuilder builder = ElasticUtils.toSearchSourceBuilder(body).version(true);
+
+		// projection parameters override body _source
+		FetchSourceContext projection = projection(context);
+		if (projection != null)
+			builder.fetchSource(projection);
+
+		return search(builder, context, types);
+	}
+
+	private FetchSourceContext projection(Context context) {
+		return DataProjection.of(context.get(FIELDS_PARAM), context.get(EXCLUDE_PARAM));
+	}
+
+	private Payload search(SearchSourceBuilder search, Context context, String... types) {
+		Services.data().checkSearchLimits(search);
+		String next = context.get(NEXT_PARAM);
+		boolean cursor = context.query().getBoolean(CURSOR_PARAM, false);
+
+		DataRawStreamingOutput output = cursor || !Strings.isNullOrEmpty(next) //
+				? Services.data().searchWithCursorRaw(search, next, types)
+				: Services.data().searchRaw(search, types);
+
+		return output.toPayload();
 	}
 
 	private Payload doDelete(String query, Context context, String... types) {
@@ -249,7 +335,14 @@ public class DataResty extends SpaceResty {
 
 			QueryBuilder builder = Strings.isNullOrEmpty(query) //
 					? QueryBuilders.matchAllQuery()
-					: QueryBuilders.wrapperQuery(query);
+					: ElasticUtils.parseQuery(query);
+
+			Services.data().checkSearchLimits(builder);
+
+			if (isAsyncRequested(context))
+				return JsonPayload.submitted(Services.data()//
+						.submitDeleteAll(builder, requestsPerSecond(context), types))//
+						.build();
 
 			deleted = Services.data().deleteAll(builder, types);
 		}
@@ -0,0 +1,127 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.data;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import io.spacedog.client.data.DataSettings.SearchCacheSettings;
+import io.spacedog.utils.Json;
+
+/**
+ * Caches serialized search results per backend and type. Every write to a type
+ * increments its local write generation and drops its cached results. The
+ * generation is part of the keys so that results of searches started before a
+ * write are never cached after it. Elastic only makes writes searchable after
+ * the next index refresh, results fetched less than a refresh interval after a
+ * write are therefore not cached. Caches are bounded by the total size of
+ * their serialized results, not by their number.
+ */
+public class DataSearchCache {
+
+	private Map<String, TypeCache> caches = new ConcurrentHashMap<>();
+
+	/**
+	 * @param key the normalized query and the caller ACL class
+	 */
+	public DataRawStreamingOutput get(String backendId, String type, String key, //
+			SearchCacheSettings settings, Supplier<DataRawStreamingOutput> search) {
+
+		TypeCache cache = caches.compute(cacheId(backendId, type), //
+				(id, old) -> old != null && old.settings.equals(settings) //
+						? old
+						: new TypeCache(settings, old));
+
+		long generation = cache.generation.get();
+		key = generation + ":" + key;
+		byte[] bytes = cache.results.getIfPresent(key);
+
+		if (bytes == null) {
+			bytes = search.get().toBytes();
+
+			if (generation == cache.generation.get() //
+					&& System.currentTimeMillis() - cache.writtenAt > settings.refreshIntervalInMillis)
+				cache.results.put(key, bytes);
+		}
+
+		return DataRawStreamingOutput.of(bytes);
+	}
+
+	public void invalidate(String backendId, String type) {
+		TypeCache cache = caches.get(cacheId(backendId, type));
+		if (cache != null)
+			cache.invalidate();
+	}
+
+	public void invalidateAll(String backendId) {
+		String prefix = cacheId(backendId, "");
+		caches.forEach((id, cache) -> {
+			if (id.startsWith(prefix))
+				cache.invalidate();
+		});
+	}
+
+	/**
+	 * @return hits, misses, hit ratio and size of this backend type caches
+	 */
+	public ObjectNode stats(String backendId) {
+		ObjectNode node = Json.object();
+		String prefix = cacheId(backendId, "");
+		caches.forEach((id, cache) -> {
+			if (id.startsWith(prefix)) {
+				CacheStats stats = cache.results.stats();
+				node.set(id.substring(prefix.length()), //
+						Json.object("hits", stats.hitCount(), //
+								"misses", stats.missCount(), //
+								"hitRatio", stats.hitRate(), //
+								"size", cache.results.size(), //
+								"generation", cache.generation.get()));
+			}
+		});
+		return node;
+	}
+
+	//
+	// Implementation
+	//
+
+	private String cacheId(String backendId, String type) {
+		return backendId + ':' + type;
+	}
+
+	private static class TypeCache {
+		private final SearchCacheSettings settings;
+		private final Cache<String, byte[]> results;
+		private final AtomicLong generation;
+		private volatile long writtenAt;
+
+		private TypeCache(SearchCacheSettings settings, TypeCache old) {
+			this.settings = settings;
+			this.results = CacheBuilder.newBuilder()//
+					.expireAfterWrite(settings.ttlInSeconds, TimeUnit.SECONDS)//
+					.maximumWeight(settings.maximumSizeInKB * 1024L)//
+					.weigher((String key, byte[] bytes) -> key.length() * 2 + bytes.length)//
+					.recordStats()//
+					.build();
+
+			// generation must never go back
+			this.generation = old == null ? new AtomicLong() : old.generation;
+			this.writtenAt = old == null ? 0 : old.writtenAt;
+		}
+
+		private void invalidate() {
+			writtenAt = System.currentTimeMillis();
+			generation.incrementAndGet();
+			results.invalidateAll();
+		}
+	}
+}
@@ -5,17 +5,24 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
+import org.elasticsearch.ElasticsearchStatusException;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
 import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.indices.PutIndexTemplateRequest;
 import org.elasticsearch.common.unit.TimeValue;
@@ -24,11 +31,13 @@ import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.aggregations.Aggregations;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
 import org.joda.time.DateTime;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
@@ -40,17 +49,27 @@ import io.spacedog.client.data.CsvRequest;
 import io.spacedog.client.data.DataGetAllRequest;
 import io.spacedog.client.data.DataImportRequest;
 import io.spacedog.client.data.DataImportRequestBuilder;
+import io.spacedog.client.data.DataMultiGetRequest;
+import io.spacedog.client.data.DataMultiGetRequest.Item;
 import io.spacedog.client.data.DataObject;
+import io.spacedog.client.data.DataOperation;
+import io.spacedog.client.data.DataOperation.Type;
+import io.spacedog.client.data.DataOperationsRequest;
 import io.spacedog.client.data.DataObjectBase;
 import io.spacedog.client.data.DataSettings;
+import io.spacedog.client.data.DataSettings.SearchCacheSettings;
 import io.spacedog.client.data.DataWrap;
+import io.spacedog.client.http.SpaceException;
 import io.spacedog.client.http.SpaceFields;
 import io.spacedog.client.http.SpaceParams;
+import io.spacedog.services.JsonPayload;
 import io.spacedog.services.Server;
 import io.spacedog.services.Services;
 import io.spacedog.services.SpaceService;
+import io.spacedog.services.db.elastic.ElasticCursor;
 import io.spacedog.services.db.elastic.ElasticExportStreamingOutput;
 import io.spacedog.services.db.elastic.ElasticIndex;
+import io.spacedog.services.db.elastic.ElasticUtils;
 import io.spacedog.services.db.elastic.ElasticVersion;
 import io.spacedog.utils.ClassResources;
 import io.spacedog.utils.Exceptions;
@@ -60,6 +79,12 @@ import net.codestory.http.payload.StreamingOutput;
 
 public class DataService extends SpaceService implements SpaceFields, SpaceParams {
 
+	// elasticsearch default search size
+	private static final int DEFAULT_PAGE_SIZE = 10;
+
+	private DataSearchCache searchCache = new DataSearchCache();
+	private DataQueryGuard queryGuard = new DataQueryGuard();
+
 	//
 	// Get
 	//
@@ -123,7 +148,13 @@ public class DataService extends SpaceService implements SpaceFields, SpaceParam
 	}
 
 	private GetResponse doGet(String type, String id, boolean throwNotFound) {
-		GetResponse response = elastic().get(index(type), id);
+		return doGet(type, id, null, throwNotFound);
+	}
+
+	private GetResponse doGet(String type, String id, FetchSourceContext projection, boolean throwNotFound) {
+		GetResponse response = projection == null //
+				? elastic().get(index(type), id)
+				: elastic().get(elastic().prepareGet(index(type), id).fetchSourceContext(projection));
 
 		if (throwNotFound && !response.isExists())
 			throw Exceptions.objectNotFound(type, id);
@@ -216,13 +247,18 @@ public class DataService extends SpaceService implements SpaceFields, SpaceParam
 	}
 
 	public <K> DataWrap<K> save(DataWrap<K> wrap) {
+		return save(wrap, RefreshPolicy.NONE);
+	}
+
+	public <K> DataWrap<K> save(DataWrap<K> wrap, RefreshPolicy refresh) {
 
 		if (Utils.atLeastOneIsNullOrEmpty(wrap.owner(), wrap.group())//
 				|| Utils.atLeastOneIsNull(wrap.createdAt(), wrap.updatedAt()))
 			throw Exceptions.illegalArgument("meta fields are mandatory");
 
 		IndexResponse response = elastic().index(//
-				index(wrap.type()), wrap.id(), wrap.version(), wrap.source(), false);
+				index(wrap.type()), wrap.id(), wrap.version(), wrap.source(), refresh);
+		invalidateSearchCache(wrap.type());
 
 		return wrap.id(response.getId())//
 				.version(ElasticVersion.toString(response.getSeqNo(), response.getPrimaryTerm()));
@@ -241,6 +277,10 @@ public class DataService extends SpaceService implements SpaceFields, SpaceParam
 	}
 
 	public <K> DataWrap<K> patch(DataWrap<K> wrap) {
+		return patch(wrap, RefreshPolicy.NONE);
+	}
+
+	public <K> DataWrap<K> patch(DataWrap<K> wrap, RefreshPolicy refresh) {
 
 		ObjectNode source = Json.toObjectNode(wrap.source());
 
@@ -251,7 +291,8 @@ public class DataService extends SpaceService implements SpaceFields, SpaceParam
 		source.put(UPDATED_AT_FIELD, DateTime.now().toString());
 
 		UpdateRequest request = elastic().prepareUpdate(index(wrap.type()), wrap.id())//
-				.doc(source.toString(), XContentType.JSON);
+				.doc(source.toString(), XContentType.JSON)//
+				.setRefreshPolicy(refresh);
 
 		if (wrap.version() != null) {
 			ElasticVersion version = ElasticVersion.valueOf(wrap.version());
@@ -260,6 +301,7 @@ public class DataService extends SpaceService implements SpaceFields, SpaceParam
 		}
 
 		elastic().update(request);
+		invalidateSearchCache(wrap.type());
 
 		return getWrapped(wrap.type(), wrap.id(), wrap.sourceClass());
 	}
@@ -277,7 +319,13 @@ public class DataService extends SpaceService implements SpaceFields, SpaceParam
 	}
 
 	public boolean delete(String type, String id, boolean throwNotFound) {
-		return elastic().delete(index(type), id, false, true);
+		return delete(type, id, RefreshPolicy.NONE);
+	}
+
+	public boolean delete(String type, String id, RefreshPolicy refresh) {
+		boolean deleted = elastic().delete(index(type), id, refresh, true);
+		invalidateSearchCache(type);
+		return deleted;
 	}
 
 	//
@@ -295,9 +343,50 @@ public class DataService extends SpaceService implements SpaceFields, SpaceParam
 	}
 
 	public String deleteField(String type, String id, String field) {
-		ObjectNode source = get(type, id);
-		Json.remove(source, field);
-		return save(type, id, source).version();
+		DataOperationsRequest request = new DataOperationsRequest();
+		request.type = type;
+		request.id = id;
+		request.operations.add(new DataOperation(Type.unset, field, null));
+		return operations(request).version();
+	}
+
+	//
+	// Field operations
+	//
+
+	// concurrent updates are retried if no version is specified
+	private static final int RETRY_ON_CONFLICT = 5;
+
+	public DataWrap<ObjectNode> operations(DataOperationsRequest request) {
+		return operations(request, RefreshPolicy.NONE);
+	}
+
+	/**
+	 * Applies these operations in a single scripted update.
+	 * 
+	 * @return the object with its new source and version
+	 */
+	public DataWrap<ObjectNode> operations(DataOperationsRequest request, RefreshPolicy refresh) {
+
+		UpdateRequest update = elastic().prepareUpdate(index(request.type), request.id)//
+				.script(DataOperations.toScript(request.operations, DateTime.now()))//
+				.fetchSource(true)//
+				.setRefreshPolicy(refresh);
+
+		if (request.version == null)
+			update.retryOnConflict(RETRY_ON_CONFLICT);
+		else {
+			ElasticVersion version = ElasticVersion.valueOf(request.version);
+			update.setIfSeqNo(version.seqNo);
+			update.setIfPrimaryTerm(version.primaryTerm);
+		}
+
+		UpdateResponse response = elastic().update(update);
+		invalidateSearchCache(request.type);
+
+		return DataWrap.wrap(Json.readObject(response.getGetResult().sourceAsString()))//
+				.type(request.type).id(response.getId())//
+				.version(ElasticVersion.toString(response.getSeqNo(), response.getPrimaryTerm()));
 	}
 
 	//
@@ -316,9 +405,12 @@ public class DataService extends SpaceService implements SpaceFields, SpaceParam
 				: QueryBuilders.simpleQueryStringQuery(request.q);
 
 		SearchSourceBuilder search = SearchSourceBuilder.searchSource()//
-				.from(request.from).size(request.size).query(query);
+				.from(request.from).size(request.size).query(query)//
+				.fetchSource(DataProjection.of(request.fields, request.exclude));
 
-		return search(sourceClass, search, request.type);
+		return request.cursor || !Strings.isNullOrEmpty(request.next) //
+				? searchWithCursor(sourceClass, search, request.next, request.type)
+				: search(sourceClass, search, request.type);
 	}
 
 	//
@@ -330,7 +422,22 @@ public class DataService extends SpaceService implements SpaceFields, SpaceParam
 	}
 
 	public long deleteAll(QueryBuilder query, String... types) {
-		return elastic().deleteByQuery(query, index(types)).getDeleted();
+		long deleted = elastic().deleteByQuery(query, index(types)).getDeleted();
+		invalidateSearchCache(types);
+		return deleted;
+	}
+
+	/**
+	 * Submits a sliced and throttled delete by query task. Search caches are
+	 * invalidated at submission, results cached while the task runs expire
+	 * with their ttl.
+	 * 
+	 * @return the task id
+	 */
+	public String submitDeleteAll(QueryBuilder query, float requestsPerSecond, String... types) {
+		String taskId = elastic().submitDeleteByQuery(query, requestsPerSecond, index(types));
+		invalidateSearchCache(types);
+		return taskId;
 	}
 
 	//
@@ -346,6 +453,73 @@ public class DataService extends SpaceService implements SpaceFields, SpaceParam
 		return extract(elastic().search(source, indices), sourceClass);
 	}
 
+	/**
+	 * Search with scroll cursor pagination. Pass a null next to get the first
+	 * page. Next pages are read from the snapshot of the first one so the source
+	 * is then ignored. Results next field is null when there is no more page to
+	 * fetch.
+	 */
+	public <K> DataResults<K> searchWithCursor(Class<K> sourceClass, SearchSourceBuilder source, //
+			String next, String... types) {
+
+		SearchResponse response = cursorSearch(source, next, types);
+		DataResults<K> results = extract(response, sourceClass);
+		results.next = next(response, source);
+		return results;
+	}
+
+	/**
+	 * Same as search with untyped sources but hit sources are passed through to
+	 * the output without being parsed.
+	 */
+	public DataRawStreamingOutput searchRaw(SearchSourceBuilder source, String... types) {
+		return cached(source, types, () -> {
+			ElasticIndex[] indices = Utils.isNullOrEmpty(types) ? indices() : index(types);
+			return DataRawStreamingOutput.of(elastic().search(source, indices), null);
+		});
+	}
+
+	/**
+	 * Cursor searches are never cached since a scroll must only be read by the
+	 * request that opened it.
+	 */
+	public DataRawStreamingOutput searchWithCursorRaw(SearchSourceBuilder source, //
+			String next, String... types) {
+
+		SearchResponse response = cursorSearch(source, next, types);
+		return DataRawStreamingOutput.of(response, next(response, source));
+	}
+
+	private SearchResponse cursorSearch(SearchSourceBuilder source, String next, String... types) {
+
+		if (Strings.isNullOrEmpty(next)) {
+			ElasticIndex[] indices = Utils.isNullOrEmpty(types) ? indices() : index(types);
+			SearchRequest request = elastic().prepareSearch(indices)//
+					.scroll(ElasticCursor.KEEP_ALIVE)//
+					.source(ElasticCursor.prepare(source));
+			return elastic().search(request);
+		}
+
+		String scrollId = ElasticCursor.scrollId(next, //
+				Server.backend().id(), Server.context().credentials().id());
+
+		try {
+			return elastic().scroll(scrollId, ElasticCursor.KEEP_ALIVE);
+
+		} catch (ElasticsearchStatusException e) {
+			if (e.status() == RestStatus.NOT_FOUND)
+				throw Exceptions.illegalArgument(e, "cursor [%s] has expired", next);
+			throw e;
+		}
+	}
+
+	private String next(SearchResponse response, SearchSourceBuilder source) {
+		int size = source.size() < 0 ? DEFAULT_PAGE_SIZE : source.size();
+		return ElasticCursor.next(Server.backend().id(), //
+				Server.context().credentials().id(), response.getScrollId(), //
+				response.getHits().getHits().length, size);
+	}
+
 	private <K> DataResults<K> extract(SearchResponse response, Class<K> sourceClass) {
 
 		SearchHits hits = response.getHits();
@@ -377,6 +551,67 @@ public class DataService extends SpaceService implements SpaceFields, SpaceParam
 		return Float.isFinite(score) ? score : 0;
 	}
 
+	//
+	// Search cache
+	//
+
+	/**
+	 * Only searches of a single type with search cache settings are cached.
+	 */
+	private DataRawStreamingOutput cached(SearchSourceBuilder source, String[] types, //
+			Supplier<DataRawStreamingOutput> search) {
+
+		if (types == null || types.length != 1)
+			return search.get();
+
+		SearchCacheSettings settings = settings().searchCache().get(types[0]);
+
+		if (settings == null || settings.ttlInSeconds <= 0 || settings.maximumSizeInKB <= 0)
+			return search.get();
+
+		// builder string is the normalized query since it is parsed
+		String key = aclClass(Server.context().credentials()) + ':' + source.toString();
+
+		return searchCache.get(Server.backend().id(), types[0], key, settings, search);
+	}
+
+	private String aclClass(Credentials credentials) {
+		return credentials.roles().stream().sorted().collect(Collectors.joining(","));
+	}
+
+	public void invalidateSearchCache(String... types) {
+		String backendId = Server.backend().id();
+		for (String type : types)
+			searchCache.invalidate(backendId, type);
+	}
+
+	public void invalidateSearchCacheOfAllTypes() {
+		searchCache.invalidateAll(Server.backend().id());
+	}
+
+	public ObjectNode searchCacheStats() {
+		return searchCache.stats(Server.backend().id());
+	}
+
+	//
+	// Search limits
+	//
+
+	/**
+	 * Rejects this search if over the search limits of this backend
+	 */
+	public void checkSearchLimits(SearchSourceBuilder source) {
+		queryGuard.check(Server.backend().id(), source, settings().searchLimits());
+	}
+
+	public void checkSearchLimits(QueryBuilder query) {
+		queryGuard.check(Server.backend().id(), query, settings().searchLimits());
+	}
+
+	public ObjectNode searchLimitsStats() {
+		return queryGuard.stats(Server.backend().id());
+	}
+
 	//
 	// CSV
 	//
@@ -386,9 +621,11 @@ public class DataService extends SpaceService implements SpaceFields, SpaceParam
 		Services.data().refresh(csvRequest.refresh, type);
 
 		SearchSourceBuilder builder = SearchSourceBuilder.searchSource()//
-				.query(QueryBuilders.wrapperQuery(csvRequest.query))//
+				.query(ElasticUtils.parseQuery(csvRequest.query))//
 				.size(csvRequest.pageSize);
 
+		checkSearchLimits(builder);
+
 		SearchRequest searchRequest = elastic().prepareSearch(index(type))//
 				.scroll(TimeValue.timeValueSeconds(60))//
 				.source(builder);
@@ -444,6 +681,8 @@ public class DataService extends SpaceService implements SpaceFields, SpaceParam
 
 			json = reader.readLine();
 		}
+
+		invalidateSearchCache(request.type);
 	}
 
 	//
@@ -510,7 +749,138 @@ public class DataService extends SpaceService implements SpaceFields, SpaceParam
 		return object;
 	}
 
+	/**
+	 * Same as getIfAuthorized but the source is passed through to the output. It
+	 * is only parsed if needed to check owner or group read permission.
+	 */
+	public DataRawStreamingOutput getRawIfAuthorized(String type, String id) {
+		return getRawIfAuthorized(type, id, null);
+	}
+
+	/**
+	 * Same as getRawIfAuthorized but the source is projected. Meta fields are
+	 * kept in the projected source of callers only allowed to read their own or
+	 * their group objects since they are needed to check permission.
+	 */
+	public DataRawStreamingOutput getRawIfAuthorized(String type, String id, FetchSourceContext projection) {
+
+		Credentials credentials = Server.context().credentials();
+		boolean checkObject = !DataAccessControl.roles(type)//
+				.hasOne(credentials, Permission.read, Permission.search);
+
+		GetResponse response = doGet(type, id, //
+				checkObject ? DataProjection.withMeta(projection) : projection, true);
+
+		if (checkObject)
+			checkReadPermission(wrap(response, ObjectNode.class));
+
+		return DataRawStreamingOutput.of(response);
+	}
+
+	/**
+	 * Gets the version of this object without its source. Only meta fields are
+	 * fetched if needed to check owner or group read permission.
+	 */
+	public String getVersionIfAuthorized(String type, String id) {
+
+		Credentials credentials = Server.context().credentials();
+		boolean checkObject = !DataAccessControl.roles(type)//
+				.hasOne(credentials, Permission.read, Permission.search);
+
+		GetResponse response = doGet(type, id, checkObject //
+				? new FetchSourceContext(true, META_FIELDS, null)
+				: FetchSourceContext.DO_NOT_FETCH_SOURCE, true);
+
+		if (checkObject)
+			checkReadPermission(wrap(response, ObjectNode.class));
+
+		return ElasticVersion.toString(response.getSeqNo(), response.getPrimaryTerm());
+	}
+
+	// max number of objects of a multi get request
+	private static final int MAX_MULTI_GET_SIZE = 1000;
+
+	/**
+	 * Gets these objects with a single elasticsearch multi get. Read permissions
+	 * are checked per object. Errors are returned in place of the objects not
+	 * found or forbidden to read. Objects of types forbidden to read are not
+	 * fetched.
+	 */
+	public DataRawStreamingOutput getMultiIfAuthorized(DataMultiGetRequest request) {
+
+		if (request.objects == null || request.objects.isEmpty())
+			throw Exceptions.illegalArgument("no object to get");
+
+		if (request.objects.size() > MAX_MULTI_GET_SIZE)
+			throw Exceptions.illegalArgument("too many objects to get [%s], max is [%s]", //
+					request.objects.size(), MAX_MULTI_GET_SIZE);
+
+		Credentials credentials = Server.context().credentials();
+		int size = request.objects.size();
+		GetResponse[] responses = new GetResponse[size];
+		JsonNode[] errors = new JsonNode[size];
+		List<Integer> fetched = Lists.newArrayList();
+		MultiGetRequest multiGet = new MultiGetRequest();
+
+		for (int i = 0; i < size; i++) {
+			Item item = request.objects.get(i);
+
+			if (item == null || Strings.isNullOrEmpty(item.type) || Strings.isNullOrEmpty(item.id))
+				errors[i] = toMultiGetError(item, Exceptions.illegalArgument("type and id are mandatory"));
+
+			else if (!DataAccessControl.roles(item.type).hasOne(credentials, //
+					Permission.read, Permission.search, Permission.readMine, Permission.readGroup))
+				errors[i] = toMultiGetError(item, Exceptions.forbidden(credentials, //
+						"forbidden to read [%s] objects", item.type));
+
+			else {
+				multiGet.add(index(item.type).alias(), item.id);
+				fetched.add(i);
+			}
+		}
+
+		if (!fetched.isEmpty()) {
+			MultiGetItemResponse[] items = elastic().getMulti(multiGet).getResponses();
+
+			for (int j = 0; j < items.length; j++) {
+				int i = fetched.get(j);
+				Item item = request.objects.get(i);
+
+				if (items[j].isFailed())
+					errors[i] = toMultiGetError(item, items[j].getFailure().getFailure());
+
+				else if (!items[j].getResponse().isExists())
+					errors[i] = toMultiGetError(item, Exceptions.objectNotFound(item.type, item.id));
+
+				else
+					try {
+						if (!DataAccessControl.roles(item.type)//
+								.hasOne(credentials, Permission.read, Permission.search))
+							checkReadPermission(wrap(items[j].getResponse(), ObjectNode.class));
+
+						responses[i] = items[j].getResponse();
+
+					} catch (SpaceException e) {
+						errors[i] = toMultiGetError(item, e);
+					}
+			}
+		}
+
+		return DataRawStreamingOutput.of(responses, errors);
+	}
+
+	private JsonNode toMultiGetError(Item item, Throwable t) {
+		return Json.object(TYPE_FIELD, item == null ? null : item.type, //
+				ID_FIELD, item == null ? null : item.id, //
+				"status", JsonPayload.toStatus(t), //
+				"error", JsonPayload.toJson(t, false));
+	}
+
 	public <K> DataWrap<K> saveIfAuthorized(DataWrap<K> object, boolean forceMeta) {
+		return saveIfAuthorized(object, forceMeta, RefreshPolicy.NONE);
+	}
+
+	public <K> DataWrap<K> saveIfAuthorized(DataWrap<K> object, boolean forceMeta, RefreshPolicy refresh) {
 
 		Credentials credentials = Server.context().credentials();
 
@@ -529,7 +899,7 @@ public class DataService extends SpaceService implements SpaceFields, SpaceParam
 				if (!forceMeta)
 					updateMeta(object, meta.get().source(), credentials);
 
-				return Services.data().save(object);
+				return Services.data().save(object, refresh);
 			}
 		}
 
@@ -539,10 +909,14 @@ public class DataService extends SpaceService implements SpaceFields, SpaceParam
 		if (!forceMeta)
 			createMeta(object, credentials);
 
-		return Services.data().save(object);
+		return Services.data().save(object, refresh);
 	}
 
 	public <K> DataWrap<K> patchIfAuthorized(DataWrap<K> object) {
+		return patchIfAuthorized(object, RefreshPolicy.NONE);
+	}
+
+	public <K> DataWrap<K> patchIfAuthorized(DataWrap<K> object, RefreshPolicy refresh) {
 
 		DataWrap<DataObjectBase> meta = Services.data()//
 				.getMeta(object.type(), object.id())//
@@ -550,12 +924,27 @@ public class DataService extends SpaceService implements SpaceFields, SpaceParam
 
 		checkUpdatePermissions(meta);
 
-		return Services.data().patch(object);
+		return Services.data().patch(object, refresh);
+	}
+
+	public DataWrap<ObjectNode> operationsIfAuthorized(DataOperationsRequest request, RefreshPolicy refresh) {
+
+		Credentials credentials = Server.context().credentials();
+
+		// object meta are only needed to check owner or group update permission
+		if (!DataAccessControl.roles(request.type).hasOne(credentials, Permission.update))
+			checkUpdatePermissions(getMetaOrThrow(request.type, request.id));
+
+		return operations(request, refresh);
 	}
 
 	public boolean deleteIfAuthorized(String type, String id) {
+		return deleteIfAuthorized(type, id, RefreshPolicy.NONE);
+	}
+
+	public boolean deleteIfAuthorized(String type, String id, RefreshPolicy refresh) {
 		checkDeletePermission(type, id);
-		return delete(type, id);
+		return delete(type, id, refresh);
 	}
 
 	//
@@ -2,7 +2,10 @@ package io.spacedog.services.data;
 
 import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.client.indices.GetMappingsResponse;
 import org.elasticsearch.cluster.metadata.MappingMetadata;
 import org.elasticsearch.common.collect.ImmutableOpenMap;
 import org.elasticsearch.common.settings.Settings;
@@ -14,6 +17,7 @@ import io.spacedog.client.schema.Schema;
 import io.spacedog.services.Services;
 import io.spacedog.services.SpaceService;
 import io.spacedog.services.db.elastic.ElasticIndex;
+import io.spacedog.services.db.elastic.ElasticUtils;
 import io.spacedog.services.push.PushService;
 import io.spacedog.utils.Exceptions;
 import io.spacedog.utils.Json;
@@ -28,11 +32,13 @@ public class SchemaService extends SpaceService {
 
 	public void delete(String name) {
 		elastic().deleteIndices(Services.data().index(name));
+		Services.data().invalidateSearchCache(name);
 	}
 
 	public void deleteAll() {
 		Arrays.stream(Services.data().indices())//
 				.forEach(index -> elastic().deleteIndices(index));
+		Services.data().invalidateSearchCacheOfAllTypes();
 	}
 
 	public void set(Schema schema) {
@@ -80,18 +86,21 @@ public class SchemaService extends SpaceService {
 		if (Utils.isNullOrEmpty(indices))
 			return schemas;
 
-		Map<String, MappingMetadata> mappingMap = elastic().getMappings(indices).mappings();
+		// mappings and settings are fetched concurrently
+		CompletableFuture<GetMappingsResponse> mappings = elastic().getMappingsAsync(indices);
+		CompletableFuture<GetSettingsResponse> settings = elastic().getSettingsAsync(indices);
 
+		Map<String, MappingMetadata> mappingMap = ElasticUtils.join(mappings).mappings();
 		ImmutableOpenMap<String, Settings> settingsMap = //
-				elastic().getSettings(indices).getIndexToSettings();
+				ElasticUtils.join(settings).getIndexToSettings();
 
 		for (ElasticIndex index : indices) {
 			String indexString = index.toString();
 			MappingMetadata mapping = mappingMap.get(indexString);
-			Settings settings = settingsMap.get(indexString);
+			Settings indexSettings = settingsMap.get(indexString);
 			JsonNode node = Json.readObject(mapping.source().toString());
 			schemas.put(index.type(), new Schema(index.type(), Json.checkObject(node), //
-					Json.readObject(settings.toString())));
+					Json.readObject(indexSettings.toString())));
 		}
 
 		return schemas;
@@ -2,17 +2,30 @@ package io.spacedog.services.db.elastic;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.admin.cluster.health.ClusterHealthResponse;
 import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
+import org.elasticsearch.action.admin.indices.alias.get.GetAliasesRequest;
 import org.elasticsearch.action.admin.indices.delete.DeleteIndexRequest;
-import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
 import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
 import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
 import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.delete.DeleteResponse;
 import org.elasticsearch.action.get.GetRequest;
@@ -25,12 +38,19 @@ import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.search.SearchScrollRequest;
 import org.elasticsearch.action.support.IndicesOptions;
+import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.Cancellable;
 import org.elasticsearch.client.ClusterClient;
+import org.elasticsearch.client.GetAliasesResponse;
+import org.elasticsearch.client.Request;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.Requests;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestHighLevelClient;
 import org.elasticsearch.client.SnapshotClient;
 import org.elasticsearch.client.indices.CloseIndexRequest;
@@ -41,28 +61,42 @@ import org.elasticsearch.client.indices.GetIndexRequest;
 import org.elasticsearch.client.indices.GetMappingsRequest;
 import org.elasticsearch.client.indices.GetMappingsResponse;
 import org.elasticsearch.client.indices.PutMappingRequest;
+import org.elasticsearch.client.sniff.Sniffer;
+import org.elasticsearch.client.tasks.CancelTasksRequest;
+import org.elasticsearch.client.tasks.CancelTasksResponse;
+import org.elasticsearch.client.tasks.TaskId;
 import org.elasticsearch.cluster.health.ClusterHealthStatus;
+import org.elasticsearch.cluster.metadata.AliasMetadata;
 import org.elasticsearch.common.Priority;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.index.IndexNotFoundException;
+import org.elasticsearch.index.mapper.RoutingFieldMapper;
 import org.elasticsearch.index.query.BoolQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.reindex.AbstractBulkByScrollRequest;
 import org.elasticsearch.index.reindex.BulkByScrollResponse;
 import org.elasticsearch.index.reindex.DeleteByQueryRequest;
+import org.elasticsearch.index.reindex.ReindexRequest;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.elasticsearch.tasks.Task;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
+import io.spacedog.client.credentials.Credentials;
 import io.spacedog.client.http.SpaceParams;
 import io.spacedog.client.schema.Schema;
 import io.spacedog.jobs.Internals;
 import io.spacedog.services.Server;
 import io.spacedog.services.ServerConfig;
+import io.spacedog.services.SpaceDeadline;
 import io.spacedog.utils.Check;
 import io.spacedog.utils.Exceptions;
 import io.spacedog.utils.Json;
@@ -72,9 +106,20 @@ import joptsimple.internal.Strings;
 public class ElasticClient implements SpaceParams {
 
 	RestHighLevelClient internalClient;
+	ElasticRefresher refresher;
+	Sniffer sniffer;
 
 	public ElasticClient(RestHighLevelClient client) {
+		this(client, null);
+	}
+
+	/**
+	 * @param sniffer optional cluster nodes sniffer, closed with this client
+	 */
+	public ElasticClient(RestHighLevelClient client, Sniffer sniffer) {
 		this.internalClient = client;
+		this.sniffer = sniffer;
+		this.refresher = new ElasticRefresher(client, ServerConfig.elasticSearchRefreshWindow());
 	}
 
 	public RestHighLevelClient internal() {
@@ -82,6 +127,8 @@ public class ElasticClient implements SpaceParams {
 	}
 
 	public void close() {
+		if (sniffer != null)
+			sniffer.close();
 		try {
 			internalClient.close();
 		} catch (IOException e) {
@@ -126,20 +173,36 @@ public class ElasticClient implements SpaceParams {
 		if (request.source() != null)
 			request.source().seqNoAndPrimaryTerm(true);
 
+		// search timeout is the remaining request budget
+		// if not already set by the search source
+		Optional<SpaceDeadline> deadline = Server.deadline();
+		boolean timeout = deadline.isPresent() //
+				&& request.source() != null //
+				&& request.source().timeout() == null;
+
+		if (timeout)
+			request.source().timeout(TimeValue.timeValueMillis(//
+					deadline.get().checkRemainingMillis()));
+
 		try {
-			return internalClient.search(request, RequestOptions.DEFAULT);
-		} catch (IOException e) {
-			throw Exceptions.runtime(e);
+			SearchResponse response = execute(//
+					(options, listener) -> internalClient.searchAsync(request, options, listener));
+
+			// partial results are not returned
+			if (timeout && response.isTimedOut())
+				throw deadline.get().exceeded(null);
+
+			return response;
+
+		} finally {
+			if (timeout)
+				request.source().timeout(null);
 		}
 	}
 
 	public SearchResponse scroll(String scrollId, TimeValue keepAlive) {
-		try {
-			SearchScrollRequest request = new SearchScrollRequest(scrollId).scroll(keepAlive);
-			return internalClient.scroll(request, RequestOptions.DEFAULT);
-		} catch (IOException e) {
-			throw Exceptions.runtime(e);
-		}
+		SearchScrollRequest request = new SearchScrollRequest(scrollId).scroll(keepAlive);
+		return execute((options, listener) -> internalClient.scrollAsync(request, options, listener));
 	}
 
 	//
@@ -151,11 +214,7 @@ public class ElasticClient implements SpaceParams {
 	}
 
 	public IndexResponse index(IndexRequest request) {
-		try {
-			return internalClient.index(request, RequestOptions.DEFAULT);
-		} catch (IOException e) {
-			throw Exceptions.runtime(e);
-		}
+		return execute((options, listener) -> internalClient.indexAsync(request, options, listener));
 	}
 
 	public IndexResponse index(ElasticIndex index, Object source) {
@@ -178,6 +237,10 @@ public class ElasticClient implements SpaceParams {
 		return index(prepareIndex(index, id, version, source, refresh));
 	}
 
+	public IndexResponse index(ElasticIndex index, String id, String version, Object source, RefreshPolicy refresh) {
+		return index(prepareIndex(index, id, version, source, refresh));
+	}
+
 	public IndexResponse index(ElasticIndex index, String id, byte[] source) {
 		return index(index, id, source, false);
 	}
@@ -191,6 +254,11 @@ public class ElasticClient implements SpaceParams {
 	}
 
 	private IndexRequest prepareIndex(ElasticIndex index, String id, String version, Object source, Boolean refresh) {
+		return prepareIndex(index, id, version, source, ElasticUtils.toPolicy(refresh));
+	}
+
+	private IndexRequest prepareIndex(ElasticIndex index, String id, String version, Object source,
+			RefreshPolicy refresh) {
 		String sourceString = source instanceof String //
 				? source.toString()
 				: Json.toString(source);
@@ -198,7 +266,7 @@ public class ElasticClient implements SpaceParams {
 		IndexRequest request = prepareIndex(index)//
 				.id(id)//
 				.source(sourceString, XContentType.JSON)//
-				.setRefreshPolicy(ElasticUtils.toPolicy(refresh));
+				.setRefreshPolicy(refresh);
 
 		if (version != null) {
 			ElasticVersion v = ElasticVersion.valueOf(version);
@@ -209,6 +277,14 @@ public class ElasticClient implements SpaceParams {
 		return request;
 	}
 
+	//
+	// Bulk
+	//
+
+	public BulkResponse bulk(BulkRequest request) {
+		return execute((options, listener) -> internalClient.bulkAsync(request, options, listener));
+	}
+
 	//
 	// Update
 	//
@@ -218,11 +294,7 @@ public class ElasticClient implements SpaceParams {
 	}
 
 	public UpdateResponse update(UpdateRequest request) {
-		try {
-			return internalClient.update(request, RequestOptions.DEFAULT);
-		} catch (IOException e) {
-			throw Exceptions.runtime(e);
-		}
+		return execute((options, listener) -> internalClient.updateAsync(request, options, listener));
 	}
 
 	//
@@ -247,11 +319,7 @@ public class ElasticClient implements SpaceParams {
 	}
 
 	public GetResponse get(GetRequest request) {
-		try {
-			return internalClient.get(request, RequestOptions.DEFAULT);
-		} catch (IOException e) {
-			throw Exceptions.runtime(e);
-		}
+		return execute((options, listener) -> internalClient.getAsync(request, options, listener));
 	}
 
 	public Optional<SearchHit> getUnique(ElasticIndex index, QueryBuilder query) {
@@ -275,13 +343,13 @@ public class ElasticClient implements SpaceParams {
 	}
 
 	public MultiGetResponse getMulti(ElasticIndex index, Set<String> ids) {
-		try {
-			MultiGetRequest request = new MultiGetRequest();
-			ids.forEach(id -> request.add(index.alias(), id));
-			return internalClient.mget(request, RequestOptions.DEFAULT);
-		} catch (IOException e) {
-			throw Exceptions.runtime(e);
-		}
+		MultiGetRequest request = new MultiGetRequest();
+		ids.forEach(id -> request.add(index.alias(), id));
+		return getMulti(request);
+	}
+
+	public MultiGetResponse getMulti(MultiGetRequest request) {
+		return execute((options, listener) -> internalClient.mgetAsync(request, options, listener));
 	}
 
 	//
@@ -308,17 +376,17 @@ public class ElasticClient implements SpaceParams {
 	//
 
 	public DeleteResponse delete(DeleteRequest request) {
-		try {
-			return internalClient.delete(request, RequestOptions.DEFAULT);
-		} catch (IOException e) {
-			throw Exceptions.runtime(e);
-		}
+		return execute((options, listener) -> internalClient.deleteAsync(request, options, listener));
 	}
 
 	public boolean delete(ElasticIndex index, String id, boolean refresh, boolean throwNotFound) {
+		return delete(index, id, ElasticUtils.toPolicy(refresh), throwNotFound);
+	}
+
+	public boolean delete(ElasticIndex index, String id, RefreshPolicy refresh, boolean throwNotFound) {
 		DeleteResponse response = delete(//
 				new DeleteRequest(index.alias(), id)//
-						.setRefreshPolicy(ElasticUtils.toPolicy(refresh)));
+						.setRefreshPolicy(refresh));
 
 		if (ElasticUtils.isDeleted(response))
 			return true;
@@ -330,11 +398,7 @@ public class ElasticClient implements SpaceParams {
 	}
 
 	public BulkByScrollResponse deleteByQuery(DeleteByQueryRequest request) {
-		try {
-			return internalClient.deleteByQuery(request, RequestOptions.DEFAULT);
-		} catch (IOException e) {
-			throw Exceptions.runtime(e);
-		}
+		return execute((options, listener) -> internalClient.deleteByQueryAsync(request, options, listener));
 	}
 
 	public BulkByScrollResponse deleteByQuery(String query, ElasticIndex... indices) {
@@ -351,11 +415,172 @@ public class ElasticClient implements SpaceParams {
 			query = QueryBuilders.matchAllQuery();
 
 		DeleteByQueryRequest request = new DeleteByQueryRequest(ElasticIndex.aliases(indices))//
-				.setQuery(query).setTimeout(new TimeValue(60000));
+				.setQuery(query).setTimeout(TimeValue.timeValueMillis(Server.deadline()//
+						.map(deadline -> Math.min(DELETE_BY_QUERY_TIMEOUT, deadline.checkRemainingMillis()))//
+						.orElse(DELETE_BY_QUERY_TIMEOUT)));
 
 		return deleteByQuery(request);
 	}
 
+	private static final long DELETE_BY_QUERY_TIMEOUT = 60000;
+	private static final String TASKS_INDEX = ".tasks";
+
+	/**
+	 * Fire and forget delete by query. Failures are only logged.
+	 */
+	public void deleteByQueryAsync(QueryBuilder query, ElasticIndex... indices) {
+
+		DeleteByQueryRequest request = new DeleteByQueryRequest(ElasticIndex.aliases(indices))//
+				.setQuery(query).setTimeout(TimeValue.timeValueMillis(DELETE_BY_QUERY_TIMEOUT));
+
+		internalClient.deleteByQueryAsync(request, RequestOptions.DEFAULT, //
+				ActionListener.wrap(response -> {
+				}, e -> Utils.warn("async delete by query failed", e)));
+	}
+
+	//
+	// tasks
+	//
+
+	/**
+	 * Submits this delete by query as an elasticsearch task. The task is
+	 * sliced automatically and throttled to this number of deletes per second
+	 * if positive. The task is tagged with the current backend and credentials
+	 * so that only they can follow or cancel it.
+	 * 
+	 * @return the task id
+	 */
+	public String submitDeleteByQuery(QueryBuilder query, float requestsPerSecond, //
+			ElasticIndex... indices) {
+
+		if (query == null)//
+			query = QueryBuilders.matchAllQuery();
+
+		return submitDeleteByQuery(new DeleteByQueryRequest(ElasticIndex.aliases(indices))//
+				.setQuery(query).setTimeout(TimeValue.timeValueMillis(DELETE_BY_QUERY_TIMEOUT)), //
+				requestsPerSecond);
+	}
+
+	public String submitDeleteByQuery(DeleteByQueryRequest request, float requestsPerSecond) {
+
+		request.setSlices(AbstractBulkByScrollRequest.AUTO_SLICES)//
+				.setRequestsPerSecond(requestsPerSecond > 0 //
+						? requestsPerSecond
+						: Float.POSITIVE_INFINITY);
+
+		RequestOptions options = RequestOptions.DEFAULT.toBuilder()//
+				.addHeader(Task.X_OPAQUE_ID, taskOwner(Server.context().credentials()))//
+				.build();
+
+		try {
+			return internalClient.submitDeleteByQueryTask(request, options).getTask();
+		} catch (IOException e) {
+			throw Exceptions.runtime(e, "error submitting delete by query");
+		}
+	}
+
+	/**
+	 * Tasks are read from the raw tasks endpoint since the high level client
+	 * drops the response and the error of completed tasks, and with them
+	 * their failures.
+	 * 
+	 * @return this task if submitted by the current backend
+	 */
+	public Optional<ObjectNode> getTask(String taskId) {
+		Response response = performLowLevelRequest(//
+				new Request(HttpGet.METHOD_NAME, "/_tasks/" + toTaskId(taskId)));
+		if (response == null)
+			return Optional.empty();
+
+		ObjectNode task = null;
+		try {
+			task = Json.readObject(EntityUtils.toString(response.getEntity()));
+		} catch (IOException e) {
+			throw Exceptions.runtime(e, "error reading task [%s]", taskId);
+		}
+
+		String submitter = taskOwner(task);
+		String prefix = Server.backend().id() + '/';
+		return submitter != null && submitter.startsWith(prefix) //
+				? Optional.of(task)
+				: Optional.empty();
+	}
+
+	/**
+	 * Deletes the stored result of this completed task. Results of tasks
+	 * submitted with waitForCompletion=false are otherwise kept forever in the
+	 * tasks index.
+	 */
+	public void deleteTaskResult(String taskId) {
+		performLowLevelRequest(new Request(HttpDelete.METHOD_NAME, //
+				"/" + TASKS_INDEX + "/_doc/" + toTaskId(taskId)));
+	}
+
+	/**
+	 * @return the id of the credentials that submitted this task
+	 */
+	public static String taskSubmitter(ObjectNode task) {
+		String owner = taskOwner(task);
+		return owner == null ? null : owner.substring(owner.indexOf('/') + 1);
+	}
+
+	/**
+	 * Cancels this task and its slices. Slices finish their current batch
+	 * before they stop. Completed tasks are left untouched.
+	 */
+	public void cancelTask(String taskId) {
+		CancelTasksRequest request = new CancelTasksRequest.Builder()//
+				.withTaskId(toTaskId(taskId)).build();
+
+		ElasticClient.<CancelTasksResponse> execute((options, listener) -> internalClient//
+				.tasks().cancelAsync(request, options, listener));
+	}
+
+	/**
+	 * @return the response of this request, null if not found
+	 */
+	private Response performLowLevelRequest(Request request) {
+		Server.deadline().ifPresent(SpaceDeadline::checkRemainingMillis);
+		CompletableFuture<Response> future = new CompletableFuture<>();
+
+		Cancellable cancellable = internalClient.getLowLevelClient()//
+				.performRequestAsync(request, new ResponseListener() {
+
+					@Override
+					public void onSuccess(Response response) {
+						future.complete(response);
+					}
+
+					@Override
+					public void onFailure(Exception e) {
+						if (e instanceof ResponseException //
+								&& ((ResponseException) e).getResponse()//
+										.getStatusLine().getStatusCode() == 404)
+							future.complete(null);
+						else
+							future.completeExceptionally(e);
+					}
+				});
+
+		return ElasticUtils.join(future, cancellable);
+	}
+
+	private static String taskOwner(Credentials credentials) {
+		return Server.backend().id() + '/' + credentials.id();
+	}
+
+	private static String taskOwner(ObjectNode task) {
+		return task.path("task").path("headers").path(Task.X_OPAQUE_ID).asText(null);
+	}
+
+	private static TaskId toTaskId(String taskId) {
+		try {
+			return new TaskId(taskId);
+		} catch (IllegalArgumentException e) {
+			throw Exceptions.illegalArgument(e, "task id [%s] is invalid", taskId);
+		}
+	}
+
 	//
 	// admin methods
 	//
@@ -369,13 +594,26 @@ public class ElasticClient implements SpaceParams {
 		}
 	}
 
-	public void createIndex(ElasticIndex index, Schema schema, boolean async) {
+	/**
+	 * Creates this index with its alias and these additional read aliases. Read
+	 * aliases allow to search a group of indices with a single name.
+	 */
+	public void createIndex(ElasticIndex index, Schema schema, boolean async, String... readAliases) {
+
+		if (index.isShareable() //
+				&& ServerConfig.elasticSearchSharedServices().contains(index.service())) {
+			createSharedIndex(index, schema, async, readAliases);
+			return;
+		}
 
 		CreateIndexRequest request = new CreateIndexRequest(index.toString())//
 				.mapping(schema.mapping().toString(), XContentType.JSON)//
 				.settings(schema.settings(false).toString(), XContentType.JSON)//
 				.alias(new Alias(index.alias()));
 
+		for (String readAlias : readAliases)
+			request.alias(new Alias(readAlias));
+
 		try {
 			CreateIndexResponse createIndexResponse = internalClient.indices()//
 					.create(request, RequestOptions.DEFAULT);
@@ -386,14 +624,29 @@ public class ElasticClient implements SpaceParams {
 						index);
 
 			if (!async)
-				ensureIndexIsGreen(index);
+				ensureIndicesAreAtLeastYellow(index);
 
 		} catch (IOException e) {
 			throw Exceptions.runtime(e);
 		}
 	}
 
-	public void ensureIndexIsGreen(ElasticIndex... indices) {
+	/**
+	 * Creates this index if it does not exist yet. Does not fail if another
+	 * server creates it at the same time.
+	 */
+	public void ensureIndex(ElasticIndex index, Schema schema, boolean async, String... readAliases) {
+		try {
+			if (!exists(index))
+				createIndex(index, schema, async, readAliases);
+
+		} catch (ElasticsearchStatusException e) {
+			if (!isAlreadyExists(e))
+				throw e;
+		}
+	}
+
+	public void ensureIndicesAreAtLeastYellow(ElasticIndex... indices) {
 		ensureIndicesAreAtLeastYellow(ElasticIndex.aliases(indices));
 	}
 
@@ -409,7 +662,9 @@ public class ElasticClient implements SpaceParams {
 			ClusterHealthResponse response = this.internalClient.cluster()//
 					.health(Requests.clusterHealthRequest(indices)//
 							.timeout(TimeValue.timeValueSeconds(ServerConfig.greenTimeout()))//
-							.waitForGreenStatus()//
+							// yellow since a yellow cluster serves all requests
+							// and must not stall server startup
+							.waitForYellowStatus()//
 							.waitForEvents(Priority.LOW)//
 							.waitForNoRelocatingShards(true), RequestOptions.DEFAULT);
 
@@ -437,7 +692,8 @@ public class ElasticClient implements SpaceParams {
 	}
 
 	public void refreshIndex(ElasticIndex... indices) {
-		refreshIndex(ElasticIndex.toString(indices));
+		// aliases since shared indices are not named after backends
+		refreshIndex(ElasticIndex.aliases(indices));
 	}
 
 	public void refreshIndex(boolean refresh, ElasticIndex... indices) {
@@ -445,12 +701,32 @@ public class ElasticClient implements SpaceParams {
 			refreshIndex(indices);
 	}
 
+	/**
+	 * Refreshes these indices after a write without failing the write if the
+	 * request deadline is exceeded
+	 */
+	public void refreshIndexAfterWrite(ElasticIndex... indices) {
+		refresher.refreshAfterWrite(ElasticIndex.aliases(indices));
+	}
+
 	public void refreshBackend() {
-		backendIndexStream().forEach(index -> refreshIndex(index));
+		// one multi index refresh request instead of one per index
+		refreshIndex(Server.backend().id() + "-*");
+	}
+
+	public ElasticRefresher refresher() {
+		return refresher;
 	}
 
 	public void deleteBackendIndices() {
 
+		// backend documents in shared indices
+		for (String service : ElasticIndex.SHAREABLE_SERVICES) {
+			ElasticIndex index = new ElasticIndex(service);
+			if (exists(index) && isShared(index))
+				deleteSharedAlias(index);
+		}
+
 		String[] indices = backendIndices();
 
 		if (!Utils.isNullOrEmpty(indices)) {
@@ -464,7 +740,17 @@ public class ElasticClient implements SpaceParams {
 	}
 
 	public void deleteIndices(ElasticIndex... indices) {
-		deleteIndices(ElasticIndex.toString(indices));
+		List<String> dedicated = Lists.newArrayList();
+
+		for (ElasticIndex index : indices) {
+			if (index.isShareable() && isShared(index))
+				deleteSharedAlias(index);
+			else
+				dedicated.add(index.toString());
+		}
+
+		if (!dedicated.isEmpty())
+			deleteIndices(dedicated.toArray(new String[dedicated.size()]));
 	}
 
 	public AcknowledgedResponse deleteIndices(String... indices) {
@@ -584,6 +870,378 @@ public class ElasticClient implements SpaceParams {
 		return internalClient.snapshot();
 	}
 
+	//
+	// Async
+	//
+	// Listeners are called from the http client threads.
+	// Heavy processing should be done on another executor
+	// with the async variants of CompletableFuture methods.
+	//
+
+	public CompletableFuture<SearchResponse> searchAsync(SearchSourceBuilder source, ElasticIndex... indices) {
+		return searchAsync(prepareSearch(indices).source(source));
+	}
+
+	public CompletableFuture<SearchResponse> searchAsync(SearchRequest request) {
+
+		// Force search request to get version data
+		// i.e. seqNo and primaryTerm from elasticsearch
+		if (request.source() != null)
+			request.source().seqNoAndPrimaryTerm(true);
+
+		CompletableFuture<SearchResponse> future = new CompletableFuture<>();
+		internalClient.searchAsync(request, RequestOptions.DEFAULT, listener(future));
+		return future;
+	}
+
+	public CompletableFuture<GetResponse> getAsync(ElasticIndex index, String id) {
+		return getAsync(prepareGet(index, id));
+	}
+
+	public CompletableFuture<GetResponse> getAsync(GetRequest request) {
+		CompletableFuture<GetResponse> future = new CompletableFuture<>();
+		internalClient.getAsync(request, RequestOptions.DEFAULT, listener(future));
+		return future;
+	}
+
+	public CompletableFuture<MultiGetResponse> getMultiAsync(ElasticIndex index, Set<String> ids) {
+		MultiGetRequest request = new MultiGetRequest();
+		ids.forEach(id -> request.add(index.alias(), id));
+		CompletableFuture<MultiGetResponse> future = new CompletableFuture<>();
+		internalClient.mgetAsync(request, RequestOptions.DEFAULT, listener(future));
+		return future;
+	}
+
+	public CompletableFuture<IndexResponse> indexAsync(IndexRequest request) {
+		CompletableFuture<IndexResponse> future = new CompletableFuture<>();
+		internalClient.indexAsync(request, RequestOptions.DEFAULT, listener(future));
+		return future;
+	}
+
+	public CompletableFuture<UpdateResponse> updateAsync(UpdateRequest request) {
+		CompletableFuture<UpdateResponse> future = new CompletableFuture<>();
+		internalClient.updateAsync(request, RequestOptions.DEFAULT, listener(future));
+		return future;
+	}
+
+	public CompletableFuture<DeleteResponse> deleteAsync(DeleteRequest request) {
+		CompletableFuture<DeleteResponse> future = new CompletableFuture<>();
+		internalClient.deleteAsync(request, RequestOptions.DEFAULT, listener(future));
+		return future;
+	}
+
+	public CompletableFuture<GetMappingsResponse> getMappingsAsync(ElasticIndex... indices) {
+		CompletableFuture<GetMappingsResponse> future = new CompletableFuture<>();
+		internalClient.indices().getMappingAsync(//
+				new GetMappingsRequest().indices(ElasticIndex.aliases(indices)), //
+				RequestOptions.DEFAULT, listener(future));
+		return future;
+	}
+
+	public CompletableFuture<GetSettingsResponse> getSettingsAsync(ElasticIndex... indices) {
+		CompletableFuture<GetSettingsResponse> future = new CompletableFuture<>();
+		internalClient.indices().getSettingsAsync(//
+				new GetSettingsRequest().indices(ElasticIndex.aliases(indices)), //
+				RequestOptions.DEFAULT, listener(future));
+		return future;
+	}
+
+	private static <T> ActionListener<T> listener(CompletableFuture<T> future) {
+		return ActionListener.wrap(future::complete, future::completeExceptionally);
+	}
+
+	@FunctionalInterface
+	private interface AsyncCall<T> {
+		Cancellable send(RequestOptions options, ActionListener<T> listener);
+	}
+
+	/**
+	 * Sends this call if the current request has budget left and waits at most
+	 * the remaining budget for its response. The call is cancelled once the
+	 * budget is spent so that slow calls never pin request threads.
+	 */
+	private static <T> T execute(AsyncCall<T> call) {
+		Server.deadline().ifPresent(SpaceDeadline::checkRemainingMillis);
+		CompletableFuture<T> future = new CompletableFuture<>();
+		Cancellable cancellable = call.send(RequestOptions.DEFAULT, listener(future));
+		return ElasticUtils.join(future, cancellable);
+	}
+
+	//
+	// Shared indices
+	//
+
+	/**
+	 * @return true if this backend index is a filtered alias of a shared index
+	 */
+	public boolean isShared(ElasticIndex index) {
+		return aliases(index.alias()).keySet().stream().anyMatch(ElasticIndex::isShared);
+	}
+
+	/**
+	 * Moves backend documents from their dedicated index to the shared index.
+	 * Writes to the dedicated index are blocked during the move.
+	 */
+	public void moveToShared(ElasticIndex index, Schema schema, String... readAliases) {
+		Optional<String> dedicated = resolve(index);
+
+		if (!dedicated.isPresent() || ElasticIndex.isShared(dedicated.get()))
+			return;
+
+		updateSettings(dedicated.get(), Json.object("index.blocks.write", true));
+		ensureSharedIndex(index, schema);
+
+		reindex(new ReindexRequest()//
+				.setSourceIndices(dedicated.get())//
+				.setDestIndex(index.sharedName())//
+				.setDestRouting("=" + index.backendId())//
+				.setRefresh(true));
+
+		IndicesAliasesRequest request = new IndicesAliasesRequest()//
+				.addAliasAction(AliasActions.remove()//
+						.index(dedicated.get()).alias(index.alias()))//
+				.addAliasAction(sharedAlias(index, index.alias()))//
+				.addAliasAction(AliasActions.removeIndex()//
+						.index(dedicated.get()));
+
+		for (String readAlias : readAliases)
+			request.addAliasAction(sharedAlias(index, readAlias));
+
+		updateAliases(request);
+	}
+
+	/**
+	 * Moves backend documents from the shared index to a dedicated index. Shared
+	 * indices can not be write blocked, writes received during the move are lost.
+	 */
+	public void moveToDedicated(ElasticIndex index, Schema schema, String... readAliases) {
+		Optional<String> shared = resolve(index);
+
+		if (!shared.isPresent() || !ElasticIndex.isShared(shared.get()))
+			return;
+
+		try {
+			CreateIndexRequest request = new CreateIndexRequest(index.toString())//
+					.mapping(schema.mapping().toString(), XContentType.JSON)//
+					.settings(schema.settings(false).toString(), XContentType.JSON);
+
+			internalClient.indices().create(request, RequestOptions.DEFAULT);
+			ensureIndicesAreAtLeastYellow(index.toString());
+
+		} catch (IOException e) {
+			throw Exceptions.runtime(e);
+		}
+
+		// alias filter selects backend documents
+		reindex(new ReindexRequest()//
+				.setSourceIndices(index.alias())//
+				.setDestIndex(index.toString())//
+				.setDestRouting("discard")//
+				.setRefresh(true));
+
+		IndicesAliasesRequest request = new IndicesAliasesRequest()//
+				.addAliasAction(AliasActions.remove()//
+						.index(shared.get()).alias(index.alias()))//
+				.addAliasAction(AliasActions.add()//
+						.index(index.toString()).alias(index.alias()));
+
+		for (String readAlias : readAliases)
+			request.addAliasAction(AliasActions.remove()//
+					.index(shared.get()).alias(readAlias))//
+					.addAliasAction(AliasActions.add()//
+							.index(index.toString()).alias(readAlias));
+
+		updateAliases(request);
+
+		deleteByQuery(new DeleteByQueryRequest(shared.get())//
+				.setQuery(routingQuery(index))//
+				.setRouting(index.backendId())//
+				.setTimeout(new TimeValue(60000)));
+	}
+
+	private void createSharedIndex(ElasticIndex index, Schema schema, boolean async, String... readAliases) {
+		ensureSharedIndex(index, schema);
+
+		IndicesAliasesRequest request = new IndicesAliasesRequest()//
+				.addAliasAction(sharedAlias(index, index.alias()));
+
+		for (String readAlias : readAliases)
+			request.addAliasAction(sharedAlias(index, readAlias));
+
+		updateAliases(request);
+
+		if (!async)
+			ensureIndicesAreAtLeastYellow(index);
+	}
+
+	private void ensureSharedIndex(ElasticIndex index, Schema schema) {
+		String shared = index.sharedName();
+
+		try {
+			if (internalClient.indices().exists(//
+					new GetIndexRequest(shared), RequestOptions.DEFAULT)) {
+
+				internalClient.indices().putMapping(new PutMappingRequest(shared)//
+						.source(schema.mapping().toString(), XContentType.JSON), //
+						RequestOptions.DEFAULT);
+				return;
+			}
+
+			internalClient.indices().create(new CreateIndexRequest(shared)//
+					.mapping(schema.mapping().toString(), XContentType.JSON)//
+					.settings(schema.settings(false).toString(), XContentType.JSON), //
+					RequestOptions.DEFAULT);
+
+		} catch (ElasticsearchStatusException e) {
+			if (!isAlreadyExists(e))
+				throw e;
+
+		} catch (IOException e) {
+			throw Exceptions.runtime(e);
+		}
+	}
+
+	/**
+	 * @return true if this error is the creation of an index another server has
+	 *         just created
+	 */
+	private static boolean isAlreadyExists(ElasticsearchStatusException e) {
+		return e.status() == RestStatus.BAD_REQUEST //
+				&& e.getMessage().contains("resource_already_exists_exception");
+	}
+
+	/**
+	 * Deletes backend documents from the shared indices of this index alias and
+	 * removes all the backend aliases of these shared indices.
+	 */
+	private void deleteSharedAlias(ElasticIndex index) {
+		String[] shared = aliases(index.alias()).keySet().stream()//
+				.filter(ElasticIndex::isShared)//
+				.toArray(String[]::new);
+
+		if (shared.length == 0)
+			return;
+
+		deleteByQuery(new DeleteByQueryRequest(shared)//
+				.setQuery(routingQuery(index))//
+				.setRouting(index.backendId())//
+				.setTimeout(new TimeValue(60000)));
+
+		updateAliases(new IndicesAliasesRequest()//
+				.addAliasAction(AliasActions.remove()//
+						.indices(shared).alias(index.backendId() + "-*")));
+	}
+
+	/**
+	 * Deletes this shared index if no backend alias points to it anymore.
+	 * 
+	 * @return true if deleted
+	 */
+	public boolean deleteSharedIndexIfUnused(ElasticIndex index) {
+		String shared = index.sharedName();
+		try {
+			GetAliasesResponse response = internalClient.indices()//
+					.getAlias(new GetAliasesRequest().indices(shared), RequestOptions.DEFAULT);
+
+			Set<?> aliases = response.getAliases().get(shared);
+			if (aliases == null || !aliases.isEmpty())
+				return false;
+
+			deleteIndices(shared);
+			return true;
+
+		} catch (ElasticsearchStatusException e) {
+			if (e.status() == RestStatus.NOT_FOUND)
+				return false;
+			throw e;
+
+		} catch (IOException e) {
+			throw Exceptions.runtime(e);
+		}
+	}
+
+	/**
+	 * @return the indices these aliases point to with their matching alias names.
+	 *         Alias names can contain wildcards.
+	 */
+	public Map<String, Set<String>> aliases(String... aliases) {
+		try {
+			GetAliasesResponse response = internalClient.indices()//
+					.getAlias(new GetAliasesRequest(aliases), RequestOptions.DEFAULT);
+
+			Map<String, Set<String>> result = Maps.newHashMap();
+			response.getAliases().forEach((index, metadata) -> result.put(index, //
+					metadata.stream().map(AliasMetadata::alias).collect(Collectors.toSet())));
+			return result;
+
+		} catch (IOException e) {
+			throw Exceptions.runtime(e);
+		}
+	}
+
+	private AliasActions sharedAlias(ElasticIndex index, String alias) {
+		return AliasActions.add()//
+				.index(index.sharedName())//
+				.alias(alias)//
+				.routing(index.backendId())//
+				.filter(routingQuery(index));
+	}
+
+	private QueryBuilder routingQuery(ElasticIndex index) {
+		return QueryBuilders.termQuery(RoutingFieldMapper.NAME, index.backendId());
+	}
+
+	private Optional<String> resolve(ElasticIndex index) {
+		try {
+			GetAliasesResponse response = internalClient.indices()//
+					.getAlias(new GetAliasesRequest(index.alias()), RequestOptions.DEFAULT);
+
+			return response.getAliases().keySet().stream().findFirst();
+
+		} catch (IOException e) {
+			throw Exceptions.runtime(e);
+		}
+	}
+
+	private void reindex(ReindexRequest request) {
+		try {
+			BulkByScrollResponse response = internalClient.reindex(request, RequestOptions.DEFAULT);
+
+			if (!response.getBulkFailures().isEmpty() || !response.getSearchFailures().isEmpty())
+				throw Exceptions.runtime("reindex to [%s] failed: %s", //
+						request.getDestination().index(), //
+						response.getBulkFailures().isEmpty() //
+								? response.getSearchFailures().get(0).getReason()
+								: response.getBulkFailures().get(0).getMessage());
+
+		} catch (IOException e) {
+			throw Exceptions.runtime(e);
+		}
+	}
+
+	public void updateAliases(IndicesAliasesRequest request) {
+		try {
+			AcknowledgedResponse response = internalClient.indices()//
+					.updateAliases(request, RequestOptions.DEFAULT);
+
+			if (!response.isAcknowledged())
+				throw Exceptions.runtime("aliases update not acknowledged by cluster");
+
+		} catch (IOException e) {
+			throw Exceptions.runtime(e);
+		}
+	}
+
+	private void updateSettings(String index, ObjectNode settings) {
+		try {
+			internalClient.indices().putSettings(new UpdateSettingsRequest(index)//
+					.settings(settings.toString(), XContentType.JSON), RequestOptions.DEFAULT);
+
+		} catch (IOException e) {
+			throw Exceptions.runtime(e);
+		}
+	}
+
 	//
 	// to index help methods
 	//
@@ -660,10 +1318,6 @@ public class ElasticClient implements SpaceParams {
 	//
 
 	private void refreshIndex(String... indices) {
-		try {
-			internalClient.indices().refresh(new RefreshRequest(indices), RequestOptions.DEFAULT);
-		} catch (IOException e) {
-			throw Exceptions.runtime(e);
-		}
+		refresher.refresh(indices);
 	}
 }
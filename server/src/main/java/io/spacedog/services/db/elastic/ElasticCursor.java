@@ -0,0 +1,106 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.db.elastic;
+
+import java.util.Base64;
+import java.util.Objects;
+
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.SortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.spacedog.utils.Exceptions;
+import io.spacedog.utils.Json;
+import io.spacedog.utils.Utils;
+
+/**
+ * Opaque cursor of a scrolled search. It is the base64 encoded json of the
+ * backend id, the credentials id and the scroll id of the search, so that a
+ * cursor only gives pages to the credentials that opened it. Pages are read
+ * from the scroll snapshot, so they need no unique tiebreak field and sorts
+ * only end with _doc, the cheapest order there is. Elasticsearch 7.8 has no
+ * point in time API.
+ */
+public class ElasticCursor {
+
+	public static final String DOC_FIELD = "_doc";
+	public static final TimeValue KEEP_ALIVE = TimeValue.timeValueMinutes(1);
+
+	private static final String BACKEND = "b";
+	private static final String CREDENTIALS = "c";
+	private static final String SCROLL = "s";
+
+	public static SearchSourceBuilder prepare(SearchSourceBuilder source) {
+
+		if (source.from() > 0)
+			throw Exceptions.illegalArgument(//
+					"from [%s] and cursor are mutually exclusive", source.from());
+
+		// keeps default relevance order when no sort is specified
+		if (Utils.isNullOrEmpty(source.sorts()))
+			source.sort(SortBuilders.scoreSort());
+
+		if (!hasDocTiebreak(source))
+			source.sort(SortBuilders.fieldSort(DOC_FIELD));
+
+		return source;
+	}
+
+	/**
+	 * @return the cursor of the next page or null if this page is the last one
+	 */
+	public static String next(String backendId, String credentialsId, //
+			String scrollId, int hits, int size) {
+
+		return hits == 0 || hits < size || scrollId == null //
+				? null
+				: toString(backendId, credentialsId, scrollId);
+	}
+
+	public static String toString(String backendId, String credentialsId, String scrollId) {
+		String json = Json.object(BACKEND, backendId, //
+				CREDENTIALS, credentialsId, SCROLL, scrollId).toString();
+		return Base64.getUrlEncoder().withoutPadding()//
+				.encodeToString(json.getBytes(Utils.UTF8));
+	}
+
+	/**
+	 * @return the scroll id of this cursor if opened by these backend and
+	 *         credentials
+	 */
+	public static String scrollId(String cursor, String backendId, String credentialsId) {
+		ObjectNode json = null;
+
+		try {
+			json = Json.readObject(new String(Base64.getUrlDecoder().decode(cursor), Utils.UTF8));
+
+		} catch (RuntimeException e) {
+			throw Exceptions.illegalArgument(e, "cursor [%s] is invalid", cursor);
+		}
+
+		if (!json.path(SCROLL).isTextual() //
+				|| !Objects.equals(backendId, json.path(BACKEND).asText(null)) //
+				|| !Objects.equals(credentialsId, json.path(CREDENTIALS).asText(null)))
+			throw Exceptions.illegalArgument("cursor [%s] is invalid", cursor);
+
+		return json.get(SCROLL).asText();
+	}
+
+	//
+	// Implementation
+	//
+
+	private static boolean hasDocTiebreak(SearchSourceBuilder source) {
+		if (source.sorts() != null)
+			for (SortBuilder<?> sort : source.sorts())
+				if (sort instanceof FieldSortBuilder //
+						&& DOC_FIELD.equals(((FieldSortBuilder) sort).getFieldName()))
+					return true;
+		return false;
+	}
+}
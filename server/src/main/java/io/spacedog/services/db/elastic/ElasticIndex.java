@@ -1,6 +1,13 @@
 package io.spacedog.services.db.elastic;
 
 import java.util.Arrays;
+import java.util.Set;
+
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.index.mapper.RoutingFieldMapper;
+
+import com.google.common.collect.ImmutableSet;
 
 import io.spacedog.services.Server;
 import io.spacedog.utils.Check;
@@ -8,6 +15,33 @@ import io.spacedog.utils.Exceptions;
 
 public class ElasticIndex {
 
+	/**
+	 * Backend id part of shared index names. Dots are not allowed in backend ids
+	 * so shared indices never collide with backend indices.
+	 */
+	public static final String SHARED_POOL = "shared.pool";
+
+	/**
+	 * Backend id part of the names of the indices of the server itself, like
+	 * the email outbox. They are not backend indices nor shared indices, so
+	 * that backend deletes, restores and moves to shared indices skip them.
+	 */
+	public static final String SERVER_POOL = "server.pool";
+
+	/**
+	 * Services that can store their documents in shared indices. Documents of
+	 * different backends end up in the same shards, so these services must only
+	 * use server generated and globally unique document ids. Data indices and so
+	 * schemas are not shareable: data ids are chosen by clients and would
+	 * overwrite documents of other backends, and schemas are the mappings of
+	 * data indices, so backends with different schemas of the same type can not
+	 * share an index. Sharing them needs data ids namespaced by backend in every
+	 * data request and response first. Until then, shared indices only cut the
+	 * log and session indices of each backend.
+	 */
+	public static final Set<String> SHAREABLE_SERVICES = //
+			ImmutableSet.of("log", "session");
+
 	private String backendId;
 	private String service;
 	private String type;
@@ -85,6 +119,34 @@ public class ElasticIndex {
 				: String.join("-", backendId(), service, type);
 	}
 
+	public String sharedName() {
+		String version = String.valueOf(this.version);
+		return type == null //
+				? String.join("-", SHARED_POOL, service, version)//
+				: String.join("-", SHARED_POOL, service, type, version);
+	}
+
+	public boolean isShareable() {
+		return SHAREABLE_SERVICES.contains(service);
+	}
+
+	public static boolean isShared(String index) {
+		return index.startsWith(SHARED_POOL + '-');
+	}
+
+	/**
+	 * Elasticsearch does not apply alias filters to gets by id. A get by id
+	 * through the alias of a shared index returns the document of another
+	 * backend with the same id on the same shard.
+	 * 
+	 * @return true if this document has no routing or the routing of this
+	 *         index backend
+	 */
+	public boolean owns(GetResponse response) {
+		DocumentField routing = response.getField(RoutingFieldMapper.NAME);
+		return routing == null || backendId.equals(routing.getValue());
+	}
+
 	public static String[] aliases(ElasticIndex... indices) {
 		return Arrays.stream(indices)//
 				.map(index -> index.alias())//
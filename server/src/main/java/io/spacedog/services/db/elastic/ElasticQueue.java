@@ -0,0 +1,191 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.db.elastic;
+
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import io.spacedog.client.schema.Schema;
+import io.spacedog.services.SpaceService;
+
+/**
+ * Queue of documents stored in a single server index for all backends. Every
+ * server polls due documents and claims them with an optimistic lock on their
+ * sequence number and primary term, so that a document is processed by one
+ * server only. Claimed documents are processed on a bounded worker pool, one
+ * worker slot per claim. Claims of a dead or stopped server expire after their
+ * timeout and a grace delay, so that other servers claim them again. Failed
+ * documents are tried again with an exponential backoff.
+ */
+public class ElasticQueue extends SpaceService {
+
+	public static final String STATUS_FIELD = "status";
+	public static final String TIMEOUT_AT_FIELD = "timeoutAt";
+
+	// claims of a dead server are claimed again after this delay
+	private static final long EXPIRED_CLAIM_GRACE_MILLIS = 1000 * 60;
+	private static final long MIN_BACKOFF_MILLIS = 1000 * 10;
+	private static final long MAX_BACKOFF_MILLIS = 1000 * 60 * 60;
+
+	private final String name;
+	private final ElasticIndex index;
+	private final Supplier<Schema> schema;
+	private final String serverId = UUID.randomUUID().toString();
+	private ScheduledExecutorService poller;
+	private ExecutorService workers;
+	private Semaphore slots;
+	private volatile boolean indexChecked;
+
+	/**
+	 * @param name the prefix of the queue thread names
+	 */
+	public ElasticQueue(String name, ElasticIndex index, Supplier<Schema> schema) {
+		this.name = name;
+		this.index = index;
+		this.schema = schema;
+	}
+
+	public String serverId() {
+		return serverId;
+	}
+
+	public ElasticIndex index() {
+		return index;
+	}
+
+	/**
+	 * Starts calling this poll every interval if this server has workers.
+	 *
+	 * @return false if this server has no workers or if already started
+	 */
+	public synchronized boolean start(int workerCount, int interval, Runnable poll) {
+		if (workerCount <= 0 || poller != null)
+			return false;
+
+		ensureIndex();
+		slots = new Semaphore(workerCount);
+		workers = Executors.newFixedThreadPool(workerCount, //
+				new ThreadFactoryBuilder().setNameFormat(name + "-worker-%d").setDaemon(true).build());
+		poller = Executors.newSingleThreadScheduledExecutor(//
+				new ThreadFactoryBuilder().setNameFormat(name + "-poller").setDaemon(true).build());
+
+		poller.scheduleWithFixedDelay(poll, interval, interval, TimeUnit.MILLISECONDS);
+		return true;
+	}
+
+	/**
+	 * @return the single thread executor of the poll, to schedule queue
+	 *         maintenance like timeouts and history deletion
+	 */
+	public ScheduledExecutorService poller() {
+		return poller;
+	}
+
+	public int freeSlots() {
+		return slots.availablePermits();
+	}
+
+	/**
+	 * Takes a worker slot and calls this claim. The slot is given back unless
+	 * the claim submits work with {@link #submit(Runnable)}.
+	 *
+	 * @return false if there is no free slot or if nothing has been claimed
+	 */
+	public boolean claim(BooleanSupplier claim) {
+		if (!slots.tryAcquire())
+			return false;
+
+		boolean submitted = false;
+		try {
+			submitted = claim.getAsBoolean();
+		} finally {
+			if (!submitted)
+				slots.release();
+		}
+		return submitted;
+	}
+
+	/**
+	 * Runs this claimed work on a worker and gives its slot back when done.
+	 */
+	public Future<?> submit(Runnable work) {
+		return workers.submit(() -> {
+			try {
+				work.run();
+			} finally {
+				slots.release();
+			}
+		});
+	}
+
+	/**
+	 * @return the query of the claims of dead or stopped servers in this status
+	 */
+	public static BoolQueryBuilder expiredClaims(String status, long now) {
+		return QueryBuilders.boolQuery()//
+				.filter(QueryBuilders.termQuery(STATUS_FIELD, status))//
+				.filter(QueryBuilders.rangeQuery(TIMEOUT_AT_FIELD)//
+						.lt(now - EXPIRED_CLAIM_GRACE_MILLIS));
+	}
+
+	/**
+	 * Saves this document if not updated by someone else since it has been read
+	 * with this version.
+	 *
+	 * @return the new version of this document or null if updated by someone
+	 *         else
+	 */
+	public String save(String id, String version, Object source) {
+		try {
+			IndexResponse response = elastic().index(index, id, version, source, false);
+			return ElasticVersion.toString(response.getSeqNo(), response.getPrimaryTerm());
+
+		} catch (ElasticsearchStatusException e) {
+			if (e.status() == RestStatus.CONFLICT)
+				return null;
+			throw e;
+		}
+	}
+
+	/**
+	 * @return the delay before the next try of a document already tried this
+	 *         number of times
+	 */
+	public static long backoff(int tries) {
+		return Math.min(MAX_BACKOFF_MILLIS, //
+				MIN_BACKOFF_MILLIS << Math.min(Math.max(tries - 1, 0), 20));
+	}
+
+	//
+	// Index
+	//
+
+	public void initIndex() {
+		indexChecked = false;
+		ensureIndex();
+	}
+
+	public void ensureIndex() {
+		if (indexChecked)
+			return;
+
+		elastic().ensureIndex(index, schema.get(), false);
+		indexChecked = true;
+	}
+}
@@ -0,0 +1,157 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.db.elastic;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+
+import io.spacedog.client.http.SpaceException;
+import io.spacedog.services.SpaceDeadline;
+import io.spacedog.utils.Utils;
+
+/**
+ * Coalesces concurrent refreshes of the same indices. The first caller becomes
+ * the leader of the next refresh. It waits for the running refresh to complete
+ * and then executes its own. Callers arriving in the meantime join the pending
+ * refresh instead of sending one more request to the cluster. A pending refresh
+ * always starts after all its callers requested it, so they all see the writes
+ * they did before requesting it. Refreshes are chained asynchronously, callers
+ * only wait for their refresh within the remaining budget of their request.
+ */
+public class ElasticRefresher {
+
+	private RestHighLevelClient client;
+	private long window;
+	private Map<String, Slot> slots = new ConcurrentHashMap<>();
+
+	/**
+	 * @param window in milliseconds, refreshes requested less than this window
+	 *               after the last refresh started are suppressed. Zero to never
+	 *               suppress refreshes.
+	 */
+	public ElasticRefresher(RestHighLevelClient client, long window) {
+		this.client = client;
+		this.window = window;
+	}
+
+	public void refresh(String... indices) {
+
+		String[] sorted = indices.clone();
+		Arrays.sort(sorted);
+		Slot slot = slots.computeIfAbsent(String.join(",", sorted), key -> new Slot());
+
+		CompletableFuture<Void> future = null;
+		boolean leader = false;
+		long requestedAt = System.currentTimeMillis();
+
+		synchronized (slot) {
+			if (slot.pending == null) {
+				future = slot.pending = new CompletableFuture<>();
+				leader = true;
+			} else {
+				future = slot.pending;
+				slot.coalesced++;
+			}
+		}
+
+		if (leader)
+			lead(slot, future, requestedAt, indices);
+
+		// a shared refresh is never cancelled
+		ElasticUtils.join(future, null);
+	}
+
+	/**
+	 * Same as refresh but does not fail once the request budget is spent. The
+	 * write is already stored, answering 504 would have clients retry a write
+	 * that succeeded. The shared refresh is never cancelled, the write becomes
+	 * visible as soon as it completes.
+	 */
+	public void refreshAfterWrite(String... indices) {
+		try {
+			refresh(indices);
+
+		} catch (SpaceException e) {
+			if (!SpaceDeadline.DEADLINE_EXCEEDED.equals(e.code()))
+				throw e;
+			Utils.warn("refresh of [%s] after write not completed before deadline", //
+					String.join(",", indices));
+		}
+	}
+
+	/**
+	 * @return the number of refresh requests that joined a pending refresh
+	 */
+	public long coalesced() {
+		return slots.values().stream().mapToLong(slot -> slot.coalesced).sum();
+	}
+
+	//
+	// Implementation
+	//
+
+	private void lead(Slot slot, CompletableFuture<Void> future, long requestedAt, String... indices) {
+
+		CompletableFuture<Void> running = null;
+
+		synchronized (slot) {
+			running = slot.running;
+		}
+
+		// start after the running refresh whatever its outcome
+		if (running == null)
+			start(slot, future, requestedAt, indices);
+		else
+			running.handle((result, throwable) -> null)//
+					.thenRun(() -> start(slot, future, requestedAt, indices));
+	}
+
+	private void start(Slot slot, CompletableFuture<Void> future, long requestedAt, String... indices) {
+
+		synchronized (slot) {
+			slot.pending = null;
+			slot.running = future;
+		}
+
+		try {
+			if (window > 0 && requestedAt - slot.lastStartedAt < window)
+				complete(slot, future, null);
+			else {
+				slot.lastStartedAt = System.currentTimeMillis();
+				client.indices().refreshAsync(new RefreshRequest(indices), RequestOptions.DEFAULT, //
+						ActionListener.wrap(response -> complete(slot, future, null), //
+								e -> complete(slot, future, e)));
+			}
+
+		} catch (RuntimeException e) {
+			complete(slot, future, e);
+		}
+	}
+
+	private void complete(Slot slot, CompletableFuture<Void> future, Exception e) {
+		synchronized (slot) {
+			if (slot.running == future)
+				slot.running = null;
+		}
+
+		if (e == null)
+			future.complete(null);
+		else
+			future.completeExceptionally(e);
+	}
+
+	private static class Slot {
+		private CompletableFuture<Void> running;
+		private CompletableFuture<Void> pending;
+		private volatile long lastStartedAt;
+		private long coalesced;
+	}
+}
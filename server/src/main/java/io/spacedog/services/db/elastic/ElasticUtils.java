@@ -1,25 +1,39 @@
 package io.spacedog.services.db.elastic;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Collections;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import org.elasticsearch.action.DocWriteResponse;
 import org.elasticsearch.action.DocWriteResponse.Result;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.support.WriteRequest.RefreshPolicy;
+import org.elasticsearch.client.Cancellable;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.xcontent.DeprecationHandler;
 import org.elasticsearch.common.xcontent.NamedXContentRegistry;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.AbstractQueryBuilder;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.reindex.BulkByScrollResponse;
 import org.elasticsearch.search.SearchModule;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.joda.time.DateTime;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Strings;
 
+import io.spacedog.services.Server;
+import io.spacedog.services.SpaceDeadline;
 import io.spacedog.utils.Exceptions;
 import io.spacedog.utils.Json;
 
@@ -45,10 +59,70 @@ public class ElasticUtils {
 		return refresh == null || !refresh ? RefreshPolicy.NONE : RefreshPolicy.IMMEDIATE;
 	}
 
+	/**
+	 * @param refresh true, false or wait_for
+	 */
+	public static RefreshPolicy toPolicy(String refresh) {
+		if (Strings.isNullOrEmpty(refresh))
+			return RefreshPolicy.NONE;
+
+		try {
+			return RefreshPolicy.parse(refresh);
+		} catch (IllegalArgumentException e) {
+			throw Exceptions.illegalArgument(//
+					"refresh [%s] is invalid: true, false or wait_for expected", refresh);
+		}
+	}
+
 	private static NamedXContentRegistry contentRegistry = new NamedXContentRegistry(//
 			new SearchModule(Settings.EMPTY, false, Collections.emptyList())//
 					.getNamedXContents());
 
+	/**
+	 * Waits for this future and rethrows its failure as is if it is a runtime
+	 * exception, so that elasticsearch exceptions reach error filters unchanged.
+	 */
+	public static <T> T join(CompletableFuture<T> future) {
+		try {
+			return future.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw Exceptions.runtime(e.getCause());
+		}
+	}
+
+	/**
+	 * Same as join but waits at most the remaining budget of the current request
+	 * if any. Once it is spent, the call is cancelled if cancellable and a 504
+	 * error is thrown.
+	 */
+	public static <T> T join(CompletableFuture<T> future, Cancellable cancellable) {
+		Optional<SpaceDeadline> deadline = Server.deadline();
+		if (!deadline.isPresent())
+			return join(future);
+
+		try {
+			return future.get(deadline.get().remainingMillis(), TimeUnit.MILLISECONDS);
+
+		} catch (TimeoutException e) {
+			if (cancellable != null)
+				cancellable.cancel();
+			throw deadline.get().exceeded(e);
+
+		} catch (InterruptedException e) {
+			if (cancellable != null)
+				cancellable.cancel();
+			Thread.currentThread().interrupt();
+			throw Exceptions.runtime(e);
+
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw Exceptions.runtime(e.getCause());
+		}
+	}
+
 	public static SearchSourceBuilder toSearchSourceBuilder(String source) {
 
 		try {
@@ -68,6 +142,25 @@ public class ElasticUtils {
 		return QueryBuilders.wrapperQuery(query);
 	}
 
+	/**
+	 * @return this JSON query parsed into its query builder tree
+	 */
+	public static QueryBuilder parseQuery(String query) {
+		return parseQuery(query.getBytes(StandardCharsets.UTF_8));
+	}
+
+	public static QueryBuilder parseQuery(byte[] query) {
+		try {
+			XContentParser parser = XContentFactory.xContent(XContentType.JSON)//
+					.createParser(contentRegistry, DeprecationHandler.THROW_UNSUPPORTED_OPERATION, query);
+			return AbstractQueryBuilder.parseInnerQueryBuilder(parser);
+
+		} catch (Exception e) {
+			throw Exceptions.illegalArgument(e, "error parsing query [%s]", //
+					new String(query, StandardCharsets.UTF_8));
+		}
+	}
+
 	public static ObjectNode toJson(BulkByScrollResponse response) {
 
 		return Json.object(//
@@ -80,6 +173,50 @@ public class ElasticUtils {
 				"bulkFailures", response.getBulkFailures());
 	}
 
+	/**
+	 * @return the progress of this delete by query task, rate is in deletes
+	 *         per second since the task started
+	 */
+	/**
+	 * @param task a raw task as returned by the elasticsearch tasks endpoint
+	 * @return the status of this delete by query task with its failures and
+	 *         error if completed
+	 */
+	public static ObjectNode toTaskStatus(ObjectNode task) {
+		JsonNode info = task.path("task");
+		boolean completed = task.path("completed").asBoolean();
+
+		// completed tasks report their final counts and failures in their
+		// response, running tasks in their status
+		JsonNode status = task.has("response") ? task.get("response") : info.path("status");
+
+		long total = status.path("total").asLong();
+		long deleted = status.path("deleted").asLong();
+		long runningTimeMillis = TimeUnit.NANOSECONDS.toMillis(//
+				info.path("running_time_in_nanos").asLong());
+
+		ObjectNode json = Json.object(//
+				"id", info.path("node").asText() + ':' + info.path("id").asLong(), //
+				"description", info.path("description").asText(null), //
+				"completed", completed, //
+				"reasonCancelled", status.path("canceled").asText(null), //
+				"startedAt", new DateTime(info.path("start_time_in_millis").asLong()).toString(), //
+				"runningTimeMillis", runningTimeMillis, //
+				"total", total, //
+				"deleted", deleted, //
+				"batches", status.path("batches").asLong(), //
+				"versionConflicts", status.path("version_conflicts").asLong(), //
+				"progress", total == 0 ? 0 : (double) deleted / total, //
+				"rate", runningTimeMillis == 0 ? 0 : deleted * 1000d / runningTimeMillis, //
+				"requestsPerSecond", status.path("requests_per_second").asDouble());
+
+		json.set("failures", status.path("failures").isArray() //
+				? status.get("failures")
+				: Json.array());
+		json.set("error", task.get("error"));
+		return json;
+	}
+
 	public static ObjectNode toJson(IndexResponse response) {
 		return Json.object(//
 				"id", response.getId(), //
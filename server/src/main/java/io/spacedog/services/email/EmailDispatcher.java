@@ -0,0 +1,504 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.email;
+
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.SendFailedException;
+import javax.mail.internet.MimeMessage;
+
+import org.apache.commons.mail.EmailException;
+import org.apache.commons.mail.ImageHtmlEmail;
+import org.apache.commons.mail.resolver.DataSourceUrlResolver;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+import org.joda.time.DateTime;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.TextNode;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import io.spacedog.client.credentials.Credentials;
+import io.spacedog.client.credentials.Roles;
+import io.spacedog.client.email.EmailBasicRequest;
+import io.spacedog.client.email.EmailMessage;
+import io.spacedog.client.email.EmailMessage.Status;
+import io.spacedog.client.email.EmailSettings;
+import io.spacedog.client.email.EmailSettings.MailGunSettings;
+import io.spacedog.client.email.EmailSettings.SmtpSettings;
+import io.spacedog.client.http.SpaceRequest;
+import io.spacedog.client.http.SpaceResponse;
+import io.spacedog.client.schema.Schema;
+import io.spacedog.services.Server;
+import io.spacedog.services.ServerConfig;
+import io.spacedog.services.Services;
+import io.spacedog.services.SpaceResty;
+import io.spacedog.services.SpaceService;
+import io.spacedog.services.db.elastic.ElasticIndex;
+import io.spacedog.services.db.elastic.ElasticQueue;
+import io.spacedog.services.db.elastic.ElasticVersion;
+import io.spacedog.utils.ClassResources;
+import io.spacedog.utils.Json;
+import io.spacedog.utils.Utils;
+
+/**
+ * Persistent email outbox. Emails are messages of an {@link ElasticQueue} and
+ * are sent asynchronously. Claimed emails are sent in batches per backend, one
+ * batch per worker. SMTP emails of a batch share the same long lived
+ * connection.
+ */
+public class EmailDispatcher extends SpaceService {
+
+	public static final String SERVICE_NAME = "outbox";
+
+	private static final String STATUS_FIELD = "status";
+	private static final String SCHEDULED_FIELD = "scheduled";
+
+	private static final Credentials EMAIL_CREDENTIALS = new Credentials("email")//
+			.id("email").addRoles(Roles.superadmin).passwordHasBeenChallenged(true);
+
+	private static final int MAX_TRIES = 6;
+	private static final int BATCH_TIMEOUT_SECONDS = 60 * 5;
+	private static final long SMTP_IDLE_MILLIS = 1000 * 60;
+
+	private final ElasticQueue outbox = new ElasticQueue("email", index(), this::schema);
+	private final SmtpTransportPool smtp = new SmtpTransportPool(ServerConfig.mailSmtpDebug());
+
+	//
+	// Outbox
+	//
+
+	/**
+	 * Queues this email for immediate sending.
+	 */
+	public EmailMessage queue(EmailBasicRequest request) {
+		return queue(request, false);
+	}
+
+	/**
+	 * @param sensitive true if the contents of this email must not be kept once
+	 *                  sent, like password reset codes
+	 */
+	public EmailMessage queue(EmailBasicRequest request, boolean sensitive) {
+		outbox.ensureIndex();
+
+		EmailMessage message = new EmailMessage();
+		message.id = UUID.randomUUID().toString();
+		message.backendId = Server.backend().id();
+		message.request = request;
+		message.queued = DateTime.now();
+		message.scheduled = message.queued;
+		message.status = Status.queued;
+		message.sensitive = sensitive;
+
+		IndexRequest indexRequest = elastic().prepareIndex(index())//
+				.id(message.id)//
+				.source(Json.toString(message), XContentType.JSON)//
+				.create(true);
+
+		IndexResponse response = elastic().index(indexRequest);
+		message.version = ElasticVersion.toString(response.getSeqNo(), response.getPrimaryTerm());
+		return message;
+	}
+
+	public Optional<EmailMessage> get(String id) {
+		outbox.ensureIndex();
+		GetResponse response = elastic().get(index(), id);
+
+		if (!response.isExists())
+			return Optional.empty();
+
+		EmailMessage message = Json.toPojo(response.getSourceAsString(), EmailMessage.class);
+		message.version = ElasticVersion.toString(response.getSeqNo(), response.getPrimaryTerm());
+
+		// emails of other backends are not found
+		return Server.backend().id().equals(message.backendId) //
+				? Optional.of(message)
+				: Optional.empty();
+	}
+
+	//
+	// Dispatcher
+	//
+
+	/**
+	 * Starts polling and sending queued emails if this server has email workers.
+	 */
+	public void start() {
+		if (!outbox.start(ServerConfig.mailWorkers(), //
+				ServerConfig.mailPollInterval(), this::dispatch))
+			return;
+
+		ScheduledExecutorService poller = outbox.poller();
+		poller.scheduleWithFixedDelay(() -> smtp.closeIdle(SMTP_IDLE_MILLIS), 1, 1, TimeUnit.MINUTES);
+		poller.scheduleWithFixedDelay(this::deleteHistory, 1, 60, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Claims as many batches of queued emails as free workers and sends them.
+	 */
+	public void dispatch() {
+		try {
+			int free = outbox.freeSlots();
+			if (free == 0)
+				return;
+
+			int batchSize = ServerConfig.mailBatchSize();
+			Map<String, List<EmailMessage>> backends = Maps.newLinkedHashMap();
+
+			for (SearchHit hit : searchDueMessages(free * batchSize)) {
+				EmailMessage message = toMessage(hit);
+				backends.computeIfAbsent(message.backendId, //
+						id -> Lists.newArrayList()).add(message);
+			}
+
+			for (List<EmailMessage> messages : backends.values())
+				for (List<EmailMessage> batch : Lists.partition(messages, batchSize))
+					outbox.claim(() -> claim(batch));
+
+		} catch (Throwable t) {
+			Utils.warn("failed to dispatch queued emails", t);
+		}
+	}
+
+	//
+	// Index
+	//
+
+	public void initIndex() {
+		outbox.initIndex();
+	}
+
+	public Schema schema() {
+		String string = ClassResources.loadAsString(//
+				EmailDispatcher.class, "outbox-mapping.json");
+		return Json.toPojo(string, Schema.class);
+	}
+
+	public ElasticIndex index() {
+		return new ElasticIndex(SERVICE_NAME).backendId(ElasticIndex.SERVER_POOL);
+	}
+
+	//
+	// Implementation
+	//
+
+	private SearchHit[] searchDueMessages(int size) {
+		long now = DateTime.now().getMillis();
+
+		BoolQueryBuilder due = QueryBuilders.boolQuery()//
+				.filter(QueryBuilders.termQuery(STATUS_FIELD, Status.queued.name()))//
+				.filter(QueryBuilders.rangeQuery(SCHEDULED_FIELD).lte(now));
+
+		BoolQueryBuilder expired = ElasticQueue.expiredClaims(Status.sending.name(), now);
+
+		SearchSourceBuilder source = SearchSourceBuilder.searchSource()//
+				.query(QueryBuilders.boolQuery().should(due).should(expired).minimumShouldMatch(1))//
+				.sort(SCHEDULED_FIELD, SortOrder.ASC)//
+				.seqNoAndPrimaryTerm(true)//
+				.size(size);
+
+		return elastic().search(source, index()).getHits().getHits();
+	}
+
+	/**
+	 * @return true if at least one email of this batch has been claimed by this
+	 *         server and the claimed emails submitted to the workers
+	 */
+	private boolean claim(List<EmailMessage> batch) {
+		DateTime now = DateTime.now();
+		List<EmailMessage> claimed = Lists.newArrayList();
+
+		for (EmailMessage message : batch) {
+			if (Status.sending.equals(message.status)) {
+				// the claim of this email has expired
+				message.error = String.format("email timed out on server [%s]", message.claimedBy);
+				if (message.tries >= MAX_TRIES) {
+					finish(message, Status.failed);
+					continue;
+				}
+			}
+
+			message.status = Status.sending;
+			message.tries++;
+			message.claimedBy = outbox.serverId();
+			message.timeoutAt = now.plusSeconds(BATCH_TIMEOUT_SECONDS);
+
+			if (save(message))
+				claimed.add(message);
+		}
+
+		if (claimed.isEmpty())
+			return false;
+
+		outbox.submit(() -> run(claimed));
+		return true;
+	}
+
+	private void run(List<EmailMessage> batch) {
+		try {
+			Server.runWithContext(batch.get(0).backendId, EMAIL_CREDENTIALS, //
+					() -> send(batch));
+
+		} catch (Throwable t) {
+			for (EmailMessage message : batch)
+				if (Status.sending.equals(message.status))
+					retryOrFail(message, t.toString());
+		}
+	}
+
+	private void send(List<EmailMessage> batch) {
+		EmailSettings settings = Services.settings()//
+				.get(EmailSettings.class).orElseGet(EmailSettings::new);
+
+		for (EmailMessage message : batch) {
+			try {
+				if (settings.smtp != null)
+					sendViaSmtp(message, settings.smtp);
+				else if (settings.mailgun != null)
+					sendViaGun(message, settings.mailgun);
+				else
+					sendViaGun(message, defaultMailGunSettings());
+
+				message.error = null;
+				finish(message, Status.sent);
+
+			} catch (PermanentFailure e) {
+				message.error = e.getMessage();
+				finish(message, Status.failed);
+
+			} catch (Throwable t) {
+				retryOrFail(message, t.toString());
+			}
+		}
+	}
+
+	private void retryOrFail(EmailMessage message, String error) {
+		message.error = error;
+
+		if (message.tries >= MAX_TRIES) {
+			finish(message, Status.failed);
+			return;
+		}
+
+		message.status = Status.queued;
+		message.scheduled = DateTime.now().plus(ElasticQueue.backoff(message.tries));
+		message.timeoutAt = null;
+		message.claimedBy = null;
+		save(message);
+	}
+
+	private void finish(EmailMessage message, Status status) {
+		message.status = status;
+		message.timeoutAt = null;
+		stripIfSensitive(message);
+
+		if (Status.sent.equals(status))
+			message.sent = DateTime.now();
+		else
+			Utils.warn("email [%s] of backend [%s] failed after [%s] tries: %s", //
+					message.id, message.backendId, message.tries, message.error);
+
+		save(message);
+	}
+
+	/**
+	 * Sensitive emails are kept in history without their text and html
+	 */
+	static void stripIfSensitive(EmailMessage message) {
+		if (message.sensitive && message.request != null) {
+			message.request.text = null;
+			message.request.html = null;
+		}
+	}
+
+	/**
+	 * @return false if this email has been updated by someone else since it has
+	 *         been read
+	 */
+	private boolean save(EmailMessage message) {
+		String version = outbox.save(message.id, message.version, message);
+		if (version == null)
+			return false;
+
+		message.version = version;
+		return true;
+	}
+
+	private void deleteHistory() {
+		try {
+			long before = DateTime.now().minusDays(ServerConfig.mailHistoryDays()).getMillis();
+
+			BoolQueryBuilder query = QueryBuilders.boolQuery()//
+					.filter(QueryBuilders.termsQuery(STATUS_FIELD, //
+							Status.sent.name(), Status.failed.name()))//
+					.filter(QueryBuilders.rangeQuery(SCHEDULED_FIELD).lt(before));
+
+			elastic().deleteByQueryAsync(query, index());
+
+		} catch (Throwable t) {
+			Utils.warn("failed to delete emails history", t);
+		}
+	}
+
+	private static EmailMessage toMessage(SearchHit hit) {
+		EmailMessage message = Json.toPojo(hit.getSourceAsString(), EmailMessage.class);
+		message.version = ElasticVersion.toString(hit.getSeqNo(), hit.getPrimaryTerm());
+		return message;
+	}
+
+	/**
+	 * Email failures not worth trying again
+	 */
+	private static class PermanentFailure extends RuntimeException {
+
+		private static final long serialVersionUID = 2519390766384421045L;
+
+		private PermanentFailure(String message, Object... args) {
+			super(String.format(message, args));
+		}
+	}
+
+	//
+	// MailGun
+	//
+
+	private static final String HTML = "html";
+	private static final String TEXT = "text";
+	private static final String SUBJECT = "subject";
+	private static final String BCC = "bcc";
+	private static final String CC = "cc";
+	private static final String TO = "to";
+	private static final String FROM = "from";
+
+	private static MailGunSettings defaultMailGunSettings() {
+		MailGunSettings settings = new MailGunSettings();
+		settings.key = ServerConfig.mailGunKey();
+		settings.domain = ServerConfig.mailDomain();
+		return settings;
+	}
+
+	private void sendViaGun(EmailMessage message, MailGunSettings settings) {
+
+		EmailBasicRequest emailRequest = message.request;
+		SpaceRequest httpRequest = SpaceRequest.post("/v3/{domain}/messages")//
+				.backend("https://api.mailgun.net")//
+				.routeParam("domain", settings.domain)//
+				.basicAuth("api", settings.key)//
+				.formField(FROM, emailRequest.from)//
+				.formField(SUBJECT, emailRequest.subject);
+
+		if (emailRequest.to != null)
+			for (String to : emailRequest.to)
+				httpRequest.formField(TO, to);
+
+		if (emailRequest.cc != null)
+			for (String cc : emailRequest.cc)
+				httpRequest.formField(CC, cc);
+
+		if (emailRequest.bcc != null)
+			for (String bcc : emailRequest.bcc)
+				httpRequest.formField(BCC, bcc);
+
+		if (!Strings.isNullOrEmpty(emailRequest.text))
+			httpRequest.formField(TEXT, emailRequest.text);
+
+		if (!Strings.isNullOrEmpty(emailRequest.html))
+			httpRequest.formField(HTML, emailRequest.html);
+
+		SpaceResponse response = httpRequest.go();
+
+		JsonNode content = response.isJson() //
+				? response.asJson()
+				: TextNode.valueOf(response.asString());
+
+		// too many requests and server errors are worth trying again
+		if (response.status() == 429 || response.status() >= 500)
+			throw new IllegalStateException(String.format(//
+					"send email via mailgun failed with status [%s]: %s", //
+					response.status(), content));
+
+		if (response.status() >= 400)
+			throw new PermanentFailure("send email via mailgun failed with status [%s]: %s", //
+					response.status(), content);
+
+		message.provider = "mailgun";
+		message.providerId = content.path("id").asText(null);
+	}
+
+	//
+	// SMTP
+	//
+
+	private void sendViaSmtp(EmailMessage message, SmtpSettings settings) throws Exception {
+
+		MimeMessage mime = null;
+
+		try {
+			mime = toMimeMessage(message.request, settings);
+			smtp.send(settings, mime);
+
+		} catch (SendFailedException e) {
+			// busy mailboxes and the like are worth trying again
+			if (SmtpTransportPool.isTemporary(e))
+				throw new IllegalStateException("send email via smtp failed: " + e, e);
+			throw new PermanentFailure("send email via smtp failed: %s", e);
+
+		} catch (EmailException e) {
+			// invalid email
+			throw new PermanentFailure("send email via smtp failed: %s", e);
+		}
+
+		message.provider = "smtp";
+		message.providerId = mime.getMessageID();
+	}
+
+	private MimeMessage toMimeMessage(EmailBasicRequest request, SmtpSettings settings) //
+			throws Exception {
+
+		ImageHtmlEmail email = new ImageHtmlEmail();
+		email.setMailSession(smtp.session(settings));
+		email.setCharset("UTF-8");
+		email.setHtmlMsg(request.html);
+		email.setDataSourceResolver(new DataSourceUrlResolver(//
+				new URL(SpaceResty.spaceRootUrl().toString())));
+		if (!Strings.isNullOrEmpty(request.text))
+			email.setTextMsg(request.text);
+
+		if (request.from != null)
+			email.setFrom(request.from);
+		if (request.to != null)
+			for (String to : request.to)
+				email.addTo(to);
+		if (request.cc != null)
+			for (String cc : request.cc)
+				email.addCc(cc);
+		if (request.bcc != null)
+			for (String bcc : request.bcc)
+				email.addBcc(bcc);
+		if (request.subject != null)
+			email.setSubject(request.subject);
+
+		email.buildMimeMessage();
+		MimeMessage mime = email.getMimeMessage();
+		// sets the message id
+		mime.saveChanges();
+		return mime;
+	}
+}
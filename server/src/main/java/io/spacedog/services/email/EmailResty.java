@@ -5,6 +5,7 @@ package io.spacedog.services.email;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import io.spacedog.client.email.EmailMessage;
 import io.spacedog.client.email.EmailRequest;
 import io.spacedog.client.email.EmailTemplate;
 import io.spacedog.services.JsonPayload;
@@ -28,6 +29,13 @@ public class EmailResty extends SpaceResty {
 		return Services.emails().sendIfAuthorized(request);
 	}
 
+	@Get("/:id")
+	@Get("/:id/")
+	public EmailMessage getEmail(String id) {
+		Server.context().credentials().checkAtLeastSuperAdmin();
+		return Services.emails().getOrThrow(id);
+	}
+
 	@Put("/templates/:name")
 	@Put("/templates/:name/")
 	public Payload putTemplate(String templateName, EmailTemplate template, Context context) {
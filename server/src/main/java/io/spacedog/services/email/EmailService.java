@@ -1,30 +1,22 @@
 package io.spacedog.services.email;
 
-import java.net.URL;
+import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
-import org.apache.commons.mail.ImageHtmlEmail;
-import org.apache.commons.mail.resolver.DataSourceUrlResolver;
-
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.fasterxml.jackson.databind.node.TextNode;
 import com.google.common.base.Strings;
 
 import io.spacedog.client.email.EmailBasicRequest;
+import io.spacedog.client.email.EmailMessage;
 import io.spacedog.client.email.EmailRequest;
 import io.spacedog.client.email.EmailSettings;
-import io.spacedog.client.email.EmailSettings.MailGunSettings;
-import io.spacedog.client.email.EmailSettings.SmtpSettings;
 import io.spacedog.client.email.EmailTemplate;
 import io.spacedog.client.email.EmailTemplateRequest;
-import io.spacedog.client.http.SpaceRequest;
-import io.spacedog.client.http.SpaceResponse;
 import io.spacedog.services.PebbleTemplating;
 import io.spacedog.services.Server;
 import io.spacedog.services.ServerConfig;
 import io.spacedog.services.Services;
-import io.spacedog.services.SpaceResty;
 import io.spacedog.utils.Exceptions;
 import io.spacedog.utils.Json;
 
@@ -47,7 +39,20 @@ public class EmailService {
 		return send(request);
 	}
 
+	/**
+	 * Queues this email in the outbox. It is sent asynchronously.
+	 * 
+	 * @return the id of the queued email
+	 */
 	public ObjectNode send(EmailBasicRequest request) {
+		return send(request, false);
+	}
+
+	/**
+	 * Same as send but the contents of sensitive emails are not kept in the
+	 * outbox history.
+	 */
+	public ObjectNode send(EmailBasicRequest request, boolean sensitive) {
 
 		if (Strings.isNullOrEmpty(request.html))
 			request.html = request.text;
@@ -55,16 +60,30 @@ public class EmailService {
 		if (request.html == null)
 			request.html = "";
 
-		EmailSettings settings = settings();
+		if (isNullOrEmpty(request.to) && isNullOrEmpty(request.cc) //
+				&& isNullOrEmpty(request.bcc))
+			throw Exceptions.illegalArgument("email has no recipient");
+
+		EmailSettings settings = Services.settings()//
+				.get(EmailSettings.class).orElseGet(EmailSettings::new);
+
+		if (settings.smtp == null && settings.mailgun == null)
+			// if no settings, use default ...
+			applyDefaultSettings(request);
 
-		if (settings.smtp != null)
-			return sendViaSmtp(request, settings.smtp);
+		else if (Strings.isNullOrEmpty(request.from))
+			throw Exceptions.illegalArgument("email has no sender");
 
-		if (settings.mailgun != null)
-			return sendViaGun(request, settings.mailgun);
+		EmailMessage message = dispatcher.queue(request, sensitive);
+		return Json.object("id", message.id, "status", message.status.name());
+	}
+
+	public Optional<EmailMessage> get(String id) {
+		return dispatcher.get(id);
+	}
 
-		// if no settings, use default ...
-		return sendWithDefaultSettings(request);
+	public EmailMessage getOrThrow(String id) {
+		return get(id).orElseThrow(() -> Exceptions.objectNotFound("email", id));
 	}
 
 	public ObjectNode sendIfAuthorized(EmailTemplateRequest request) {
@@ -79,7 +98,11 @@ public class EmailService {
 	}
 
 	public ObjectNode send(EmailTemplateRequest request, EmailTemplate template) {
-		return send(toBasicRequest(request, template));
+		return send(request, template, false);
+	}
+
+	public ObjectNode send(EmailTemplateRequest request, EmailTemplate template, boolean sensitive) {
+		return send(toBasicRequest(request, template), sensitive);
 	}
 
 	public EmailTemplate getTemplate(String templateName) {
@@ -102,22 +125,24 @@ public class EmailService {
 	}
 
 	//
-	// Implementation
+	// Outbox
 	//
 
-	private static final String HTML = "html";
-	private static final String TEXT = "text";
-	private static final String SUBJECT = "subject";
-	private static final String BCC = "bcc";
-	private static final String CC = "cc";
-	private static final String TO = "to";
-	private static final String FROM = "from";
+	public void initIndex() {
+		dispatcher.initIndex();
+	}
+
+	public void start() {
+		dispatcher.start();
+	}
+
+	//
+	// Implementation
+	//
 
-	private ObjectNode sendWithDefaultSettings(EmailBasicRequest request) {
+	private final EmailDispatcher dispatcher = new EmailDispatcher();
 
-		MailGunSettings settings = new MailGunSettings();
-		settings.key = ServerConfig.mailGunKey();
-		settings.domain = ServerConfig.mailDomain();
+	private void applyDefaultSettings(EmailBasicRequest request) {
 
 		String target = Server.backend().id();
 
@@ -128,9 +153,11 @@ public class EmailService {
 			request.html = addFootnotesToHtmlMessage(request.html, target);
 
 		// force the from
-		request.from = target.toUpperCase() + " <no-reply@" + settings.domain + ">";
+		request.from = target.toUpperCase() + " <no-reply@" + ServerConfig.mailDomain() + ">";
+	}
 
-		return sendViaGun(request, settings);
+	private static boolean isNullOrEmpty(List<String> addresses) {
+		return addresses == null || addresses.isEmpty();
 	}
 
 	private EmailBasicRequest toBasicRequest(EmailTemplateRequest request, EmailTemplate template) {
@@ -155,102 +182,6 @@ public class EmailService {
 		return "internal-email-template-" + templateName;
 	}
 
-	//
-	// MailGun
-	//
-
-	private ObjectNode sendViaGun(EmailBasicRequest emailRequest, MailGunSettings settings) {
-
-		SpaceRequest httpRequest = SpaceRequest.post("/v3/{domain}/messages")//
-				.backend("https://api.mailgun.net")//
-				.routeParam("domain", settings.domain)//
-				.basicAuth("api", settings.key)//
-				.formField(FROM, emailRequest.from)//
-				.formField(SUBJECT, emailRequest.subject);
-
-		if (emailRequest.to != null)
-			for (String to : emailRequest.to)
-				httpRequest.formField(TO, to);
-
-		if (emailRequest.cc != null)
-			for (String cc : emailRequest.cc)
-				httpRequest.formField(CC, cc);
-
-		if (emailRequest.bcc != null)
-			for (String bcc : emailRequest.bcc)
-				httpRequest.formField(BCC, bcc);
-
-		if (!Strings.isNullOrEmpty(emailRequest.text))
-			httpRequest.formField(TEXT, emailRequest.text);
-
-		if (!Strings.isNullOrEmpty(emailRequest.html))
-			httpRequest.formField(HTML, emailRequest.html);
-
-		SpaceResponse response = httpRequest.go();
-
-		JsonNode content = response.isJson() //
-				? response.asJson()
-				: TextNode.valueOf(response.asString());
-
-		if (response.status() >= 400)
-			throw Exceptions.exception(response.status(), //
-					"send email via mailgun failed")//
-					.withDetails(content);
-
-		return Json.object("mailgun", content);
-	}
-
-	//
-	// SMTP
-	//
-
-	private ObjectNode sendViaSmtp(EmailBasicRequest request, SmtpSettings settings) {
-
-		try {
-			ImageHtmlEmail email = new ImageHtmlEmail();
-			email.setCharset("UTF-8");
-			email.setHtmlMsg(request.html);
-			email.setDataSourceResolver(new DataSourceUrlResolver(//
-					new URL(SpaceResty.spaceRootUrl().toString())));
-			if (!Strings.isNullOrEmpty(request.text))
-				email.setTextMsg(request.text);
-
-			email.setDebug(ServerConfig.mailSmtpDebug());
-
-			if (request.from != null)
-				email.setFrom(request.from);
-			if (request.to != null)
-				for (String to : request.to)
-					email.addTo(to);
-			if (request.cc != null)
-				for (String cc : request.cc)
-					email.addCc(cc);
-			if (request.bcc != null)
-				for (String bcc : request.bcc)
-					email.addBcc(bcc);
-			if (request.subject != null)
-				email.setSubject(request.subject);
-
-			if (!Strings.isNullOrEmpty(settings.login))
-				email.setAuthentication(settings.login, settings.password);
-
-			email.setSSLOnConnect(settings.sslOnConnect);
-			email.setStartTLSRequired(settings.startTlsRequired);
-			email.setHostName(settings.host);
-
-			String msgId = email.send();
-
-			return Json.object("smtp", Json.object("messageId", msgId));
-
-		} catch (IllegalArgumentException e) {
-			throw e;
-		} catch (Exception e) {
-			e.printStackTrace();
-			throw Exceptions.illegalArgument(e);
-		}
-
-	}
-
 	//
 	// Footnotes
 	//
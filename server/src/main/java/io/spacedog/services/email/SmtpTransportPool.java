@@ -0,0 +1,240 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.email;
+
+import java.util.Properties;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeMessage;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
+
+import io.spacedog.client.email.EmailSettings.SmtpSettings;
+import io.spacedog.utils.Utils;
+
+/**
+ * Long lived SMTP connections. There is one session and one connection per
+ * SMTP settings profile, opened on first send and reused by the next sends.
+ * Connections idle for too long are closed and removed from the pool, so that
+ * profiles no longer used do not pile up. A send failing on a reused
+ * connection is tried again once on a new connection since SMTP servers close
+ * idle connections on their own.
+ */
+public class SmtpTransportPool {
+
+	private static final int TIMEOUT_MILLIS = 1000 * 60;
+
+	private final boolean debug;
+	private final ConcurrentMap<String, Connection> connections = Maps.newConcurrentMap();
+	private final AtomicInteger opened = new AtomicInteger();
+
+	public SmtpTransportPool(boolean debug) {
+		this.debug = debug;
+	}
+
+	/**
+	 * @return the session of this settings profile to build messages with
+	 */
+	public Session session(SmtpSettings settings) {
+		return connection(settings).session;
+	}
+
+	public void send(SmtpSettings settings, MimeMessage message) throws MessagingException {
+		boolean sent = false;
+		while (!sent)
+			// false if connection evicted in the meantime
+			sent = connection(settings).send(message);
+	}
+
+	/**
+	 * Closes and removes the connections not used since this delay.
+	 */
+	public void closeIdle(long idleMillis) {
+		long limit = System.currentTimeMillis() - idleMillis;
+		connections.values().removeIf(connection -> connection.evictIfIdleSince(limit));
+	}
+
+	public void closeAll() {
+		closeIdle(-1);
+	}
+
+	/**
+	 * @return the number of connections opened since this pool was created
+	 */
+	public int opened() {
+		return opened.get();
+	}
+
+	/**
+	 * @return the number of settings profiles in this pool
+	 */
+	public int size() {
+		return connections.size();
+	}
+
+	/**
+	 * SMTP servers answer 4xx to temporary failures like busy mailboxes or
+	 * greylisting and 5xx to permanent failures like unknown mailboxes.
+	 * Failures without reply code are invalid addresses rejected before any
+	 * exchange. Failures of messages already sent to some recipients are not
+	 * temporary since trying again would send them twice.
+	 * 
+	 * @return true if this failure is worth trying again
+	 */
+	public static boolean isTemporary(SendFailedException failure) {
+		if (!Utils.isNullOrEmpty(failure.getValidSentAddresses()))
+			return false;
+
+		boolean temporary = false;
+		Exception e = failure;
+
+		while (e != null) {
+			int code = replyCode(e);
+			if (code >= 500)
+				return false;
+			if (code >= 400)
+				temporary = true;
+
+			e = e instanceof MessagingException //
+					? ((MessagingException) e).getNextException()
+					: null;
+		}
+		return temporary;
+	}
+
+	//
+	// Implementation
+	//
+
+	private Connection connection(SmtpSettings settings) {
+		return connections.computeIfAbsent(profile(settings), //
+				key -> new Connection(settings));
+	}
+
+	private static String profile(SmtpSettings settings) {
+		String password = Strings.nullToEmpty(settings.password);
+		return String.join("|", settings.host, String.valueOf(port(settings)), //
+				Strings.nullToEmpty(settings.login), //
+				String.valueOf(settings.sslOnConnect), //
+				String.valueOf(settings.startTlsRequired), //
+				Hashing.sha256().hashString(password, Utils.UTF8).toString());
+	}
+
+	private static int replyCode(Exception e) {
+		if (e instanceof SMTPSendFailedException)
+			return ((SMTPSendFailedException) e).getReturnCode();
+		if (e instanceof SMTPAddressFailedException)
+			return ((SMTPAddressFailedException) e).getReturnCode();
+		return -1;
+	}
+
+	private static int port(SmtpSettings settings) {
+		return settings.port > 0 ? settings.port //
+				: settings.sslOnConnect ? 465 : 25;
+	}
+
+	private class Connection {
+
+		private final SmtpSettings settings;
+		private final Session session;
+		private Transport transport;
+		private long lastUsed = System.currentTimeMillis();
+		private boolean evicted;
+
+		private Connection(SmtpSettings settings) {
+			this.settings = settings;
+
+			Properties properties = new Properties();
+			properties.setProperty("mail.smtp.host", settings.host);
+			properties.setProperty("mail.smtp.port", String.valueOf(port(settings)));
+			properties.setProperty("mail.smtp.connectiontimeout", String.valueOf(TIMEOUT_MILLIS));
+			properties.setProperty("mail.smtp.timeout", String.valueOf(TIMEOUT_MILLIS));
+			properties.setProperty("mail.smtp.writetimeout", String.valueOf(TIMEOUT_MILLIS));
+			properties.setProperty("mail.smtp.auth", //
+					String.valueOf(!Strings.isNullOrEmpty(settings.login)));
+
+			if (settings.sslOnConnect)
+				properties.setProperty("mail.smtp.ssl.enable", "true");
+
+			if (settings.startTlsRequired) {
+				properties.setProperty("mail.smtp.starttls.enable", "true");
+				properties.setProperty("mail.smtp.starttls.required", "true");
+			}
+
+			this.session = Session.getInstance(properties);
+			this.session.setDebug(debug);
+		}
+
+		/**
+		 * @return false if this connection has been evicted from the pool
+		 */
+		private synchronized boolean send(MimeMessage message) throws MessagingException {
+			if (evicted)
+				return false;
+
+			boolean reused = transport != null;
+
+			try {
+				connect().sendMessage(message, message.getAllRecipients());
+
+			} catch (SendFailedException e) {
+				// invalid addresses, the connection is still valid
+				throw e;
+
+			} catch (MessagingException | IllegalStateException e) {
+				close();
+				if (!reused)
+					throw e;
+
+				// connection closed by the server since last use
+				connect().sendMessage(message, message.getAllRecipients());
+			}
+
+			lastUsed = System.currentTimeMillis();
+			return true;
+		}
+
+		private Transport connect() throws MessagingException {
+			if (transport == null) {
+				Transport newTransport = session.getTransport("smtp");
+				newTransport.connect(settings.host, port(settings), //
+						Strings.emptyToNull(settings.login), settings.password);
+				transport = newTransport;
+				lastUsed = System.currentTimeMillis();
+				opened.incrementAndGet();
+			}
+			return transport;
+		}
+
+		private synchronized boolean evictIfIdleSince(long limit) {
+			if (lastUsed >= limit)
+				return false;
+
+			close();
+			evicted = true;
+			return true;
+		}
+
+		private void close() {
+			if (transport == null)
+				return;
+
+			try {
+				transport.close();
+			} catch (MessagingException e) {
+				Utils.warn(String.format("failed to close smtp connection to [%s]", settings.host), e);
+			}
+			transport = null;
+		}
+	}
+}
@@ -39,11 +39,13 @@ import net.codestory.http.payload.StreamingOutput;
 @SuppressWarnings("serial")
 public class FileResty extends SpaceResty implements SpaceFilter {
 
+	public static final String PREFIX = "/2/files";
+
 	@Override
 	public boolean matches(String uri, Context context) {
 		// accepts /2/files and /2/files/* uris
-		return uri.startsWith("/2/files") //
-				&& (uri.length() == 8 || uri.charAt(8) == '/');
+		return uri.startsWith(PREFIX) //
+				&& (uri.length() == PREFIX.length() || uri.charAt(PREFIX.length()) == '/');
 	}
 
 	@Override
@@ -275,6 +277,12 @@ public class FileResty extends SpaceResty implements SpaceFilter {
 
 		if (file == null) {
 			bucketPermissions.checkPermission(credentials, Permission.delete);
+
+			if (isAsyncRequested(context))
+				return JsonPayload.submitted(Services.files()//
+						.submitDeleteAll(bucket, path, requestsPerSecond(context)))//
+						.build();
+
 			long deleted = Services.files().deleteAll(bucket, path);
 			return toDeletedPayload(deleted);
 
@@ -375,7 +383,7 @@ public class FileResty extends SpaceResty implements SpaceFilter {
 
 	private static WebPath toWebPath(String uri) {
 		// removes '/2/files'
-		return WebPath.parse(uri.substring(8));
+		return WebPath.parse(uri.substring(PREFIX.length()));
 	}
 
 }
@@ -199,6 +199,18 @@ public class FileService extends SpaceService {
 		return response.getDeleted();
 	}
 
+	/**
+	 * Submits a sliced and throttled delete by query task of the metadata of
+	 * the files of this path. Like deleteAll, stored contents are left as is.
+	 * 
+	 * @return the task id
+	 */
+	public String submitDeleteAll(String bucket, String path, float requestsPerSecond) {
+		return elastic().submitDeleteByQuery(//
+				QueryBuilders.prefixQuery(PATH_FIELD, path), //
+				requestsPerSecond, index(bucket));
+	}
+
 	public boolean delete(String bucket, SpaceFile file) {
 		boolean deleted = elastic().delete(//
 				index(bucket), file.getPath(), false, false);
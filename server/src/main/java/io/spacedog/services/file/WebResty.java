@@ -24,9 +24,11 @@ import net.codestory.http.payload.Payload;
 @SuppressWarnings("serial")
 public class WebResty extends SpaceResty implements SpaceFilter {
 
+	public static final String PREFIX = "/2/web";
+
 	@Override
 	public boolean matches(String uri, Context context) {
-		return uri.startsWith("/2/web") || Server.context().isWww();
+		return uri.startsWith(PREFIX) || Server.context().isWww();
 	}
 
 	@Override
@@ -120,8 +122,8 @@ public class WebResty extends SpaceResty implements SpaceFilter {
 		return Server.context().isWww() //
 				// add www bucket prefix
 				? WebPath.parse(uri).addFirst("www")
-				// remove '/1/web'
-				: WebPath.parse(uri.substring(6));
+				// remove '/2/web'
+				: WebPath.parse(uri.substring(PREFIX.length()));
 	}
 
 }
@@ -0,0 +1,225 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.job;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Duration;
+
+import com.google.common.collect.ImmutableList;
+
+import io.spacedog.client.http.SpaceException;
+import io.spacedog.utils.Exceptions;
+
+/**
+ * Job schedule expression. Supported formats, always in UTC:
+ * <ul>
+ * <li>rate(5 minutes), rate(1 hour), rate(2 days)</li>
+ * <li>cron(0 12 * * ? *), with minutes, hours, day of month, month, day of week
+ * from 1 (SUN) to 7 (SAT) and year restricted to *</li>
+ * <li>0 12 * * 1-5, standard cron with day of week from 0 (SUN) to 7 (SUN)</li>
+ * </ul>
+ * Fields accept *, ?, values, ranges, lists and steps. Months and days of week
+ * also accept their three letters english names.
+ */
+public class JobSchedule {
+
+	private static final Pattern RATE = Pattern.compile(//
+			"rate\\((\\d+) (minute|minutes|hour|hours|day|days)\\)");
+	private static final Pattern AWS_CRON = Pattern.compile("cron\\((.*)\\)");
+
+	private static final List<String> MONTHS = ImmutableList.of(//
+			"JAN", "FEB", "MAR", "APR", "MAY", "JUN", //
+			"JUL", "AUG", "SEP", "OCT", "NOV", "DEC");
+	private static final List<String> DAYS = ImmutableList.of(//
+			"SUN", "MON", "TUE", "WED", "THU", "FRI", "SAT");
+
+	// enough to find the next 29th of february
+	private static final int MAX_YEARS = 5;
+
+	private String expression;
+	private Duration rate;
+	private BitSet minutes;
+	private BitSet hours;
+	private BitSet days;
+	private BitSet months;
+	private BitSet weekDays;
+	private boolean anyDay;
+	private boolean anyWeekDay;
+
+	private JobSchedule(String expression) {
+		this.expression = expression;
+	}
+
+	public static JobSchedule parse(String expression) {
+		String trimmed = expression.trim();
+		JobSchedule schedule = new JobSchedule(trimmed);
+
+		Matcher matcher = RATE.matcher(trimmed);
+		if (matcher.matches()) {
+			long value = Long.parseLong(matcher.group(1));
+			if (value <= 0)
+				throw invalid(trimmed, "rate must be positive");
+			String unit = matcher.group(2);
+			schedule.rate = unit.startsWith("minute") ? Duration.standardMinutes(value)
+					: unit.startsWith("hour") ? Duration.standardHours(value) //
+							: Duration.standardDays(value);
+			return schedule;
+		}
+
+		matcher = AWS_CRON.matcher(trimmed);
+		if (matcher.matches()) {
+			String[] fields = matcher.group(1).trim().split("\\s+");
+			if (fields.length != 6)
+				throw invalid(trimmed, "6 fields expected");
+			if (!fields[5].equals("*"))
+				throw invalid(trimmed, "only * is supported as year");
+			schedule.parseFields(fields, 1);
+			return schedule;
+		}
+
+		String[] fields = trimmed.split("\\s+");
+		if (fields.length != 5)
+			throw invalid(trimmed, "5 fields expected");
+		schedule.parseFields(fields, 0);
+		return schedule;
+	}
+
+	public boolean isRate() {
+		return rate != null;
+	}
+
+	/**
+	 * @return the first date strictly after the specified date matching this
+	 *         schedule, in UTC and to the minute for cron expressions
+	 */
+	public DateTime next(DateTime after) {
+		if (rate != null)
+			return after.withZone(DateTimeZone.UTC).plus(rate);
+
+		DateTime next = after.withZone(DateTimeZone.UTC)//
+				.withSecondOfMinute(0).withMillisOfSecond(0).plusMinutes(1);
+
+		DateTime limit = next.plusYears(MAX_YEARS);
+
+		while (next.isBefore(limit)) {
+			if (!months.get(next.getMonthOfYear()))
+				next = next.withDayOfMonth(1).withTimeAtStartOfDay().plusMonths(1);
+			else if (!matchesDay(next))
+				next = next.withTimeAtStartOfDay().plusDays(1);
+			else if (!hours.get(next.getHourOfDay()))
+				next = next.withMinuteOfHour(0).plusHours(1);
+			else if (!minutes.get(next.getMinuteOfHour()))
+				next = next.plusMinutes(1);
+			else
+				return next;
+		}
+
+		throw invalid(expression, "no matching date");
+	}
+
+	@Override
+	public String toString() {
+		return expression;
+	}
+
+	//
+	// Implementation
+	//
+
+	private boolean matchesDay(DateTime date) {
+		boolean day = days.get(date.getDayOfMonth());
+		// joda day of week is 1 (MON) to 7 (SUN)
+		boolean weekDay = weekDays.get(date.getDayOfWeek() % 7);
+
+		// standard cron: if both are restricted, one of them must match
+		if (anyDay)
+			return weekDay;
+		if (anyWeekDay)
+			return day;
+		return day || weekDay;
+	}
+
+	private void parseFields(String[] fields, int firstWeekDay) {
+		minutes = parseField(fields[0], 0, 59, null, 0);
+		hours = parseField(fields[1], 0, 23, null, 0);
+		days = parseField(fields[2], 1, 31, null, 0);
+		months = parseField(fields[3], 1, 12, MONTHS, 1);
+		anyDay = isAny(fields[2]);
+		anyWeekDay = isAny(fields[4]);
+
+		// week days are stored from 0 (SUN) to 6 (SAT)
+		BitSet parsed = parseField(fields[4], firstWeekDay, 7, DAYS, firstWeekDay);
+		weekDays = new BitSet(7);
+		parsed.stream().forEach(day -> weekDays.set((day - firstWeekDay) % 7));
+	}
+
+	private static boolean isAny(String field) {
+		return field.equals("*") || field.equals("?");
+	}
+
+	private BitSet parseField(String field, int min, int max, List<String> names, int firstName) {
+		BitSet bits = new BitSet(max + 1);
+
+		for (String part : field.split(",")) {
+			String range = part;
+			int step = 1;
+
+			int slash = part.indexOf('/');
+			if (slash >= 0) {
+				range = part.substring(0, slash);
+				step = parseInt(part.substring(slash + 1));
+				if (step <= 0)
+					throw invalid(expression, "step [%s] must be positive", part);
+			}
+
+			int from = min, to = max;
+			if (!isAny(range)) {
+				int dash = range.indexOf('-');
+				if (dash >= 0) {
+					from = parseValue(range.substring(0, dash), names, firstName);
+					to = parseValue(range.substring(dash + 1), names, firstName);
+				} else {
+					from = parseValue(range, names, firstName);
+					to = slash >= 0 ? max : from;
+				}
+			}
+
+			if (from < min || to > max || from > to)
+				throw invalid(expression, "[%s] out of range [%s-%s]", part, min, max);
+
+			for (int i = from; i <= to; i += step)
+				bits.set(i);
+		}
+
+		return bits;
+	}
+
+	private int parseValue(String value, List<String> names, int firstName) {
+		if (names != null) {
+			int index = names.indexOf(value.toUpperCase());
+			if (index >= 0)
+				return index + firstName;
+		}
+		return parseInt(value);
+	}
+
+	private int parseInt(String value) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw invalid(expression, "[%s] is not supported", value);
+		}
+	}
+
+	private static SpaceException invalid(String expression, String message, Object... args) {
+		return Exceptions.illegalArgument("schedule [%s] is invalid: %s", //
+				expression, String.format(message, args));
+	}
+}
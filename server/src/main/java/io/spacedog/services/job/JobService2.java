@@ -1,178 +1,601 @@
 package io.spacedog.services.job;
 
+import java.util.Arrays;
 import java.util.List;
-import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.Optional;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-
+import java.util.stream.Collectors;
+
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.index.IndexResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
 import org.joda.time.DateTime;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
-import com.google.common.base.Throwables;
-
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import io.spacedog.client.bulk.ServiceCall;
+import io.spacedog.client.bulk.ServiceResponse;
+import io.spacedog.client.credentials.Credentials;
+import io.spacedog.client.credentials.Roles;
+import io.spacedog.client.http.SpaceMethod;
+import io.spacedog.client.job.BasicSpaceJob;
 import io.spacedog.client.job.SpaceJob;
 import io.spacedog.client.job.SpaceTask;
 import io.spacedog.client.job.SpaceTask.Status;
+import io.spacedog.client.schema.Schema;
 import io.spacedog.jobs.Internals;
+import io.spacedog.services.InternalRequest;
+import io.spacedog.services.Server;
+import io.spacedog.services.ServerConfig;
 import io.spacedog.services.Services;
+import io.spacedog.services.SpaceContext;
+import io.spacedog.services.SpaceService;
+import io.spacedog.services.db.elastic.ElasticIndex;
+import io.spacedog.services.db.elastic.ElasticQueue;
+import io.spacedog.services.db.elastic.ElasticVersion;
+import io.spacedog.utils.Check;
+import io.spacedog.utils.ClassResources;
 import io.spacedog.utils.Exceptions;
+import io.spacedog.utils.Json;
+import io.spacedog.utils.Utils;
+
+/**
+ * Persistent job scheduler. Jobs are stored in backend settings. Their
+ * executions are tasks of an {@link ElasticQueue}, claimed by one server and
+ * executed as internal requests. Completed and failed tasks are kept as
+ * execution history.
+ */
+public class JobService2 extends SpaceService {
+
+	public static final String SERVICE_NAME = "task";
+
+	private static final String BACKEND_ID_FIELD = "backendId";
+	private static final String JOB_NAME_FIELD = "jobName";
+	private static final String ON_DEMAND_FIELD = "onDemand";
+	private static final String STATUS_FIELD = "status";
+	private static final String SCHEDULED_FIELD = "scheduled";
+	private static final String RETRY_AT_FIELD = "retryAt";
+	private static final String STOPPED_FIELD = "stopped";
+
+	private static final Credentials JOB_CREDENTIALS = new Credentials("job")//
+			.id("job").addRoles(Roles.superadmin).passwordHasBeenChallenged(true);
+
+	private static final int MAX_JOBS = 1000;
+
+	private final ElasticQueue queue = new ElasticQueue("job", index(), this::schema);
 
-public class JobService2 {
+	//
+	// Jobs
+	//
+
+	public List<BasicSpaceJob> list() {
+		String prefix = SpaceJob.internalSettingsId("");
+		ObjectNode settings = Services.settings().getAll(0, MAX_JOBS, false);
+		List<BasicSpaceJob> jobs = Lists.newArrayList();
+
+		settings.fields().forEachRemaining(field -> {
+			if (field.getKey().startsWith(prefix))
+				jobs.add(Json.toPojo(field.getValue(), BasicSpaceJob.class));
+		});
 
-	public SpaceJob get(String jobName) {
+		return jobs;
+	}
+
+	public Optional<BasicSpaceJob> get(String jobName) {
 		return Services.settings().get(//
 				SpaceJob.internalSettingsId(jobName), //
-				SpaceJob.class)//
-				.orElseThrow(() -> Exceptions.objectNotFound("job", jobName));
+				BasicSpaceJob.class);
+	}
+
+	public BasicSpaceJob getOrThrow(String jobName) {
+		return get(jobName).orElseThrow(//
+				() -> Exceptions.objectNotFound("job", jobName));
 	}
 
-	public void save(SpaceJob job) {
+	/**
+	 * Saves this job and replaces its scheduled task by a task scheduled
+	 * according to the new job schedule.
+	 */
+	public void save(BasicSpaceJob job) {
+		checkJob(job);
 		Services.settings().save(job);
-		deleteNextScheduledTaskOf(job.name);
-		scheduleNextTaskOf(job);
+		deleteScheduledTasksOf(job.name);
+
+		if (!Strings.isNullOrEmpty(job.when))
+			schedule(job, JobSchedule.parse(job.when).next(DateTime.now()), false);
 	}
 
 	public void delete(String jobName) {
 		Services.settings().delete(//
 				SpaceJob.internalSettingsId(jobName));
-		deleteNextScheduledTaskOf(jobName);
+		deleteScheduledTasksOf(jobName);
+	}
+
+	/**
+	 * Schedules an immediate execution of this job. It does not change the job
+	 * schedule.
+	 */
+	public SpaceTask execute(String jobName) {
+		return schedule(getOrThrow(jobName), DateTime.now(), true);
+	}
+
+	//
+	// Tasks
+	//
+
+	/**
+	 * @return the tasks of this job, most recently scheduled first
+	 */
+	public List<SpaceTask> getTasks(String jobName, int from, int size) {
+		queue.ensureIndex();
+
+		SearchSourceBuilder source = SearchSourceBuilder.searchSource()//
+				.query(jobQuery(Server.backend().id(), jobName))//
+				.sort(SCHEDULED_FIELD, SortOrder.DESC)//
+				.seqNoAndPrimaryTerm(true)//
+				.from(from)//
+				.size(size);
+
+		return Arrays.stream(elastic().search(source, index()).getHits().getHits())//
+				.map(hit -> toTask(hit))//
+				.collect(Collectors.toList());
 	}
 
-	public ObjectNode execute(String jobName, Object jobRequest) {
-		throw new UnsupportedOperationException();
+	public Optional<SpaceTask> getTask(String jobName, String taskId) {
+		queue.ensureIndex();
+		GetResponse response = elastic().get(index(), taskId);
+
+		if (!response.isExists())
+			return Optional.empty();
+
+		SpaceTask task = Json.toPojo(response.getSourceAsString(), SpaceTask.class);
+		task.version = ElasticVersion.toString(response.getSeqNo(), response.getPrimaryTerm());
+
+		// tasks of other backends or jobs are not found
+		return Server.backend().id().equals(task.backendId) //
+				&& jobName.equals(task.jobName) //
+						? Optional.of(task)
+						: Optional.empty();
+	}
+
+	public SpaceTask getTaskOrThrow(String jobName, String taskId) {
+		return getTask(jobName, taskId).orElseThrow(//
+				() -> Exceptions.objectNotFound("task", taskId));
 	}
 
-	public void deleteExecution(String jobName, String jobExecId) {
-		throw new UnsupportedOperationException();
+	/**
+	 * Cancels this task if scheduled or deletes it if completed, failed or
+	 * cancelled. Tasks in progress can not be deleted.
+	 */
+	public void deleteTask(String jobName, String taskId) {
+		SpaceTask task = getTaskOrThrow(jobName, taskId);
+
+		if (Status.scheduled.equals(task.status)) {
+			task.status = Status.cancelled;
+			task.stopped = DateTime.now();
+			if (!save(task))
+				throw Exceptions.illegalArgument("task [%s] has just started", taskId);
+		}
+
+		else if (Status.in_progress.equals(task.status))
+			throw Exceptions.illegalArgument("task [%s] is in progress", taskId);
+
+		else
+			elastic().delete(index(), taskId, false, false);
 	}
 
 	//
-	// Interface
+	// Scheduler
 	//
 
-	public ScheduledFuture<?> schedule(Runnable command, //
-			long initialDelay, long period, TimeUnit unit) {
-		ScheduledFuture<?> future = executor.scheduleAtFixedRate(command, initialDelay, period, unit);
-		return future;
+	/**
+	 * Starts polling and executing due tasks if this server has job workers.
+	 */
+	public void start() {
+		if (queue.start(ServerConfig.jobsWorkers(), //
+				ServerConfig.jobsPollInterval(), this::manageTasks))
+			queue.poller().scheduleWithFixedDelay(this::deleteHistory, 1, 60, TimeUnit.MINUTES);
+	}
+
+	/**
+	 * Claims as many due tasks as free workers and executes them.
+	 */
+	public void manageTasks() {
+		try {
+			int free = queue.freeSlots();
+			if (free == 0)
+				return;
+
+			for (SearchHit hit : searchDueTasks(free)) {
+				SpaceTask task = toTask(hit);
+				queue.claim(() -> claim(task));
+			}
+
+		} catch (Throwable t) {
+			Utils.warn("failed to manage job tasks", t);
+		}
 	}
 
 	//
+	// Index
 	//
-	//
 
-	private static final int DEFAULT_TIMEOUT_MILLIS = 1000 * 60 * 4;
+	public void initIndex() {
+		queue.initIndex();
+	}
+
+	public Schema schema() {
+		String string = ClassResources.loadAsString(//
+				JobService2.class, "task-mapping.json");
+		return Json.toPojo(string, Schema.class);
+	}
 
-	private ScheduledThreadPoolExecutor executor;
+	public ElasticIndex index() {
+		return new ElasticIndex(SERVICE_NAME).backendId(ElasticIndex.SERVER_POOL);
+	}
 
 	//
-	// Job Manager
+	// Implementation
 	//
 
-	public void manageTasks() {
+	private void checkJob(BasicSpaceJob job) {
+		Check.notNullOrEmpty(job.name, "name");
+		Check.notNullOrEmpty(job.path, "path");
+		Check.notNullOrEmpty(job.method, "method");
+
+		if (!job.path.startsWith("/"))
+			throw Exceptions.illegalArgument("job path [%s] is invalid", job.path);
+
+		if (job.retries < 0)
+			throw Exceptions.illegalArgument("job retries [%s] is negative", job.retries);
+
+		if (job.timeoutInSeconds <= 0)
+			throw Exceptions.illegalArgument(//
+					"job timeout [%s] must be positive", job.timeoutInSeconds);
+
+		toMethod(job.method);
+
+		if (!Strings.isNullOrEmpty(job.when))
+			JobSchedule.parse(job.when);
+	}
+
+	private static SpaceMethod toMethod(String method) {
 		try {
-			List<SpaceTask> tasks = getNextjobTasks(3);
-			for (SpaceTask task : tasks) {
-				taskIsReady(task);
+			return SpaceMethod.valueOf(method.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw Exceptions.illegalArgument("job method [%s] is invalid", method);
+		}
+	}
 
-				long delay = task.delay();
-				Runnable executeCommand = () -> JobService2.this.execute(task);
-				ScheduledFuture<?> future = executor.schedule(executeCommand, delay, TimeUnit.MILLISECONDS);
+	private ServiceCall toServiceCall(BasicSpaceJob job) {
+		ServiceCall call = new ServiceCall(toMethod(job.method), job.path)//
+				.withPayload(job.payload);
 
-				long timeout = delay + DEFAULT_TIMEOUT_MILLIS;
-				Runnable completeCommand = () -> completeExecution(task.id(), future);
-				executor.schedule(completeCommand, timeout, TimeUnit.MILLISECONDS);
-			}
+		if (job.headers != null) {
+			call.headers = Maps.newHashMap();
+			job.headers.forEach(header -> call.headers.put(header.getKey(), header.getValue()));
+		}
 
-		} catch (Throwable t) {
-			alertSuperdogs(t, "error managing job tasks");
+		if (job.params != null) {
+			call.params = Maps.newHashMap();
+			job.params.forEach(param -> call.params.put(param.getKey(), param.getValue()));
 		}
+
+		return call;
 	}
 
-	private void completeExecution(String taskId, ScheduledFuture<?> future) {
+	private SpaceTask schedule(BasicSpaceJob job, DateTime scheduled, boolean onDemand) {
+		queue.ensureIndex();
+
+		SpaceTask task = new SpaceTask();
+		task.backendId = Server.backend().id();
+		task.jobName = job.name;
+		task.onDemand = onDemand;
+		task.request = toServiceCall(job);
+		task.scheduled = scheduled;
+		task.retries = job.retries;
+		task.timeoutInSeconds = job.timeoutInSeconds;
+		task.status = Status.scheduled;
+		task.id = SpaceTask.id(task.backendId, job.name, scheduled);
+
+		IndexRequest request = elastic().prepareIndex(index())//
+				.id(task.id)//
+				.source(Json.toString(task), XContentType.JSON)//
+				.create(true);
+
 		try {
-			SpaceTask task = load(taskId);
-			if (Status.in_progress.equals(task.status)) {
-				future.cancel(true);
-				taskIsCancelled(task);
-				alertSuperdogs("job execution [%s] timed out", taskId);
-			}
+			IndexResponse response = elastic().index(request);
+			task.version = ElasticVersion.toString(response.getSeqNo(), response.getPrimaryTerm());
+
+		} catch (ElasticsearchStatusException e) {
+			// another server has just scheduled the same task
+			if (e.status() != RestStatus.CONFLICT)
+				throw e;
+		}
+
+		return task;
+	}
+
+	private void scheduleNextTaskOf(SpaceTask task) {
+		if (task.onDemand)
+			return;
+
+		try {
+			Server.runWithContext(task.backendId, JOB_CREDENTIALS, //
+					() -> get(task.jobName).ifPresent(job -> {
+
+						if (Strings.isNullOrEmpty(job.when) || hasScheduledTask(job.name))
+							return;
+
+						JobSchedule schedule = JobSchedule.parse(job.when);
+						DateTime next = schedule.next(task.scheduled);
+
+						// missed executions are not caught up
+						if (next.isBeforeNow())
+							next = schedule.next(DateTime.now());
+
+						schedule(job, next, false);
+					}));
+
 		} catch (Throwable t) {
-			alertSuperdogs(t, "job execution [%s] failed when completing", taskId);
+			alertSuperdogs(t, "failed to schedule next task of job [%s] of backend [%s]", //
+					task.jobName, task.backendId);
 		}
 	}
 
-	private void alertSuperdogs(String message, Object... args) {
-		message = String.format(message, args);
-		Internals.get().notify(message, message);
+	private boolean hasScheduledTask(String jobName) {
+		// tasks scheduled just before by a job update must be found
+		elastic().refreshIndex(index());
+
+		BoolQueryBuilder query = jobQuery(Server.backend().id(), jobName)//
+				.filter(QueryBuilders.termQuery(STATUS_FIELD, Status.scheduled.name()))//
+				.filter(QueryBuilders.termQuery(ON_DEMAND_FIELD, false));
+
+		return elastic().exists(query, index());
 	}
 
-	private void alertSuperdogs(Throwable t, String title, Object... args) {
-		title = String.format(title, args);
-		String message = Throwables.getStackTraceAsString(t);
-		Internals.get().notify(title, message);
+	private void deleteScheduledTasksOf(String jobName) {
+		queue.ensureIndex();
+		// tasks scheduled just before must be found
+		elastic().refreshIndex(index());
+
+		BoolQueryBuilder query = jobQuery(Server.backend().id(), jobName)//
+				.filter(QueryBuilders.termQuery(STATUS_FIELD, Status.scheduled.name()));
+
+		elastic().deleteByQuery(query, index());
 	}
 
-	private SpaceTask load(String taskId) {
-		// TODO Auto-generated method stub
-		return null;
+	private SearchHit[] searchDueTasks(int size) {
+		long now = DateTime.now().getMillis();
+
+		// tasks are due at their retry date once a try has failed
+		BoolQueryBuilder firstTryDue = QueryBuilders.boolQuery()//
+				.mustNot(QueryBuilders.existsQuery(RETRY_AT_FIELD))//
+				.filter(QueryBuilders.rangeQuery(SCHEDULED_FIELD).lte(now));
+
+		BoolQueryBuilder due = QueryBuilders.boolQuery()//
+				.filter(QueryBuilders.termQuery(STATUS_FIELD, Status.scheduled.name()))//
+				.filter(QueryBuilders.boolQuery()//
+						.should(firstTryDue)//
+						.should(QueryBuilders.rangeQuery(RETRY_AT_FIELD).lte(now))//
+						.minimumShouldMatch(1));
+
+		BoolQueryBuilder expired = ElasticQueue.expiredClaims(Status.in_progress.name(), now);
+
+		SearchSourceBuilder source = SearchSourceBuilder.searchSource()//
+				.query(QueryBuilders.boolQuery().should(due).should(expired).minimumShouldMatch(1))//
+				.sort(SCHEDULED_FIELD, SortOrder.ASC)//
+				.seqNoAndPrimaryTerm(true)//
+				.size(size);
+
+		SearchResponse response = elastic().search(source, index());
+		return response.getHits().getHits();
 	}
 
-	private void save(SpaceTask task) {
-		// TODO Auto-generated method stub
+	/**
+	 * @return true if this task has been claimed by this server and submitted to
+	 *         the workers
+	 */
+	private boolean claim(SpaceTask task) {
+		if (!claimed(task, queue.serverId(), DateTime.now())) {
+			finish(task, Status.failed);
+			return false;
+		}
+
+		if (!save(task))
+			return false;
 
+		Future<?> future = queue.submit(() -> run(task));
+		queue.poller().schedule(() -> timeout(task, future), //
+				task.timeoutInSeconds, TimeUnit.SECONDS);
+		return true;
 	}
 
-	private void execute(SpaceTask task) {
-		taskInProgress(task);
-		doExecute(task);
-		taskCompleted(task);
+	private void run(SpaceTask task) {
+		try {
+			ServiceResponse response = null;
+			Throwable error = null;
+
+			try {
+				ServiceCall call = task.request;
+				SpaceContext context = new SpaceContext(task.backendId, //
+						JOB_CREDENTIALS, new InternalRequest(call));
+				response = Server.callWithContext(context, //
+						() -> Services.bulk().execute(call));
+
+			} catch (Throwable t) {
+				error = t;
+			}
+
+			complete(task, response, error);
+
+		} catch (Throwable t) {
+			Utils.warn(String.format("failed to complete task [%s]", task.id), t);
+		}
 	}
 
-	private void taskIsReady(SpaceTask task) {
-		task.status = Status.ready;
-		save(task);
+	private void complete(SpaceTask task, ServiceResponse response, Throwable error) {
+		synchronized (task) {
+			// task has timed out
+			if (!Status.in_progress.equals(task.status))
+				return;
+
+			task.response = response;
+
+			if (error != null)
+				retryOrFail(task, error.toString());
+			else if (!response.success)
+				retryOrFail(task, String.format(//
+						"request failed with status [%s]", response.status));
+			else {
+				task.error = null;
+				finish(task, Status.completed);
+			}
+		}
 	}
 
-	private void taskCompleted(SpaceTask task) {
-		task.status = Status.completed;
-		task.stopped = DateTime.now();
-		save(task);
+	private void timeout(SpaceTask task, Future<?> future) {
+		try {
+			synchronized (task) {
+				if (future.isDone() || !Status.in_progress.equals(task.status))
+					return;
+
+				future.cancel(true);
+				retryOrFail(task, String.format(//
+						"timed out after [%s] seconds", task.timeoutInSeconds));
+			}
+		} catch (Throwable t) {
+			Utils.warn(String.format("failed to time out task [%s]", task.id), t);
+		}
+	}
+
+	private void retryOrFail(SpaceTask task, String error) {
+		if (retried(task, error, DateTime.now()))
+			save(task);
+		else
+			finish(task, Status.failed);
 	}
 
-	private void taskInProgress(SpaceTask task) {
+	/**
+	 * Sets this task in progress on this server unless it is the task in
+	 * progress of a dead server and it has no more tries left.
+	 * 
+	 * @return false if this task must fail instead
+	 */
+	static boolean claimed(SpaceTask task, String serverId, DateTime now) {
+		if (Status.in_progress.equals(task.status)) {
+			// the server executing this task has died or has been stopped
+			task.error = String.format("task timed out on server [%s]", task.claimedBy);
+			if (task.tries > task.retries)
+				return false;
+		}
+
 		task.status = Status.in_progress;
-		task.started = DateTime.now();
-		save(task);
+		task.started = now;
+		task.stopped = null;
+		task.tries++;
+		task.claimedBy = serverId;
+		task.timeoutAt = now.plusSeconds(task.timeoutInSeconds);
+		return true;
+	}
+
+	/**
+	 * Schedules the next try of this failed task with an exponential backoff.
+	 * The scheduled date is left untouched, the next task of the job is
+	 * scheduled from it.
+	 * 
+	 * @return false if this task has no more tries left and must fail
+	 */
+	static boolean retried(SpaceTask task, String error, DateTime now) {
+		task.error = error;
+
+		if (task.tries > task.retries)
+			return false;
+
+		task.status = Status.scheduled;
+		task.stopped = now;
+		task.retryAt = now.plus(ElasticQueue.backoff(task.tries));
+		task.timeoutAt = null;
+		task.claimedBy = null;
+		return true;
 	}
 
-	private void taskIsCancelled(SpaceTask task) {
+	private void finish(SpaceTask task, Status status) {
+		task.status = status;
 		task.stopped = DateTime.now();
-		task.status = SpaceTask.Status.cancelled;
-		save(task);
+		task.timeoutAt = null;
+
+		if (!save(task))
+			return;
+
+		if (Status.failed.equals(status))
+			alertSuperdogs("job [%s] of backend [%s] failed after [%s] tries: %s", //
+					task.jobName, task.backendId, task.tries, task.error);
+
+		scheduleNextTaskOf(task);
 	}
 
-	private void doExecute(SpaceTask task) {
-		// Server.get().executeRequest(request, response);
+	/**
+	 * @return false if this task has been updated by someone else since it has
+	 *         been read
+	 */
+	private boolean save(SpaceTask task) {
+		String version = queue.save(task.id, task.version, task);
+		if (version == null)
+			return false;
+
+		task.version = version;
+		return true;
 	}
 
-	private void scheduleNextTaskOf(SpaceJob job) {
-		// TODO Auto-generated method stub
+	private void deleteHistory() {
+		try {
+			long before = DateTime.now().minusDays(ServerConfig.jobsHistoryDays()).getMillis();
+
+			BoolQueryBuilder query = QueryBuilders.boolQuery()//
+					.filter(QueryBuilders.termsQuery(STATUS_FIELD, Status.completed.name(), //
+							Status.failed.name(), Status.cancelled.name()))//
+					.filter(QueryBuilders.rangeQuery(STOPPED_FIELD).lt(before));
 
-	}
+			elastic().deleteByQueryAsync(query, index());
 
-	public List<SpaceTask> getNextjobTasks(int size) {
-		// TODO Auto-generated method stub
-		return null;
+		} catch (Throwable t) {
+			Utils.warn("failed to delete job tasks history", t);
+		}
 	}
 
-	private void deleteNextScheduledTaskOf(String jobName) {
-		// TODO Auto-generated method stub
+	private static BoolQueryBuilder jobQuery(String backendId, String jobName) {
+		return QueryBuilders.boolQuery()//
+				.filter(QueryBuilders.termQuery(BACKEND_ID_FIELD, backendId))//
+				.filter(QueryBuilders.termQuery(JOB_NAME_FIELD, jobName));
+	}
 
+	private static SpaceTask toTask(SearchHit hit) {
+		SpaceTask task = Json.toPojo(hit.getSourceAsString(), SpaceTask.class);
+		task.version = ElasticVersion.toString(hit.getSeqNo(), hit.getPrimaryTerm());
+		return task;
 	}
 
-	public JobService2() {
-		executor = new ScheduledThreadPoolExecutor(1);
-		executor.setMaximumPoolSize(10);
+	private void alertSuperdogs(String message, Object... args) {
+		message = String.format(message, args);
+		Internals.get().notify(message, message);
 	}
 
+	private void alertSuperdogs(Throwable t, String title, Object... args) {
+		title = String.format(title, args);
+		Internals.get().notify(title, t);
+	}
 }
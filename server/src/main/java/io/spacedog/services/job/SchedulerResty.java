@@ -0,0 +1,92 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.job;
+
+import java.util.List;
+
+import io.spacedog.client.job.BasicSpaceJob;
+import io.spacedog.client.job.SpaceTask;
+import io.spacedog.services.JsonPayload;
+import io.spacedog.services.Server;
+import io.spacedog.services.Services;
+import io.spacedog.services.SpaceResty;
+import net.codestory.http.Context;
+import net.codestory.http.annotations.Delete;
+import net.codestory.http.annotations.Get;
+import net.codestory.http.annotations.Post;
+import net.codestory.http.annotations.Prefix;
+import net.codestory.http.annotations.Put;
+import net.codestory.http.payload.Payload;
+
+@Prefix("/2/scheduler")
+public class SchedulerResty extends SpaceResty {
+
+	//
+	// Jobs
+	//
+
+	@Get("/jobs")
+	@Get("/jobs/")
+	public List<BasicSpaceJob> getJobs() {
+		Server.context().credentials().checkAtLeastSuperAdmin();
+		return Services.scheduler().list();
+	}
+
+	@Get("/jobs/:name")
+	@Get("/jobs/:name/")
+	public BasicSpaceJob getJob(String name) {
+		Server.context().credentials().checkAtLeastSuperAdmin();
+		return Services.scheduler().getOrThrow(name);
+	}
+
+	@Put("/jobs/:name")
+	@Put("/jobs/:name/")
+	public void putJob(String name, BasicSpaceJob job) {
+		Server.context().credentials().checkAtLeastSuperAdmin();
+		job.name = name;
+		Services.scheduler().save(job);
+	}
+
+	@Delete("/jobs/:name")
+	@Delete("/jobs/:name/")
+	public void deleteJob(String name) {
+		Server.context().credentials().checkAtLeastSuperAdmin();
+		Services.scheduler().delete(name);
+	}
+
+	@Post("/jobs/:name/_execute")
+	@Post("/jobs/:name/_execute/")
+	public Payload postExecute(String name) {
+		Server.context().credentials().checkAtLeastSuperAdmin();
+		SpaceTask task = Services.scheduler().execute(name);
+		return JsonPayload.created().withContent(task).build();
+	}
+
+	//
+	// Tasks
+	//
+
+	@Get("/jobs/:name/tasks")
+	@Get("/jobs/:name/tasks/")
+	public List<SpaceTask> getTasks(String name, Context context) {
+		Server.context().credentials().checkAtLeastSuperAdmin();
+		int from = context.query().getInteger(FROM_PARAM, 0);
+		int size = context.query().getInteger(SIZE_PARAM, 20);
+		return Services.scheduler().getTasks(name, from, size);
+	}
+
+	@Get("/jobs/:name/tasks/:id")
+	@Get("/jobs/:name/tasks/:id/")
+	public SpaceTask getTask(String name, String id) {
+		Server.context().credentials().checkAtLeastSuperAdmin();
+		return Services.scheduler().getTaskOrThrow(name, id);
+	}
+
+	@Delete("/jobs/:name/tasks/:id")
+	@Delete("/jobs/:name/tasks/:id/")
+	public void deleteTask(String name, String id) {
+		Server.context().credentials().checkAtLeastSuperAdmin();
+		Services.scheduler().deleteTask(name, id);
+	}
+}
@@ -20,6 +20,7 @@ import io.spacedog.services.Server;
 import io.spacedog.services.Services;
 import io.spacedog.services.SpaceFilter;
 import io.spacedog.services.SpaceResty;
+import io.spacedog.services.data.DataRawStreamingOutput;
 import io.spacedog.utils.Json;
 import io.spacedog.utils.Utils;
 import net.codestory.http.Context;
@@ -52,7 +53,10 @@ public class LogFilter implements SpaceFilter, SpaceFields {
 		}
 
 		try {
-			log(uri, context, receivedAt, payload);
+			// requests that have exceeded their deadline are logged too
+			Payload response = payload;
+			Server.callWithContext(Server.context().withoutDeadline(), //
+					() -> log(uri, context, receivedAt, response));
 		} catch (Exception e) {
 			// TODO: log platform unexpected error with a true logger
 			e.printStackTrace();
@@ -66,18 +70,25 @@ public class LogFilter implements SpaceFilter, SpaceFields {
 	//
 
 	private static final String PAYLOAD_FIELD = "payload";
+	private static final String RESPONSE_FIELD = "response";
+	private static final int MAX_RAW_RESPONSE_LENGTH = 64 * 1024;
 	private static final String CREDENTIALS_FIELD = "credentials";
 	private static final String PARAMETERS_FIELD = "parameters";
 	private static final String HEADERS_FIELD = "headers";
 
 	private String log(String uri, Context context, DateTime receivedAt, Payload payload) {
 
+		long processedIn = DateTime.now().getMillis() - receivedAt.getMillis();
+		int status = payload == null ? 500 : payload.code();
+
+		Services.metrics().record(context.method(), uri, status, receivedAt, processedIn);
+
 		ObjectNode log = Json.object(//
 				"method", context.method(), //
 				"path", uri, //
 				RECEIVED_AT_FIELD, receivedAt.toString(), //
-				"processedIn", DateTime.now().getMillis() - receivedAt.getMillis(), //
-				"status", payload == null ? 500 : payload.code());
+				"processedIn", processedIn, //
+				"status", status);
 
 		addCredentials(log);
 		addQuery(log, context);
@@ -85,7 +96,7 @@ public class LogFilter implements SpaceFilter, SpaceFields {
 		addRequestPayload(log, context);
 		addResponsePayload(log, payload, context);
 
-		return SpaceResty.elastic().index(Services.logs().index(), log).getId();
+		return Services.logs().save(log, receivedAt);
 	}
 
 	private void addResponsePayload(ObjectNode log, Payload payload, Context context) {
@@ -96,12 +107,26 @@ public class LogFilter implements SpaceFilter, SpaceFields {
 				Object rawContent = payload.rawContent();
 				// the payload of resty methods returning void is ""
 				// this doesn't fit in LogItem.response
-				if (rawContent != null && !rawContent.equals(""))
-					log.putPOJO("response", rawContent);
+				if (rawContent instanceof DataRawStreamingOutput)
+					addRawResponsePayload(log, (DataRawStreamingOutput) rawContent);
+				else if (rawContent != null && !rawContent.equals(""))
+					log.putPOJO(RESPONSE_FIELD, rawContent);
 			}
 		}
 	}
 
+	/**
+	 * Raw data responses are copied to the log without being parsed. Large ones
+	 * are only logged by length.
+	 */
+	private void addRawResponsePayload(ObjectNode log, DataRawStreamingOutput output) {
+		byte[] bytes = output.toBytes();
+		if (bytes.length > MAX_RAW_RESPONSE_LENGTH)
+			log.set(RESPONSE_FIELD, Json.object("truncated", true, "length", bytes.length));
+		else
+			log.putRawValue(RESPONSE_FIELD, output.toRawValue());
+	}
+
 	private void addRequestPayload(ObjectNode log, Context context) {
 
 		try {
@@ -0,0 +1,169 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.log;
+
+import java.util.Optional;
+
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.ConstantScoreQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.RangeQueryBuilder;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Range;
+
+import io.spacedog.client.http.SpaceFields;
+
+/**
+ * Time partitioning of log indices. Partitions are named after their period
+ * in UTC, for example 2020.06.01 for a day and 2020.w23 for a week, and contain
+ * the logs received during this period.
+ */
+public enum LogPartitioning {
+
+	none(null), day("yyyy.MM.dd"), week("xxxx.'w'ww");
+
+	private final DateTimeFormatter formatter;
+
+	private LogPartitioning(String pattern) {
+		this.formatter = pattern == null ? null //
+				: DateTimeFormat.forPattern(pattern).withZoneUTC();
+	}
+
+	public boolean isEnabled() {
+		return this != none;
+	}
+
+	/**
+	 * @return the name of the partition containing this date
+	 */
+	public String name(DateTime date) {
+		return formatter.print(start(date));
+	}
+
+	/**
+	 * @return the time period of a partition of any partitioning or empty if
+	 *         this name is not a partition name
+	 */
+	public static Optional<Interval> parse(String name) {
+		for (LogPartitioning partitioning : values()) {
+			if (partitioning.isEnabled()) {
+				try {
+					DateTime start = partitioning.start(//
+							partitioning.formatter.parseDateTime(name));
+					if (name.equals(partitioning.formatter.print(start)))
+						return Optional.of(new Interval(start, partitioning.next(start)));
+				} catch (IllegalArgumentException ignore) {
+				}
+			}
+		}
+		return Optional.empty();
+	}
+
+	/**
+	 * @return the receive date range this query is restricted to by its range
+	 *         clauses, all dates if this range can not be determined
+	 */
+	public static Range<DateTime> receivedAtRange(QueryBuilder query) {
+
+		if (query instanceof RangeQueryBuilder) {
+			RangeQueryBuilder range = (RangeQueryBuilder) query;
+			if (SpaceFields.RECEIVED_AT_FIELD.equals(range.fieldName()))
+				return toRange(range);
+		}
+
+		if (query instanceof ConstantScoreQueryBuilder)
+			return receivedAtRange(((ConstantScoreQueryBuilder) query).innerQuery());
+
+		if (query instanceof BoolQueryBuilder) {
+			BoolQueryBuilder bool = (BoolQueryBuilder) query;
+			Range<DateTime> result = Range.all();
+			for (QueryBuilder clause : Iterables.concat(bool.must(), bool.filter())) {
+				Range<DateTime> range = receivedAtRange(clause);
+				if (result.isConnected(range))
+					result = result.intersection(range);
+			}
+			return result;
+		}
+
+		return Range.all();
+	}
+
+	//
+	// Implementation
+	//
+
+	private static Range<DateTime> toRange(RangeQueryBuilder range) {
+
+		// custom formats are not supported
+		if (range.format() != null)
+			return Range.all();
+
+		try {
+			// dates without offset are in UTC like in elasticsearch
+			// unless the query has a time zone
+			DateTimeZone zone = range.timeZone() == null ? DateTimeZone.UTC //
+					: DateTimeZone.forID(range.timeZone());
+
+			// bounds are always closed since partitions are selected
+			// with a precision far greater than a millisecond
+			DateTime from = toDateTime(range.from(), zone, false);
+			DateTime to = toDateTime(range.to(), zone, range.includeUpper());
+
+			if (from == null)
+				return to == null ? Range.all() : Range.atMost(to);
+			return to == null ? Range.atLeast(from) : Range.closed(from, to);
+
+		} catch (IllegalArgumentException e) {
+			// date math expressions are not supported
+			return Range.all();
+		}
+	}
+
+	private static final DateTimeFormatter PARSER = ISODateTimeFormat.dateOptionalTimeParser();
+
+	/**
+	 * Elasticsearch rounds inclusive upper bounds up to the end of their
+	 * missing units, for example lte 2020-06-02 means up to the end of this
+	 * day. Rounding within a day is ignored since partitions are days or
+	 * weeks.
+	 */
+	private static DateTime toDateTime(Object value, DateTimeZone zone, boolean roundUp) {
+		if (value == null)
+			return null;
+		if (value instanceof Number)
+			return new DateTime(((Number) value).longValue(), DateTimeZone.UTC);
+
+		String string = value.toString().trim();
+		if (string.chars().allMatch(Character::isDigit))
+			return new DateTime(Long.parseLong(string), DateTimeZone.UTC);
+
+		DateTime date = PARSER.withZone(zone).parseDateTime(string)//
+				.withZone(DateTimeZone.UTC);
+
+		if (!roundUp || string.indexOf('T') >= 0)
+			return date;
+
+		int fields = string.split("-").length;
+		date = fields == 1 ? date.plusYears(1) //
+				: fields == 2 ? date.plusMonths(1) //
+						: date.plusDays(1);
+		return date.minusMillis(1);
+	}
+
+	private DateTime start(DateTime date) {
+		date = date.withZone(DateTimeZone.UTC).withTimeAtStartOfDay();
+		return this == week ? date.withDayOfWeek(1) : date;
+	}
+
+	private DateTime next(DateTime start) {
+		return this == week ? start.plusWeeks(1) : start.plusDays(1);
+	}
+}
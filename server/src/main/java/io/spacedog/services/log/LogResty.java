@@ -1,22 +1,37 @@
 package io.spacedog.services.log;
 
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
 import org.joda.time.DateTime;
 
 import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
 import io.spacedog.client.credentials.Credentials;
+import io.spacedog.client.http.ContentTypes;
 import io.spacedog.client.log.LogClient;
+import io.spacedog.client.log.LogMetrics;
 import io.spacedog.client.log.LogSearchResults;
+import io.spacedog.services.JsonPayload;
 import io.spacedog.services.Server;
 import io.spacedog.services.Services;
 import io.spacedog.services.SpaceResty;
 import io.spacedog.services.db.elastic.ElasticUtils;
 import io.spacedog.utils.Exceptions;
+import io.spacedog.utils.Json;
 import net.codestory.http.Context;
 import net.codestory.http.annotations.Delete;
 import net.codestory.http.annotations.Get;
 import net.codestory.http.annotations.Post;
 import net.codestory.http.annotations.Prefix;
+import net.codestory.http.payload.Payload;
+import net.codestory.http.payload.StreamingOutput;
 
 @Prefix("/2/logs")
 public class LogResty extends SpaceResty {
@@ -48,9 +63,55 @@ public class LogResty extends SpaceResty {
 				isRefreshRequested(context));
 	}
 
+	@Post("/_export")
+	@Post("/_export/")
+	public Payload export(String body, Context context) {
+
+		Server.context().credentials().checkAtLeastAdmin();
+
+		// query is parsed so that only the log partitions
+		// of its receive date range are exported
+		QueryBuilder query = Strings.isNullOrEmpty(body) //
+				? QueryBuilders.matchAllQuery()
+				: ElasticUtils.toSearchSourceBuilder(//
+						Json.object("query", Json.readNode(body)).toString()).query();
+
+		StreamingOutput output = Services.logs()//
+				.exportNow(query, isRefreshRequested(context));
+
+		return new Payload(ContentTypes.TEXT_PLAIN_UTF8, output);
+	}
+
+	@Get("/_metrics")
+	@Get("/_metrics/")
+	public LogMetrics getMetrics(Context context) {
+
+		Server.context().credentials().checkAtLeastAdmin();
+
+		String toParam = context.get("to");
+		DateTime to = Strings.isNullOrEmpty(toParam) ? DateTime.now() : DateTime.parse(toParam);
+		String fromParam = context.get("from");
+		DateTime from = Strings.isNullOrEmpty(fromParam) ? to.minusHours(1) : DateTime.parse(fromParam);
+
+		String interval = context.get("interval");
+		List<String> groupBy = Lists.newArrayList(Splitter.on(',')//
+				.trimResults().omitEmptyStrings()//
+				.split(Strings.nullToEmpty(context.get("groupBy"))));
+
+		Map<String, String> filters = Maps.newHashMap();
+		for (String field : MetricService.GROUP_BY_FIELDS) {
+			String value = context.get(field);
+			if (!Strings.isNullOrEmpty(value))
+				filters.put(field, value);
+		}
+
+		return Services.metrics().get(from, to, //
+				Strings.isNullOrEmpty(interval) ? "minute" : interval, groupBy, filters);
+	}
+
 	@Delete("")
 	@Delete("/")
-	public ObjectNode purge(Context context) {
+	public Payload purge(Context context) {
 
 		checkAtLeastPurgeMan();
 
@@ -58,7 +119,14 @@ public class LogResty extends SpaceResty {
 		DateTime before = param == null ? DateTime.now().minusDays(7) //
 				: DateTime.parse(param);
 
-		return Services.logs().delete(before);
+		if (isAsyncRequested(context)) {
+			ObjectNode result = Services.logs().submitDelete(before, requestsPerSecond(context));
+			return JsonPayload.submitted(result.get("taskId").asText())//
+					.withFields("droppedPartitions", result.get("droppedPartitions"))//
+					.build();
+		}
+
+		return new Payload(Services.logs().delete(before));
 	}
 
 	//
@@ -1,31 +1,62 @@
 package io.spacedog.services.log;
 
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.Set;
+
+import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.index.query.RangeQueryBuilder;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.index.reindex.BulkByScrollResponse;
+import org.elasticsearch.index.reindex.DeleteByQueryRequest;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.aggregations.Aggregations;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.elasticsearch.search.sort.SortOrder;
 import org.joda.time.DateTime;
+import org.joda.time.Interval;
 
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Strings;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Range;
+import com.google.common.collect.Sets;
 
 import io.spacedog.client.log.LogItem;
 import io.spacedog.client.log.LogSearchResults;
 import io.spacedog.client.schema.Schema;
+import io.spacedog.services.ServerConfig;
 import io.spacedog.services.SpaceService;
+import io.spacedog.services.db.elastic.ElasticExportStreamingOutput;
 import io.spacedog.services.db.elastic.ElasticIndex;
 import io.spacedog.services.db.elastic.ElasticUtils;
 import io.spacedog.utils.ClassResources;
 import io.spacedog.utils.Json;
+import net.codestory.http.payload.StreamingOutput;
 
 public class LogService extends SpaceService {
 
+	/**
+	 * Beyond this number of partitions, searches target all backend logs
+	 */
+	private static final int MAX_SEARCHED_PARTITIONS = 62;
+
+	/**
+	 * Aliases of the partitions known to exist
+	 */
+	private Set<String> partitions = Sets.newConcurrentHashSet();
+
+	public String save(ObjectNode log, DateTime receivedAt) {
+		return elastic().index(writeIndex(receivedAt), log).getId();
+	}
+
 	public LogSearchResults get() {
 		return get(10);
 	}
@@ -68,18 +99,105 @@ public class LogService extends SpaceService {
 	public LogSearchResults search(SearchSourceBuilder builder, boolean refresh) {
 		elastic().refreshIndex(refresh, index());
 
-		SearchResponse response = elastic().search(builder, index());
+		SearchRequest request = elastic().prepareSearch(index())//
+				.indices(readIndices(LogPartitioning.receivedAtRange(builder.query())))//
+				.source(builder);
+
+		SearchResponse response = elastic().search(request);
 
 		return extractLogs(response);
 	}
 
+	/**
+	 * Streams logs sorted by receive date as NDJSON. Each line contains a log id
+	 * and source.
+	 */
+	public StreamingOutput exportNow(QueryBuilder query, boolean refresh) {
+		elastic().refreshIndex(refresh, index());
+
+		SearchSourceBuilder source = SearchSourceBuilder.searchSource()//
+				.size(ElasticExportStreamingOutput.SIZE)//
+				.sort(RECEIVED_AT_FIELD, SortOrder.ASC)//
+				.query(query);
+
+		SearchRequest request = elastic().prepareSearch(index())//
+				.indices(readIndices(LogPartitioning.receivedAtRange(query)))//
+				.scroll(ElasticExportStreamingOutput.TIMEOUT)//
+				.source(source);
+
+		return new ElasticExportStreamingOutput(elastic().search(request));
+	}
+
+	/**
+	 * Drops the partitions of logs all received before this date. Logs of the
+	 * partition containing this date and of unpartitioned indices are deleted
+	 * by query.
+	 */
 	public ObjectNode delete(DateTime before) {
+		ArrayNode dropped = dropPartitions(before);
+		BulkByScrollResponse response = elastic().deleteByQuery(deleteRequest(before));
+		ObjectNode result = ElasticUtils.toJson(response);
+		result.set("droppedPartitions", dropped);
+		return result;
+	}
+
+	/**
+	 * Same as delete but the remaining logs are deleted by a sliced and
+	 * throttled delete by query task.
+	 * 
+	 * @return the dropped partitions and the task id
+	 */
+	public ObjectNode submitDelete(DateTime before, float requestsPerSecond) {
+		ArrayNode dropped = dropPartitions(before);
+		String taskId = elastic().submitDeleteByQuery(deleteRequest(before), requestsPerSecond);
+		return Json.object("taskId", taskId, "droppedPartitions", dropped);
+	}
 
+	private ArrayNode dropPartitions(DateTime before) {
+		ArrayNode dropped = Json.array();
+		partitionPeriods().forEach((alias, period) -> {
+			if (!period.getEnd().isAfter(before)) {
+				dropPartition(alias);
+				dropped.add(alias);
+			}
+		});
+		return dropped;
+	}
+
+	private DeleteByQueryRequest deleteRequest(DateTime before) {
 		RangeQueryBuilder builder = QueryBuilders.rangeQuery(RECEIVED_AT_FIELD)//
 				.lt(before.toString());
 
-		BulkByScrollResponse response = elastic().deleteByQuery(builder, index());
-		return ElasticUtils.toJson(response);
+		return new DeleteByQueryRequest(readIndices(Range.lessThan(before)))//
+				.setQuery(builder).setTimeout(new TimeValue(60000));
+	}
+
+	//
+	// Shared indices
+	//
+
+	/**
+	 * Moves backend logs to shared indices. If logs are partitioned, only
+	 * partitions are moved, unpartitioned logs stay in their dedicated index.
+	 */
+	public void moveToShared() {
+		if (!ServerConfig.logPartitioning().isEnabled())
+			elastic().moveToShared(index(), schema());
+		else
+			partitionPeriods().keySet().forEach(alias -> elastic()//
+					.moveToShared(partition(alias), schema(), index().alias()));
+	}
+
+	/**
+	 * Moves backend logs to dedicated indices. If logs are partitioned, each
+	 * partition gets its own dedicated index.
+	 */
+	public void moveToDedicated() {
+		if (!ServerConfig.logPartitioning().isEnabled())
+			elastic().moveToDedicated(index(), schema());
+		else
+			partitionPeriods().keySet().forEach(alias -> elastic()//
+					.moveToDedicated(partition(alias), schema(), index().alias()));
 	}
 
 	//
@@ -87,13 +205,24 @@ public class LogService extends SpaceService {
 	//
 
 	public void initIndex() {
-		ElasticIndex index = index();
-		if (!elastic().exists(index)) {
-			String string = ClassResources.loadAsString(//
-					LogService.class, "log-mapping.json");
-			Schema schema = Json.toPojo(string, Schema.class);
-			elastic().createIndex(index, schema, false);
+		partitions.clear();
+
+		// current partition is created to make sure
+		// the backend log read alias exists
+		if (ServerConfig.logPartitioning().isEnabled()) {
+			writeIndex(DateTime.now());
+			return;
 		}
+
+		ElasticIndex index = index();
+		if (!elastic().exists(index))
+			elastic().createIndex(index, schema(), false);
+	}
+
+	public Schema schema() {
+		String string = ClassResources.loadAsString(//
+				LogService.class, "log-mapping.json");
+		return Json.toPojo(string, Schema.class);
 	}
 
 	//
@@ -102,10 +231,105 @@ public class LogService extends SpaceService {
 
 	public static final String SERVICE_NAME = "log";
 
+	/**
+	 * @return the backend log index, its alias is the read alias of all backend
+	 *         log indices if logs are partitioned
+	 */
 	public ElasticIndex index() {
 		return new ElasticIndex(SERVICE_NAME);
 	}
 
+	private ElasticIndex partition(String alias) {
+		String period = alias.substring(index().alias().length() + 1);
+		return new ElasticIndex(SERVICE_NAME).type(period);
+	}
+
+	private ElasticIndex writeIndex(DateTime receivedAt) {
+		LogPartitioning partitioning = ServerConfig.logPartitioning();
+
+		if (!partitioning.isEnabled())
+			return index();
+
+		ElasticIndex partition = new ElasticIndex(SERVICE_NAME)//
+				.type(partitioning.name(receivedAt));
+
+		if (!partitions.contains(partition.alias())) {
+			elastic().ensureIndex(partition, schema(), true, index().alias());
+			partitions.add(partition.alias());
+		}
+		return partition;
+	}
+
+	private void dropPartition(String alias) {
+		ElasticIndex partition = partition(alias);
+		boolean shared = elastic().isShared(partition);
+		elastic().deleteIndices(partition);
+		partitions.remove(alias);
+
+		// shared partitions are dropped by the last backend leaving them
+		if (shared)
+			elastic().deleteSharedIndexIfUnused(partition);
+	}
+
+	/**
+	 * @return the periods of the backend log partitions by alias
+	 */
+	private Map<String, Interval> partitionPeriods() {
+		Map<String, Interval> periods = Maps.newTreeMap();
+		String prefix = index().alias() + '-';
+
+		elastic().aliases(prefix + '*').values().stream()//
+				.flatMap(Set::stream)//
+				.filter(alias -> alias.startsWith(prefix))//
+				.forEach(alias -> LogPartitioning.parse(alias.substring(prefix.length()))//
+						.ifPresent(period -> periods.put(alias, period)));
+
+		return periods;
+	}
+
+	/**
+	 * @return the names of the backend log indices or aliases containing logs
+	 *         received in this time range
+	 */
+	private String[] readIndices(Range<DateTime> range) {
+		String readAlias = index().alias();
+
+		if (range.equals(Range.all()))
+			return new String[] { readAlias };
+
+		String prefix = readAlias + '-';
+		List<String> targets = Lists.newArrayList();
+
+		for (Entry<String, Set<String>> entry : elastic()//
+				.aliases(readAlias, prefix + '*').entrySet()) {
+
+			Optional<String> partition = entry.getValue().stream()//
+					.filter(alias -> alias.startsWith(prefix)).findAny();
+
+			Optional<Interval> period = partition.flatMap(//
+					alias -> LogPartitioning.parse(alias.substring(prefix.length())));
+
+			if (period.isPresent()) {
+				if (overlaps(period.get(), range))
+					targets.add(partition.get());
+			}
+			// unpartitioned shared logs are only reachable through the read alias
+			else if (ElasticIndex.isShared(entry.getKey()))
+				return new String[] { readAlias };
+			else
+				targets.add(entry.getKey());
+		}
+
+		return targets.isEmpty() || targets.size() > MAX_SEARCHED_PARTITIONS //
+				? new String[] { readAlias }
+				: targets.toArray(new String[targets.size()]);
+	}
+
+	private static boolean overlaps(Interval period, Range<DateTime> range) {
+		return (!range.hasLowerBound() || period.getEnd().isAfter(range.lowerEndpoint()))//
+				&& (!range.hasUpperBound() || !period.getStart().isAfter(range.upperEndpoint()));
+	}
+
 	private LogSearchResults extractLogs(SearchResponse response) {
 
 		LogSearchResults results = new LogSearchResults();
@@ -0,0 +1,179 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.log;
+
+import java.util.Map;
+import java.util.Set;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+
+import io.spacedog.utils.Json;
+
+/**
+ * Request counters and latency histogram of a backend for a minute, a method,
+ * a route template and a status. Rollups are merged in memory and periodically
+ * flushed to the backend metric index where rollups of the same minute sent by
+ * other servers are merged too.
+ */
+public class MetricRollup {
+
+	/**
+	 * Upper bounds in milliseconds of the latency histogram buckets. The last
+	 * bucket has no upper bound.
+	 */
+	public static final long[] BUCKETS = { 5, 10, 25, 50, 100, 250, 500, //
+			1000, 2500, 5000, 10000 };
+
+	public static final String OTHER_METHOD = "OTHER";
+
+	private static final Set<String> METHODS = ImmutableSet.of(//
+			"GET", "HEAD", "POST", "PUT", "DELETE", "OPTIONS", "PATCH");
+
+	private String backendId;
+	private DateTime minute;
+	private String method;
+	private String route;
+	private int status;
+	private long count;
+	private long latencySum;
+	private long latencyMin = Long.MAX_VALUE;
+	private long latencyMax;
+	private long[] histogram = new long[BUCKETS.length + 1];
+
+	/**
+	 * @param route the route template of the request uri, see
+	 *              {@link RouteTemplates}
+	 */
+	public MetricRollup(String backendId, String method, String route, int status, DateTime receivedAt) {
+		this.backendId = backendId;
+		this.method = METHODS.contains(method) ? method : OTHER_METHOD;
+		this.route = route;
+		this.status = status;
+		this.minute = receivedAt.withZone(DateTimeZone.UTC)//
+				.withSecondOfMinute(0).withMillisOfSecond(0);
+	}
+
+	public String backendId() {
+		return backendId;
+	}
+
+	public long count() {
+		return count;
+	}
+
+	/**
+	 * @return the key of the rollups to merge with this one
+	 */
+	public String key() {
+		return String.join(":", backendId, id());
+	}
+
+	/**
+	 * @return the metric document id of this rollup
+	 */
+	public String id() {
+		return String.join(":", String.valueOf(minute.getMillis()), //
+				method, route, String.valueOf(status));
+	}
+
+	/**
+	 * Merges the counters and histogram of this other rollup of the same key
+	 * into this one.
+	 */
+	public MetricRollup merge(MetricRollup other) {
+		count += other.count;
+		latencySum += other.latencySum;
+		latencyMin = Math.min(latencyMin, other.latencyMin);
+		latencyMax = Math.max(latencyMax, other.latencyMax);
+		for (int i = 0; i < histogram.length; i++)
+			histogram[i] += other.histogram[i];
+		return this;
+	}
+
+	public MetricRollup add(long latency) {
+		count++;
+		latencySum += latency;
+		latencyMin = Math.min(latencyMin, latency);
+		latencyMax = Math.max(latencyMax, latency);
+		histogram[bucket(latency)]++;
+		return this;
+	}
+
+	public ObjectNode toSource() {
+		ObjectNode histogram = Json.object();
+		for (int i = 0; i < this.histogram.length; i++)
+			histogram.put(bucketField(i), this.histogram[i]);
+
+		return Json.object("at", minute.toString(), "method", method, //
+				"route", route, "status", status, "count", count, //
+				"latency", Json.object("sum", latencySum, "min", latencyMin, //
+						"max", latencyMax, "histogram", histogram));
+	}
+
+	/**
+	 * @return the parameters of the script merging this rollup into the stored
+	 *         one
+	 */
+	public Map<String, Object> toScriptParams() {
+		Map<String, Object> histogram = Maps.newHashMap();
+		for (int i = 0; i < this.histogram.length; i++)
+			histogram.put(bucketField(i), this.histogram[i]);
+
+		Map<String, Object> params = Maps.newHashMap();
+		params.put("count", count);
+		params.put("sum", latencySum);
+		params.put("min", latencyMin);
+		params.put("max", latencyMax);
+		params.put("histogram", histogram);
+		return params;
+	}
+
+	//
+	// Static helpers
+	//
+
+	/**
+	 * @return the histogram field name of this bucket
+	 */
+	public static String bucketField(int bucket) {
+		return bucket < BUCKETS.length ? "le" + BUCKETS[bucket] : "inf";
+	}
+
+	/**
+	 * @return the latency under which this percentile of requests have been
+	 *         processed, i.e. the upper bound of the histogram bucket it falls
+	 *         in, but never more than the max latency
+	 */
+	public static long percentile(long[] histogram, long max, double percentile) {
+		long count = 0;
+		for (long bucketCount : histogram)
+			count += bucketCount;
+
+		long rank = (long) Math.ceil(count * percentile);
+		long cumulated = 0;
+
+		for (int i = 0; i < histogram.length; i++) {
+			cumulated += histogram[i];
+			if (cumulated >= rank && cumulated > 0)
+				return i < BUCKETS.length ? Math.min(BUCKETS[i], max) : max;
+		}
+		return max;
+	}
+
+	//
+	// Implementation
+	//
+
+	private static int bucket(long latency) {
+		for (int i = 0; i < BUCKETS.length; i++)
+			if (latency <= BUCKETS[i])
+				return i;
+		return BUCKETS.length;
+	}
+}
@@ -0,0 +1,380 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.log;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.BoolQueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.search.aggregations.AggregationBuilder;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.Aggregations;
+import org.elasticsearch.search.aggregations.BucketOrder;
+import org.elasticsearch.search.aggregations.bucket.histogram.DateHistogramInterval;
+import org.elasticsearch.search.aggregations.bucket.histogram.Histogram;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.Max;
+import org.elasticsearch.search.aggregations.metrics.Min;
+import org.elasticsearch.search.aggregations.metrics.Sum;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.joda.time.DateTime;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import io.spacedog.client.log.LogMetrics;
+import io.spacedog.client.schema.Schema;
+import io.spacedog.services.Server;
+import io.spacedog.services.ServerConfig;
+import io.spacedog.services.SpaceService;
+import io.spacedog.services.db.elastic.ElasticIndex;
+import io.spacedog.utils.ClassResources;
+import io.spacedog.utils.Exceptions;
+import io.spacedog.utils.Json;
+import io.spacedog.utils.Utils;
+
+/**
+ * Rolls up requests into per minute metrics by method, route template and
+ * status. Rollups are kept in memory and flushed periodically to the backend
+ * metric index, so that dashboards aggregate small rollup documents instead of
+ * scanning raw logs.
+ */
+public class MetricService extends SpaceService {
+
+	public static final String SERVICE_NAME = "metric";
+
+	public static final Map<String, DateHistogramInterval> INTERVALS = ImmutableMap.of(//
+			"minute", DateHistogramInterval.MINUTE, //
+			"hour", DateHistogramInterval.HOUR, //
+			"day", DateHistogramInterval.DAY, //
+			"week", DateHistogramInterval.WEEK, //
+			"month", DateHistogramInterval.MONTH);
+
+	public static final Set<String> GROUP_BY_FIELDS = //
+			Sets.newHashSet("method", "route", "status");
+
+	private static final int MAX_GROUPS = 1000;
+
+	/**
+	 * Rollups that failed to flush are put back until there are this many in
+	 * memory, so that a long elastic outage does not exhaust the heap
+	 */
+	static final int MAX_ROLLUPS = 10000;
+
+	private static final String MERGE_SCRIPT = "ctx._source.count += params.count;"//
+			+ "ctx._source.latency.sum += params.sum;"//
+			+ "ctx._source.latency.min = Math.min(ctx._source.latency.min, params.min);"//
+			+ "ctx._source.latency.max = Math.max(ctx._source.latency.max, params.max);"//
+			+ "for (e in params.histogram.entrySet()) {"//
+			+ "ctx._source.latency.histogram[e.getKey()] += e.getValue(); }";
+
+	private Map<String, MetricRollup> rollups = new ConcurrentHashMap<>();
+	private Set<String> indices = Sets.newConcurrentHashSet();
+	private RouteTemplates routes = new RouteTemplates();
+	private ScheduledExecutorService flusher;
+
+	/**
+	 * Sets the route templates of the uris served by this server. Uris are
+	 * recorded as unknown routes until set.
+	 */
+	public void routes(RouteTemplates routes) {
+		this.routes = routes;
+	}
+
+	//
+	// Record
+	//
+
+	public void record(String method, String uri, int status, DateTime receivedAt, long latency) {
+		int interval = ServerConfig.metricsFlushInterval();
+		if (interval <= 0)
+			return;
+
+		startFlusher(interval);
+
+		MetricRollup rollup = new MetricRollup(Server.backend().id(), //
+				method, routes.template(uri), status, receivedAt);
+
+		rollups.compute(rollup.key(), //
+				(key, current) -> (current == null ? rollup : current).add(latency));
+	}
+
+	/**
+	 * Writes in memory rollups to their backend metric index. Rollups recorded
+	 * while flushing are kept for the next flush.
+	 */
+	public void flush() {
+		Map<String, List<MetricRollup>> byBackend = Maps.newHashMap();
+
+		for (String key : rollups.keySet()) {
+			MetricRollup rollup = rollups.remove(key);
+			if (rollup != null)
+				byBackend.computeIfAbsent(rollup.backendId(), //
+						backendId -> Lists.newArrayList()).add(rollup);
+		}
+
+		byBackend.forEach((backendId, rollups) -> {
+			try {
+				flush(backendId, rollups);
+			} catch (Exception e) {
+				Utils.warn(String.format(//
+						"failed to flush [%s] request metrics of backend [%s]", //
+						rollups.size(), backendId), e);
+				putBack(rollups);
+			}
+		});
+	}
+
+	/**
+	 * Stops the periodic flushes and flushes rollups still in memory.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (flusher != null) {
+				flusher.shutdown();
+				try {
+					flusher.awaitTermination(10, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				flusher = null;
+			}
+		}
+		flush();
+	}
+
+	/**
+	 * Puts these rollups back in memory to be flushed again next time, merged
+	 * with rollups recorded since.
+	 */
+	void putBack(List<MetricRollup> failed) {
+		for (MetricRollup rollup : failed) {
+			if (rollups.size() >= MAX_ROLLUPS && !rollups.containsKey(rollup.key())) {
+				Utils.warn("dropped request metrics of backend [%s]: [%s] rollups in memory", //
+						rollup.backendId(), rollups.size());
+				return;
+			}
+			rollups.merge(rollup.key(), rollup, MetricRollup::merge);
+		}
+	}
+
+	int size() {
+		return rollups.size();
+	}
+
+	//
+	// Query
+	//
+
+	/**
+	 * @param interval minute, hour, day, week or month
+	 * @param groupBy  method, route and/or status
+	 */
+	public LogMetrics get(DateTime from, DateTime to, String interval, List<String> groupBy, //
+			Map<String, String> filters) {
+
+		DateHistogramInterval histogramInterval = INTERVALS.get(interval);
+		if (histogramInterval == null)
+			throw Exceptions.illegalArgument(//
+					"interval [%s] is invalid: one of %s expected", interval, INTERVALS.keySet());
+
+		for (String field : groupBy)
+			if (!GROUP_BY_FIELDS.contains(field))
+				throw Exceptions.illegalArgument(//
+						"group by [%s] is invalid: one of %s expected", field, GROUP_BY_FIELDS);
+
+		BoolQueryBuilder query = QueryBuilders.boolQuery()//
+				.filter(QueryBuilders.rangeQuery("at")//
+						.gte(from.toString()).lt(to.toString()));
+
+		filters.forEach((field, value) -> {
+			if (!GROUP_BY_FIELDS.contains(field))
+				throw Exceptions.illegalArgument("filter [%s] is invalid", field);
+			query.filter(QueryBuilders.termQuery(field, value));
+		});
+
+		AggregationBuilder root = AggregationBuilders.dateHistogram("at").field("at")//
+				.calendarInterval(histogramInterval).minDocCount(1);
+
+		AggregationBuilder parent = root;
+		for (String field : groupBy) {
+			AggregationBuilder terms = AggregationBuilders.terms(field).field(field)//
+					.size(MAX_GROUPS).order(BucketOrder.key(true));
+			parent.subAggregation(terms);
+			parent = terms;
+		}
+
+		parent.subAggregation(AggregationBuilders.sum("count").field("count"))//
+				.subAggregation(AggregationBuilders.sum("latencySum").field("latency.sum"))//
+				.subAggregation(AggregationBuilders.min("latencyMin").field("latency.min"))//
+				.subAggregation(AggregationBuilders.max("latencyMax").field("latency.max"));
+
+		for (int i = 0; i <= MetricRollup.BUCKETS.length; i++) {
+			String field = MetricRollup.bucketField(i);
+			parent.subAggregation(AggregationBuilders.sum(field)//
+					.field("latency.histogram." + field));
+		}
+
+		SearchSourceBuilder source = SearchSourceBuilder.searchSource()//
+				.query(query).size(0).aggregation(root);
+
+		ElasticIndex index = index();
+		if (!elastic().exists(index))
+			return toMetrics(interval, null, groupBy);
+
+		SearchResponse response = elastic().search(source, index);
+		return toMetrics(interval, response.getAggregations(), groupBy);
+	}
+
+	//
+	// Init
+	//
+
+	public void initIndex() {
+		indices.clear();
+		ensureIndex(index());
+	}
+
+	public Schema schema() {
+		String string = ClassResources.loadAsString(//
+				MetricService.class, "metric-mapping.json");
+		return Json.toPojo(string, Schema.class);
+	}
+
+	public ElasticIndex index() {
+		return new ElasticIndex(SERVICE_NAME);
+	}
+
+	//
+	// Implementation
+	//
+
+	private synchronized void startFlusher(int interval) {
+		if (flusher == null) {
+			flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "metrics-flusher");
+				thread.setDaemon(true);
+				return thread;
+			});
+			flusher.scheduleWithFixedDelay(this::flush, interval, interval, TimeUnit.SECONDS);
+		}
+	}
+
+	private void flush(String backendId, List<MetricRollup> rollups) {
+		ElasticIndex index = index().backendId(backendId);
+		ensureIndex(index);
+
+		BulkRequest bulk = new BulkRequest();
+		for (MetricRollup rollup : rollups)
+			bulk.add(new UpdateRequest(index.alias(), rollup.id())//
+					.script(new Script(ScriptType.INLINE, "painless", //
+							MERGE_SCRIPT, rollup.toScriptParams()))//
+					.upsert(rollup.toSource().toString(), XContentType.JSON)//
+					.retryOnConflict(5));
+
+		BulkResponse response = elastic().bulk(bulk);
+		if (response.hasFailures()) {
+			Utils.warn("failed to flush request metrics of backend [%s]: %s", //
+					backendId, response.buildFailureMessage());
+
+			List<MetricRollup> failed = Lists.newArrayList();
+			for (BulkItemResponse item : response.getItems())
+				if (item.isFailed())
+					failed.add(rollups.get(item.getItemId()));
+			putBack(failed);
+		}
+	}
+
+	private void ensureIndex(ElasticIndex index) {
+		if (indices.contains(index.alias()))
+			return;
+
+		elastic().ensureIndex(index, schema(), true);
+		indices.add(index.alias());
+	}
+
+	private LogMetrics toMetrics(String interval, Aggregations aggregations, List<String> groupBy) {
+		LogMetrics metrics = new LogMetrics();
+		metrics.interval = interval;
+		metrics.buckets = Lists.newArrayList();
+
+		if (aggregations != null) {
+			Histogram histogram = aggregations.get("at");
+			for (Histogram.Bucket bucket : histogram.getBuckets()) {
+				LogMetrics.Bucket template = new LogMetrics.Bucket();
+				template.at = DateTime.parse(bucket.getKeyAsString());
+				addBuckets(metrics.buckets, template, bucket.getAggregations(), groupBy, 0);
+			}
+		}
+		return metrics;
+	}
+
+	private void addBuckets(List<LogMetrics.Bucket> buckets, LogMetrics.Bucket template, //
+			Aggregations aggregations, List<String> groupBy, int level) {
+
+		if (level == groupBy.size()) {
+			buckets.add(toBucket(template, aggregations));
+			return;
+		}
+
+		String field = groupBy.get(level);
+		Terms terms = aggregations.get(field);
+
+		for (Terms.Bucket bucket : terms.getBuckets()) {
+			LogMetrics.Bucket child = copy(template);
+			if (field.equals("method"))
+				child.method = bucket.getKeyAsString();
+			else if (field.equals("route"))
+				child.route = bucket.getKeyAsString();
+			else
+				child.status = bucket.getKeyAsNumber().intValue();
+			addBuckets(buckets, child, bucket.getAggregations(), groupBy, level + 1);
+		}
+	}
+
+	private LogMetrics.Bucket toBucket(LogMetrics.Bucket bucket, Aggregations aggregations) {
+		bucket.count = (long) ((Sum) aggregations.get("count")).getValue();
+
+		long[] histogram = new long[MetricRollup.BUCKETS.length + 1];
+		for (int i = 0; i < histogram.length; i++)
+			histogram[i] = (long) ((Sum) aggregations.get(MetricRollup.bucketField(i))).getValue();
+
+		long max = (long) ((Max) aggregations.get("latencyMax")).getValue();
+		double sum = ((Sum) aggregations.get("latencySum")).getValue();
+
+		bucket.latency = new LogMetrics.Latency();
+		bucket.latency.avg = bucket.count == 0 ? 0 : sum / bucket.count;
+		bucket.latency.min = (long) ((Min) aggregations.get("latencyMin")).getValue();
+		bucket.latency.max = max;
+		bucket.latency.p50 = MetricRollup.percentile(histogram, max, 0.5);
+		bucket.latency.p95 = MetricRollup.percentile(histogram, max, 0.95);
+		bucket.latency.p99 = MetricRollup.percentile(histogram, max, 0.99);
+		return bucket;
+	}
+
+	private static LogMetrics.Bucket copy(LogMetrics.Bucket template) {
+		LogMetrics.Bucket bucket = new LogMetrics.Bucket();
+		bucket.at = template.at;
+		bucket.method = template.method;
+		bucket.route = template.route;
+		bucket.status = template.status;
+		return bucket;
+	}
+}
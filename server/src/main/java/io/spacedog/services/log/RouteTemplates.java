@@ -0,0 +1,129 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.log;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import net.codestory.http.annotations.AnnotationHelper;
+
+/**
+ * Route templates of the uris served by this server. They are read from the
+ * route annotations of the resty classes registered in fluent, so that they
+ * never get out of date. Route parameters like :type or :id are replaced by a
+ * star. Filters serving a whole uri prefix like files are registered by
+ * prefix. Other uris like scanner probes give {@link #UNKNOWN_ROUTE}, so that
+ * routes stay a small bounded set whatever uris clients send.
+ */
+public class RouteTemplates {
+
+	public static final String UNKNOWN_ROUTE = "/**";
+
+	private static final String ANY = "*";
+
+	private Map<Integer, List<String[]>> templates = Maps.newHashMap();
+	private List<String> prefixes = Lists.newArrayList();
+
+	public RouteTemplates add(Class<?> resty) {
+		AnnotationHelper.parseAnnotations("", resty, //
+				(httpMethod, uriPattern, method) -> add(uriPattern));
+		return this;
+	}
+
+	/**
+	 * Uris starting with this prefix give this prefix followed by
+	 * {@link #UNKNOWN_ROUTE}
+	 */
+	public RouteTemplates prefix(String prefix) {
+		prefixes.add(prefix);
+		return this;
+	}
+
+	/**
+	 * @return the template of the route serving this uri. When more than one
+	 *         route matches, the one with the most literal segments is
+	 *         returned. For example /2/data/message/_search gives
+	 *         /2/data/*&#47;_search and not /2/data/*&#47;*.
+	 */
+	public String template(String uri) {
+		String[] segments = segments(uri);
+		String[] best = null;
+		int bestLiterals = -1;
+
+		for (String[] template : templates.getOrDefault(segments.length, //
+				Collections.emptyList())) {
+			int literals = literals(template, segments);
+			if (literals > bestLiterals) {
+				best = template;
+				bestLiterals = literals;
+			}
+		}
+
+		if (best != null)
+			return "/" + String.join("/", best);
+
+		for (String prefix : prefixes)
+			if (uri.equals(prefix))
+				return prefix;
+			else if (uri.startsWith(prefix + "/"))
+				return prefix + UNKNOWN_ROUTE;
+
+		return UNKNOWN_ROUTE;
+	}
+
+	//
+	// Implementation
+	//
+
+	private void add(String uriPattern) {
+		String[] segments = segments(uriPattern);
+		for (int i = 0; i < segments.length; i++)
+			if (segments[i].startsWith(":"))
+				segments[i] = ANY;
+
+		List<String[]> list = templates.computeIfAbsent(segments.length, //
+				length -> Lists.newArrayList());
+
+		for (String[] template : list)
+			if (Arrays.equals(template, segments))
+				return;
+
+		list.add(segments);
+	}
+
+	/**
+	 * @return the number of literal segments of this template if it matches
+	 *         these uri segments, -1 otherwise
+	 */
+	private static int literals(String[] template, String[] segments) {
+		int literals = 0;
+		for (int i = 0; i < template.length; i++) {
+			if (ANY.equals(template[i]))
+				continue;
+			if (!template[i].equals(segments[i]))
+				return -1;
+			literals++;
+		}
+		return literals;
+	}
+
+	private static String[] segments(String uri) {
+		return uri.chars().allMatch(c -> c == '/') ? new String[0] //
+				: trimSlashes(uri).split("/");
+	}
+
+	private static String trimSlashes(String uri) {
+		int start = 0, end = uri.length();
+		while (start < end && uri.charAt(start) == '/')
+			start++;
+		while (end > start && uri.charAt(end - 1) == '/')
+			end--;
+		return uri.substring(start, end);
+	}
+}
@@ -0,0 +1,170 @@
+/**
+ * © David Attias 2020
+ */
+package io.spacedog.services.snapshot;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.google.common.collect.Sets;
+
+import io.spacedog.services.db.elastic.ElasticIndex;
+import io.spacedog.services.log.LogService;
+
+/**
+ * Restore plan of the indices of one backend. Snapshot indices are restored
+ * next to the live indices with a new version number. Their aliases are then
+ * moved from the live indices to the restored indices and the live indices
+ * deleted in a single atomic aliases update. Other backends are not affected.
+ * Indices served by shared indices are not restored.
+ */
+public class BackendRestore {
+
+	public static final String RENAME_PATTERN = "^(.+)-(\\d+)$";
+	private static final Pattern VERSIONED = Pattern.compile(RENAME_PATTERN);
+
+	private String backendId;
+	private int version;
+	// restored index names by snapshot index names
+	private Map<String, String> renames = new TreeMap<>();
+	// aliases by restored index names
+	private Map<String, Set<String>> aliases = new TreeMap<>();
+	private Set<String> replaced = Sets.newTreeSet();
+
+	private BackendRestore(String backendId) {
+		this.backendId = backendId;
+	}
+
+	/**
+	 * @param snapshotIndices all the indices of the snapshot
+	 * @param liveIndices     the live dedicated indices of the backend
+	 * @param liveAliases     the aliases of the backend by live indices including
+	 *                        shared indices
+	 */
+	public static BackendRestore plan(String backendId, Collection<String> snapshotIndices, //
+			Collection<String> liveIndices, Map<String, Set<String>> liveAliases) {
+
+		BackendRestore restore = new BackendRestore(backendId);
+
+		Set<String> sharedAliases = Sets.newHashSet();
+		liveAliases.forEach((index, aliases) -> {
+			if (ElasticIndex.isShared(index))
+				sharedAliases.addAll(aliases);
+		});
+
+		Set<String> restored = Sets.newTreeSet();
+		for (String index : snapshotIndices)
+			if (restore.isBackendIndex(index) //
+					&& !sharedAliases.contains(base(index)))
+				restored.add(index);
+
+		int max = -1;
+		for (String index : Sets.union(restored, Sets.newHashSet(liveIndices)))
+			if (isVersioned(index))
+				max = Math.max(max, version(index));
+		restore.version = max + 1;
+
+		for (String index : restored) {
+			String name = base(index) + '-' + restore.version;
+			restore.renames.put(index, name);
+			restore.aliases.put(name, restore.aliasesOf(index, liveAliases));
+		}
+
+		if (!restored.isEmpty())
+			restore.replaced.addAll(liveIndices);
+
+		return restore;
+	}
+
+	public String backendId() {
+		return backendId;
+	}
+
+	public boolean isEmpty() {
+		return renames.isEmpty();
+	}
+
+	/**
+	 * @return the snapshot indices to restore
+	 */
+	public Set<String> indices() {
+		return Collections.unmodifiableSet(renames.keySet());
+	}
+
+	/**
+	 * @return the replacement of the rename pattern
+	 */
+	public String renameReplacement() {
+		return "$1-" + version;
+	}
+
+	public Map<String, Set<String>> aliases() {
+		return Collections.unmodifiableMap(aliases);
+	}
+
+	/**
+	 * @return the restored index names
+	 */
+	public Set<String> restored() {
+		return Collections.unmodifiableSet(aliases.keySet());
+	}
+
+	/**
+	 * @return the live indices to delete when restored indices are ready
+	 */
+	public Set<String> replaced() {
+		return Collections.unmodifiableSet(replaced);
+	}
+
+	//
+	// Implementation
+	//
+
+	private boolean isBackendIndex(String index) {
+		return index.startsWith(backendId + '-') && isVersioned(index);
+	}
+
+	private Set<String> aliasesOf(String index, Map<String, Set<String>> liveAliases) {
+		String base = base(index);
+		Set<String> aliases = Sets.newTreeSet();
+
+		// aliases of live versions of this index
+		liveAliases.forEach((liveIndex, liveIndexAliases) -> {
+			if (!ElasticIndex.isShared(liveIndex) //
+					&& isVersioned(liveIndex) && base(liveIndex).equals(base))
+				aliases.addAll(liveIndexAliases);
+		});
+
+		if (aliases.isEmpty()) {
+			// index alias is the index name without version
+			aliases.add(base);
+
+			// log partitions have the backend log read alias
+			String logAlias = backendId + '-' + LogService.SERVICE_NAME;
+			if (base.startsWith(logAlias + '-'))
+				aliases.add(logAlias);
+		}
+
+		return aliases;
+	}
+
+	private static boolean isVersioned(String index) {
+		return VERSIONED.matcher(index).matches();
+	}
+
+	private static String base(String index) {
+		Matcher matcher = VERSIONED.matcher(index);
+		return matcher.matches() ? matcher.group(1) : index;
+	}
+
+	private static int version(String index) {
+		Matcher matcher = VERSIONED.matcher(index);
+		matcher.matches();
+		return Integer.parseInt(matcher.group(2));
+	}
+}
@@ -4,6 +4,10 @@ import java.io.IOException;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.elasticsearch.action.admin.cluster.repositories.delete.DeleteRepositoryRequest;
@@ -16,12 +20,15 @@ import org.elasticsearch.action.admin.cluster.snapshots.create.CreateSnapshotRes
 import org.elasticsearch.action.admin.cluster.snapshots.get.GetSnapshotsRequest;
 import org.elasticsearch.action.admin.cluster.snapshots.restore.RestoreSnapshotRequest;
 import org.elasticsearch.action.admin.cluster.snapshots.restore.RestoreSnapshotResponse;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest;
+import org.elasticsearch.action.admin.indices.alias.IndicesAliasesRequest.AliasActions;
 import org.elasticsearch.action.support.IndicesOptions;
 import org.elasticsearch.action.support.master.AcknowledgedResponse;
 import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.cluster.metadata.RepositoryMetadata;
 import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.repositories.RepositoryMissingException;
+import org.elasticsearch.snapshots.RestoreInfo;
 import org.elasticsearch.snapshots.SnapshotInfo;
 import org.elasticsearch.snapshots.SnapshotState;
 import org.joda.time.DateTime;
@@ -29,15 +36,19 @@ import org.joda.time.DateTimeZone;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import io.spacedog.client.file.FileStoreType;
 import io.spacedog.client.http.SpaceFields;
 import io.spacedog.client.http.SpaceParams;
 import io.spacedog.client.snapshot.SpaceRepository;
 import io.spacedog.client.snapshot.SpaceSnapshot;
+import io.spacedog.jobs.Internals;
 import io.spacedog.services.Server;
 import io.spacedog.services.ServerConfig;
 import io.spacedog.services.SpaceService;
@@ -52,11 +63,11 @@ public class SnapshotService extends SpaceService implements SpaceFields, SpaceP
 		List<SpaceRepository> repositories = getRepositories();
 		List<SpaceSnapshot> snapshots = Lists.newArrayList();
 
+		// repositories are sorted from the most recent
 		for (SpaceRepository repo : repositories) {
 
-			getSnapshots(repo.id())//
+			getSnapshots(repo.id(), backendId)//
 					.stream()//
-					.filter(info -> info.snapshotId().getName().startsWith(backendId))//
 					.map(info -> toSpaceSnapshot(repo.id(), info))//
 					.collect(() -> snapshots, List::add, List::addAll);
 
@@ -70,17 +81,34 @@ public class SnapshotService extends SpaceService implements SpaceFields, SpaceP
 
 	public Optional<SpaceSnapshot> get(String snapshotId) {
 		String repositoryId = toRepositoryId(snapshotId);
-		return getSnapshots(repositoryId)//
+		return getSnapshots(repositoryId, toBackendId(snapshotId))//
 				.stream()//
 				.filter(info -> info.snapshotId().getName().equals(snapshotId))//
 				.findAny().map(info -> toSpaceSnapshot(repositoryId, info));
 	}
 
-	private List<SnapshotInfo> getSnapshots(String repoId) {
+	/**
+	 * Snapshots of a backend are listed with a name pattern and cached if all
+	 * completed, since completed snapshots never change. Cache entries are
+	 * invalidated when this server creates a snapshot.
+	 */
+	private List<SnapshotInfo> getSnapshots(String repoId, String backendId) {
+		String key = snapshotsCacheKey(repoId, backendId);
+		List<SnapshotInfo> snapshots = snapshotsCache.getIfPresent(key);
+		if (snapshots != null)
+			return snapshots;
+
 		try {
-			return elastic().snapshot()//
-					.get(new GetSnapshotsRequest(repoId), RequestOptions.DEFAULT)//
-					.getSnapshots();
+			GetSnapshotsRequest request = new GetSnapshotsRequest(repoId)//
+					.snapshots(new String[] { backendId + PREFIX + "*" })//
+					.ignoreUnavailable(true);
+
+			snapshots = elastic().snapshot().get(request, RequestOptions.DEFAULT).getSnapshots();
+
+			if (snapshots.stream().allMatch(info -> info.state().completed()))
+				snapshotsCache.put(key, snapshots);
+
+			return snapshots;
 
 		} catch (IOException e) {
 			throw Exceptions.runtime(e);
@@ -99,6 +127,7 @@ public class SnapshotService extends SpaceService implements SpaceFields, SpaceP
 				.partial(false);
 
 		CreateSnapshotResponse response = snapshot(request);
+		snapshotsCache.invalidate(snapshotsCacheKey(snapshot.repositoryId, snapshot.backendId));
 
 		if (waitForCompletion) {
 			snapshot = toSpaceSnapshot(snapshot.repositoryId, response.getSnapshotInfo());
@@ -116,6 +145,10 @@ public class SnapshotService extends SpaceService implements SpaceFields, SpaceP
 		}
 	}
 
+	/**
+	 * Restores the indices of the current backend from this snapshot. Other
+	 * backends are not affected. See {@link BackendRestore}.
+	 */
 	public void restore(String snapshotId, boolean waitForCompletion) {
 		SpaceSnapshot snapshot = get(snapshotId).orElseThrow(//
 				() -> Exceptions.notFound("snapshot [%s] not found", snapshotId));
@@ -129,19 +162,81 @@ public class SnapshotService extends SpaceService implements SpaceFields, SpaceP
 					"snapshot [%s] is not restorable, state is [%s]", //
 					snapshot.id, snapshot.state);
 
-		// delete all indices of all backends before restore
-		// this is prefered to a close operation
-		// because it remove indices not present in restored snapshot
-		elastic().deleteAbsolutelyAllIndices();
+		String backendId = Server.backend().id();
+		Set<String> liveIndices = Sets.newHashSet(elastic().backendIndices());
+		Map<String, Set<String>> liveAliases = elastic().aliases(backendId + "-*");
+
+		BackendRestore restore = BackendRestore.plan(backendId, //
+				snapshot.indices, liveIndices, liveAliases);
+
+		if (restore.isEmpty())
+			throw Exceptions.illegalArgument(//
+					"snapshot [%s] contains no index of backend [%s]", snapshot.id, backendId);
+
+		if (waitForCompletion) {
+			restore(snapshot, restore);
+			return;
+		}
+
+		restorer.execute(() -> {
+			try {
+				restore(snapshot, restore);
+			} catch (Throwable t) {
+				Internals.get().notify(String.format(//
+						"restore of backend [%s] from snapshot [%s] failed", //
+						backendId, snapshot.id), t);
+			}
+		});
+	}
+
+	private void restore(SpaceSnapshot snapshot, BackendRestore restore) {
 
+		Utils.info("[SpaceDog] restore indices %s of backend [%s] from snapshot [%s] ...", //
+				restore.indices(), restore.backendId(), snapshot.id);
+
+		// all indices are restored in parallel by a single request
+		// under new names so that live indices are still served
 		RestoreSnapshotRequest request = new RestoreSnapshotRequest(snapshot.repositoryId, snapshot.id)//
-				.waitForCompletion(waitForCompletion)//
+				.indices(restore.indices().toArray(new String[0]))//
+				.renamePattern(BackendRestore.RENAME_PATTERN)//
+				.renameReplacement(restore.renameReplacement())//
+				.waitForCompletion(true)//
 				.indicesOptions(IndicesOptions.fromOptions(false, true, true, true))//
 				.partial(false)//
-				.includeAliases(true)//
-				.includeGlobalState(true);
+				.includeAliases(false)//
+				.includeGlobalState(false);
+
+		try {
+			RestoreInfo info = restore(request).getRestoreInfo();
+
+			if (info == null || info.failedShards() > 0)
+				throw Exceptions.runtime("restore of indices %s from snapshot [%s] failed", //
+						restore.indices(), snapshot.id);
+
+			// aliases are moved and live indices deleted atomically
+			IndicesAliasesRequest aliasesRequest = new IndicesAliasesRequest();
+
+			restore.aliases().forEach((index, aliases) -> aliases.forEach(//
+					alias -> aliasesRequest.addAliasAction(//
+							AliasActions.add().index(index).alias(alias))));
+
+			restore.replaced().forEach(index -> aliasesRequest.addAliasAction(//
+					AliasActions.removeIndex().index(index)));
+
+			elastic().updateAliases(aliasesRequest);
+
+		} catch (Throwable t) {
+			// restored indices are not yet live
+			try {
+				elastic().deleteIndices(restore.restored().toArray(new String[0]));
+			} catch (Exception e) {
+				Utils.warn("failed to delete restored indices", e);
+			}
+			throw t;
+		}
 
-		restore(request);
+		Utils.info("[SpaceDog] backend [%s] restored from snapshot [%s]", //
+				restore.backendId(), snapshot.id);
 	}
 
 	private RestoreSnapshotResponse restore(RestoreSnapshotRequest request) {
@@ -195,6 +290,8 @@ public class SnapshotService extends SpaceService implements SpaceFields, SpaceP
 			AcknowledgedResponse response = elastic().snapshot().deleteRepository(//
 					new DeleteRepositoryRequest(repositoryId), RequestOptions.DEFAULT);
 
+			snapshotsCache.invalidateAll();
+
 			return response.isAcknowledged();
 
 		} catch (IOException e) {
@@ -325,6 +422,15 @@ public class SnapshotService extends SpaceService implements SpaceFields, SpaceP
 	//
 
 	private final static String PREFIX = "-utc-";
+
+	private Cache<String, List<SnapshotInfo>> snapshotsCache = CacheBuilder.newBuilder()//
+			.expireAfterWrite(5, TimeUnit.MINUTES)//
+			.maximumSize(1000)//
+			.build();
+
+	// restores are run one at a time since elastic does not run them concurrently
+	private ExecutorService restorer = Executors.newSingleThreadExecutor(//
+			new ThreadFactoryBuilder().setNameFormat("snapshot-restore").setDaemon(true).build());
 	private static final DateTimeFormatter SNAPSHOT_ID_FORMATTER = DateTimeFormat//
 			.forPattern("yyyy-MM-dd-HH-mm-ss-SSS").withZone(DateTimeZone.UTC);
 
@@ -368,6 +474,14 @@ public class SnapshotService extends SpaceService implements SpaceFields, SpaceP
 		return snapshot;
 	}
 
+	private static String toBackendId(String snapshotId) {
+		return Utils.trimFrom(snapshotId, PREFIX);
+	}
+
+	private static String snapshotsCacheKey(String repositoryId, String backendId) {
+		return repositoryId + '/' + backendId;
+	}
+
 	private static String toRepositoryId(String snapshotId) {
 		String timestamp = Utils.trimUntil(snapshotId, PREFIX);
 		DateTime dateTime = SNAPSHOT_ID_FORMATTER.parseDateTime(timestamp);
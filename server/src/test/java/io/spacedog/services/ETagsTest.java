@@ -0,0 +1,73 @@
+package io.spacedog.services;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.spacedog.client.http.SpaceException;
+import io.spacedog.utils.Exceptions;
+
+public class ETagsTest extends Assert {
+
+	@Test
+	public void tagsAreQuotedVersions() {
+		assertEquals("\"12:1\"", ETags.of("12:1"));
+		assertEquals("\"12:1-a3f\"", ETags.of("12:1", "a3f"));
+		assertNull(ETags.of(null));
+		assertNull(ETags.of("", "a3f"));
+	}
+
+	@Test
+	public void ifNoneMatchAcceptsListsWeakTagsAndAny() {
+		String etag = ETags.of("12:1");
+		assertTrue(ETags.matches("\"12:1\"", etag));
+		assertTrue(ETags.matches("W/\"12:1\"", etag));
+		assertTrue(ETags.matches("\"11:1\", \"12:1\"", etag));
+		assertTrue(ETags.matches("*", etag));
+		assertFalse(ETags.matches("\"11:1\"", etag));
+		assertFalse(ETags.matches("\"12:1-a3f\"", etag));
+		assertFalse(ETags.matches(null, etag));
+		assertFalse(ETags.matches("*", null));
+	}
+
+	@Test
+	public void ifMatchIsConvertedToVersion() {
+		assertEquals("12:1", ETags.versionOf("\"12:1\""));
+		assertEquals("12:1", ETags.versionOf(" \"12:1-a3f\" "));
+		assertNull(ETags.versionOf(null));
+		assertNull(ETags.versionOf("*"));
+
+		try {
+			ETags.versionOf("W/\"12:1\"");
+			fail();
+		} catch (SpaceException e) {
+			assertEquals(400, e.httpStatus());
+		}
+
+		try {
+			ETags.versionOf("\"11:1\", \"12:1\"");
+			fail();
+		} catch (SpaceException e) {
+			assertEquals(400, e.httpStatus());
+		}
+	}
+
+	@Test
+	public void ifMatchAnyRequiresTheObjectToExist() {
+		// the version parameter has priority
+		assertEquals("3:1", ETags.version("3:1", "*", () -> "12:1"));
+		assertEquals("11:1", ETags.version(null, "\"11:1\"", () -> "12:1"));
+		assertNull(ETags.version(null, null, () -> "12:1"));
+
+		// any gives the current version of the object
+		assertEquals("12:1", ETags.version(null, " * ", () -> "12:1"));
+
+		try {
+			ETags.version(null, "*", () -> {
+				throw Exceptions.objectNotFound("message", "1");
+			});
+			fail();
+		} catch (SpaceException e) {
+			assertEquals(412, e.httpStatus());
+		}
+	}
+}
@@ -0,0 +1,114 @@
+package io.spacedog.services;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.spacedog.client.http.SpaceHeaders;
+import net.codestory.http.payload.Payload;
+
+public class ServerStartupTest extends Assert {
+
+	@Test
+	public void requestsAreRejectedUntilReady() throws Exception {
+		AtomicBoolean ready = new AtomicBoolean();
+		SpaceFilter filter = Server.readinessFilter(ready::get);
+
+		Payload payload = filter.apply("/1/data", null, () -> Payload.ok());
+		assertEquals(503, payload.code());
+		assertEquals("1", payload.headers().get(SpaceHeaders.RETRY_AFTER));
+
+		ready.set(true);
+		payload = filter.apply("/1/data", null, () -> Payload.ok());
+		assertEquals(200, payload.code());
+	}
+
+	@Test
+	public void phasesAreTimedAndGateRequests() throws Exception {
+		PhaseServer server = new PhaseServer();
+		server.start();
+
+		// fluent starts in parallel with the elastic phase
+		assertTrue(server.fluentInParallel);
+
+		// requests are rejected while backend indices are checked
+		assertFalse(server.readyInBackendPhase);
+		assertEquals(503, server.backendPhasePayload.code());
+
+		// and accepted when services are started
+		assertTrue(server.readyInServicesPhase);
+		assertEquals(200, server.servicesPhasePayload.code());
+		assertTrue(server.isReady());
+
+		assertEquals(5, server.phaseDurations().size());
+		assertTrue(server.phaseDurations().keySet().containsAll(//
+				Arrays.asList("init", "fluent", "elastic", "backend", "services")));
+		assertTrue(server.phaseDurations().get("elastic") >= 50);
+	}
+
+	/**
+	 * Phases must not throw since startup failures exit the jvm
+	 */
+	private static class PhaseServer extends Server {
+
+		private CountDownLatch elasticStarted = new CountDownLatch(1);
+		private boolean fluentInParallel;
+		private boolean readyInBackendPhase;
+		private boolean readyInServicesPhase;
+		private Payload backendPhasePayload;
+		private Payload servicesPhasePayload;
+
+		@Override
+		protected void init() {
+		}
+
+		@Override
+		protected void startFluent() {
+			try {
+				fluentInParallel = elasticStarted.await(5, TimeUnit.SECONDS);
+			} catch (InterruptedException e) {
+				fluentInParallel = false;
+			}
+		}
+
+		@Override
+		protected void initElasticClient() {
+			elasticStarted.countDown();
+			sleep(50);
+		}
+
+		@Override
+		protected void elasticIsStarted(Executor executor) {
+			readyInBackendPhase = isReady();
+			backendPhasePayload = gate();
+		}
+
+		@Override
+		protected void fluentIsStarted() {
+			readyInServicesPhase = isReady();
+			servicesPhasePayload = gate();
+		}
+
+		private Payload gate() {
+			try {
+				return readinessFilter(this::isReady)//
+						.apply("/1/data", null, () -> Payload.ok());
+			} catch (Exception e) {
+				return Payload.notFound();
+			}
+		}
+
+		private static void sleep(long millis) {
+			try {
+				Thread.sleep(millis);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
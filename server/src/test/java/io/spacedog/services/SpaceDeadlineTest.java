@@ -0,0 +1,67 @@
+package io.spacedog.services;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.spacedog.client.http.SpaceException;
+
+public class SpaceDeadlineTest extends Assert {
+
+	@Test
+	public void longRoutesAreClassified() {
+		assertTrue(SpaceDeadline.isLong("POST", "/2/bulk"));
+		assertTrue(SpaceDeadline.isLong("POST", "/2/snapshots/_latest/_restore"));
+		assertTrue(SpaceDeadline.isLong("POST", "/2/data/message/_export"));
+		assertTrue(SpaceDeadline.isLong("POST", "/2/data/message/_import/"));
+		assertTrue(SpaceDeadline.isLong("POST", "/2/credentials/_export"));
+		assertTrue(SpaceDeadline.isLong("DELETE", "/2/data/message"));
+		assertTrue(SpaceDeadline.isLong("DELETE", "/2/data/_search"));
+		assertTrue(SpaceDeadline.isLong("DELETE", "/2/data/message/_search/"));
+		assertTrue(SpaceDeadline.isLong("DELETE", "/2/logs"));
+		assertTrue(SpaceDeadline.isLong("DELETE", "/2/logs/"));
+		assertTrue(SpaceDeadline.isLong("DELETE", "/2/files/www"));
+		assertTrue(SpaceDeadline.isLong("DELETE", "/2/files/www/images/"));
+
+		assertFalse(SpaceDeadline.isLong("GET", "/2/data/message"));
+		assertFalse(SpaceDeadline.isLong("POST", "/2/data/message/_search"));
+		assertFalse(SpaceDeadline.isLong("DELETE", "/2/data/message/1"));
+		assertFalse(SpaceDeadline.isLong("GET", "/2/credentials/me"));
+		assertFalse(SpaceDeadline.isLong("GET", "/2/logs"));
+		assertFalse(SpaceDeadline.isLong("GET", "/2/files/www/app.html"));
+	}
+
+	@Test
+	public void clientTimeoutsAreCappedToLongTimeout() {
+		long standard = ServerConfig.requestTimeout();
+		long max = ServerConfig.longRequestTimeout();
+
+		assertEquals(standard, SpaceDeadline.timeoutMillis("GET", "/2/data/message", null));
+		assertEquals(max, SpaceDeadline.timeoutMillis("POST", "/2/bulk", null));
+		assertEquals(500, SpaceDeadline.timeoutMillis("POST", "/2/bulk", "500"));
+		assertEquals(max, SpaceDeadline.timeoutMillis("GET", "/2/data", String.valueOf(max + 1)));
+
+		// invalid headers are ignored
+		assertEquals(standard, SpaceDeadline.timeoutMillis("GET", "/2/data", "soon"));
+		assertEquals(standard, SpaceDeadline.timeoutMillis("GET", "/2/data", "-1"));
+	}
+
+	@Test
+	public void spentBudgetsFailFast() {
+		SpaceDeadline deadline = new SpaceDeadline(60000);
+		assertFalse(deadline.isExceeded());
+		assertTrue(deadline.checkRemainingMillis() > 0);
+
+		deadline = new SpaceDeadline(0);
+		assertTrue(deadline.isExceeded());
+
+		try {
+			deadline.checkRemainingMillis();
+			fail();
+		} catch (SpaceException e) {
+			assertEquals(503, e.httpStatus());
+			assertEquals("deadline-exceeded", e.code());
+		}
+
+		assertEquals(504, deadline.exceeded(null).httpStatus());
+	}
+}
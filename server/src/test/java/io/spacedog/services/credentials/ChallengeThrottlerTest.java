@@ -0,0 +1,53 @@
+package io.spacedog.services.credentials;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChallengeThrottlerTest extends Assert {
+
+	@Test
+	public void failuresAreCountedInWindow() throws InterruptedException {
+
+		ChallengeThrottler throttler = new ChallengeThrottler();
+		assertFalse(throttler.contains("fred"));
+		assertEquals(0, throttler.count("fred", 1000));
+
+		assertEquals(1, throttler.fail("fred", 1000, 5));
+		assertEquals(2, throttler.fail("fred", 1000, 5));
+		assertEquals(1, throttler.fail("vince", 1000, 5));
+		assertTrue(throttler.contains("fred"));
+		assertEquals(2, throttler.count("fred", 1000));
+
+		// failures older than window are forgotten
+		Thread.sleep(20);
+		assertEquals(0, throttler.count("fred", 10));
+		assertEquals(1, throttler.fail("fred", 10, 5));
+
+		// reset forgets all failures
+		throttler.reset("fred");
+		assertFalse(throttler.contains("fred"));
+		assertEquals(1, throttler.count("vince", 1000));
+	}
+
+	@Test
+	public void failuresAreCappedAtTheLimit() {
+
+		ChallengeThrottler throttler = new ChallengeThrottler();
+		for (int i = 0; i < 100; i++)
+			throttler.fail("fred", 60000, 3);
+
+		assertEquals(3, throttler.count("fred", 60000));
+		assertEquals(3, throttler.fail("fred", 60000, 3));
+	}
+
+	@Test
+	public void keysAreBounded() {
+
+		ChallengeThrottler throttler = new ChallengeThrottler(100);
+		for (int i = 0; i < 1000; i++)
+			throttler.fail("address" + i, 60000, 3);
+
+		assertTrue(throttler.size() <= 100);
+		assertTrue(throttler.contains("address999"));
+	}
+}
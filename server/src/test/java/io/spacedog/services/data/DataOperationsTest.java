@@ -0,0 +1,84 @@
+package io.spacedog.services.data;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.script.Script;
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import io.spacedog.client.data.DataOperation;
+import io.spacedog.client.data.DataOperation.Type;
+import io.spacedog.client.http.SpaceException;
+
+public class DataOperationsTest extends Assert {
+
+	@Test
+	public void operationsAreConvertedToScriptParams() {
+		List<Map<String, Object>> params = DataOperations.toParams(Lists.newArrayList(//
+				new DataOperation(Type.inc, "counters.views", 1), //
+				new DataOperation(Type.dec, "stock", 2L), //
+				new DataOperation(Type.dec, "balance", 2.5), //
+				new DataOperation(Type.addToSet, "tags", "red"), //
+				new DataOperation(Type.push, "history", Lists.newArrayList("a", "b")), //
+				new DataOperation(Type.max, "best", 12), //
+				new DataOperation(Type.unset, "draft", "ignored")));
+
+		assertEquals(7, params.size());
+		assertParams(params.get(0), "inc", "counters.views", 1, "counters", "views");
+		assertParams(params.get(1), "inc", "stock", -2L, "stock");
+		assertParams(params.get(2), "inc", "balance", -2.5, "balance");
+		assertParams(params.get(3), "addToSet", "tags", Collections.singletonList("red"), "tags");
+		assertParams(params.get(4), "push", "history", Lists.newArrayList("a", "b"), "history");
+		assertParams(params.get(5), "max", "best", 12, "best");
+		assertParams(params.get(6), "unset", "draft", null, "draft");
+	}
+
+	@Test
+	public void scriptSourceDoesNotDependOnOperations() {
+		DateTime now = DateTime.now();
+		Script script1 = DataOperations.toScript(Lists.newArrayList(//
+				new DataOperation(Type.inc, "a", 1)), now);
+		Script script2 = DataOperations.toScript(Lists.newArrayList(//
+				new DataOperation(Type.unset, "b", null)), now);
+
+		assertEquals(script1.getIdOrCode(), script2.getIdOrCode());
+		assertEquals("painless", script1.getLang());
+		assertEquals(now.toString(), script1.getParams().get("updatedAt"));
+	}
+
+	@Test
+	public void invalidOperationsAreRejected() {
+		shouldBeInvalid();
+		shouldBeInvalid(new DataOperation(null, "a", 1));
+		shouldBeInvalid(new DataOperation(Type.inc, null, 1));
+		shouldBeInvalid(new DataOperation(Type.inc, "a..b", 1));
+		shouldBeInvalid(new DataOperation(Type.inc, "a", "1"));
+		shouldBeInvalid(new DataOperation(Type.dec, "a", null));
+		shouldBeInvalid(new DataOperation(Type.min, "a", Lists.newArrayList(1)));
+		shouldBeInvalid(new DataOperation(Type.push, "a", null));
+		shouldBeInvalid(new DataOperation(Type.unset, "owner", null));
+		shouldBeInvalid(new DataOperation(Type.inc, "updatedAt", 1));
+	}
+
+	private void shouldBeInvalid(DataOperation... operations) {
+		try {
+			DataOperations.toParams(Lists.newArrayList(operations));
+			fail();
+		} catch (SpaceException e) {
+			assertEquals(400, e.httpStatus());
+		}
+	}
+
+	private void assertParams(Map<String, Object> params, String op, String field, //
+			Object value, String... path) {
+		assertEquals(op, params.get("op"));
+		assertEquals(field, params.get("field"));
+		assertEquals(value, params.get("value"));
+		assertEquals(Lists.newArrayList(path), params.get("path"));
+	}
+}
@@ -0,0 +1,45 @@
+package io.spacedog.services.data;
+
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class DataProjectionTest extends Assert {
+
+	@Test
+	public void parametersAreSplitOnCommas() {
+		FetchSourceContext projection = DataProjection.of(" name, address.* ,", "address.zip");
+		assertTrue(projection.fetchSource());
+		assertArrayEquals(new String[] { "name", "address.*" }, projection.includes());
+		assertArrayEquals(new String[] { "address.zip" }, projection.excludes());
+
+		projection = DataProjection.of(null, "secret");
+		assertArrayEquals(new String[0], projection.includes());
+		assertArrayEquals(new String[] { "secret" }, projection.excludes());
+	}
+
+	@Test
+	public void noProjectionWithoutFields() {
+		assertNull(DataProjection.of((String) null, null));
+		assertNull(DataProjection.of("", " , "));
+		assertNull(DataProjection.of(new String[0], null));
+		assertNull(DataProjection.withMeta(null));
+	}
+
+	@Test
+	public void metaFieldsAreKeptToCheckPermissions() {
+		FetchSourceContext projection = DataProjection.withMeta(//
+				DataProjection.of("name", "owner,secret"));
+
+		assertEquals(Sets.newHashSet("name", "owner", "group", "createdAt", "updatedAt"), //
+				Sets.newHashSet(projection.includes()));
+		assertArrayEquals(new String[] { "secret" }, projection.excludes());
+
+		// no includes means all fields but excludes
+		projection = DataProjection.withMeta(DataProjection.of(null, "group"));
+		assertArrayEquals(new String[0], projection.includes());
+		assertArrayEquals(new String[0], projection.excludes());
+	}
+}
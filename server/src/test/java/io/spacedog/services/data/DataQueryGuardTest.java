@@ -0,0 +1,188 @@
+package io.spacedog.services.data;
+
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.index.query.QueryStringQueryBuilder;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.spacedog.client.data.CsvRequest;
+import io.spacedog.client.data.DataSettings.SearchLimits;
+import io.spacedog.services.data.DataQueryGuard.Rejection;
+import io.spacedog.services.db.elastic.ElasticUtils;
+
+public class DataQueryGuardTest extends Assert {
+
+	private DataQueryGuard guard = new DataQueryGuard();
+	private SearchLimits limits = new SearchLimits();
+
+	@Test
+	public void pagesAreLimited() {
+		check(SearchSourceBuilder.searchSource().size(1000));
+		assertRejected(DataQueryGuard.MAX_SIZE, SearchSourceBuilder.searchSource().size(1001));
+		assertRejected(DataQueryGuard.MAX_RESULT_WINDOW, //
+				SearchSourceBuilder.searchSource().from(9500).size(600));
+	}
+
+	@Test
+	public void scriptsAreBanned() {
+		assertRejected(DataQueryGuard.BANNED_QUERIES, SearchSourceBuilder.searchSource()//
+				.query(QueryBuilders.boolQuery().filter(//
+						QueryBuilders.scriptQuery(new Script("true")))));
+
+		assertRejected(DataQueryGuard.BANNED_QUERIES, SearchSourceBuilder.searchSource()//
+				.scriptField("double", new Script("doc['price'].value * 2")));
+
+		// unless allowed
+		limits.bannedQueries.clear();
+		check(SearchSourceBuilder.searchSource()//
+				.query(QueryBuilders.scriptQuery(new Script("true"))));
+	}
+
+	@Test
+	public void scriptedAggregationsAreBannedAsScripts() {
+		assertRejected(DataQueryGuard.BANNED_QUERIES, SearchSourceBuilder.searchSource()//
+				.aggregation(AggregationBuilders.scriptedMetric("total")//
+						.mapScript(new Script("state.total += doc['price'].value"))));
+
+		assertRejected(DataQueryGuard.BANNED_QUERIES, SearchSourceBuilder.searchSource()//
+				.aggregation(AggregationBuilders.terms("initials")//
+						.script(new Script("doc['name'].value.substring(0, 1)"))));
+
+		// field based aggregations are not scripts
+		check(SearchSourceBuilder.searchSource()//
+				.aggregation(AggregationBuilders.terms("names").field("name")));
+	}
+
+	@Test
+	public void csvPagesAreLimited() {
+		CsvRequest request = new CsvRequest();
+		check(SearchSourceBuilder.searchSource()//
+				.query(ElasticUtils.parseQuery(request.query)).size(request.pageSize));
+
+		request.pageSize = 5000;
+		assertRejected(DataQueryGuard.MAX_SIZE, SearchSourceBuilder.searchSource()//
+				.query(ElasticUtils.parseQuery(request.query)).size(request.pageSize));
+	}
+
+	@Test
+	public void exportQueriesAreParsedAndRewritten() {
+		QueryBuilder query = ElasticUtils.parseQuery(//
+				"{\"query_string\":{\"query\":\"*dog\"}}");
+		guard.check("test", query, limits);
+		assertEquals(Boolean.FALSE, ((QueryStringQueryBuilder) query).allowLeadingWildcard());
+
+		try {
+			guard.check("test", ElasticUtils.parseQuery(//
+					"{\"wildcard\":{\"name\":\"*dog\"}}"), limits);
+			fail();
+
+		} catch (Rejection e) {
+			assertEquals(DataQueryGuard.ALLOW_LEADING_WILDCARDS, e.limit);
+		}
+	}
+
+	@Test
+	public void clausesAndDepthAreLimited() {
+		limits.maxClauseCount = 3;
+		check(SearchSourceBuilder.searchSource()//
+				.query(QueryBuilders.termsQuery("color", "red", "blue", "green")));
+		assertRejected(DataQueryGuard.MAX_CLAUSE_COUNT, SearchSourceBuilder.searchSource()//
+				.query(QueryBuilders.boolQuery()//
+						.must(QueryBuilders.termsQuery("color", "red", "blue", "green"))//
+						.mustNot(QueryBuilders.termQuery("size", "xl"))));
+
+		limits.maxDepth = 2;
+		check(SearchSourceBuilder.searchSource().query(QueryBuilders.boolQuery()//
+				.must(QueryBuilders.termQuery("size", "xl"))));
+		assertRejected(DataQueryGuard.MAX_DEPTH, SearchSourceBuilder.searchSource()//
+				.query(QueryBuilders.boolQuery().must(QueryBuilders.boolQuery()//
+						.must(QueryBuilders.termQuery("size", "xl")))));
+
+		// wrapped queries are parsed and checked
+		assertRejected(DataQueryGuard.MAX_DEPTH, SearchSourceBuilder.searchSource()//
+				.query(QueryBuilders.wrapperQuery(//
+						"{\"bool\":{\"must\":{\"term\":{\"size\":\"xl\"}}}}")));
+	}
+
+	@Test
+	public void aggregationBucketsAreLimited() {
+		check(SearchSourceBuilder.searchSource().aggregation(//
+				AggregationBuilders.terms("colors").field("color").size(100)//
+						.subAggregation(AggregationBuilders.terms("sizes").field("size").size(100))));
+
+		assertRejected(DataQueryGuard.MAX_AGGREGATION_BUCKETS, //
+				SearchSourceBuilder.searchSource().aggregation(//
+						AggregationBuilders.terms("colors").field("color").size(1000)//
+								.subAggregation(AggregationBuilders.terms("sizes").field("size").size(20))));
+	}
+
+	@Test
+	public void leadingWildcardsAreRejectedOrRewritten() {
+		assertRejected(DataQueryGuard.ALLOW_LEADING_WILDCARDS, SearchSourceBuilder.searchSource()//
+				.query(QueryBuilders.wildcardQuery("name", "*dog")));
+
+		QueryStringQueryBuilder queryString = QueryBuilders.queryStringQuery("*dog");
+		check(SearchSourceBuilder.searchSource().query(queryString));
+		assertEquals(Boolean.FALSE, queryString.allowLeadingWildcard());
+
+		assertRejected(DataQueryGuard.ALLOW_LEADING_WILDCARDS, SearchSourceBuilder.searchSource()//
+				.query(QueryBuilders.wrapperQuery("{\"query_string\":{\"query\":\"*dog\"}}")));
+
+		limits.allowLeadingWildcards = true;
+		check(SearchSourceBuilder.searchSource()//
+				.query(QueryBuilders.wildcardQuery("name", "*dog")));
+	}
+
+	@Test
+	public void regexpsStartingWithAPatternAreRejected() {
+		for (String regexp : new String[] { ".*dog", ".+dog", "[a-z]og", "(cat|.*dog)", "cat|.?dog" })
+			assertRejected(DataQueryGuard.ALLOW_LEADING_WILDCARDS, SearchSourceBuilder.searchSource()//
+					.query(QueryBuilders.regexpQuery("name", regexp)));
+
+		assertRejected(DataQueryGuard.ALLOW_LEADING_WILDCARDS, SearchSourceBuilder.searchSource()//
+				.query(QueryBuilders.wrapperQuery("{\"regexp\":{\"name\":\".*dog\"}}")));
+
+		// regexps starting with a literal only scan the terms with this prefix
+		for (String regexp : new String[] { "do.*", "(cat|dog)s?", "\\.dog" })
+			check(SearchSourceBuilder.searchSource()//
+					.query(QueryBuilders.regexpQuery("name", regexp)));
+
+		limits.allowLeadingWildcards = true;
+		check(SearchSourceBuilder.searchSource()//
+				.query(QueryBuilders.regexpQuery("name", ".*dog")));
+	}
+
+	@Test
+	public void checksAreCountedPerBackend() {
+		check(SearchSourceBuilder.searchSource().query(QueryBuilders.queryStringQuery("dog")));
+		assertRejected(DataQueryGuard.MAX_SIZE, SearchSourceBuilder.searchSource().size(5000));
+		guard.check("other", QueryBuilders.matchAllQuery(), limits);
+
+		assertEquals(2, guard.stats("test").get(DataQueryGuard.CHECKED).asLong());
+		assertEquals(1, guard.stats("test").get(DataQueryGuard.REWRITTEN).asLong());
+		assertEquals(1, guard.stats("test").get("rejected")//
+				.get(DataQueryGuard.MAX_SIZE).asLong());
+		assertEquals(1, guard.stats("other").get(DataQueryGuard.CHECKED).asLong());
+		assertEquals(0, guard.stats("none").get(DataQueryGuard.CHECKED).asLong());
+	}
+
+	private void check(SearchSourceBuilder source) {
+		guard.check("test", source, limits);
+	}
+
+	private void assertRejected(String limit, SearchSourceBuilder source) {
+		try {
+			check(source);
+			fail();
+
+		} catch (Rejection e) {
+			assertEquals(limit, e.limit);
+			assertEquals(DataQueryGuard.SEARCH_REJECTED, e.code());
+			assertEquals(400, e.httpStatus());
+		}
+	}
+}
@@ -0,0 +1,150 @@
+package io.spacedog.services.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.apache.lucene.search.TotalHits;
+import org.elasticsearch.action.OriginalIndices;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.ShardSearchFailure;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.index.get.GetResult;
+import org.elasticsearch.index.shard.ShardId;
+import org.elasticsearch.search.DocValueFormat;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+import org.elasticsearch.search.SearchShardTarget;
+import org.elasticsearch.search.internal.InternalSearchResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.spacedog.utils.Json;
+
+public class DataRawStreamingOutputTest extends Assert {
+
+	private static final String SOURCE = "{\"name\":\"vince\",\"city\":\"pa\\\"ris\",\"tags\":[1,2]}";
+
+	@Test
+	public void getResponseIsWrapped() {
+
+		GetResponse response = new GetResponse(new GetResult("test-data-message-0", //
+				"_doc", "1", 3, 1, 1, true, new BytesArray(SOURCE), null, null));
+
+		JsonNode node = DataRawStreamingOutput.of(response).toJsonNode();
+		assertEquals(Json.readNode(SOURCE), node.get("source"));
+		assertEquals("1", node.get("id").asText());
+		assertEquals("message", node.get("type").asText());
+		assertEquals("3:1", node.get("version").asText());
+		assertTrue(node.get("sort").isNull());
+	}
+
+	@Test
+	public void rawValuesAreCopiedWithoutParsing() throws Exception {
+
+		GetResponse response = new GetResponse(new GetResult("test-data-message-0", //
+				"_doc", "1", 3, 1, 1, true, new BytesArray(SOURCE), null, null));
+		DataRawStreamingOutput output = DataRawStreamingOutput.of(response);
+
+		ObjectNode log = Json.object("status", 200);
+		log.putRawValue("response", output.toRawValue());
+
+		// raw value is written as is by both byte and char generators
+		JsonNode node = Json.readNode(Json.mapper().writeValueAsBytes(log));
+		assertEquals(Json.readNode(SOURCE), node.get("response").get("source"));
+		node = Json.readNode(Json.mapper().writeValueAsString(log));
+		assertEquals("1", node.get("response").get("id").asText());
+
+		// the response is only written once
+		assertSame(output.toBytes(), output.toBytes());
+	}
+
+	@Test
+	public void multiGetResponsesAndErrorsAreWrappedInOrder() {
+
+		GetResponse response = new GetResponse(new GetResult("test-data-message-0", //
+				"_doc", "1", 3, 1, 1, true, new BytesArray(SOURCE), null, null));
+		JsonNode error = Json.object("type", "message", "id", "2", "status", 404);
+
+		JsonNode node = DataRawStreamingOutput.of(//
+				new GetResponse[] { response, null }, //
+				new JsonNode[] { null, error }).toJsonNode();
+
+		assertEquals(2, node.get("objects").size());
+		assertEquals(Json.readNode(SOURCE), node.get("objects").get(0).get("source"));
+		assertEquals("3:1", node.get("objects").get(0).get("version").asText());
+		assertEquals(error, node.get("objects").get(1));
+	}
+
+	@Test
+	public void searchResponseIsWrapped() {
+
+		ShardId shard = new ShardId("test-data-message-0", "uuid", 0);
+		SearchHit hit1 = new SearchHit(0, "1", null, Collections.emptyMap(), Collections.emptyMap());
+		hit1.sourceRef(new BytesArray(SOURCE));
+		hit1.shard(new SearchShardTarget("node", shard, null, OriginalIndices.NONE));
+		hit1.sortValues(new Object[] { 12L, "1" }, //
+				new DocValueFormat[] { DocValueFormat.RAW, DocValueFormat.RAW });
+		SearchHit hit2 = new SearchHit(1, "2", null, Collections.emptyMap(), Collections.emptyMap());
+		hit2.shard(new SearchShardTarget("node", shard, null, OriginalIndices.NONE));
+		hit2.score(Float.NaN);
+
+		SearchHits hits = new SearchHits(new SearchHit[] { hit1, hit2 }, //
+				new TotalHits(5, TotalHits.Relation.EQUAL_TO), 1);
+		SearchResponse response = new SearchResponse(//
+				new InternalSearchResponse(hits, null, null, null, false, null, 1), //
+				null, 1, 1, 0, 1, ShardSearchFailure.EMPTY_ARRAY, SearchResponse.Clusters.EMPTY);
+
+		JsonNode node = DataRawStreamingOutput.of(response, "next").toJsonNode();
+		assertEquals(5, node.get("total").asLong());
+		assertEquals("next", node.get("next").asText());
+		assertTrue(node.get("aggregations").isNull());
+		assertEquals(2, node.get("objects").size());
+
+		JsonNode object = node.get("objects").get(0);
+		assertEquals(Json.readNode(SOURCE), object.get("source"));
+		assertEquals("1", object.get("id").asText());
+		assertEquals("message", object.get("type").asText());
+		assertEquals(12, object.get("sort").get(0).asLong());
+
+		// no source and no score
+		object = node.get("objects").get(1);
+		assertTrue(object.get("source").isNull());
+		assertEquals(0, object.get("score").asDouble(), 0);
+		assertTrue(object.get("sort").isNull());
+	}
+
+	@Test
+	public void rawJsonCanBeWrittenAsStrings() throws Exception {
+		DataRawStreamingOutput.RawJson raw = new DataRawStreamingOutput.RawJson(//
+				SOURCE.getBytes(StandardCharsets.UTF_8));
+
+		StringWriter writer = new StringWriter();
+		JsonGenerator generator = Json.mapper().getFactory().createGenerator(writer);
+		generator.writeStartObject();
+		generator.writeFieldName(raw);
+		generator.writeString(raw);
+		generator.writeFieldName("raw");
+		generator.writeRawValue(raw);
+		generator.writeEndObject();
+		generator.close();
+
+		JsonNode node = Json.readNode(writer.toString());
+		assertEquals(SOURCE, node.get(SOURCE).asText());
+		assertEquals(Json.readNode(SOURCE), node.get("raw"));
+
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		generator = Json.mapper().getFactory().createGenerator(output);
+		generator.writeStartArray();
+		generator.writeString(raw);
+		generator.writeEndArray();
+		generator.close();
+		assertEquals(SOURCE, Json.readNode(output.toByteArray()).get(0).asText());
+	}
+}
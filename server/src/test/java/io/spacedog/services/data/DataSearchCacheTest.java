@@ -0,0 +1,87 @@
+package io.spacedog.services.data;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.base.Strings;
+
+import io.spacedog.client.data.DataSettings.SearchCacheSettings;
+
+public class DataSearchCacheTest extends Assert {
+
+	private AtomicInteger searches = new AtomicInteger();
+
+	private Supplier<DataRawStreamingOutput> search = () -> DataRawStreamingOutput.of(//
+			("{\"total\":" + searches.incrementAndGet() + "}").getBytes());
+
+	@Test
+	public void resultsAreCachedUntilWrites() throws InterruptedException {
+
+		DataSearchCache cache = new DataSearchCache();
+		SearchCacheSettings settings = new SearchCacheSettings(60, 10);
+
+		assertEquals(1, total(cache.get("test", "message", "q1", settings, search)));
+		assertEquals(1, total(cache.get("test", "message", "q1", settings, search)));
+		assertEquals(2, total(cache.get("test", "message", "q2", settings, search)));
+		assertEquals(3, total(cache.get("test", "other", "q1", settings, search)));
+		assertEquals(4, total(cache.get("test2", "message", "q1", settings, search)));
+
+		JsonNode stats = cache.stats("test");
+		assertEquals(1, stats.get("message").get("hits").asLong());
+		assertEquals(2, stats.get("message").get("misses").asLong());
+		assertEquals(2, stats.get("message").get("size").asLong());
+
+		// results fetched just after a write are not cached
+		// since elastic has not yet refreshed the index
+		cache.invalidate("test", "message");
+		assertEquals(5, total(cache.get("test", "message", "q1", settings, search)));
+		assertEquals(6, total(cache.get("test", "message", "q1", settings, search)));
+
+		Thread.sleep(1100);
+		assertEquals(7, total(cache.get("test", "message", "q1", settings, search)));
+		assertEquals(7, total(cache.get("test", "message", "q1", settings, search)));
+
+		// other types and backends are not invalidated
+		assertEquals(3, total(cache.get("test", "other", "q1", settings, search)));
+		assertEquals(4, total(cache.get("test2", "message", "q1", settings, search)));
+
+		// new settings means new cache
+		settings = new SearchCacheSettings(60, 20);
+		assertEquals(8, total(cache.get("test", "message", "q1", settings, search)));
+		assertEquals(8, total(cache.get("test", "message", "q1", settings, search)));
+
+		cache.invalidateAll("test");
+		assertEquals(0, cache.stats("test").get("other").get("size").asLong());
+		assertEquals(1, cache.stats("test2").get("message").get("size").asLong());
+	}
+
+	@Test
+	public void cachesAreBoundedInBytes() {
+
+		DataSearchCache cache = new DataSearchCache();
+		SearchCacheSettings settings = new SearchCacheSettings(60, 100);
+		settings.refreshIntervalInMillis = 0;
+
+		// results bigger than the cache are never cached
+		Supplier<DataRawStreamingOutput> big = () -> DataRawStreamingOutput.of(//
+				("{\"total\":" + searches.incrementAndGet() + ",\"padding\":\"" //
+						+ Strings.repeat("x", 200 * 1024) + "\"}").getBytes());
+
+		assertEquals(1, total(cache.get("test", "message", "q1", settings, big)));
+		assertEquals(2, total(cache.get("test", "message", "q1", settings, big)));
+		assertEquals(0, cache.stats("test").get("message").get("size").asLong());
+
+		// small results are
+		assertEquals(3, total(cache.get("test", "message", "q2", settings, search)));
+		assertEquals(3, total(cache.get("test", "message", "q2", settings, search)));
+		assertEquals(1, cache.stats("test").get("message").get("size").asLong());
+	}
+
+	private long total(DataRawStreamingOutput output) {
+		return output.toJsonNode().get("total").asLong();
+	}
+}
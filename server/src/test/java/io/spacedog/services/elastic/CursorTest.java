@@ -0,0 +1,93 @@
+package io.spacedog.services.elastic;
+
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+import org.elasticsearch.search.sort.ScoreSortBuilder;
+import org.elasticsearch.search.sort.SortBuilders;
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.spacedog.client.http.SpaceException;
+import io.spacedog.services.db.elastic.ElasticCursor;
+
+public class CursorTest extends Assert {
+
+	private static final String SCROLL_ID = "DXF1ZXJ5QW5kRmV0Y2gBAAAAAAAAAD4WYm9laVYtZndUQlNsdDcwakFMNjU1QQ==";
+
+	@Test
+	public void testCursorRoundTrip() {
+
+		String cursor = ElasticCursor.toString("test", "vince", SCROLL_ID);
+
+		// cursor is url safe
+		assertFalse(cursor.contains("+"));
+		assertFalse(cursor.contains("/"));
+		assertFalse(cursor.contains("="));
+
+		assertEquals(SCROLL_ID, ElasticCursor.scrollId(cursor, "test", "vince"));
+	}
+
+	@Test
+	public void testCursorIsOnlyValidForItsCredentials() {
+
+		String cursor = ElasticCursor.toString("test", "vince", SCROLL_ID);
+		assertInvalid(() -> ElasticCursor.scrollId(cursor, "test", "fred"));
+		assertInvalid(() -> ElasticCursor.scrollId(cursor, "other", "vince"));
+		assertInvalid(() -> ElasticCursor.scrollId("%%%", "test", "vince"));
+		assertInvalid(() -> ElasticCursor.scrollId("e30", "test", "vince"));
+
+		// anonymous cursors are only valid for anonymous requests
+		String anonymous = ElasticCursor.toString("test", null, SCROLL_ID);
+		assertEquals(SCROLL_ID, ElasticCursor.scrollId(anonymous, "test", null));
+		assertInvalid(() -> ElasticCursor.scrollId(anonymous, "test", "vince"));
+	}
+
+	@Test
+	public void testNext() {
+		assertNull(ElasticCursor.next("test", "vince", SCROLL_ID, 0, 10));
+		assertNull(ElasticCursor.next("test", "vince", SCROLL_ID, 3, 10));
+		assertNull(ElasticCursor.next("test", "vince", null, 10, 10));
+		assertEquals(ElasticCursor.toString("test", "vince", SCROLL_ID), //
+				ElasticCursor.next("test", "vince", SCROLL_ID, 10, 10));
+	}
+
+	@Test
+	public void testPrepare() {
+
+		// default sort is score then doc
+		SearchSourceBuilder source = ElasticCursor.prepare(//
+				SearchSourceBuilder.searchSource().size(5));
+		assertEquals(2, source.sorts().size());
+		assertTrue(source.sorts().get(0) instanceof ScoreSortBuilder);
+		assertEquals("_doc", ((FieldSortBuilder) source.sorts().get(1)).getFieldName());
+
+		// doc tiebreak is not added twice
+		source = SearchSourceBuilder.searchSource()//
+				.sort(SortBuilders.fieldSort("createdAt"))//
+				.sort(SortBuilders.fieldSort("_doc"));
+		ElasticCursor.prepare(source);
+		assertEquals(2, source.sorts().size());
+
+		// no id sort since it loads the _id fielddata
+		source = ElasticCursor.prepare(SearchSourceBuilder.searchSource()//
+				.sort(SortBuilders.fieldSort("createdAt")));
+		assertEquals("_doc", ((FieldSortBuilder) source.sorts().get(1)).getFieldName());
+
+		// from and cursor are mutually exclusive
+		try {
+			ElasticCursor.prepare(SearchSourceBuilder.searchSource().from(10));
+			fail();
+		} catch (SpaceException e) {
+			assertEquals(400, e.httpStatus());
+		}
+	}
+
+	private void assertInvalid(Runnable action) {
+		try {
+			action.run();
+			fail();
+		} catch (SpaceException e) {
+			assertEquals(400, e.httpStatus());
+		}
+	}
+}
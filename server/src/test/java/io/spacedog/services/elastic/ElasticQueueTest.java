@@ -0,0 +1,38 @@
+package io.spacedog.services.elastic;
+
+import java.util.List;
+
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.index.query.RangeQueryBuilder;
+import org.elasticsearch.index.query.TermQueryBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.spacedog.services.db.elastic.ElasticQueue;
+
+public class ElasticQueueTest extends Assert {
+
+	@Test
+	public void backoffIsExponentialAndBounded() {
+		assertEquals(10000, ElasticQueue.backoff(0));
+		assertEquals(10000, ElasticQueue.backoff(1));
+		assertEquals(20000, ElasticQueue.backoff(2));
+		assertEquals(40000, ElasticQueue.backoff(3));
+		assertEquals(1000 * 60 * 60, ElasticQueue.backoff(20));
+	}
+
+	@Test
+	public void claimsExpireAfterTheirTimeoutAndAGraceDelay() {
+		long now = 1000 * 60 * 10;
+		List<QueryBuilder> filters = ElasticQueue.expiredClaims("sending", now).filter();
+
+		TermQueryBuilder status = (TermQueryBuilder) filters.get(0);
+		assertEquals(ElasticQueue.STATUS_FIELD, status.fieldName());
+		assertEquals("sending", status.value());
+
+		RangeQueryBuilder timeoutAt = (RangeQueryBuilder) filters.get(1);
+		assertEquals(ElasticQueue.TIMEOUT_AT_FIELD, timeoutAt.fieldName());
+		assertEquals(now - 1000 * 60, timeoutAt.to());
+		assertFalse(timeoutAt.includeUpper());
+	}
+}
@@ -1,5 +1,13 @@
 package io.spacedog.services.elastic;
 
+import java.util.Collections;
+import java.util.Map;
+
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.index.get.GetResult;
+import org.elasticsearch.index.mapper.RoutingFieldMapper;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -39,4 +47,44 @@ public class IndexTest extends Assert {
 				.type("message").backendId("test").version(0).toString());
 	}
 
+	@Test
+	public void testShared() {
+
+		ElasticIndex index = new ElasticIndex("log").backendId("test");
+		assertEquals("shared.pool-log-0", index.sharedName());
+		assertEquals("test-log", index.alias());
+		assertTrue(index.isShareable());
+		assertTrue(ElasticIndex.isShared(index.sharedName()));
+		assertFalse(ElasticIndex.isShared(index.toString()));
+		assertFalse(new ElasticIndex("data").type("message").isShareable());
+
+		// shared index names are still parsable
+		index = ElasticIndex.valueOf("shared.pool-session-0");
+		assertEquals("session", index.service());
+		assertEquals(0, index.version());
+
+		// server indices are not shared indices
+		index = new ElasticIndex("outbox").backendId(ElasticIndex.SERVER_POOL);
+		assertEquals("server.pool-outbox-0", index.toString());
+		assertFalse(ElasticIndex.isShared(index.toString()));
+	}
+
+	@Test
+	public void testOwns() {
+
+		ElasticIndex index = new ElasticIndex("session").backendId("test");
+		assertTrue(index.owns(response(null)));
+		assertTrue(index.owns(response("test")));
+		assertFalse(index.owns(response("other")));
+	}
+
+	private GetResponse response(String routing) {
+		Map<String, DocumentField> metaFields = routing == null //
+				? Collections.emptyMap()
+				: Collections.singletonMap(RoutingFieldMapper.NAME, //
+						new DocumentField(RoutingFieldMapper.NAME, Collections.singletonList(routing)));
+
+		return new GetResponse(new GetResult("shared.pool-session-0", "_doc", "token", //
+				0, 1, 1, true, new BytesArray("{}"), Collections.emptyMap(), metaFields));
+	}
 }
@@ -0,0 +1,91 @@
+package io.spacedog.services.elastic;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.spacedog.services.db.elastic.ElasticUtils;
+import io.spacedog.utils.Json;
+
+public class TaskStatusTest extends Assert {
+
+	@Test
+	public void progressIsComputedFromTaskStatus() {
+
+		ObjectNode task = task(false, 2, Json.object("total", 1000, "deleted", 250, //
+				"batches", 3, "version_conflicts", 2, "requests_per_second", 500.0));
+
+		ObjectNode json = ElasticUtils.toTaskStatus(task);
+
+		assertEquals("node1:12", json.get("id").asText());
+		assertFalse(json.get("completed").asBoolean());
+		assertTrue(json.get("reasonCancelled").isNull());
+		assertEquals(1000, json.get("total").asLong());
+		assertEquals(250, json.get("deleted").asLong());
+		assertEquals(3, json.get("batches").asLong());
+		assertEquals(2, json.get("versionConflicts").asLong());
+		assertEquals(0.25, json.get("progress").asDouble(), 0.0001);
+		assertEquals(125, json.get("rate").asDouble(), 0.0001);
+		assertEquals(500, json.get("requestsPerSecond").asDouble(), 0.0001);
+		assertEquals(0, json.get("failures").size());
+		assertTrue(json.get("error").isNull());
+	}
+
+	@Test
+	public void cancelledTasksHaveAReason() {
+
+		ObjectNode json = ElasticUtils.toTaskStatus(task(true, 0, //
+				Json.object("total", 0, "deleted", 0, "canceled", "by user request")));
+
+		assertTrue(json.get("completed").asBoolean());
+		assertEquals("by user request", json.get("reasonCancelled").asText());
+		assertEquals(0, json.get("progress").asDouble(), 0);
+		assertEquals(0, json.get("rate").asDouble(), 0);
+	}
+
+	@Test
+	public void completedTasksShowTheirFailures() {
+
+		ObjectNode task = task(true, 1, Json.object("total", 3, "deleted", 1));
+		task.set("response", Json.object("total", 3, "deleted", 2, "batches", 1, //
+				"failures", Json.array(Json.object("index", "test-data-message", //
+						"id", "1", "status", 409))));
+
+		ObjectNode json = ElasticUtils.toTaskStatus(task);
+
+		// final counts come from the response
+		assertEquals(2, json.get("deleted").asLong());
+		assertEquals(1, json.get("failures").size());
+		assertEquals("1", json.get("failures").get(0).get("id").asText());
+		assertTrue(json.get("error").isNull());
+	}
+
+	@Test
+	public void failedTasksShowTheirError() {
+
+		ObjectNode task = task(true, 1, Json.object("total", 3, "deleted", 0));
+		task.set("error", Json.object("type", "search_phase_execution_exception", //
+				"reason", "all shards failed"));
+
+		ObjectNode json = ElasticUtils.toTaskStatus(task);
+
+		assertTrue(json.get("completed").asBoolean());
+		assertEquals("all shards failed", json.get("error").get("reason").asText());
+		assertEquals(0, json.get("failures").size());
+	}
+
+	private ObjectNode task(boolean completed, long runningTimeSeconds, ObjectNode status) {
+		return Json.object("completed", completed, //
+				"task", Json.object("node", "node1", "id", 12, //
+						"type", "transport", "action", "indices:data/write/delete/byquery", //
+						"description", "delete-by-query [test-data-message]", //
+						"status", status, //
+						"start_time_in_millis", System.currentTimeMillis(), //
+						"running_time_in_nanos", TimeUnit.SECONDS.toNanos(runningTimeSeconds), //
+						"cancellable", true, //
+						"headers", Json.object("X-Opaque-Id", "test/superadmin")));
+	}
+}
@@ -0,0 +1,43 @@
+package io.spacedog.services.email;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import io.spacedog.client.email.EmailBasicRequest;
+import io.spacedog.client.email.EmailMessage;
+
+public class EmailDispatcherTest extends Assert {
+
+	@Test
+	public void sensitiveContentsAreNotKept() {
+		EmailMessage message = message();
+		message.sensitive = true;
+		EmailDispatcher.stripIfSensitive(message);
+
+		assertNull(message.request.text);
+		assertNull(message.request.html);
+		assertEquals("reset your password", message.request.subject);
+		assertEquals("vince@dog.com", message.request.to.get(0));
+	}
+
+	@Test
+	public void otherContentsAreKept() {
+		EmailMessage message = message();
+		EmailDispatcher.stripIfSensitive(message);
+
+		assertEquals("your code is 1234", message.request.text);
+		assertEquals("<p>your code is 1234</p>", message.request.html);
+	}
+
+	private EmailMessage message() {
+		EmailMessage message = new EmailMessage();
+		message.request = new EmailBasicRequest();
+		message.request.to = Lists.newArrayList("vince@dog.com");
+		message.request.subject = "reset your password";
+		message.request.text = "your code is 1234";
+		message.request.html = "<p>your code is 1234</p>";
+		return message;
+	}
+}
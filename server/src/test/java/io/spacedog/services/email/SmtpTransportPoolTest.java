@@ -0,0 +1,262 @@
+package io.spacedog.services.email;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import io.spacedog.client.email.EmailSettings.SmtpSettings;
+import io.spacedog.utils.Utils;
+
+public class SmtpTransportPoolTest extends Assert {
+
+	private SmtpStandIn server;
+	private SmtpTransportPool pool;
+	private SmtpSettings settings;
+
+	@Before
+	public void before() throws IOException {
+		server = new SmtpStandIn();
+		pool = new SmtpTransportPool(false);
+		settings = new SmtpSettings();
+		settings.host = "localhost";
+		settings.port = server.port();
+	}
+
+	@After
+	public void after() throws IOException {
+		pool.closeAll();
+		server.close();
+	}
+
+	@Test
+	public void messagesAreSentOnTheSameConnection() throws Exception {
+		for (int i = 0; i < 3; i++)
+			pool.send(settings, message("hello " + i));
+
+		server.waitForMessages(3);
+		assertEquals(1, pool.opened());
+		assertEquals(1, server.connections.get());
+		assertEquals(3, server.messages.get());
+	}
+
+	@Test
+	public void connectionsClosedByTheServerAreOpenedAgain() throws Exception {
+		pool.send(settings, message("hello"));
+		server.waitForMessages(1);
+
+		// server closes idle connections
+		server.dropConnections();
+		pool.send(settings, message("hello again"));
+
+		server.waitForMessages(2);
+		assertEquals(2, pool.opened());
+		assertEquals(2, server.messages.get());
+	}
+
+	@Test
+	public void idleConnectionsAreClosed() throws Exception {
+		pool.send(settings, message("hello"));
+		Thread.sleep(10);
+		pool.closeIdle(0);
+		pool.send(settings, message("hello again"));
+
+		server.waitForMessages(2);
+		assertEquals(2, pool.opened());
+	}
+
+	@Test
+	public void idleProfilesAreEvicted() throws Exception {
+		SmtpSettings other = new SmtpSettings();
+		other.host = settings.host;
+		other.port = settings.port;
+		other.login = "vince";
+		other.password = "hi vince";
+
+		pool.send(settings, message("hello"));
+		pool.send(other, message("hello vince"));
+		assertEquals(2, pool.size());
+
+		Thread.sleep(10);
+		pool.closeIdle(0);
+		assertEquals(0, pool.size());
+
+		// evicted profiles get a new connection
+		pool.send(settings, message("hello again"));
+		server.waitForMessages(3);
+		assertEquals(1, pool.size());
+		assertEquals(3, pool.opened());
+	}
+
+	@Test
+	public void failuresAreClassifiedByReplyCode() throws Exception {
+		server.rcptReply = "450 4.2.1 mailbox busy";
+		assertTrue(SmtpTransportPool.isTemporary(sendAndFail()));
+
+		server.rcptReply = "550 5.1.1 no such user";
+		assertFalse(SmtpTransportPool.isTemporary(sendAndFail()));
+
+		// invalid addresses have no reply code
+		assertFalse(SmtpTransportPool.isTemporary(new SendFailedException("invalid")));
+	}
+
+	@Test
+	public void profilesHaveTheirOwnConnection() throws Exception {
+		SmtpSettings other = new SmtpSettings();
+		other.host = settings.host;
+		other.port = settings.port;
+		other.login = "vince";
+		other.password = "hi vince";
+
+		pool.send(settings, message("hello"));
+		pool.send(other, message("hello vince"));
+		pool.send(settings, message("hello again"));
+
+		server.waitForMessages(3);
+		assertEquals(2, pool.opened());
+	}
+
+	private SendFailedException sendAndFail() throws MessagingException {
+		try {
+			pool.send(settings, message("hello"));
+			throw new AssertionError("send should have failed");
+
+		} catch (SendFailedException e) {
+			return e;
+		}
+	}
+
+	private MimeMessage message(String text) throws MessagingException {
+		MimeMessage message = new MimeMessage(pool.session(settings));
+		message.setFrom(new InternetAddress("david@spacedog.io"));
+		message.addRecipient(MimeMessage.RecipientType.TO, //
+				new InternetAddress("platform@spacedog.io"));
+		message.setSubject(text);
+		message.setText(text, "UTF-8");
+		message.saveChanges();
+		return message;
+	}
+
+	/**
+	 * Local SMTP server accepting any message without authentication
+	 */
+	private static class SmtpStandIn implements Runnable {
+
+		private final ServerSocket socket;
+		private final List<Socket> clients = Lists.newCopyOnWriteArrayList();
+		private final AtomicInteger connections = new AtomicInteger();
+		private final AtomicInteger messages = new AtomicInteger();
+		private volatile String rcptReply = "250 OK";
+
+		private SmtpStandIn() throws IOException {
+			socket = new ServerSocket(0);
+			Thread thread = new Thread(this, "smtp-stand-in");
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		private int port() {
+			return socket.getLocalPort();
+		}
+
+		@Override
+		public void run() {
+			while (!socket.isClosed()) {
+				try {
+					Socket client = socket.accept();
+					connections.incrementAndGet();
+					clients.add(client);
+					Thread thread = new Thread(() -> converse(client), "smtp-stand-in-client");
+					thread.setDaemon(true);
+					thread.start();
+				} catch (IOException e) {
+					// socket closed
+				}
+			}
+		}
+
+		private void converse(Socket client) {
+			try {
+				BufferedReader in = new BufferedReader(//
+						new InputStreamReader(client.getInputStream(), Utils.UTF8));
+				PrintWriter out = new PrintWriter(client.getOutputStream(), true);
+				reply(out, "220 localhost");
+
+				String line;
+				boolean data = false;
+				while ((line = in.readLine()) != null) {
+					if (data) {
+						if (line.equals(".")) {
+							data = false;
+							messages.incrementAndGet();
+							reply(out, "250 OK");
+						}
+						continue;
+					}
+
+					String command = line.length() < 4 ? line : line.substring(0, 4).toUpperCase();
+					if (command.equals("DATA")) {
+						data = true;
+						reply(out, "354 End data with <CR><LF>.<CR><LF>");
+					} else if (command.equals("RCPT"))
+						reply(out, rcptReply);
+					else if (command.equals("QUIT")) {
+						reply(out, "221 Bye");
+						break;
+					} else
+						reply(out, "250 OK");
+				}
+			} catch (IOException e) {
+				// connection dropped
+			} finally {
+				close(client);
+			}
+		}
+
+		private void reply(PrintWriter out, String line) {
+			out.print(line + "\r\n");
+			out.flush();
+		}
+
+		private void waitForMessages(int count) throws InterruptedException {
+			for (int i = 0; i < 100 && messages.get() < count; i++)
+				Thread.sleep(20);
+		}
+
+		private void dropConnections() throws InterruptedException {
+			clients.forEach(client -> close(client));
+			clients.clear();
+			// let the client side notice
+			Thread.sleep(50);
+		}
+
+		private void close(Socket client) {
+			try {
+				client.close();
+			} catch (IOException e) {
+				// ignored
+			}
+		}
+
+		private void close() throws IOException {
+			clients.forEach(client -> close(client));
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package io.spacedog.services.job;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.spacedog.client.http.SpaceException;
+
+public class JobScheduleTest extends Assert {
+
+	// wednesday
+	private static final DateTime NOW = new DateTime(2020, 6, 3, 10, 15, 42, 123, DateTimeZone.UTC);
+
+	@Test
+	public void ratesAreAddedToTheLastSchedule() {
+		assertEquals(NOW.plusMinutes(5), JobSchedule.parse("rate(5 minutes)").next(NOW));
+		assertEquals(NOW.plusHours(1), JobSchedule.parse("rate(1 hour)").next(NOW));
+		assertEquals(NOW.plusDays(2), JobSchedule.parse("rate(2 days)").next(NOW));
+		assertTrue(JobSchedule.parse("rate(2 days)").isRate());
+	}
+
+	@Test
+	public void standardCronMatchesTheNextMinute() {
+		assertEquals(utc(2020, 6, 3, 10, 16), JobSchedule.parse("* * * * *").next(NOW));
+		assertEquals(utc(2020, 6, 3, 10, 30), JobSchedule.parse("*/15 * * * *").next(NOW));
+		assertEquals(utc(2020, 6, 3, 12, 0), JobSchedule.parse("0 12 * * *").next(NOW));
+		assertEquals(utc(2020, 6, 4, 9, 0), JobSchedule.parse("0 9 * * *").next(NOW));
+		assertEquals(utc(2020, 7, 1, 0, 0), JobSchedule.parse("0 0 1 * *").next(NOW));
+		assertEquals(utc(2021, 1, 1, 0, 0), JobSchedule.parse("0 0 1 jan *").next(NOW));
+		assertEquals(utc(2024, 2, 29, 0, 0), JobSchedule.parse("0 0 29 2 *").next(NOW));
+	}
+
+	@Test
+	public void standardCronMatchesWeekDays() {
+		// sunday is 0 or 7
+		assertEquals(utc(2020, 6, 7, 8, 0), JobSchedule.parse("0 8 * * 0").next(NOW));
+		assertEquals(utc(2020, 6, 7, 8, 0), JobSchedule.parse("0 8 * * 7").next(NOW));
+		assertEquals(utc(2020, 6, 7, 8, 0), JobSchedule.parse("0 8 * * SUN").next(NOW));
+		assertEquals(utc(2020, 6, 4, 8, 0), JobSchedule.parse("0 8 * * mon-fri").next(NOW));
+		assertEquals(utc(2020, 6, 5, 8, 0), JobSchedule.parse("0 8 * * 5,6").next(NOW));
+		// day of month or day of week when both are restricted
+		assertEquals(utc(2020, 6, 4, 8, 0), JobSchedule.parse("0 8 15 * 4").next(NOW));
+		assertEquals(utc(2020, 6, 4, 8, 0), JobSchedule.parse("0 8 4 * 1").next(NOW));
+	}
+
+	@Test
+	public void awsCronMatchesWeekDaysFromSunday() {
+		assertEquals(utc(2020, 6, 3, 12, 0), JobSchedule.parse("cron(0 12 * * ? *)").next(NOW));
+		// 1 is sunday and 7 is saturday
+		assertEquals(utc(2020, 6, 7, 8, 0), JobSchedule.parse("cron(0 8 ? * 1 *)").next(NOW));
+		assertEquals(utc(2020, 6, 6, 8, 0), JobSchedule.parse("cron(0 8 ? * 7 *)").next(NOW));
+		assertEquals(utc(2020, 6, 4, 8, 0), JobSchedule.parse("cron(0 8 ? * MON-FRI *)").next(NOW));
+		assertEquals(utc(2020, 6, 10, 0, 0), JobSchedule.parse("cron(0 0 10 * ? *)").next(NOW));
+	}
+
+	@Test
+	public void nextIsStrictlyAfter() {
+		DateTime noon = utc(2020, 6, 3, 12, 0);
+		assertEquals(utc(2020, 6, 4, 12, 0), JobSchedule.parse("0 12 * * *").next(noon));
+	}
+
+	@Test
+	public void invalidSchedulesAreRejected() {
+		shouldBeInvalid("rate(0 minutes)");
+		shouldBeInvalid("rate(5 seconds)");
+		shouldBeInvalid("* * * *");
+		shouldBeInvalid("60 * * * *");
+		shouldBeInvalid("* 24 * * *");
+		shouldBeInvalid("* * 0 * *");
+		shouldBeInvalid("* * * 13 *");
+		shouldBeInvalid("* * * * 8");
+		shouldBeInvalid("*/0 * * * *");
+		shouldBeInvalid("5-2 * * * *");
+		shouldBeInvalid("cron(0 12 * * ?)");
+		shouldBeInvalid("cron(0 12 * * ? 2021)");
+		shouldBeInvalid("cron(0 12 L * ? *)");
+		shouldBeInvalid("cron(0 12 ? * 0 *)");
+		shouldBeInvalid("0 0 31 2 *");
+	}
+
+	private void shouldBeInvalid(String expression) {
+		try {
+			JobSchedule.parse(expression).next(NOW);
+			fail(expression);
+		} catch (SpaceException e) {
+			assertEquals(400, e.httpStatus());
+		}
+	}
+
+	private static DateTime utc(int year, int month, int day, int hour, int minute) {
+		return new DateTime(year, month, day, hour, minute, DateTimeZone.UTC);
+	}
+}
@@ -0,0 +1,88 @@
+package io.spacedog.services.job;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.spacedog.client.job.SpaceTask;
+import io.spacedog.client.job.SpaceTask.Status;
+import io.spacedog.services.db.elastic.ElasticQueue;
+
+public class JobService2Test extends Assert {
+
+	private static final DateTime NOW = new DateTime(2020, 6, 3, 10, 15, 0, 0, DateTimeZone.UTC);
+
+	@Test
+	public void claimedTasksAreInProgressOnThisServer() {
+		SpaceTask task = task(NOW);
+
+		assertTrue(JobService2.claimed(task, "server1", NOW));
+		assertEquals(Status.in_progress, task.status);
+		assertEquals("server1", task.claimedBy);
+		assertEquals(1, task.tries);
+		assertEquals(NOW, task.started);
+		assertEquals(NOW.plusSeconds(30), task.timeoutAt);
+	}
+
+	@Test
+	public void tasksOfDeadServersAreClaimedAgainOrFail() {
+		SpaceTask task = task(NOW);
+		task.retries = 1;
+		JobService2.claimed(task, "server1", NOW);
+
+		// server1 dies, server2 claims the task again
+		assertTrue(JobService2.claimed(task, "server2", NOW.plusMinutes(2)));
+		assertEquals("task timed out on server [server1]", task.error);
+		assertEquals("server2", task.claimedBy);
+		assertEquals(2, task.tries);
+
+		// server2 dies, no more tries left
+		assertFalse(JobService2.claimed(task, "server3", NOW.plusMinutes(4)));
+		assertEquals("task timed out on server [server2]", task.error);
+	}
+
+	@Test
+	public void retriesDoNotMoveTheSchedule() {
+		SpaceTask task = task(NOW);
+		task.retries = 2;
+
+		// first try times out
+		JobService2.claimed(task, "server1", NOW);
+		DateTime failedAt = NOW.plusSeconds(30);
+		assertTrue(JobService2.retried(task, "timed out after [30] seconds", failedAt));
+
+		assertEquals(Status.scheduled, task.status);
+		assertEquals(NOW, task.scheduled);
+		assertEquals(failedAt.plus(ElasticQueue.backoff(1)), task.retryAt);
+		assertEquals(task.retryAt, task.due());
+		assertNull(task.claimedBy);
+		assertNull(task.timeoutAt);
+
+		// second try fails
+		JobService2.claimed(task, "server1", task.retryAt);
+		failedAt = task.retryAt.plusSeconds(1);
+		assertTrue(JobService2.retried(task, "request failed with status [500]", failedAt));
+		assertEquals(NOW, task.scheduled);
+		assertEquals(failedAt.plus(ElasticQueue.backoff(2)), task.retryAt);
+
+		// third try fails, no more tries left
+		JobService2.claimed(task, "server1", task.retryAt);
+		assertFalse(JobService2.retried(task, "request failed with status [500]", NOW.plusHours(1)));
+		assertEquals("request failed with status [500]", task.error);
+
+		// the next rate execution is computed from the original schedule
+		assertEquals(NOW.plusMinutes(5), JobSchedule.parse("rate(5 minutes)").next(task.scheduled));
+	}
+
+	private SpaceTask task(DateTime scheduled) {
+		SpaceTask task = new SpaceTask();
+		task.backendId = "test";
+		task.jobName = "purge";
+		task.scheduled = scheduled;
+		task.timeoutInSeconds = 30;
+		task.status = Status.scheduled;
+		task.id = SpaceTask.id(task.backendId, task.jobName, scheduled);
+		return task;
+	}
+}
@@ -0,0 +1,124 @@
+package io.spacedog.services.log;
+
+import org.elasticsearch.index.query.QueryBuilders;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.Interval;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Range;
+
+public class LogPartitioningTest extends Assert {
+
+	private static final DateTime DATE = new DateTime(2020, 6, 3, 23, 30, DateTimeZone.UTC);
+
+	@Test
+	public void partitionsAreNamedAfterTheirPeriod() {
+
+		assertEquals("2020.06.03", LogPartitioning.day.name(DATE));
+		assertEquals("2020.w23", LogPartitioning.week.name(DATE));
+
+		// names are computed in UTC
+		assertEquals("2020.06.03", LogPartitioning.day.name(//
+				DATE.withZone(DateTimeZone.forOffsetHours(2))));
+		assertEquals("2020.06.04", LogPartitioning.day.name(DATE.plusHours(1)));
+	}
+
+	@Test
+	public void partitionNamesAreParsed() {
+
+		Interval period = LogPartitioning.parse("2020.06.03").get();
+		assertEquals(new DateTime(2020, 6, 3, 0, 0, DateTimeZone.UTC), period.getStart());
+		assertEquals(new DateTime(2020, 6, 4, 0, 0, DateTimeZone.UTC), period.getEnd());
+
+		// weeks start on monday
+		period = LogPartitioning.parse("2020.w23").get();
+		assertEquals(new DateTime(2020, 6, 1, 0, 0, DateTimeZone.UTC), period.getStart());
+		assertEquals(new DateTime(2020, 6, 8, 0, 0, DateTimeZone.UTC), period.getEnd());
+		assertTrue(period.contains(DATE));
+
+		assertFalse(LogPartitioning.parse("0").isPresent());
+		assertFalse(LogPartitioning.parse("2020.6.3").isPresent());
+		assertFalse(LogPartitioning.parse("message").isPresent());
+	}
+
+	@Test
+	public void receivedAtRangeIsExtractedFromQueries() {
+
+		DateTime from = DATE.minusDays(1);
+
+		assertEquals(Range.all(), LogPartitioning.receivedAtRange(null));
+		assertEquals(Range.all(), LogPartitioning.receivedAtRange(//
+				QueryBuilders.matchAllQuery()));
+		assertEquals(Range.all(), LogPartitioning.receivedAtRange(//
+				QueryBuilders.rangeQuery("processedIn").gte(10)));
+
+		assertEquals(Range.closed(from, DATE), LogPartitioning.receivedAtRange(//
+				QueryBuilders.rangeQuery("receivedAt").gte(from.toString()).lt(DATE.toString())));
+
+		assertEquals(Range.atLeast(from), LogPartitioning.receivedAtRange(//
+				QueryBuilders.boolQuery()//
+						.must(QueryBuilders.termQuery("status", 200))//
+						.filter(QueryBuilders.rangeQuery("receivedAt").gte(from.getMillis()))));
+
+		assertEquals(Range.closed(from, DATE), LogPartitioning.receivedAtRange(//
+				QueryBuilders.constantScoreQuery(QueryBuilders.boolQuery()//
+						.filter(QueryBuilders.rangeQuery("receivedAt").gte(from.toString()))//
+						.filter(QueryBuilders.rangeQuery("receivedAt").lte(DATE.toString())))));
+
+		// date math and custom formats are not supported
+		assertEquals(Range.all(), LogPartitioning.receivedAtRange(//
+				QueryBuilders.rangeQuery("receivedAt").gte("now-1d")));
+		assertEquals(Range.all(), LogPartitioning.receivedAtRange(//
+				QueryBuilders.rangeQuery("receivedAt").lte("2020-06-02||/d")));
+		assertEquals(Range.all(), LogPartitioning.receivedAtRange(//
+				QueryBuilders.rangeQuery("receivedAt").gte("02/06/2020").format("dd/MM/yyyy")));
+	}
+
+	@Test
+	public void datesWithoutOffsetAreInUtcAndRoundedUp() {
+
+		DateTime june2 = new DateTime(2020, 6, 2, 0, 0, DateTimeZone.UTC);
+
+		// whatever the default time zone
+		DateTimeZone defaultZone = DateTimeZone.getDefault();
+		DateTimeZone.setDefault(DateTimeZone.forID("Europe/Paris"));
+
+		try {
+			// lte a day means up to the end of this day
+			Range<DateTime> range = LogPartitioning.receivedAtRange(//
+					QueryBuilders.rangeQuery("receivedAt").lte("2020-06-02"));
+			assertEquals(june2.plusDays(1).minusMillis(1), range.upperEndpoint());
+			assertEquals("2020.06.02", LogPartitioning.day.name(range.upperEndpoint()));
+
+			// lower bounds are not rounded up
+			range = LogPartitioning.receivedAtRange(//
+					QueryBuilders.rangeQuery("receivedAt").gte("2020-06-02"));
+			assertEquals(june2, range.lowerEndpoint());
+
+			// nor exclusive upper bounds
+			range = LogPartitioning.receivedAtRange(//
+					QueryBuilders.rangeQuery("receivedAt").lt("2020-06-02T10:00:00"));
+			assertEquals(june2.plusHours(10), range.upperEndpoint());
+
+			// offsets and query time zones are honoured
+			range = LogPartitioning.receivedAtRange(//
+					QueryBuilders.rangeQuery("receivedAt").gte("2020-06-02T01:00:00+02:00"));
+			assertEquals(june2.minusHours(1), range.lowerEndpoint());
+
+			range = LogPartitioning.receivedAtRange(//
+					QueryBuilders.rangeQuery("receivedAt").gte("2020-06-02").timeZone("+02:00"));
+			assertEquals(june2.minusHours(2), range.lowerEndpoint());
+
+			// lte a month means up to the end of this month
+			range = LogPartitioning.receivedAtRange(//
+					QueryBuilders.rangeQuery("receivedAt").lte("2020-06"));
+			assertEquals(new DateTime(2020, 7, 1, 0, 0, DateTimeZone.UTC).minusMillis(1), //
+					range.upperEndpoint());
+
+		} finally {
+			DateTimeZone.setDefault(defaultZone);
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package io.spacedog.services.log;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class MetricRollupTest extends Assert {
+
+	@Test
+	public void unknownMethodsAreCollapsed() {
+		DateTime receivedAt = DateTime.now();
+		assertEquals(MetricRollup.OTHER_METHOD, new MetricRollup("test", "PROPFIND", //
+				"/2/data", 405, receivedAt).toSource().get("method").asText());
+		assertEquals("PATCH", new MetricRollup("test", "PATCH", //
+				"/2/data", 405, receivedAt).toSource().get("method").asText());
+	}
+
+	@Test
+	public void rollupsOfTheSameKeyAreMerged() {
+		DateTime receivedAt = new DateTime(2020, 6, 3, 10, 15, 42, 123, DateTimeZone.UTC);
+		MetricRollup rollup = new MetricRollup("test", "GET", "/2/data/*/*", 200, receivedAt)//
+				.add(3).add(40);
+		MetricRollup other = new MetricRollup("test", "GET", "/2/data/*/*", 200, receivedAt)//
+				.add(1).add(20000);
+
+		ObjectNode source = rollup.merge(other).toSource();
+		assertEquals(4, source.get("count").asLong());
+		assertEquals(20044, source.at("/latency/sum").asLong());
+		assertEquals(1, source.at("/latency/min").asLong());
+		assertEquals(20000, source.at("/latency/max").asLong());
+		assertEquals(2, source.at("/latency/histogram/le5").asLong());
+		assertEquals(1, source.at("/latency/histogram/inf").asLong());
+	}
+
+	@Test
+	public void rollupsCountRequestsOfTheSameMinute() {
+
+		DateTime receivedAt = new DateTime(2020, 6, 3, 10, 15, 42, 123, DateTimeZone.UTC);
+		MetricRollup rollup = new MetricRollup("test", "GET", "/2/data/*/*", 200, receivedAt)//
+				.add(3).add(8).add(40).add(20000);
+
+		assertEquals("test:1591179300000:GET:/2/data/*/*:200", rollup.key());
+		assertEquals(4, rollup.count());
+
+		// same minute and route gives same key
+		assertEquals(rollup.key(), new MetricRollup("test", "GET", //
+				"/2/data/*/*", 200, receivedAt.plusSeconds(10)).key());
+
+		ObjectNode source = rollup.toSource();
+		assertEquals("2020-06-03T10:15:00.000Z", source.get("at").asText());
+		assertEquals(4, source.get("count").asLong());
+		assertEquals(20051, source.at("/latency/sum").asLong());
+		assertEquals(3, source.at("/latency/min").asLong());
+		assertEquals(20000, source.at("/latency/max").asLong());
+		assertEquals(1, source.at("/latency/histogram/le5").asLong());
+		assertEquals(1, source.at("/latency/histogram/le10").asLong());
+		assertEquals(1, source.at("/latency/histogram/le50").asLong());
+		assertEquals(1, source.at("/latency/histogram/inf").asLong());
+		assertEquals(0, source.at("/latency/histogram/le100").asLong());
+	}
+
+	@Test
+	public void percentilesAreBucketUpperBounds() {
+
+		long[] histogram = new long[MetricRollup.BUCKETS.length + 1];
+		histogram[0] = 90; // <= 5ms
+		histogram[4] = 9; // <= 100ms
+		histogram[MetricRollup.BUCKETS.length] = 1; // > 10s
+
+		assertEquals(5, MetricRollup.percentile(histogram, 12000, 0.5));
+		assertEquals(100, MetricRollup.percentile(histogram, 12000, 0.95));
+		assertEquals(100, MetricRollup.percentile(histogram, 12000, 0.99));
+		assertEquals(12000, MetricRollup.percentile(histogram, 12000, 1));
+
+		// never more than the max latency
+		assertEquals(3, MetricRollup.percentile(histogram, 3, 0.5));
+	}
+}
@@ -0,0 +1,48 @@
+package io.spacedog.services.log;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class MetricServiceTest extends Assert {
+
+	private DateTime receivedAt = DateTime.now();
+
+	@Test
+	public void failedFlushesPutRollupsBack() {
+		MetricService service = new MetricService();
+		service.putBack(Lists.newArrayList(rollup("/2/data/*/*"), rollup("/2/credentials")));
+
+		// no elastic client in unit tests
+		service.flush();
+		assertEquals(2, service.size());
+
+		// rollups put back are merged with rollups recorded since
+		service.putBack(Collections.singletonList(rollup("/2/data/*/*")));
+		assertEquals(2, service.size());
+	}
+
+	@Test
+	public void rollupsPutBackAreBounded() {
+		MetricService service = new MetricService();
+		List<MetricRollup> rollups = Lists.newArrayList();
+		for (int i = 0; i <= MetricService.MAX_ROLLUPS; i++)
+			rollups.add(new MetricRollup("test", "GET", "/2/data", 200 + i, receivedAt).add(1));
+
+		service.putBack(rollups);
+		assertEquals(MetricService.MAX_ROLLUPS, service.size());
+
+		// rollups already in memory are still merged
+		service.putBack(Collections.singletonList(rollups.get(0)));
+		assertEquals(MetricService.MAX_ROLLUPS, service.size());
+	}
+
+	private MetricRollup rollup(String uri) {
+		return new MetricRollup("test", "GET", uri, 200, receivedAt).add(10);
+	}
+}
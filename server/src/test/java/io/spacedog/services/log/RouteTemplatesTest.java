@@ -0,0 +1,44 @@
+package io.spacedog.services.log;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import io.spacedog.services.admin.HealthCheckResty;
+import io.spacedog.services.credentials.CredentialsResty;
+import io.spacedog.services.data.DataResty;
+import io.spacedog.services.file.FileResty;
+
+public class RouteTemplatesTest extends Assert {
+
+	private RouteTemplates routes = new RouteTemplates()//
+			.add(HealthCheckResty.class)//
+			.add(DataResty.class)//
+			.add(CredentialsResty.class)//
+			.prefix(FileResty.PREFIX);
+
+	@Test
+	public void routeTemplatesHideBackendSegments() {
+		assertEquals("/", routes.template(""));
+		assertEquals("/", routes.template("/"));
+		assertEquals("/2/data", routes.template("/2/data"));
+		assertEquals("/2/data", routes.template("/2/data/"));
+		assertEquals("/2/data/*/*", routes.template("/2/data/message/123"));
+		assertEquals("/2/data/*/_search", routes.template("/2/data/message/_search"));
+		assertEquals("/2/credentials/_login", routes.template("/2/credentials/_login"));
+		assertEquals("/2/files", routes.template("/2/files"));
+		assertEquals("/2/files/**", routes.template("/2/files/www/a/b/c/d.html"));
+	}
+
+	@Test
+	public void unknownRoutesAreCollapsed() {
+		assertEquals(RouteTemplates.UNKNOWN_ROUTE, routes.template("/wp-login.php"));
+		assertEquals(RouteTemplates.UNKNOWN_ROUTE, routes.template("/.env"));
+		assertEquals(RouteTemplates.UNKNOWN_ROUTE, routes.template("/2"));
+		assertEquals(RouteTemplates.UNKNOWN_ROUTE, routes.template("/2/phpmyadmin/index.php"));
+		assertEquals(RouteTemplates.UNKNOWN_ROUTE, routes.template("/3/data"));
+		assertEquals(RouteTemplates.UNKNOWN_ROUTE, routes.template("/2/filesystem"));
+		assertEquals(RouteTemplates.UNKNOWN_ROUTE, routes.template("/2/data/a/b/c/d/e"));
+		assertEquals("/2/data/*/*", routes.template("/2/data/message/_probe"));
+		assertEquals("/2/credentials/*", routes.template("/2/credentials/_x1"));
+	}
+}
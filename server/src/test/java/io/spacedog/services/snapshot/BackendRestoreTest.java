@@ -0,0 +1,83 @@
+package io.spacedog.services.snapshot;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+
+public class BackendRestoreTest extends Assert {
+
+	@Test
+	public void onlyBackendIndicesAreRestoredWithNewVersion() {
+
+		Set<String> snapshot = Sets.newHashSet("test-credentials-0", "test-data-message-2", //
+				"test2-credentials-0", "shared.pool-log-0");
+		Set<String> live = Sets.newHashSet("test-credentials-0", "test-data-message-3", //
+				"test-data-other-0");
+		Map<String, Set<String>> aliases = ImmutableMap.of(//
+				"test-credentials-0", Sets.newHashSet("test-credentials"), //
+				"test-data-message-3", Sets.newHashSet("test-data-message"), //
+				"test-data-other-0", Sets.newHashSet("test-data-other"));
+
+		BackendRestore restore = BackendRestore.plan("test", snapshot, live, aliases);
+
+		assertFalse(restore.isEmpty());
+		assertEquals(Sets.newHashSet("test-credentials-0", "test-data-message-2"), restore.indices());
+		assertEquals("$1-4", restore.renameReplacement());
+		assertEquals("test-data-message-4", "test-data-message-2"//
+				.replaceAll(BackendRestore.RENAME_PATTERN, restore.renameReplacement()));
+
+		assertEquals(ImmutableMap.of(//
+				"test-credentials-4", Sets.newHashSet("test-credentials"), //
+				"test-data-message-4", Sets.newHashSet("test-data-message")), //
+				restore.aliases());
+
+		// indices not in snapshot are deleted too
+		assertEquals(live, restore.replaced());
+	}
+
+	@Test
+	public void missingIndicesGetTheirDefaultAliases() {
+
+		Set<String> snapshot = Sets.newHashSet("test-settings-0", "test-log-2020.06.03-0");
+		BackendRestore restore = BackendRestore.plan("test", snapshot, //
+				Collections.emptySet(), Collections.emptyMap());
+
+		assertEquals(ImmutableMap.of(//
+				"test-log-2020.06.03-1", Sets.newHashSet("test-log-2020.06.03", "test-log"), //
+				"test-settings-1", Sets.newHashSet("test-settings")), //
+				restore.aliases());
+		assertTrue(restore.replaced().isEmpty());
+	}
+
+	@Test
+	public void indicesServedBySharedIndicesAreNotRestored() {
+
+		Set<String> snapshot = Sets.newHashSet("test-log-0", "test-credentials-0");
+		Set<String> live = Sets.newHashSet("test-credentials-0");
+		Map<String, Set<String>> aliases = ImmutableMap.of(//
+				"test-credentials-0", Sets.newHashSet("test-credentials"), //
+				"shared.pool-log-0", Sets.newHashSet("test-log"));
+
+		BackendRestore restore = BackendRestore.plan("test", snapshot, live, aliases);
+
+		assertEquals(Sets.newHashSet("test-credentials-0"), restore.indices());
+		assertEquals(Sets.newHashSet("test-credentials-1"), restore.restored());
+	}
+
+	@Test
+	public void snapshotWithoutBackendIndicesIsEmpty() {
+
+		BackendRestore restore = BackendRestore.plan("test", //
+				Sets.newHashSet("other-credentials-0", "testing-credentials-0"), //
+				Sets.newHashSet("test-credentials-0"), Collections.emptyMap());
+
+		assertTrue(restore.isEmpty());
+		assertTrue(restore.replaced().isEmpty());
+	}
+}
@@ -2,6 +2,9 @@ package io.spacedog.test;
 
 import java.util.function.Supplier;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import io.spacedog.client.SpaceDog;
 import io.spacedog.client.http.SpaceAssert;
 import io.spacedog.client.http.SpaceException;
 
@@ -12,4 +15,19 @@ public class SpaceTest extends SpaceAssert {
 			action.get();
 		});
 	}
+
+	/**
+	 * Polls this task until completed, at most 100 times every 100 millis.
+	 * 
+	 * @return the status of the completed task
+	 */
+	public static ObjectNode waitForTask(SpaceDog dog, String taskId) throws InterruptedException {
+		for (int attempt = 0; attempt < 100; attempt++) {
+			ObjectNode status = dog.get("/2/tasks/" + taskId).go(200).asJsonObject();
+			if (status.get("completed").asBoolean())
+				return status;
+			Thread.sleep(100);
+		}
+		throw failure("task [%s] not completed after 100 attempts", taskId);
+	}
 }
@@ -1,19 +1,25 @@
 package io.spacedog.test.cli;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
 
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
 import org.junit.Test;
 
+import com.google.common.collect.Lists;
+
 import io.spacedog.cli.ExportLogCommand;
 import io.spacedog.cli.LoginCommand;
 import io.spacedog.client.SpaceDog;
 import io.spacedog.client.credentials.CredentialsSettings;
-import io.spacedog.client.log.LogSearchResults;
+import io.spacedog.client.log.LogItem;
 import io.spacedog.test.SpaceTest;
 import io.spacedog.utils.DateTimes;
 import io.spacedog.utils.Json;
@@ -44,24 +50,47 @@ public class ExportLogCommandTest extends SpaceTest {
 		String today = dateFormatter.print(DateTime.now());
 
 		Path tempDir = Files.createTempDirectory(this.getClass().getSimpleName());
-		Path target = tempDir.resolve("export.json");
+		Path target = tempDir.resolve("export.ndjson.gz");
 		Files.createDirectories(target.getParent());
 
+		// a previous export was interrupted while exporting a slice
+		Path parts = tempDir.resolve("export.ndjson.gz.parts");
+		Files.createDirectories(parts);
+		Path partial = parts.resolve("05.ndjson.gz.tmp");
+		Files.write(partial, "partial".getBytes());
+
+		// and had exported a slice before its hour was over
+		Path open = parts.resolve("06.open.ndjson.gz");
+		Files.write(open, "open".getBytes());
+
 		Utils.info("Exporting today's log to [%s]", target);
 
 		// exporting to file
-		new ExportLogCommand().verbose(true).day(today).file(target.toString()).export();
+		new ExportLogCommand().verbose(true).day(today)//
+				.file(target.toString()).parallelism(2).export();
 
 		// checking export file
-		LogSearchResults results = Json.toPojo(Files.readAllBytes(target), LogSearchResults.class);
-		assertEquals(8, results.total);
-		assertEquals("/2/admin/_clear", results.results.get(0).path);
-		assertEquals("/2/credentials", results.results.get(1).path);
-		assertEquals("/2/data", results.results.get(2).path);
-		assertEquals("/2/credentials", results.results.get(3).path);
-		assertEquals("/2/settings/credentials", results.results.get(4).path);
-		assertEquals("/2/credentials/_logout", results.results.get(5).path);
-		assertEquals("/2/credentials/_login", results.results.get(6).path);
-		assertEquals("/2/credentials/_login", results.results.get(7).path);
+		List<LogItem> results = Lists.newArrayList();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(//
+				new GZIPInputStream(Files.newInputStream(target)), Utils.UTF8))) {
+			String line = null;
+			while ((line = reader.readLine()) != null)
+				results.add(Json.toPojo(Json.readObject(line).get("source"), LogItem.class));
+		}
+
+		assertEquals(8, results.size());
+		assertEquals("/2/admin/_clear", results.get(0).path);
+		assertEquals("/2/credentials", results.get(1).path);
+		assertEquals("/2/data", results.get(2).path);
+		assertEquals("/2/credentials", results.get(3).path);
+		assertEquals("/2/settings/credentials", results.get(4).path);
+		assertEquals("/2/credentials/_logout", results.get(5).path);
+		assertEquals("/2/credentials/_login", results.get(6).path);
+		assertEquals("/2/credentials/_login", results.get(7).path);
+
+		// partial slices and parts are deleted when export is done
+		assertFalse(Files.exists(partial));
+		assertFalse(Files.exists(open));
+		assertFalse(Files.exists(parts));
 	}
 }
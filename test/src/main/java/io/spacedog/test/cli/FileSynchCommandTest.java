@@ -12,6 +12,7 @@ import org.junit.Test;
 import com.google.common.io.Resources;
 
 import io.spacedog.cli.FileSynchCommand;
+import io.spacedog.cli.FileSynchIndex;
 import io.spacedog.cli.LoginCommand;
 import io.spacedog.client.SpaceDog;
 import io.spacedog.client.file.FileBucket;
@@ -100,15 +101,30 @@ public class FileSynchCommandTest extends SpaceTest {
 		assertEquals(0, synch.deleted().size());
 		assertEquals(0, synch.uploaded().size());
 
-		// updates a file and synch
+		// updates a file and dry run synch
 
 		updateHtmlFile("x/y/y2.html");
+		deleteFile("x/y/z/z.html");
 		synch.reset();
-		synch.synch();
+		synch.dryRun(true).synch();
 
-		assertEquals(9, synch.checked().size());
-		assertEquals(0, synch.deleted().size());
+		assertEquals(8, synch.checked().size());
+		assertEquals(1, synch.deleted().size());
+		assertEquals(1, synch.uploaded().size());
+
+		// dry run changed nothing
+
+		synch.reset();
+		synch.dryRun(false).parallelism(2).synch();
+
+		assertEquals(8, synch.checked().size());
+		assertEquals(1, synch.deleted().size());
 		assertEquals(1, synch.uploaded().size());
+
+		// synch index is not synchronized
+
+		assertFalse(superadmin.files().listAll("0").files.stream()//
+				.anyMatch(file -> file.getPath().contains(FileSynchIndex.FILE_NAME)));
 	}
 
 	private void updateHtmlFile(String path) throws IOException {
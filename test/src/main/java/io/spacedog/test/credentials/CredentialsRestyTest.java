@@ -246,10 +246,13 @@ public class CredentialsRestyTest extends SpaceTest {
 				.go(401).asVoid();
 
 		// superadmin gets fred's credentials
-		// fred has 1 invalid password challenge
+		// fred's invalid challenges count is still zero
+		// since invalid challenges are counted in memory
+		// until credentials are disabled
 		credentials = superadmin.credentials().get(fred.id());//
-		assertEquals(1, credentials.invalidChallenges());
-		assertNotNull(credentials.lastInvalidChallengeAt());
+		assertTrue(credentials.enabled());
+		assertEquals(0, credentials.invalidChallenges());
+		assertNull(credentials.lastInvalidChallengeAt());
 
 		// fred tries to log in with an invalid password
 		SpaceRequest.get("/2/login")//
@@ -267,9 +270,17 @@ public class CredentialsRestyTest extends SpaceTest {
 
 		// fred's credentials are disabled since too many invalid
 		// password challenges in a period of time of 1 minutes
-		// he can no longer login
-		fred.get("/2/login").go(401)//
-				.assertEquals("disabled-credentials", "error.code");
+		// his login attempts are rejected before his password is checked
+		// even with his valid password, with 429 and not with the
+		// disabled credentials 401 error as before throttling
+		fred.get("/2/login").go(429)//
+				.assertEquals("too-many-invalid-challenges", "error.code");
+
+		// his login attempts with an invalid password too
+		SpaceRequest.get("/2/login")//
+				.backend(guest.backend())//
+				.basicAuth(fred.username(), "XXX")//
+				.go(429).assertEquals("too-many-invalid-challenges", "error.code");
 
 		// superadmin enables fred's credentials
 		superadmin.credentials().enable(fred.id());
@@ -279,6 +290,13 @@ public class CredentialsRestyTest extends SpaceTest {
 		assertTrue(credentials.enabled());
 		assertEquals(0, credentials.invalidChallenges());
 		assertNull(credentials.lastInvalidChallengeAt());
+
+		// superadmin disables fred's credentials
+		// fred is not throttled, he gets the disabled credentials 401
+		superadmin.credentials().disable(fred.id());
+		fred.get("/2/login").go(401)//
+				.assertEquals("disabled-credentials", "error.code");
+		superadmin.credentials().enable(fred.id());
 	}
 
 	@Test
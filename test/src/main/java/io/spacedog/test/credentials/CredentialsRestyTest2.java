@@ -761,18 +761,21 @@ public class CredentialsRestyTest2 extends SpaceTest {
 		superadmin.login();
 
 		// this means old session are not yet purged
-		// since oinly 10 latest sessions are kept
+		// since only 10 latest sessions are kept
 		SpaceRequest.get("/2/data").backend(superadmin).bearerAuth(firstToken).go(401)//
 				.assertEquals("expired-access-token", "error.code");
 
 		// superadmin logs in again an eleventh time
 		superadmin.login();
 
-		// first superadmin session has been purged
+		// first superadmin session has been deleted
 		// since only 10 latest sessions are kept
 		// this means first session token is no longer present
 		SpaceRequest.get("/2/data").backend(superadmin).bearerAuth(firstToken).go(401)//
 				.assertEquals("invalid-access-token", "error.code");
+
+		// superadmin can still use its new session
+		SpaceRequest.get("/2/data").backend(superadmin).bearerAuth(superadmin).go(200).asVoid();
 	}
 
 	@Test
@@ -21,14 +21,19 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 import io.spacedog.client.SpaceDog;
+import io.spacedog.client.bulk.ServiceResponse;
 import io.spacedog.client.credentials.Permission;
 import io.spacedog.client.credentials.Roles;
+import io.spacedog.client.data.CsvRequest;
+import io.spacedog.client.data.DataMultiGetRequest;
 import io.spacedog.client.data.DataObjectBase;
 import io.spacedog.client.data.DataResults;
 import io.spacedog.client.data.DataSettings;
 import io.spacedog.client.data.DataWrap;
 import io.spacedog.client.elastic.ESQueryBuilders;
 import io.spacedog.client.elastic.ESSearchSourceBuilder;
+import io.spacedog.client.http.SpaceHeaders;
+import io.spacedog.client.http.SpaceResponse;
 import io.spacedog.client.schema.GeoPoint;
 import io.spacedog.client.schema.Schema;
 import io.spacedog.test.Message;
@@ -393,4 +398,377 @@ public class DataRestyTest2 extends SpaceTest {
 		// guest is forbidden to remove home 1 name
 		guest.delete("/2/data/home/1/name").go(401);
 	}
+
+	@Test
+	public void testFieldOperations() {
+
+		// prepare
+		prepareTest();
+		SpaceDog guest = SpaceDog.dog();
+		SpaceDog superadmin = clearServer();
+		Schema schema = Schema.builder("home").text("name").integer("views")//
+				.keyword("tags").object("garage").integer("places").build();
+		superadmin.schemas().set(schema);
+
+		// operations on home XXX fail since it does not exist
+		assertHttpError(404, () -> superadmin.data()//
+				.prepareOperations("home", "XXX").inc("views", 1).go());
+
+		// superadmin creates home 1 with name dupont
+		superadmin.put("/2/data/home/1").bodyJson("name", "dupont").go(201);
+
+		// superadmin increments views, adds tags and sets garage places
+		DataWrap<ObjectNode> home = superadmin.data().prepareOperations("home", "1")//
+				.inc("views", 3).dec("views", 1).addToSet("tags", "blue", "red", "blue")//
+				.max("garage.places", 2).go();
+
+		assertEquals(2, home.source().get("views").asInt());
+		assertEquals(Json.array("blue", "red"), home.source().get("tags"));
+		assertEquals(2, home.source().get("garage").get("places").asInt());
+		assertEquals(home.version(), superadmin.data().getWrapped("home", "1").version());
+
+		// superadmin removes red tag, pushes green and unsets garage
+		home = superadmin.data().prepareOperations("home", "1")//
+				.removeFromSet("tags", "red").push("tags", "green")//
+				.min("garage.places", 1).unset("garage").go();
+
+		assertEquals(Json.array("blue", "green"), home.source().get("tags"));
+		assertFalse(home.source().has("garage"));
+
+		// operations with an old version fail
+		String oldVersion = home.version();
+		superadmin.data().prepareOperations("home", "1").inc("views", 1).go();
+		assertHttpError(409, () -> superadmin.data().prepareOperations("home", "1")//
+				.version(oldVersion).inc("views", 1).go());
+
+		// operations on meta fields or on a text field are invalid
+		assertHttpError(400, () -> superadmin.data()//
+				.prepareOperations("home", "1").unset(OWNER_FIELD).go());
+		assertHttpError(400, () -> superadmin.data()//
+				.prepareOperations("home", "1").inc("name", 1).go());
+
+		// guest is forbidden to increment home 1 views
+		assertHttpError(401, () -> guest.data()//
+				.prepareOperations("home", "1").inc("views", 1).go());
+
+		// superadmin increments views in a bulk request
+		List<ServiceResponse> responses = superadmin.bulk().execute(Lists.newArrayList(//
+				superadmin.data().prepareOperations("home", "1").inc("views", 10)//
+						.build().toServiceCall(),
+				superadmin.data().prepareOperations("home", "1").inc("views", 100)//
+						.build().toServiceCall()));
+
+		assertEquals(200, responses.get(0).status);
+		assertEquals(200, responses.get(1).status);
+		assertEquals(113, superadmin.data().get("home", "1").get("views").asInt());
+	}
+
+	@Test
+	public void testMultiGet() {
+
+		// prepare
+		prepareTest();
+		SpaceDog superadmin = clearServer();
+		SpaceDog vince = createTempDog(superadmin, "vince");
+		SpaceDog fred = createTempDog(superadmin, "fred");
+		superadmin.schemas().set(Message.schema());
+		superadmin.schemas().set(Schema.builder("home").text("name").build());
+
+		// users can create and read their own messages only
+		DataSettings settings = new DataSettings();
+		settings.acl().put(Message.TYPE, Roles.user, Permission.create, Permission.readMine);
+		superadmin.data().settings(settings);
+
+		String vinceId = vince.data().create(new Message("hi from vince")).id();
+		String fredId = fred.data().create(new Message("hi from fred")).id();
+		superadmin.put("/2/data/home/1").bodyJson("name", "dupont").go(201);
+
+		// vince gets his message but not fred's, nor unknown messages nor homes
+		DataMultiGetRequest request = new DataMultiGetRequest()//
+				.add(Message.TYPE, Lists.newArrayList(vinceId, fredId, "XXX"))//
+				.add("home", "1");
+
+		ObjectNode results = vince.post("/2/data/_mget").bodyPojo(request).go(200).asJsonObject();
+		assertEquals(4, results.get("objects").size());
+		assertEquals(vinceId, results.get("objects").get(0).get("id").asText());
+		assertEquals(403, results.get("objects").get(1).get("status").asInt());
+		assertEquals(404, results.get("objects").get(2).get("status").asInt());
+		assertEquals(403, results.get("objects").get(3).get("status").asInt());
+
+		List<DataWrap<Message>> messages = vince.data().getMulti(request, Message.class);
+		assertEquals("hi from vince", messages.get(0).source().text);
+		assertNull(messages.get(1));
+		assertNull(messages.get(2));
+		assertNull(messages.get(3));
+
+		// superadmin gets all existing objects
+		messages = superadmin.data().getMulti(new DataMultiGetRequest()//
+				.add(Message.TYPE, Lists.newArrayList(fredId, vinceId)), Message.class);
+		assertEquals("hi from fred", messages.get(0).source().text);
+		assertEquals("hi from vince", messages.get(1).source().text);
+
+		// empty requests are invalid
+		vince.post("/2/data/_mget").bodyPojo(new DataMultiGetRequest()).go(400);
+	}
+
+	@Test
+	public void testSourceProjection() {
+
+		// prepare
+		prepareTest();
+		SpaceDog superadmin = clearServer();
+		SpaceDog vince = createTempDog(superadmin, "vince");
+		superadmin.schemas().set(Schema.builder("home").text("name")//
+				.object("address").text("street").keyword("zip").closeObject().build());
+
+		// users can create and read their own homes only
+		DataSettings settings = new DataSettings();
+		settings.acl().put("home", Roles.user, Permission.create, Permission.readMine);
+		superadmin.data().settings(settings);
+
+		ObjectNode source = Json.object("name", "dupont", //
+				"address", Json.object("street", "rue de la paix", "zip", "75001"));
+		String id = vince.data().save("home", source).id();
+
+		// superadmin gets projected home
+		ObjectNode home = superadmin.get("/2/data/home/{id}").routeParam("id", id)//
+				.queryParam(FIELDS_PARAM, "name,address.zip").go(200).asJsonObject();
+		assertEquals(Json.object("name", "dupont", "address", Json.object("zip", "75001")), //
+				home.get("source"));
+
+		home = superadmin.get("/2/data/home/{id}").routeParam("id", id)//
+				.queryParam(EXCLUDE_PARAM, "address").go(200).asJsonObject();
+		assertNull(home.get("source").get("address"));
+		assertEquals("dupont", home.get("source").get("name").asText());
+
+		// vince only reads his own homes, meta fields are kept to check it
+		home = vince.get("/2/data/home/{id}").routeParam("id", id)//
+				.queryParam(FIELDS_PARAM, "name").queryParam(EXCLUDE_PARAM, OWNER_FIELD)//
+				.go(200).asJsonObject();
+		assertEquals("dupont", home.get("source").get("name").asText());
+		assertEquals(vince.id(), home.get("source").get(OWNER_FIELD).asText());
+		assertNull(home.get("source").get("address"));
+
+		// typed clients get projected wraps
+		DataWrap<ObjectNode> wrap = vince.data().getWrapped("home", id, ObjectNode.class, //
+				null, new String[] { "address.street" });
+		assertEquals(id, wrap.id());
+		assertNotNull(wrap.version());
+		assertEquals("75001", wrap.source().get("address").get("zip").asText());
+		assertNull(wrap.source().get("address").get("street"));
+
+		// get all and search are projected
+		DataResults<ObjectNode> results = superadmin.data().prepareGetAll()//
+				.type("home").refresh(true).fields("address.*").go();
+		assertEquals(1, results.total);
+		assertEquals(Json.object("address", Json.object("street", "rue de la paix", "zip", "75001")), //
+				results.objects.get(0).source());
+
+		results = superadmin.data().prepareSearch().type("home")//
+				.exclude("address", OWNER_FIELD, GROUP_FIELD, CREATED_AT_FIELD, UPDATED_AT_FIELD)//
+				.go();
+		assertEquals(Json.object("name", "dupont"), results.objects.get(0).source());
+	}
+
+	@Test
+	public void testConditionalGet() {
+
+		// prepare
+		prepareTest();
+		SpaceDog superadmin = clearServer();
+		SpaceDog vince = createTempDog(superadmin, "vince");
+		SpaceDog fred = createTempDog(superadmin, "fred");
+		superadmin.schemas().set(Message.schema());
+
+		// users can create and read their own messages only
+		DataSettings settings = new DataSettings();
+		settings.acl().put(Message.TYPE, Roles.user, Permission.create, //
+				Permission.readMine, Permission.updateMine);
+		superadmin.data().settings(settings);
+
+		SpaceResponse response = vince.put("/2/data/message/1")//
+				.bodyJson("text", "hi").go(201);
+		String etag = response.header(SpaceHeaders.ETAG);
+		assertNotNull(etag);
+
+		// get sends the version as ETag
+		response = vince.get("/2/data/message/1").go(200)//
+				.assertHeaderEquals(etag, SpaceHeaders.ETAG);
+		assertEquals(etag, '"' + response.getString(VERSION_FIELD) + '"');
+
+		// unchanged objects are not sent again
+		vince.get("/2/data/message/1")//
+				.setHeader(SpaceHeaders.IF_NONE_MATCH, etag).go(304)//
+				.assertHeaderEquals(etag, SpaceHeaders.ETAG);
+
+		// projected objects have their own ETag
+		String projectedEtag = vince.get("/2/data/message/1")//
+				.queryParam(FIELDS_PARAM, "text").go(200).header(SpaceHeaders.ETAG);
+		assertNotEquals(etag, projectedEtag);
+		vince.get("/2/data/message/1").queryParam(FIELDS_PARAM, "text")//
+				.setHeader(SpaceHeaders.IF_NONE_MATCH, etag).go(200);
+		vince.get("/2/data/message/1").queryParam(FIELDS_PARAM, "text")//
+				.setHeader(SpaceHeaders.IF_NONE_MATCH, projectedEtag).go(304);
+
+		// revalidation checks read permission
+		fred.get("/2/data/message/1")//
+				.setHeader(SpaceHeaders.IF_NONE_MATCH, etag).go(403);
+		vince.get("/2/data/message/2")//
+				.setHeader(SpaceHeaders.IF_NONE_MATCH, etag).go(404);
+
+		// writes accept If-Match in place of version param
+		String newEtag = vince.put("/2/data/message/1").bodyJson("text", "hello")//
+				.setHeader(SpaceHeaders.IF_MATCH, etag).go(200).header(SpaceHeaders.ETAG);
+		assertNotEquals(etag, newEtag);
+		vince.put("/2/data/message/1").bodyJson("text", "hi again")//
+				.setHeader(SpaceHeaders.IF_MATCH, etag).go(409);
+
+		// If-Match any requires the object to exist
+		vince.put("/2/data/message/2").bodyJson("text", "hi")//
+				.setHeader(SpaceHeaders.IF_MATCH, "*").go(412);
+		vince.get("/2/data/message/2").go(404);
+		newEtag = vince.put("/2/data/message/1").bodyJson("text", "hello")//
+				.setHeader(SpaceHeaders.IF_MATCH, "*").go(200).header(SpaceHeaders.ETAG);
+
+		// changed objects are sent again
+		vince.get("/2/data/message/1")//
+				.setHeader(SpaceHeaders.IF_NONE_MATCH, etag).go(200)//
+				.assertEquals("hello", "source.text")//
+				.assertHeaderEquals(newEtag, SpaceHeaders.ETAG);
+
+		// client cache revalidates cached objects
+		vince.data().cache(10);
+		assertEquals("hello", vince.data().get(Message.TYPE, "1", Message.class).text);
+		assertEquals(1, vince.data().cache().size());
+		assertEquals("hello", vince.data().get(Message.TYPE, "1", Message.class).text);
+		superadmin.data().save(Message.TYPE, new Message("bye"), "1");
+		assertEquals("bye", vince.data().get(Message.TYPE, "1", Message.class).text);
+		vince.data().delete(Message.TYPE, "1");
+		assertEquals(0, vince.data().cache().size());
+		assertNull(vince.data().get(Message.TYPE, "1", Message.class, false));
+
+		// credentials reads are revalidated too
+		etag = vince.get("/2/credentials/me").go(200).header(SpaceHeaders.ETAG);
+		assertNotNull(etag);
+		vince.get("/2/credentials/me")//
+				.setHeader(SpaceHeaders.IF_NONE_MATCH, etag).go(304);
+		superadmin.get("/2/credentials/" + vince.id())//
+				.setHeader(SpaceHeaders.IF_NONE_MATCH, etag).go(304);
+	}
+
+	@Test
+	public void testRequestDeadline() {
+
+		// prepare
+		prepareTest();
+		SpaceDog superadmin = clearServer();
+		superadmin.schemas().set(Message.schema());
+		superadmin.data().save(Message.TYPE, new Message("hi"), "1");
+
+		// requests with enough budget succeed
+		superadmin.post("/2/data/message/_search").bodyJson(Json.EMPTY_OBJECT)//
+				.timeout(10000).go(200);
+
+		// requests with spent budget fail fast
+		SpaceResponse response = superadmin.post("/2/data/message/_search")//
+				.bodyJson(Json.EMPTY_OBJECT).timeout(1).go(503, 504);
+		assertEquals("deadline-exceeded", response.getString("error.code"));
+	}
+
+	@Test
+	public void testSearchLimits() {
+
+		// prepare
+		prepareTest();
+		SpaceDog superadmin = clearServer();
+		superadmin.schemas().set(Message.schema());
+		superadmin.data().save(Message.TYPE, new Message("hi"), "1");
+
+		// searches within limits succeed
+		superadmin.post("/2/data/message/_search")//
+				.bodyJson("size", 1000).go(200);
+
+		// pages over max size are rejected
+		SpaceResponse response = superadmin.post("/2/data/message/_search")//
+				.bodyJson("size", 5000).go(400);
+		assertEquals("search-rejected", response.getString("error.code"));
+
+		// script queries are banned by default
+		superadmin.post("/2/data/message/_search")//
+				.bodyJson("query", Json.object("script", //
+						Json.object("script", "doc['text'].size() > 0")))
+				.go(400);
+
+		// deletes by query are checked too
+		superadmin.delete("/2/data/message/_search")//
+				.bodyJson("wildcard", Json.object("text", "*i")).go(400);
+
+		// csv pages and exports are checked too
+		CsvRequest csv = new CsvRequest();
+		csv.pageSize = 5000;
+		superadmin.post("/2/data/message/_csv").bodyPojo(csv).go(400);
+		superadmin.post("/2/data/message/_export")//
+				.bodyJson("wildcard", Json.object("text", "*i")).go(400);
+
+		// limits are backend settings
+		DataSettings settings = superadmin.data().settings();
+		settings.searchLimits().maxSize = 10000;
+		settings.searchLimits().maxResultWindow = 10000;
+		superadmin.data().settings(settings);
+		superadmin.post("/2/data/message/_search")//
+				.bodyJson("size", 5000).go(200);
+
+		// rejections are counted per limit
+		ObjectNode stats = superadmin.get("/2/data/_search_limits").go(200).asJsonObject();
+		assertEquals(2, stats.get("rejected").get("maxSize").asInt());
+		assertEquals(1, stats.get("rejected").get("bannedQueries").asInt());
+		assertEquals(2, stats.get("rejected").get("allowLeadingWildcards").asInt());
+	}
+
+	@Test
+	public void testAsyncDeleteByQuery() throws InterruptedException {
+
+		// prepare
+		prepareTest();
+		SpaceDog superadmin = clearServer();
+		SpaceDog vince = createTempDog(superadmin, "vince");
+		superadmin.schemas().set(Message.schema());
+		superadmin.data().save(Message.TYPE, new Message("hi"));
+		superadmin.data().save(Message.TYPE, new Message("hello"));
+		superadmin.data().save(Message.TYPE, new Message("bonjour"));
+
+		// superadmin submits a throttled delete of all messages
+		SpaceResponse response = superadmin.delete("/2/data/message")//
+				.queryParam(REFRESH_PARAM, true)//
+				.queryParam(WAIT_FOR_COMPLETION_PARAM, false)//
+				.queryParam(REQUESTS_PER_SECOND_PARAM, 100)//
+				.go(202);
+
+		String taskId = response.getString("taskId");
+		assertNotNull(taskId);
+		assertTrue(response.getString("location").endsWith("/2/tasks/" + taskId));
+
+		// only the submitter and admins can follow tasks
+		vince.get("/2/tasks/" + taskId).go(403);
+		vince.delete("/2/tasks/" + taskId).go(403);
+
+		// poll and wait for task to complete
+		ObjectNode status = waitForTask(superadmin, taskId);
+
+		assertEquals(3, status.get("total").asLong());
+		assertEquals(3, status.get("deleted").asLong());
+		assertEquals(0, status.get("failures").size());
+		assertTrue(status.get("error").isNull());
+		assertEquals(0, superadmin.data().prepareGetAll()//
+				.refresh(true).go().total);
+
+		// completed task result is deleted once read
+		superadmin.get("/2/tasks/" + taskId).go(404);
+		superadmin.delete("/2/tasks/" + taskId).go(404);
+
+		// invalid or unknown task ids
+		superadmin.get("/2/tasks/XXX").go(400);
+		String node = taskId.substring(0, taskId.indexOf(':'));
+		superadmin.get("/2/tasks/" + node + ":999999999").go(404);
+	}
 }
@@ -10,8 +10,11 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import io.spacedog.client.SpaceDog;
 import io.spacedog.client.credentials.Permission;
 import io.spacedog.client.credentials.Roles;
+import io.spacedog.client.data.DataGetAllRequest;
 import io.spacedog.client.data.DataResults;
+import io.spacedog.client.data.DataSearchRequest;
 import io.spacedog.client.data.DataSettings;
+import io.spacedog.client.data.DataWrap;
 import io.spacedog.client.elastic.ESQueryBuilders;
 import io.spacedog.client.elastic.ESSearchSourceBuilder;
 import io.spacedog.client.elastic.ESSortOrder;
@@ -170,6 +173,67 @@ public class SearchRestyTest extends SpaceTest {
 		}
 	}
 
+	@Test
+	public void paginateSearchResultsWithCursor() {
+
+		// prepare
+		prepareTest();
+		SpaceDog superadmin = clearServer();
+		superadmin.schemas().set(Schema.builder("number").integer("i").build());
+
+		// creates 25 numbers
+		for (int i = 0; i < 25; i++)
+			superadmin.data().save("number", Json.object("i", i));
+
+		// first page sorted by i
+		ESSearchSourceBuilder source = ESSearchSourceBuilder.searchSource().size(10).sort("i");
+		DataResults<ObjectNode> results = superadmin.data().prepareSearch()//
+				.type("number").source(source.toString()).cursor(true).refresh(true).go();
+
+		assertEquals(25, results.total);
+		assertEquals(10, results.objects.size());
+		assertEquals(0, results.objects.get(0).source().get("i").asInt());
+		assertNotNull(results.next);
+
+		// second page
+		results = superadmin.data().prepareSearch().type("number")//
+				.source(source.toString()).next(results.next).go();
+
+		assertEquals(10, results.objects.size());
+		assertEquals(10, results.objects.get(0).source().get("i").asInt());
+		assertNotNull(results.next);
+
+		// last page
+		results = superadmin.data().prepareSearch().type("number")//
+				.source(source.toString()).next(results.next).go();
+
+		assertEquals(5, results.objects.size());
+		assertEquals(20, results.objects.get(0).source().get("i").asInt());
+		assertNull(results.next);
+
+		// iterate over all numbers
+		int i = 0;
+		DataSearchRequest request = new DataSearchRequest()//
+				.type("number").source(source.toString());
+		for (DataWrap<ObjectNode> wrap : superadmin.data().iterate(request, ObjectNode.class))
+			assertEquals(i++, wrap.source().get("i").asInt());
+		assertEquals(25, i);
+
+		// iterate over all numbers with get all
+		i = 0;
+		DataGetAllRequest getAll = new DataGetAllRequest().type("number").size(7);
+		for (DataWrap<ObjectNode> wrap : superadmin.data().iterate(getAll, ObjectNode.class)) {
+			assertNotNull(wrap.id());
+			i++;
+		}
+		assertEquals(25, i);
+
+		// from and cursor are mutually exclusive
+		assertHttpError(400, () -> superadmin.data().prepareSearch().type("number")//
+				.source(ESSearchSourceBuilder.searchSource().from(10).toString())//
+				.cursor(true).go());
+	}
+
 	@Test
 	public void testBadSimpleQueryStringQueries() {
 
@@ -19,6 +19,8 @@ import io.spacedog.client.credentials.Permission;
 import io.spacedog.client.credentials.Roles;
 import io.spacedog.client.data.DataSettings;
 import io.spacedog.client.email.EmailBasicRequest;
+import io.spacedog.client.email.EmailMessage;
+import io.spacedog.client.email.EmailMessage.Status;
 import io.spacedog.client.email.EmailSettings;
 import io.spacedog.client.email.EmailSettings.SmtpSettings;
 import io.spacedog.client.email.EmailTemplate;
@@ -36,7 +38,7 @@ public class EmailRestyTest extends SpaceTest {
 	private static final String DEFAULT_SUBJECT = "SpaceDog Email Test";
 
 	@Test
-	public void sendEmailBasicRequests() throws IOException {
+	public void sendEmailBasicRequests() throws IOException, InterruptedException {
 
 		prepareTest();
 		SpaceDog guest = SpaceDog.dog();
@@ -80,8 +82,12 @@ public class EmailRestyTest extends SpaceTest {
 		settings.mailgun.key = "123456789";
 		superadmin.emails().settings(settings);
 
-		// superadmin fails to email since mailgun key is invalid
-		assertHttpError(401, () -> vince.emails().send(defaultMail()));
+		// vince emails are queued but fail to be sent
+		// since mailgun key is invalid
+		String id = vince.emails().send(defaultMail()).get("id").asText();
+		EmailMessage message = waitForEmail(superadmin, id);
+		assertEquals(Status.failed, message.status);
+		assertEquals(1, message.tries);
 
 		// superadmin sets smtp settings
 		settings.mailgun = null;
@@ -90,7 +96,14 @@ public class EmailRestyTest extends SpaceTest {
 
 		// vince emails a text message via smtp
 		ObjectNode response = vince.emails().send(defaultMail());
-		assertNotNull(response.get("smtp").get("messageId").asText());
+		message = waitForEmail(superadmin, response.get("id").asText());
+		assertEquals(Status.sent, message.status);
+		assertEquals("smtp", message.provider);
+		assertNotNull(message.providerId);
+
+		// only superadmins can get queued emails
+		String messageId = message.id;
+		assertHttpError(403, () -> vince.emails().get(messageId));
 
 		// vince emails an html message via smtp
 		mail = defaultMail();
@@ -98,7 +111,22 @@ public class EmailRestyTest extends SpaceTest {
 				Resources.getResource(this.getClass(), "email.html"), //
 				Utils.UTF8);
 		response = vince.emails().send(mail);
-		assertNotNull(response.get("smtp").get("messageId").asText());
+		message = waitForEmail(superadmin, response.get("id").asText());
+		assertEquals(Status.sent, message.status);
+	}
+
+	private EmailMessage waitForEmail(SpaceDog superadmin, String id) throws InterruptedException {
+		EmailMessage message = superadmin.emails().get(id);
+		for (int i = 0; i < 100 && isPending(message); i++) {
+			Thread.sleep(100);
+			message = superadmin.emails().get(id);
+		}
+		return message;
+	}
+
+	private static boolean isPending(EmailMessage message) {
+		return Status.queued.equals(message.status) //
+				|| Status.sending.equals(message.status);
 	}
 
 	private EmailBasicRequest defaultMail() {
@@ -4,6 +4,8 @@ import java.util.Map;
 
 import org.junit.Test;
 
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
 import io.spacedog.client.SpaceDog;
 import io.spacedog.client.credentials.Permission;
 import io.spacedog.client.credentials.Roles;
@@ -277,4 +279,35 @@ public class FileRestyTest extends SpaceTest {
 		bytes = superadmin.files().getAsByteArray("docs", "/toto");
 		assertArrayEquals("toto".getBytes(), bytes);
 	}
+
+	@Test
+	public void testAsyncDeleteByPath() throws InterruptedException {
+
+		// prepare
+		prepareTest();
+		SpaceDog superadmin = clearServer();
+		FileBucket bucket = new FileBucket(ASSETS);
+		superadmin.files().setBucket(bucket);
+		superadmin.files().upload(ASSETS, "/images/riri.png", "riri".getBytes());
+		superadmin.files().upload(ASSETS, "/images/fifi.png", "fifi".getBytes());
+		superadmin.files().upload(ASSETS, "/app.html", "app".getBytes());
+
+		// superadmin submits a throttled delete of all images
+		SpaceResponse response = superadmin.delete("/2/files/" + ASSETS + "/images")//
+				.queryParam(WAIT_FOR_COMPLETION_PARAM, false)//
+				.queryParam(REQUESTS_PER_SECOND_PARAM, 100)//
+				.go(202);
+
+		String taskId = response.getString("taskId");
+		assertTrue(response.getString("location").endsWith("/2/tasks/" + taskId));
+
+		ObjectNode status = waitForTask(superadmin, taskId);
+		assertEquals(2, status.get("deleted").asLong());
+		assertEquals(0, status.get("failures").size());
+
+		// only app.html is left
+		FileList list = superadmin.files().listAll(ASSETS);
+		assertEquals(1, list.files.size());
+		assertEquals("/app.html", list.files.get(0).getPath());
+	}
 }
@@ -0,0 +1,131 @@
+package io.spacedog.test.job;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import io.spacedog.client.SpaceDog;
+import io.spacedog.client.job.BasicSpaceJob;
+import io.spacedog.client.job.SpaceTask;
+import io.spacedog.client.job.SpaceTask.Status;
+import io.spacedog.test.Message;
+import io.spacedog.test.SpaceTest;
+
+public class SchedulerRestyTest extends SpaceTest {
+
+	@Test
+	public void scheduleExecuteAndRetryJobs() throws InterruptedException {
+
+		// prepare
+		prepareTest();
+		SpaceDog superadmin = clearServer();
+		SpaceDog vince = createTempDog(superadmin, "vince");
+		superadmin.schemas().set(Message.schema());
+		superadmin.data().save(Message.TYPE, new Message("hi"), "1");
+
+		// superadmin creates a job getting a message every 5 minutes
+		BasicSpaceJob job = job("hello", "/2/data/message/1");
+		job.when = "rate(5 minutes)";
+		superadmin.scheduler().save(job);
+
+		List<BasicSpaceJob> jobs = superadmin.scheduler().list();
+		assertEquals(1, jobs.size());
+		assertEquals("/2/data/message/1", superadmin.scheduler().get("hello").path);
+
+		// only superadmins can manage jobs
+		assertHttpError(403, () -> vince.scheduler().list());
+		assertHttpError(403, () -> vince.scheduler().execute("hello"));
+		assertHttpError(403, () -> vince.scheduler().tasks("hello"));
+
+		// the job has a task scheduled in about 5 minutes
+		SpaceTask scheduled = retry(20, 100, () -> {
+			List<SpaceTask> tasks = superadmin.scheduler().tasks("hello");
+			assertEquals(1, tasks.size());
+			return tasks.get(0);
+		});
+		assertEquals(Status.scheduled, scheduled.status);
+		assertFalse(scheduled.onDemand);
+		assertTrue(scheduled.delay() > 0);
+
+		// superadmin executes the job now
+		// the task is claimed once and completed
+		SpaceTask task = superadmin.scheduler().execute("hello");
+		task = waitForTask(superadmin, "hello", task.id);
+		assertEquals(Status.completed, task.status);
+		assertTrue(task.onDemand);
+		assertEquals(1, task.tries);
+		assertNotNull(task.claimedBy);
+		assertNotNull(task.started);
+		assertNotNull(task.stopped);
+		assertNull(task.retryAt);
+		assertNull(task.error);
+		String helloTaskId = task.id;
+
+		// executions on demand do not change the schedule
+		assertEquals(scheduled.scheduled.getMillis(), superadmin.scheduler()//
+				.getTask("hello", scheduled.id).scheduled.getMillis());
+
+		// superadmin cancels the scheduled task
+		superadmin.scheduler().deleteTask("hello", scheduled.id);
+		assertEquals(Status.cancelled, superadmin.scheduler()//
+				.getTask("hello", scheduled.id).status);
+
+		// superadmin deletes the cancelled task from history
+		superadmin.scheduler().deleteTask("hello", scheduled.id);
+		assertHttpError(404, () -> superadmin.scheduler().getTask("hello", scheduled.id));
+
+		// superadmin creates a job getting a message that does not exist
+		superadmin.scheduler().save(job("broken", "/2/data/message/2"));
+
+		// the job is tried twice then fails
+		// retries do not move the task schedule
+		SpaceTask broken = superadmin.scheduler().execute("broken");
+		task = waitForTask(superadmin, "broken", broken.id);
+		assertEquals(Status.failed, task.status);
+		assertEquals(2, task.tries);
+		assertEquals(broken.scheduled.getMillis(), task.scheduled.getMillis());
+		assertNotNull(task.retryAt);
+		assertTrue(task.retryAt.isAfter(task.scheduled));
+		assertEquals("request failed with status [404]", task.error);
+
+		// failed tasks are kept in history until deleted
+		assertEquals(broken.id, superadmin.scheduler().tasks("broken").get(0).id);
+		superadmin.scheduler().deleteTask("broken", broken.id);
+		assertHttpError(404, () -> superadmin.scheduler().getTask("broken", broken.id));
+
+		// tasks of other jobs are not found
+		assertHttpError(404, () -> superadmin.scheduler().getTask("broken", helloTaskId));
+
+		// superadmin deletes jobs
+		superadmin.scheduler().delete("hello");
+		superadmin.scheduler().delete("broken");
+		assertHttpError(404, () -> superadmin.scheduler().get("hello"));
+		assertEquals(0, superadmin.scheduler().list().size());
+	}
+
+	private BasicSpaceJob job(String name, String path) {
+		BasicSpaceJob job = new BasicSpaceJob();
+		job.name = name;
+		job.method = "GET";
+		job.path = path;
+		job.retries = 1;
+		job.timeoutInSeconds = 30;
+		return job;
+	}
+
+	/**
+	 * Retries are tried again after at least 10 seconds
+	 */
+	private SpaceTask waitForTask(SpaceDog superadmin, String jobName, String taskId) //
+			throws InterruptedException {
+
+		for (int attempt = 0; attempt < 300; attempt++) {
+			SpaceTask task = superadmin.scheduler().getTask(jobName, taskId);
+			if (!Status.scheduled.equals(task.status) //
+					&& !Status.in_progress.equals(task.status))
+				return task;
+			Thread.sleep(100);
+		}
+		throw failure("task [%s] of job [%s] not done after 300 attempts", taskId, jobName);
+	}
+}
@@ -18,6 +18,7 @@ import io.spacedog.client.elastic.ESSortBuilders;
 import io.spacedog.client.elastic.ESSortOrder;
 import io.spacedog.client.http.SpaceEnv;
 import io.spacedog.client.http.SpaceHeaders;
+import io.spacedog.client.http.SpaceResponse;
 import io.spacedog.client.log.LogItem;
 import io.spacedog.client.log.LogSearchResults;
 import io.spacedog.test.Message;
@@ -93,6 +94,37 @@ public class LogRestyTest extends SpaceTest {
 
 	}
 
+	@Test
+	public void purgeBackendLogsAsynchronously() throws InterruptedException {
+
+		// prepare
+		prepareTest();
+		SpaceDog superadmin = clearServer();
+		superadmin.data().prepareGetAll().go();
+		superadmin.data().prepareGetAll().go();
+		DateTime before = DateTime.now();
+
+		// superadmin submits a throttled purge of all logs
+		SpaceResponse response = superadmin.delete("/2/logs")//
+				.queryParam(BEFORE_PARAM, before.toString())//
+				.queryParam(WAIT_FOR_COMPLETION_PARAM, false)//
+				.queryParam(REQUESTS_PER_SECOND_PARAM, 100)//
+				.go(202);
+
+		String taskId = response.getString("taskId");
+		assertTrue(response.get("droppedPartitions").isArray());
+
+		ObjectNode status = waitForTask(superadmin, taskId);
+		assertEquals(0, status.get("failures").size());
+		assertTrue(status.get("error").isNull());
+
+		// only logs received after purge are left
+		LogSearchResults log = superadmin.logs().get(10, true);
+		assertEquals("/2/logs", log.results.get(log.results.size() - 1).path);
+		for (LogItem item : log.results)
+			assertTrue(item.receivedAt.isAfter(before));
+	}
+
 	@Test
 	public void searchInLogs() {
 